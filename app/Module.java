@@ -3,8 +3,18 @@ import com.google.inject.AbstractModule;
 import controllers.ContentController;
 import play.Logger;
 import services.dataAccess.AbstractDataAccess;
+import services.dataAccess.CachingAccessObject;
+import services.dataAccess.ClusterRedisAccessObject;
 import services.dataAccess.InMemoryAccessObject;
+import services.dataAccess.MappedFileAccessObject;
+import services.dataAccess.MetricsAccessObject;
+import services.dataAccess.OffHeapAccessObject;
 import services.dataAccess.RedisAccessObject;
+import services.dataAccess.ShardedRedisAccessObject;
+import static services.PublicConstants.DATA_SOURCE;
+import static services.PublicConstants.NEAR_CACHE_BYTES;
+import static services.PublicConstants.REDIS_CLUSTER_URL;
+import static services.PublicConstants.REDIS_URLS;
 import static services.PublicConstants.RUNTIME_ENVIRONMENT;
 
 /**
@@ -19,13 +29,44 @@ import static services.PublicConstants.RUNTIME_ENVIRONMENT;
  */
 public class Module extends AbstractModule {
 
+    private static final long DEFAULT_NEAR_CACHE_BYTES = 64 << 20;
+
     @Override
     public void configure() {
 
-        // If running in production, use redis as data store. Otherwise, use InMemory data store
+        // If running in production, use redis as data store, on a Redis Cluster if one is given, or sharded across
+        // several instances if more than one is given, and behind a local cache of pages unless its size is set to
+        // zero. Otherwise, use InMemory data store, keeping postLists off-heap or persisting them to memory-mapped
+        // files if requested
         String runtime_env = System.getenv(RUNTIME_ENVIRONMENT);
+        String data_source = System.getenv(DATA_SOURCE);
         if (runtime_env != null && runtime_env.equals("production")) {
-            bind(AbstractDataAccess.class).to(RedisAccessObject.class).asEagerSingleton();
+            String near_cache_bytes = System.getenv(NEAR_CACHE_BYTES);
+            long nearCacheBytes = near_cache_bytes != null ? Long.parseLong(near_cache_bytes) : DEFAULT_NEAR_CACHE_BYTES;
+
+            String redis_cluster_url = System.getenv(REDIS_CLUSTER_URL);
+            String redis_urls = System.getenv(REDIS_URLS);
+            AbstractDataAccess redis;
+            if (redis_cluster_url != null) {
+                redis = new ClusterRedisAccessObject();
+            } else if (redis_urls != null && redis_urls.contains(",")) {
+                redis = new ShardedRedisAccessObject();
+            } else {
+                redis = new RedisAccessObject();
+            }
+
+            // latencies are recorded beneath the near cache, so they are those of Redis itself
+            redis = new MetricsAccessObject(redis);
+
+            if (nearCacheBytes > 0) {
+                bind(AbstractDataAccess.class).toInstance(new CachingAccessObject(redis, nearCacheBytes));
+            } else {
+                bind(AbstractDataAccess.class).toInstance(redis);
+            }
+        } else if (data_source != null && data_source.equals("offheap")) {
+            bind(AbstractDataAccess.class).to(OffHeapAccessObject.class).asEagerSingleton();
+        } else if (data_source != null && data_source.equals("mmap")) {
+            bind(AbstractDataAccess.class).to(MappedFileAccessObject.class).asEagerSingleton();
         } else {
             bind(AbstractDataAccess.class).to(InMemoryAccessObject.class).asEagerSingleton();
         }
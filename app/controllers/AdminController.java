@@ -0,0 +1,54 @@
+package controllers;
+
+import com.google.gson.Gson;
+import play.Logger;
+import play.mvc.*;
+import services.dataAccess.AbstractDataAccess;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+import static services.PublicConstants.ADMIN_TOKEN;
+
+/**
+ * Serves internal statistics of the data store. As these name endpoints and reveal load, the admin routes are only
+ * served when an admin token is configured, and only to requests presenting that token in the X-Admin-Token header;
+ * otherwise they respond as if they did not exist.
+ */
+@Singleton
+public class AdminController extends Controller {
+
+    private static final String ADMIN_TOKEN_HEADER = "X-Admin-Token";
+
+    private AbstractDataAccess dataSource;
+    private Gson gson = new Gson();
+    private final byte[] adminToken;
+
+    @Inject
+    public AdminController(AbstractDataAccess dataSource) {
+        this.dataSource = dataSource;
+
+        String token = System.getenv(ADMIN_TOKEN);
+        adminToken = token == null || token.isEmpty() ? null : token.getBytes(StandardCharsets.UTF_8);
+    }
+
+    public Result dataStore() {
+        if (adminToken == null) {
+            return notFound();
+        }
+
+        String token = request().getHeader(ADMIN_TOKEN_HEADER);
+
+        // compared in constant time, so response times do not reveal how much of a guessed token is right
+        if (token == null || !MessageDigest.isEqual(adminToken, token.getBytes(StandardCharsets.UTF_8))) {
+            Logger.warn("Unauthorized request for data store statistics");
+            return unauthorized();
+        }
+
+        Logger.debug("Data store statistics requested");
+
+        return ok(gson.toJson(dataSource.getStatistics())).as("application/json");
+    }
+}
@@ -0,0 +1,47 @@
+package controllers;
+
+import play.mvc.Action;
+import play.mvc.Http;
+import play.mvc.Result;
+import services.dataAccess.AbstractDataAccess;
+
+import javax.inject.Inject;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import static play.mvc.Http.HeaderNames.ETAG;
+import static play.mvc.Http.HeaderNames.IF_NONE_MATCH;
+import static play.mvc.Http.Status.NOT_MODIFIED;
+
+/**
+ * Action tagging content responses with the published generation of sorted channels as their ETag, and answering
+ * requests for an unchanged generation with 304 Not Modified. The generation is read before the content, so content
+ * is never older than its tag. Responses are not tagged before the first generation is published.
+ */
+public class GenerationETagAction extends Action.Simple {
+
+    private AbstractDataAccess dataSource;
+
+    @Inject
+    public GenerationETagAction(AbstractDataAccess dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    @Override
+    public CompletionStage<Result> call(Http.Context ctx) {
+        long generation = dataSource.getPublishedGeneration();
+
+        if (generation == 0) {
+            return delegate.call(ctx);
+        }
+
+        String etag = "\"" + generation + "\"";
+        ctx.response().setHeader(ETAG, etag);
+
+        if (etag.equals(ctx.request().getHeader(IF_NONE_MATCH))) {
+            return CompletableFuture.completedFuture(status(NOT_MODIFIED));
+        } else {
+            return delegate.call(ctx);
+        }
+    }
+}
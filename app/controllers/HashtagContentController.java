@@ -8,13 +8,17 @@ import services.serializer.JsonSerializer;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import java.util.List;
 import java.util.Optional;
 
+import static services.PublicConstants.MAX_PAGES_PER_REQUEST;
+
 /**
  * This controller contains an action to handle HTTP requests
  * to the application's home page.
  */
 @Singleton
+@With(GenerationETagAction.class)
 public class HashtagContentController extends Controller {
 
     private final AbstractDataAccess dataSource;
@@ -53,4 +57,35 @@ public class HashtagContentController extends Controller {
         }
     }
 
+    /**
+     * An action that renders the pages from index from through index to of hashtag content in a single
+     * response, so that clients can fetch several pages ahead in one request. At most
+     * MAX_PAGES_PER_REQUEST pages are returned.
+     */
+
+    public Result range(String hashtag, String from, String to) {
+        int fromPage;
+        int toPage;
+
+        try {
+            fromPage = Integer.parseInt(from);
+            toPage = Integer.parseInt(to);
+        } catch (NumberFormatException nfE) {
+            Logger.debug("Hashtag Content invalid page range: " + nfE.getMessage());
+            return badRequest();
+        }
+
+        Logger.debug("Hashtag Content Range Requested");
+
+        // cap number of pages served in a single response
+        int lastPage = Math.min(toPage, fromPage + MAX_PAGES_PER_REQUEST - 1);
+        List<PostList> hashtagContent = dataSource.getHashTagPostLists(hashtag, fromPage, lastPage);
+
+        if (!hashtagContent.isEmpty()) {
+            return ok(serializer.serializePostLists(hashtagContent));
+        } else {
+            return noContent();
+        }
+    }
+
 }
@@ -8,8 +8,10 @@ import services.serializer.JsonSerializer;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import java.util.List;
 import java.util.Optional;
 
+import static services.PublicConstants.MAX_PAGES_PER_REQUEST;
 import static services.PublicConstants.TOP;
 
 /**
@@ -17,6 +19,7 @@ import static services.PublicConstants.TOP;
  * to the application's home page.
  */
 @Singleton
+@With(GenerationETagAction.class)
 public class TopContentController extends Controller {
 
     private AbstractDataAccess dataSource;
@@ -55,4 +58,35 @@ public class TopContentController extends Controller {
 
     }
 
+    /**
+     * An action that renders the pages from index from through index to of top content in a single
+     * response, so that clients can fetch several pages ahead in one request. At most
+     * MAX_PAGES_PER_REQUEST pages are returned.
+     */
+
+    public Result range(String from, String to) {
+        int fromPage;
+        int toPage;
+
+        try {
+            fromPage = Integer.parseInt(from);
+            toPage = Integer.parseInt(to);
+        } catch (NumberFormatException nfE) {
+            Logger.debug("Top Content invalid page range: " + nfE.getMessage());
+            return badRequest();
+        }
+
+        Logger.debug("Top Content Range Requested");
+
+        // cap number of pages served in a single response
+        int lastPage = Math.min(toPage, fromPage + MAX_PAGES_PER_REQUEST - 1);
+        List<PostList> topContent = dataSource.getDisplayPostLists(TOP, fromPage, lastPage);
+
+        if (!topContent.isEmpty()) {
+            return ok(serializer.serializePostLists(topContent));
+        } else {
+            return noContent();
+        }
+    }
+
 }
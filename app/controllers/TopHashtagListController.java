@@ -11,6 +11,7 @@ import javax.inject.Singleton;
 import java.util.List;
 
 @Singleton
+@With(GenerationETagAction.class)
 public class TopHashtagListController extends Controller{
 
     private AbstractDataAccess dataSource;
@@ -8,7 +8,9 @@ import services.serializer.JsonSerializer;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import java.util.List;
 import java.util.Optional;
+import static services.PublicConstants.MAX_PAGES_PER_REQUEST;
 import static services.PublicConstants.TRENDING;
 
 /**
@@ -16,6 +18,7 @@ import static services.PublicConstants.TRENDING;
  * to the application's home page.
  */
 @Singleton
+@With(GenerationETagAction.class)
 public class TrendingContentController extends Controller {
 
     private AbstractDataAccess dataSource;
@@ -54,4 +57,35 @@ public class TrendingContentController extends Controller {
         }
     }
 
+    /**
+     * An action that renders the pages from index from through index to of trending content in a single
+     * response, so that clients can fetch several pages ahead in one request. At most
+     * MAX_PAGES_PER_REQUEST pages are returned.
+     */
+
+    public Result range(String from, String to) {
+        int fromPage;
+        int toPage;
+
+        try {
+            fromPage = Integer.parseInt(from);
+            toPage = Integer.parseInt(to);
+        } catch (NumberFormatException nfE) {
+            Logger.debug("Trending Content invalid page range: " + nfE.getMessage());
+            return badRequest();
+        }
+
+        Logger.debug("Trending Content Range Requested");
+
+        // cap number of pages served in a single response
+        int lastPage = Math.min(toPage, fromPage + MAX_PAGES_PER_REQUEST - 1);
+        List<PostList> trendingContent = dataSource.getDisplayPostLists(TRENDING, fromPage, lastPage);
+
+        if (!trendingContent.isEmpty()) {
+            return ok(serializer.serializePostLists(trendingContent));
+        } else {
+            return noContent();
+        }
+    }
+
 }
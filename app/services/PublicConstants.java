@@ -3,6 +3,7 @@ package services;
 public class PublicConstants {
     // runtime environment switch
     public static final String RUNTIME_ENVIRONMENT = "runtime_env";
+    public static final String ADMIN_TOKEN = "admin_token";  // token required by admin routes, which are off if unset
 
     // http method
     public static final String HTTP_GET = "GET";
@@ -32,13 +33,26 @@ public class PublicConstants {
     public static final String DATA_SOURCE = "data_source";
     public static final String REDIS_URL = "redis_url";
     public static final String REDIS_PORT = "redis_port";
+    public static final String REDIS_URLS = "redis_urls";  // comma-separated host:port of each Redis shard
+    public static final String REDIS_REPLICA_URLS = "redis_replica_urls";  // comma-separated host:port of each replica
+    public static final String REDIS_CLUSTER_URL = "redis_cluster_url";  // host:port of any node of a Redis Cluster
+    public static final String REDIS_MAX_CONNECTIONS = "redis_max_connections";  // maximum connections per instance
+    public static final String REDIS_MAX_IDLE = "redis_max_idle";  // maximum idle connections kept per instance
+    public static final String REDIS_MIN_IDLE = "redis_min_idle";  // minimum idle connections kept per instance
+    public static final String REDIS_BORROW_TIMEOUT = "redis_borrow_timeout";  // ms to wait for a free connection
+    public static final String REDIS_TIMEOUT = "redis_timeout";  // ms to wait to connect to or hear from an instance
+    public static final String MAPPED_FILE_DIRECTORY = "mapped_file_dir";
+    public static final String PAGE_CODEC = "page_codec";  // "deflate" to compress stored pages, otherwise raw
+    public static final String NEAR_CACHE_BYTES = "near_cache_bytes";
 
     public static final String TOP = "top";
     public static final String TRENDING = "trending";
     public static final String TOP_HASHTAGS = "tophashtags";
+    public static final int MAX_PAGES_PER_REQUEST = 10;  // maximum number of pages served by a single range request
 
     // sorting
     public static final String SORTING_NODE_INPUT_THRESHOLD = "sorting_threshold";
     public static final String POSTS_PER_PAGE = "posts_per_page";
+    public static final String SCORE_MODE = "score_mode";  // "hot" for time-invariant popularity scores, otherwise linear
     public static final int NUM_TOP_HASHTAGS = 10;
 }
@@ -38,12 +38,13 @@ public abstract class AbstractDataCollector {
 	public abstract List<Post> fetch();
 
 	/**
-	 * Store a list of posts within the data storage
+	 * Store a list of posts within the data storage. Posts fetched again before being sorted update the waiting
+	 * post rather than being queued twice
 	 * @param posts
-	 * @return the new size of the list of posts after the list is added
+	 * @return the number of posts added to the queue of the source
 	 */
 	public long store(List<Post> posts){
-		return dataAccess.addNewPostsFromSource(getSource().getSourceName(), posts);
+		return dataAccess.upsertPostsFromSource(getSource().getSourceName(), posts);
 	}
 
 }
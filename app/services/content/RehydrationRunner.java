@@ -94,7 +94,8 @@ public class RehydrationRunner implements Runnable {
                 idIterator = trackedIds.iterator();
             }
         }
-        dataAccess.addNewPostsFromSource(source.getSourceName(), source.rehydrate(hydrateIds));
+        // rehydrated posts update their counterparts still waiting to be sorted, rather than being queued again
+        dataAccess.upsertPostsFromSource(source.getSourceName(), source.rehydrate(hydrateIds));
     }
 
     private void logRehydration(int num) {
@@ -4,8 +4,16 @@ import services.dataAccess.proto.PostListProto.PostList;
 import services.dataAccess.proto.PostProto.Post;
 import static services.PublicConstants.TOP_HASHTAGS;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 public abstract class AbstractDataAccess {
@@ -14,12 +22,80 @@ public abstract class AbstractDataAccess {
 
     private static final String DISPLAY_NAMESPACE = "display";
     private static final String HASHTAG_NAMESPACE = "hashtag";
-    private static final String SOURCE_NAMESPACE = "source";
+    static final String SOURCE_NAMESPACE = "source";
     private static final String TEST_NAMESPACE = "test";
 
     private static final String STRING_LIST_NAMESPACE = "stringlist";
+
+    // display, hashtag and string list keys of a sorted generation are prefixed by the generation, e.g. display:g42:top
+    private static final String GENERATION_NAMESPACE = "generation";
+    private static final String POINTER_NAMESPACE = "pointer";
+    private static final String GENERATION_PREFIX = "g";
+    static final String PUBLISHED_GENERATION = GENERATION_NAMESPACE + NAMESPACE_DELIMITER + "published";
+    static final String NEXT_GENERATION = GENERATION_NAMESPACE + NAMESPACE_DELIMITER + "next";
+    static final String LAST_HASHTAG_SWEEP = GENERATION_NAMESPACE + NAMESPACE_DELIMITER + "swept";
+
+    // the version of the pointer of a channel, e.g. pointer:display:top, packs the generations of its two latest
+    // versions, the previous one in the high POINTER_SHIFT bits and the latest one in the low bits
+    private static final int POINTER_SHIFT = 32;
+    private static final long LATEST_GENERATION_MASK = (1L << POINTER_SHIFT) - 1;
+
+    static final long GENERATION_CHECK_INTERVAL = 1000;         // milliseconds before the published generation is read
+    private static final int MAX_KNOWN_CHANNELS = 10000;        // channel keys held for the published generation
+
+    // number of posts waiting in source queues, updated by every write to and removal from a source queue as part of
+    // the same operation, so that the counter cannot miss a write made by a process which then stops
+    private static final String COUNTER_NAMESPACE = "counter";
+    static final String PENDING_POSTS = COUNTER_NAMESPACE + NAMESPACE_DELIMITER + SOURCE_NAMESPACE;
+
     static final Integer MAX_POSTLISTS = 1000;
+    static final int KEY_TIMEOUT = 86400; // number of seconds from postList update or access to expiry
+
+    // policy of namespaces without a policy of their own
+    private static final RetentionPolicy DEFAULT_RETENTION_POLICY =
+            new RetentionPolicy(KEY_TIMEOUT, MAX_POSTLISTS, true);
+
+    private final Map<String, RetentionPolicy> retentionPolicies = new ConcurrentHashMap<>();
+
+    // published generation as last read, along with the key of each channel looked up in it since
+    private volatile KnownGeneration knownGeneration;
+
+    private static final class KnownGeneration {
+        final long generation;
+        final long checkedAt;
+        final Map<String, String> channelKeys = new ConcurrentHashMap<>();
 
+        KnownGeneration(long generation, long checkedAt) {
+            this.generation = generation;
+            this.checkedAt = checkedAt;
+        }
+
+        void remember(String pointerKey, String keyString) {
+            // keys are dropped all at once if there are too many, and looked up again as they are next read
+            if (channelKeys.size() >= MAX_KNOWN_CHANNELS) {
+                channelKeys.clear();
+            }
+            channelKeys.put(pointerKey, keyString);
+        }
+    }
+
+    protected AbstractDataAccess() {
+        // string lists are replaced wholesale on every sort and should not expire between sorts
+        retentionPolicies.put(STRING_LIST_NAMESPACE,
+                new RetentionPolicy(RetentionPolicy.NO_EXPIRY, MAX_POSTLISTS, false));
+
+        // generation counters must outlive every generation they point to
+        retentionPolicies.put(GENERATION_NAMESPACE,
+                new RetentionPolicy(RetentionPolicy.NO_EXPIRY, MAX_POSTLISTS, false));
+
+        // pointers are only rewritten along with their channels, so outlive channels read for days but not rewritten
+        retentionPolicies.put(POINTER_NAMESPACE,
+                new RetentionPolicy(7 * KEY_TIMEOUT, MAX_POSTLISTS, false));
+
+        // counters must not expire while the posts they count are still queued
+        retentionPolicies.put(COUNTER_NAMESPACE,
+                new RetentionPolicy(RetentionPolicy.NO_EXPIRY, MAX_POSTLISTS, false));
+    }
 
     /**
      * Adds a new post to this data store's list of posts (end of queue) under a particular key.
@@ -50,6 +126,17 @@ public abstract class AbstractDataAccess {
      */
     abstract protected Optional<Post> popFirstPost(String keyString);
 
+    /**
+     * Adds a series of posts to the list of posts at keyString, deduplicated by post ID. A post whose ID is already
+     * waiting in the list, having been added by upsertPosts, replaces the waiting post without changing its position;
+     * posts with other IDs are appended in order. Posts are returned in their latest version when removed.
+     *
+     * @param keyString   string denoting key in data store
+     * @param listOfPosts list of Post objects to be stored
+     * @return number of posts appended to the list at keyString
+     */
+    abstract protected long upsertPosts(String keyString, List<Post> listOfPosts);
+
     /**
      * Retrieves all Posts under a particular keyString
      *
@@ -68,6 +155,28 @@ public abstract class AbstractDataAccess {
      */
     abstract protected String deleteFirstNPosts(String keyString, Integer numPosts); // todo: change return type
 
+    /**
+     * Retrieves and removes up to maxPosts posts from the beginning of the queue at keyString, as a single atomic
+     * operation. Posts appended to the queue concurrently are either returned in full or left in the queue, and a post
+     * is never returned by more than one call.
+     *
+     * @param keyString string denoting key in data store
+     * @param maxPosts  maximum number of posts to be retrieved and removed
+     * @return the first (up to) maxPosts posts under keyString, in order; empty list if keyString does not exist
+     */
+    abstract protected List<Post> drainPosts(String keyString, int maxPosts);
+
+    /**
+     * Whether posts queued at keyString are counted by the counter read by getNumPostsInSources. Primitives adding
+     * posts to or removing posts from such a queue must update the counter under PENDING_POSTS in the same operation.
+     *
+     * @param keyString string denoting key in data store (complete with namespace and delimiter)
+     * @return true if keyString is a queue under the source namespace
+     */
+    protected static boolean isCountedQueue(String keyString) {
+        return keyString.startsWith(SOURCE_NAMESPACE + NAMESPACE_DELIMITER);
+    }
+
     /**
      * Adds a new postList entity to the beginning of this data store's list of postLists under a particular key.
      * If no key exists, a key-value pair is created and postList is stored at the beginning of the new value list.
@@ -78,6 +187,17 @@ public abstract class AbstractDataAccess {
      */
     abstract protected long addNewPostList(String keyString, PostList postList);
 
+    /**
+     * Adds a series of postList entities to the beginning of this data store's list of postLists under a particular
+     * key, as a single operation. After insertion, the first postList in postLists is at the beginning of the list, and
+     * the list is truncated to its maximum size. If no key exists, a key-value pair is created.
+     *
+     * @param keyString string denoting key in data store
+     * @param postLists postList entities to be entered, in order, at beginning of list under keyString
+     * @return size of list at keyString after insertion of new postLists
+     */
+    abstract protected long addNewPostLists(String keyString, List<PostList> postLists);
+
     /**
      * Retrieves, but does not remove postList entity at specified index of the stack at keyString in data store
      * If key does not exist, or list is empty, returns the empty optional
@@ -97,6 +217,38 @@ public abstract class AbstractDataAccess {
      */
     abstract protected List<PostList> getAllPostLists(String keyString);
 
+    /**
+     * Retrieves, but does not remove all postLists under each of several keyStrings in data store, in as few round
+     * trips to the data store as it allows
+     *
+     * @param keyStrings strings denoting keys in data store
+     * @return map of each keyString, in order, to the list of all postList entities under it; empty list if the key
+     * does not exist
+     */
+    abstract protected Map<String, List<PostList>> getAllPostLists(List<String> keyStrings);
+
+    /**
+     * Retrieves, but does not remove the postLists from index from to index to (inclusive) under keyString in data
+     * store, in a single read. Indices past the end of the list are ignored.
+     *
+     * @param keyString string denoting key in data store
+     * @param from      index of first desired postList under key
+     * @param to        index of last desired postList under key (inclusive)
+     * @return the postLists between from and to under keyString, in order; empty list if none exist
+     */
+    abstract protected List<PostList> getPostListRange(String keyString, int from, int to);
+
+    /**
+     * Returns an iterator over all postLists under keyString in data store, in order. PostLists are read from the data
+     * store in windows of chunkSize and parsed lazily, so that at most one window is held in memory at a time. If the
+     * list under keyString is modified during iteration, the iterator may reflect some of those modifications.
+     *
+     * @param keyString string denoting key in data store
+     * @param chunkSize maximum number of postLists read from the data store at once
+     * @return iterator over the postLists under keyString; empty iterator if key does not exist
+     */
+    abstract protected Iterator<PostList> iteratePostLists(String keyString, int chunkSize);
+
     /**
      * Returns the number of posts within a particular namespace within the data store. If namespace does not exist,
      * returns 0.
@@ -149,6 +301,94 @@ public abstract class AbstractDataAccess {
      */
     abstract protected long replacePostLists(String keyString, List<PostList> postLists);
 
+    /**
+     * Replaces the list of postLists at each of several keyStrings with the specified list of postLists, in as few
+     * round trips to the data store as it allows. Each list is replaced as by replacePostLists; the batch as a whole is
+     * not atomic.
+     *
+     * @param postListsByKey map of keyStrings to the list of postLists replacing the existing postLists
+     * @return total number of postLists stored under the keyStrings after replacement
+     */
+    abstract protected long replacePostLists(Map<String, List<PostList>> postListsByKey);
+
+    /**
+     * Replaces the list at toKeyString with a copy of the list at fromKeyString, whether a list of postLists or of
+     * strings, without reading the list out of the data store. Copying a list which does not exist empties the list at
+     * toKeyString.
+     *
+     * @param fromKeyString key string of the list to be copied
+     * @param toKeyString   key string of the list to be replaced by the copy
+     * @return length of the list at toKeyString after copying
+     */
+    abstract protected long copyList(String fromKeyString, String toKeyString);
+
+    /**
+     * Retrieves the version of the list at keyString. Writers call incrementVersion after changing the list, so that
+     * readers holding a copy of the list can tell whether it is still current.
+     *
+     * @param keyString key string in data store
+     * @return version of the list at keyString, or 0 if its version has never been incremented
+     */
+    abstract protected long getVersion(String keyString);
+
+    /**
+     * Increments the version of the list at keyString, to signal that the list has changed
+     *
+     * @param keyString key string in data store
+     * @return new version of the list at keyString
+     */
+    abstract protected long incrementVersion(String keyString);
+
+    /**
+     * Increments the versions of several lists at once, in as few round trips to the data store as it allows
+     *
+     * @param keyStrings key strings in data store
+     * @return map of each keyString to the new version of its list
+     */
+    abstract protected Map<String, Long> incrementVersions(List<String> keyStrings);
+
+    /**
+     * Sets the version of the list at keyString. Used for counters which are not versions of a list, such as the
+     * published generation.
+     *
+     * @param keyString key string in data store
+     * @param version   new version of the list at keyString
+     */
+    abstract protected void setVersion(String keyString, long version);
+
+    /**
+     * Retrieves the versions of several lists at once, in as few round trips to the data store as it allows
+     *
+     * @param keyStrings key strings in data store
+     * @return map of each keyString to the version of its list, or 0 if its version has never been set
+     */
+    abstract protected Map<String, Long> getVersions(List<String> keyStrings);
+
+    /**
+     * Sets the versions of several lists at once, in as few round trips to the data store as it allows
+     *
+     * @param versionsByKey map of key strings in data store to the new version of each
+     */
+    abstract protected void setVersions(Map<String, Long> versionsByKey);
+
+    /**
+     * Atomically adds delta (which may be negative) to the version at keyString. Used for counters which are not
+     * versions of a list, such as the number of posts waiting in source queues.
+     *
+     * @param keyString key string in data store
+     * @param delta     amount to add to the version at keyString
+     * @return new version at keyString
+     */
+    abstract protected long addToVersion(String keyString, long delta);
+
+    /**
+     * Deletes the list at keyString along with its version. As the version restarts if the list is created again, only
+     * lists which are never written again, such as those of old generations, should be deleted.
+     *
+     * @param keyString key string in data store
+     */
+    abstract protected void deleteList(String keyString);
+
     /**
      * Adds a new post to this data store's list of posts (end of queue) under a particular key in the source namespace.
      * If no key exists, a key-value pair is created and Post is the first element in the value list.
@@ -173,6 +413,19 @@ public abstract class AbstractDataAccess {
         return addNewPosts(SOURCE_NAMESPACE + NAMESPACE_DELIMITER + source, listOfPosts);
     }
 
+    /**
+     * Adds a series of posts to this data store's list of posts at a key under the source namespace, deduplicated by
+     * post ID. A post fetched again while still waiting in the queue replaces the waiting post in place, so that its
+     * engagement counters are updated rather than the post queued twice; posts with new IDs are appended in order.
+     *
+     * @param source      string denoting key in data store
+     * @param listOfPosts list of posts to append to, or update in, value list at key
+     * @return number of posts appended to the list of posts at source under source namespace
+     */
+    public long upsertPostsFromSource(String source, List<Post> listOfPosts) {
+        return upsertPosts(SOURCE_NAMESPACE + NAMESPACE_DELIMITER + source, listOfPosts);
+    }
+
     /**
      * Adds a new postList entity to the beginning of this data store's list of postLists under a particular key in the
      * display namespace. If no key exists, a key-value pair is created and postList is stored at the beginning of
@@ -183,7 +436,20 @@ public abstract class AbstractDataAccess {
      * @return size of list at displayString under display namespace after insertion of new postList
      */
     public long addNewDisplayPostList(String displayString, PostList postList) {
-        return addNewPostList(DISPLAY_NAMESPACE + NAMESPACE_DELIMITER + displayString, postList);
+        return addNewPostList(channelKey(DISPLAY_NAMESPACE, displayString), postList);
+    }
+
+    /**
+     * Adds a series of postList entities to the beginning of this data store's list of postLists under a particular key
+     * in the display namespace, as a single operation. After insertion, the first postList in postLists is at the
+     * beginning of the list.
+     *
+     * @param displayString string denoting key in data store
+     * @param postLists     postList entities to be entered, in order, at beginning of list under displayString
+     * @return size of list at displayString under display namespace after insertion of new postLists
+     */
+    public long addNewDisplayPostLists(String displayString, List<PostList> postLists) {
+        return addNewPostLists(channelKey(DISPLAY_NAMESPACE, displayString), postLists);
     }
 
     /**
@@ -194,7 +460,7 @@ public abstract class AbstractDataAccess {
      * @return size of list after replacement
      */
     public long replaceDisplayPostLists(String displayString, List<PostList> postLists) {
-        return replacePostLists(DISPLAY_NAMESPACE + NAMESPACE_DELIMITER + displayString, postLists);
+        return replacePostLists(channelKey(DISPLAY_NAMESPACE, displayString), postLists);
     }
 
     /**
@@ -207,7 +473,7 @@ public abstract class AbstractDataAccess {
      * @return size of list at specified hashtag under hashtag namespace after insertion of new postList
      */
     public long addNewHashTagPostList(String hashtag, PostList postList) {
-        return addNewPostList(HASHTAG_NAMESPACE + NAMESPACE_DELIMITER + hashtag, postList);
+        return addNewPostList(channelKey(HASHTAG_NAMESPACE, hashtag), postList);
     }
 
     /**
@@ -218,7 +484,22 @@ public abstract class AbstractDataAccess {
      * @return size of list after insert
      */
     public long replaceHashTagPostLists(String hashtag, List<PostList> postLists) {
-        return replacePostLists(HASHTAG_NAMESPACE + NAMESPACE_DELIMITER + hashtag, postLists);
+        return replacePostLists(channelKey(HASHTAG_NAMESPACE, hashtag), postLists);
+    }
+
+    /**
+     * Replaces the postLists of several hashtags in the hashtag namespace at once
+     *
+     * @param postListsByHashtag map of hashtag strings to the list of postlists to be stored under that hashtag
+     * @return total number of postLists stored under the hashtags after replacement
+     */
+    public long replaceHashTagPostLists(Map<String, List<PostList>> postListsByHashtag) {
+        Map<String, String> keysByHashtag = channelKeys(HASHTAG_NAMESPACE, postListsByHashtag.keySet());
+
+        Map<String, List<PostList>> postListsByKey = new LinkedHashMap<>();
+        postListsByHashtag.forEach((hashtag, postLists) -> postListsByKey.put(keysByHashtag.get(hashtag), postLists));
+
+        return replacePostLists(postListsByKey);
     }
 
     /**
@@ -232,6 +513,18 @@ public abstract class AbstractDataAccess {
         return getAllPosts(SOURCE_NAMESPACE + NAMESPACE_DELIMITER + source);
     }
 
+    /**
+     * Retrieves and removes up to maxPosts posts from the beginning of the queue at source under the source namespace,
+     * as a single atomic operation.
+     *
+     * @param source   string denoting key under source namespace in data store
+     * @param maxPosts maximum number of posts to be retrieved and removed
+     * @return the first (up to) maxPosts posts at source, in order; empty list if source does not exist
+     */
+    public List<Post> drainSource(String source, int maxPosts) {
+        return drainPosts(SOURCE_NAMESPACE + NAMESPACE_DELIMITER + source, maxPosts);
+    }
+
     /**
      * Retrieves and removes post from the beginning of the queue at keyString in data store
      * If key does not exist, or list is empty, returns the empty optional
@@ -250,7 +543,24 @@ public abstract class AbstractDataAccess {
      * @return list of all posts stored under that hashtag
      */
     public List<PostList> getAllHashtagPostLists(String hashtag) {
-        return getAllPostLists(HASHTAG_NAMESPACE + NAMESPACE_DELIMITER + hashtag);
+        return getAllPostLists(channelKey(HASHTAG_NAMESPACE, hashtag));
+    }
+
+    /**
+     * Retrieves all PostLists under each of several hashtags in the hashtag namespace at once
+     *
+     * @param hashtags strings denoting keys under hashtag namespace in data store
+     * @return map of each hashtag, in order, to the list of all postLists stored under it
+     */
+    public Map<String, List<PostList>> getAllHashtagPostLists(List<String> hashtags) {
+        Map<String, String> hashtagsByKey = new LinkedHashMap<>();
+        channelKeys(HASHTAG_NAMESPACE, hashtags).forEach((hashtag, keyString) -> hashtagsByKey.put(keyString, hashtag));
+
+        Map<String, List<PostList>> postListsByHashtag = new LinkedHashMap<>();
+        getAllPostLists(new ArrayList<>(hashtagsByKey.keySet())).forEach((keyString, postLists) ->
+                postListsByHashtag.put(hashtagsByKey.get(keyString), postLists));
+
+        return postListsByHashtag;
     }
 
     /**
@@ -260,7 +570,7 @@ public abstract class AbstractDataAccess {
      * @return number of post list entities stored under a particular hashtag
      */
     public long getNumHashTagPostLists(String hashtag) {
-        return getListSize(HASHTAG_NAMESPACE + NAMESPACE_DELIMITER + hashtag);
+        return getListSize(channelKey(HASHTAG_NAMESPACE, hashtag));
     }
 
     /**
@@ -273,7 +583,21 @@ public abstract class AbstractDataAccess {
      * or the empty optional if not available
      */
     public Optional<PostList> getDisplayPostList(String displayString, Integer index) {
-        return getPostList(DISPLAY_NAMESPACE + NAMESPACE_DELIMITER + displayString, index);
+        return getPostList(channelKey(DISPLAY_NAMESPACE, displayString), index);
+    }
+
+    /**
+     * Retrieves, but does not remove the postList entities from index from to index to (inclusive) from the stack at
+     * source under the display namespace in data store, in a single read.
+     *
+     * @param displayString string denoting desired display key in data store
+     * @param from          index of first desired postList under key
+     * @param to            index of last desired postList under key (inclusive)
+     * @return the elements between from and to of displayString under display namespace in data store, in order;
+     * empty list if none are available
+     */
+    public List<PostList> getDisplayPostLists(String displayString, int from, int to) {
+        return getPostListRange(channelKey(DISPLAY_NAMESPACE, displayString), from, to);
     }
 
     /**
@@ -285,7 +609,20 @@ public abstract class AbstractDataAccess {
      * @return The first element under keyString in data store, or the empty optional if not available
      */
     public Optional<PostList> getHashTagPostList(String hashtag, Integer index) {
-        return getPostList(HASHTAG_NAMESPACE + NAMESPACE_DELIMITER + hashtag, index);
+        return getPostList(channelKey(HASHTAG_NAMESPACE, hashtag), index);
+    }
+
+    /**
+     * Retrieves, but does not remove the postList entities from index from to index to (inclusive) within data store
+     * under the hashtag namespace, in a single read.
+     *
+     * @param hashtag string denoting key in data store
+     * @param from    index of first desired postList
+     * @param to      index of last desired postList (inclusive)
+     * @return the elements between from and to under hashtag, in order; empty list if none are available
+     */
+    public List<PostList> getHashTagPostLists(String hashtag, int from, int to) {
+        return getPostListRange(channelKey(HASHTAG_NAMESPACE, hashtag), from, to);
     }
 
     /**
@@ -296,16 +633,56 @@ public abstract class AbstractDataAccess {
      * @return list of postLists under that particular display name
      */
     public List<PostList> getAllDisplayPostLists(String displayName) {
-        return getAllPostLists(DISPLAY_NAMESPACE + NAMESPACE_DELIMITER + displayName);
+        return getAllPostLists(channelKey(DISPLAY_NAMESPACE, displayName));
     }
 
     /**
-     * Uses getNumPostsInNameSpace to retrieve the number of posts within the 'source' namespace
+     * Returns an iterator over all postList entities under the specified name within data store under display
+     * namespace, reading at most chunkSize postLists from the data store at once.
+     *
+     * @param displayName name of display list
+     * @param chunkSize   maximum number of postLists read from the data store at once
+     * @return iterator over the postLists under that particular display name
+     */
+    public Iterator<PostList> iterateDisplayPostLists(String displayName, int chunkSize) {
+        return iteratePostLists(channelKey(DISPLAY_NAMESPACE, displayName), chunkSize);
+    }
+
+    /**
+     * Returns an iterator over all postList entities under a particular hashtag in the hashtag namespace, reading at
+     * most chunkSize postLists from the data store at once.
+     *
+     * @param hashtag   string denoting key under hashtag namespace in data store
+     * @param chunkSize maximum number of postLists read from the data store at once
+     * @return iterator over the postLists stored under that hashtag
+     */
+    public Iterator<PostList> iterateHashtagPostLists(String hashtag, int chunkSize) {
+        return iteratePostLists(channelKey(HASHTAG_NAMESPACE, hashtag), chunkSize);
+    }
+
+    /**
+     * Retrieves the number of posts within the 'source' namespace from a counter, in a single read. Every primitive
+     * adding posts to or removing posts from a queue under the source namespace updates the counter by the number of
+     * posts it actually added or removed, in the same operation. The counter drifts from the true number only if
+     * source queues expire or are changed by other means; recountPostsInSources corrects it.
      *
      * @return the number of posts within the source namespace
      */
     public long getNumPostsInSources() {
-        return getNumPostsInNameSpace(SOURCE_NAMESPACE);
+        return Math.max(getVersion(PENDING_POSTS), 0);
+    }
+
+    /**
+     * Uses getNumPostsInNameSpace to count every post within the 'source' namespace, and resets the counter read by
+     * getNumPostsInSources to the result. Posts added to or drained from source queues while counting may be missed.
+     *
+     * @return the number of posts within the source namespace
+     */
+    public long recountPostsInSources() {
+        long numPosts = getNumPostsInNameSpace(SOURCE_NAMESPACE);
+        setVersion(PENDING_POSTS, numPosts);
+
+        return numPosts;
     }
 
     /**
@@ -325,9 +702,232 @@ public abstract class AbstractDataAccess {
      * @return A list containing all available hashtags.
      */
     public List<String> getAllHashTags() {
-        return getKeysInNameSpace(HASHTAG_NAMESPACE).stream()
-                .map(s -> s.substring(s.indexOf(NAMESPACE_DELIMITER) + 1))
-                .collect(Collectors.toList());
+        return getChannelsOfGenerations(HASHTAG_NAMESPACE, 0, getPublishedGeneration());
+    }
+
+    /**
+     * Retrieves the generation of sorted channels currently served to readers. Generations only change when the sorter
+     * publishes a complete new one, so the generation can be used to tell whether any channel may have changed. The
+     * generation is read from the data store at most once every GENERATION_CHECK_INTERVAL milliseconds.
+     *
+     * @return the published generation, or 0 if no generation has been published
+     */
+    public long getPublishedGeneration() {
+        return currentGeneration().generation;
+    }
+
+    /**
+     * Retrieves the time at which a sorter last swept stale hashtag channels, as recorded by setLastHashtagSweep. The
+     * time is kept in the data store, so is shared by every sorter and survives restarts.
+     *
+     * @return time of the last sweep, in milliseconds since the epoch, or 0 if no sweep has been recorded
+     */
+    public long getLastHashtagSweep() {
+        return getVersion(LAST_HASHTAG_SWEEP);
+    }
+
+    /**
+     * Records the time at which a sorter swept stale hashtag channels
+     *
+     * @param sweptAt time of the sweep, in milliseconds since the epoch
+     */
+    public void setLastHashtagSweep(long sweptAt) {
+        setVersion(LAST_HASHTAG_SWEEP, sweptAt);
+    }
+
+    /**
+     * Publishes a generation, so that readers of this object see it at once and other readers of the data store within
+     * GENERATION_CHECK_INTERVAL milliseconds
+     *
+     * @param generation generation to be served to readers
+     */
+    void setPublishedGeneration(long generation) {
+        setVersion(PUBLISHED_GENERATION, generation);
+        knownGeneration = new KnownGeneration(generation, System.currentTimeMillis());
+    }
+
+    /**
+     * Returns the key of a display, hashtag or string list channel. Channels are read from and written to their latest
+     * version in the published generation, as given by their pointer; channels without a pointer, written before any
+     * generation was published, have no generation prefix.
+     *
+     * @param nameSpace namespace of the channel
+     * @param name      name of the channel, without namespace or delimiter
+     * @return key string of the channel in the data store
+     */
+    protected String channelKey(String nameSpace, String name) {
+        KnownGeneration known = currentGeneration();
+        String pointerKey = getPointerKey(nameSpace, name);
+
+        String keyString = known.channelKeys.get(pointerKey);
+        if (keyString == null) {
+            keyString = getGenerationKey(nameSpace, getGenerationOfChannel(getVersion(pointerKey), known.generation),
+                    name);
+            known.remember(pointerKey, keyString);
+        }
+
+        return keyString;
+    }
+
+    /**
+     * Returns the keys of several channels of a namespace, as channelKey does, reading the pointers of every channel
+     * not looked up recently at once
+     *
+     * @param nameSpace namespace of the channels
+     * @param names     names of the channels, without namespace or delimiter
+     * @return map of each name, in order, to the key string of its channel in the data store
+     */
+    protected Map<String, String> channelKeys(String nameSpace, Collection<String> names) {
+        KnownGeneration known = currentGeneration();
+        Map<String, String> keysByName = new LinkedHashMap<>();
+        Map<String, String> unknownNames = new LinkedHashMap<>();
+
+        for (String name : names) {
+            String pointerKey = getPointerKey(nameSpace, name);
+            String keyString = known.channelKeys.get(pointerKey);
+
+            keysByName.put(name, keyString);
+            if (keyString == null) {
+                unknownNames.put(pointerKey, name);
+            }
+        }
+
+        if (!unknownNames.isEmpty()) {
+            getVersions(new ArrayList<>(unknownNames.keySet())).forEach((pointerKey, pointer) -> {
+                String name = unknownNames.get(pointerKey);
+                String keyString = getGenerationKey(nameSpace, getGenerationOfChannel(pointer, known.generation), name);
+
+                keysByName.put(name, keyString);
+                known.remember(pointerKey, keyString);
+            });
+        }
+
+        return keysByName;
+    }
+
+    /**
+     * Returns the published generation, as last read from the data store, reading it again if it was last read more
+     * than GENERATION_CHECK_INTERVAL milliseconds ago. Channel keys looked up before are then looked up again, as
+     * generations published since may have moved them.
+     */
+    private KnownGeneration currentGeneration() {
+        KnownGeneration known = knownGeneration;
+        long now = System.currentTimeMillis();
+
+        if (known == null || now - known.checkedAt >= GENERATION_CHECK_INTERVAL) {
+            known = new KnownGeneration(getVersion(PUBLISHED_GENERATION), now);
+            knownGeneration = known;
+        }
+
+        return known;
+    }
+
+    /**
+     * Retrieves the names (without namespace, generation or delimiter) of every channel in a namespace with a version
+     * in a range of generations, each name once
+     *
+     * @param nameSpace      namespace of the channels
+     * @param fromGeneration first generation of the range, or 0 to include channels written before any generation
+     * @param toGeneration   last generation of the range
+     * @return names of the channels in nameSpace with a version in the range
+     */
+    List<String> getChannelsOfGenerations(String nameSpace, long fromGeneration, long toGeneration) {
+        Set<String> names = new LinkedHashSet<>();
+
+        for (String keyString : getKeysInNameSpace(nameSpace)) {
+            long keyGeneration = getGenerationOfKey(keyString);
+
+            if (keyGeneration >= fromGeneration && keyGeneration <= toGeneration) {
+                names.add(keyString.substring(getGenerationKey(nameSpace, keyGeneration, "").length()));
+            }
+        }
+
+        return new ArrayList<>(names);
+    }
+
+    /**
+     * Returns the key whose version is the pointer of a channel, packing the generations of the two latest versions of
+     * the channel
+     *
+     * @param nameSpace namespace of the channel
+     * @param name      name of the channel, without namespace or delimiter
+     * @return key string of the pointer of the channel
+     */
+    static String getPointerKey(String nameSpace, String name) {
+        return POINTER_NAMESPACE + NAMESPACE_DELIMITER + nameSpace + NAMESPACE_DELIMITER + name;
+    }
+
+    /**
+     * Packs the generations of the two latest versions of a channel into the value of its pointer
+     *
+     * @param previousGeneration generation of the version before the latest, or 0 if there is none
+     * @param latestGeneration   generation of the latest version
+     * @return value of the pointer
+     */
+    static long packPointer(long previousGeneration, long latestGeneration) {
+        return previousGeneration << POINTER_SHIFT | latestGeneration;
+    }
+
+    static long getPreviousGeneration(long pointer) {
+        return pointer >>> POINTER_SHIFT;
+    }
+
+    static long getLatestGeneration(long pointer) {
+        return pointer & LATEST_GENERATION_MASK;
+    }
+
+    /**
+     * Returns the generation of the version of a channel served to readers of a published generation: the latest
+     * version, unless it was written by a generation not yet published, in which case the version before it
+     *
+     * @param pointer             value of the pointer of the channel, or 0 if it has none
+     * @param publishedGeneration generation published to the readers
+     * @return generation of the version read, or 0 for the version without a generation prefix
+     */
+    static long getGenerationOfChannel(long pointer, long publishedGeneration) {
+        long latestGeneration = getLatestGeneration(pointer);
+        return latestGeneration <= publishedGeneration ? latestGeneration : getPreviousGeneration(pointer);
+    }
+
+    /**
+     * Returns the key of a channel in a particular generation
+     *
+     * @param nameSpace  namespace of the channel
+     * @param generation generation of the channel, or 0 for no generation
+     * @param name       name of the channel, without namespace or delimiter
+     * @return key string of the channel in generation
+     */
+    static String getGenerationKey(String nameSpace, long generation, String name) {
+        if (generation == 0) {
+            return nameSpace + NAMESPACE_DELIMITER + name;
+        } else {
+            return nameSpace + NAMESPACE_DELIMITER + GENERATION_PREFIX + generation + NAMESPACE_DELIMITER + name;
+        }
+    }
+
+    /**
+     * Returns the generation a key belongs to
+     *
+     * @param keyString string denoting key in data store (complete with namespace and delimiter)
+     * @return generation of keyString, or 0 if keyString has no generation prefix
+     */
+    static long getGenerationOfKey(String keyString) {
+        int prefixStart = keyString.indexOf(NAMESPACE_DELIMITER) + 1;
+        int prefixEnd = keyString.indexOf(NAMESPACE_DELIMITER, prefixStart);
+
+        if (prefixStart == 0 || prefixEnd < 0 || !keyString.startsWith(GENERATION_PREFIX, prefixStart)
+                || prefixEnd == prefixStart + GENERATION_PREFIX.length()) {
+            return 0;
+        }
+
+        String digits = keyString.substring(prefixStart + GENERATION_PREFIX.length(), prefixEnd);
+        for (int i = 0; i < digits.length(); i++) {
+            if (!Character.isDigit(digits.charAt(i))) {
+                return 0;
+            }
+        }
+
+        return Long.parseLong(digits);
     }
 
     /**
@@ -337,7 +937,7 @@ public abstract class AbstractDataAccess {
      * @return first numTopHashtags hashtags in the top hashtag list
      */
     public List<String> getTopHashTags(int numTopHashtags) {
-        return getStringList(STRING_LIST_NAMESPACE + NAMESPACE_DELIMITER + TOP_HASHTAGS, numTopHashtags);
+        return getStringList(channelKey(STRING_LIST_NAMESPACE, TOP_HASHTAGS), numTopHashtags);
     }
 
     /**
@@ -347,7 +947,7 @@ public abstract class AbstractDataAccess {
      * @return new length of top hashtag list
      */
     public long addTopHashtags(List<String> topHashTags) {
-        return replaceStringList(STRING_LIST_NAMESPACE + NAMESPACE_DELIMITER + TOP_HASHTAGS, topHashTags);
+        return replaceStringList(channelKey(STRING_LIST_NAMESPACE, TOP_HASHTAGS), topHashTags);
     }
 
     /**
@@ -362,6 +962,58 @@ public abstract class AbstractDataAccess {
         return deleteFirstNPosts(SOURCE_NAMESPACE + NAMESPACE_DELIMITER + source, numPosts);
     }
 
+    /**
+     * Sets the retention policy of a namespace, governing the time to live and maximum number of PostLists of every
+     * key in that namespace. The policy applies to keys from their next write or access.
+     *
+     * @param nameSpace string corresponding to the desired namespace (proceeds namespace delimiter in any unique key)
+     * @param policy    retention policy of keys in nameSpace
+     */
+    public void setRetentionPolicy(String nameSpace, RetentionPolicy policy) {
+        retentionPolicies.put(nameSpace, policy);
+    }
+
+    /**
+     * Retrieves the retention policy of a namespace
+     *
+     * @param nameSpace string corresponding to the desired namespace (proceeds namespace delimiter in any unique key)
+     * @return retention policy of keys in nameSpace, or the default policy if none has been set
+     */
+    public RetentionPolicy getRetentionPolicy(String nameSpace) {
+        return retentionPolicies.getOrDefault(nameSpace, DEFAULT_RETENTION_POLICY);
+    }
+
+    /**
+     * Reports the health of this data store, such as the usage of its connection pools or the latency of its
+     * operations, for monitoring. Values are numbers, strings, lists or nested maps, so the result serializes to JSON.
+     *
+     * @return statistics of this data store keyed by name, or an empty map if it keeps none
+     */
+    public Map<String, Object> getStatistics() {
+        return new LinkedHashMap<>();
+    }
+
+    /**
+     * Retrieves the retention policy of the namespace a key belongs to
+     *
+     * @param keyString string denoting key in data store (complete with namespace and delimiter)
+     * @return retention policy of keyString
+     */
+    protected RetentionPolicy getRetentionPolicyOfKey(String keyString) {
+        return getRetentionPolicy(getNameSpaceOfKey(keyString));
+    }
+
+    /**
+     * Returns the namespace of a key; that is, the part of the key before the first namespace delimiter
+     *
+     * @param keyString string denoting key in data store (complete with namespace and delimiter)
+     * @return namespace of keyString
+     */
+    static String getNameSpaceOfKey(String keyString) {
+        int delimiterIndex = keyString.indexOf(NAMESPACE_DELIMITER);
+        return delimiterIndex < 0 ? keyString : keyString.substring(0, delimiterIndex);
+    }
+
     /*
      * Static getters
      */
@@ -370,6 +1022,10 @@ public abstract class AbstractDataAccess {
         return MAX_POSTLISTS;
     }
 
+    public static RetentionPolicy getDefaultRetentionPolicy() {
+        return DEFAULT_RETENTION_POLICY;
+    }
+
     public static String getTestNamespace() {
         return TEST_NAMESPACE;
     }
@@ -0,0 +1,331 @@
+package services.dataAccess;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import services.dataAccess.proto.PostListProto.PostList;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Data store decorator keeping a bounded, local cache of decoded pages and string lists in front of another (usually
+ * remote) data store, so that repeated page requests are served without a round trip or a protobuf parse.
+ * <p>
+ * Every write to a list through this object increments the version of that list in the underlying data store, and
+ * each cached entry remembers the version of the list it was read from. Entries are served only while their list is
+ * still at that version. This process sees its own writes immediately; writes made by other processes are noticed the
+ * next time the version of the list is checked, at most VERSION_CHECK_INTERVAL milliseconds later. Lists which have
+ * never been versioned are not cached. When the cache exceeds its maximum weight (approximately the serialized size
+ * of its entries), the least recently used entries are evicted. Versions read through this object, such as the
+ * published generation, are checked at the same interval.
+ * <p>
+ * Entries are held in a Guava cache split into independently locked segments, so concurrent readers do not contend
+ * on a single lock. Each segment evicts on its own, so eviction is least recently used within a segment; caches too
+ * small to give each segment room for many entries are kept in a single segment.
+ */
+public class CachingAccessObject extends ForwardingAccessObject {
+
+    static final long VERSION_CHECK_INTERVAL = 1000;         // milliseconds
+    private static final long MAX_ENTRY_AGE = 3600000;       // milliseconds before an entry is always reloaded
+    private static final int ENTRY_OVERHEAD = 64;            // approximate bytes of bookkeeping per entry
+    private static final int MAX_KNOWN_VERSIONS = 100000;
+    private static final int CONCURRENCY_LEVEL = 16;          // independently locked segments of a large cache
+    private static final long MIN_SEGMENT_WEIGHT = 1 << 20;   // approximate bytes below which a segment is too small
+
+    private final long maxWeight;
+    private final AtomicLong weight = new AtomicLong();
+
+    private final Cache<String, Entry> entries;
+    private final ConcurrentMap<String, KnownVersion> versions = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private static final class Entry {
+        final long version;
+        final Object value;
+        final int weight;
+
+        Entry(long version, Object value, int weight) {
+            this.version = version;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    private static final class KnownVersion {
+        final long version;
+        final long checkedAt;
+
+        KnownVersion(long version, long checkedAt) {
+            this.version = version;
+            this.checkedAt = checkedAt;
+        }
+    }
+
+    /**
+     * @param delegate  data store holding the lists
+     * @param maxWeight maximum total weight of cached entries, in approximate bytes
+     */
+    public CachingAccessObject(AbstractDataAccess delegate, long maxWeight) {
+        super(delegate);
+        this.maxWeight = maxWeight;
+
+        entries = CacheBuilder.newBuilder()
+                .concurrencyLevel(maxWeight >= CONCURRENCY_LEVEL * MIN_SEGMENT_WEIGHT ? CONCURRENCY_LEVEL : 1)
+                .maximumWeight(maxWeight)
+                .weigher((String entryKey, Entry entry) -> entry.weight)
+                .expireAfterWrite(MAX_ENTRY_AGE, TimeUnit.MILLISECONDS)
+                .removalListener(removal -> weight.addAndGet(-removal.getValue().weight))
+                .build();
+    }
+
+    @Override
+    protected long addNewPostList(String keyString, PostList postList) {
+        long size = super.addNewPostList(keyString, postList);
+        bumpVersion(keyString);
+        return size;
+    }
+
+    @Override
+    protected long addNewPostLists(String keyString, List<PostList> postLists) {
+        long size = super.addNewPostLists(keyString, postLists);
+        bumpVersion(keyString);
+        return size;
+    }
+
+    @Override
+    protected long replacePostLists(String keyString, List<PostList> postLists) {
+        long size = super.replacePostLists(keyString, postLists);
+        bumpVersion(keyString);
+        return size;
+    }
+
+    @Override
+    protected long replacePostLists(Map<String, List<PostList>> postListsByKey) {
+        long size = super.replacePostLists(postListsByKey);
+
+        // versions of the whole batch are incremented in a single round trip
+        long now = System.currentTimeMillis();
+        super.incrementVersions(new ArrayList<>(postListsByKey.keySet())).forEach((keyString, version) ->
+                versions.put(keyString, new KnownVersion(version, now)));
+        return size;
+    }
+
+    @Override
+    protected long copyList(String fromKeyString, String toKeyString) {
+        long size = super.copyList(fromKeyString, toKeyString);
+        bumpVersion(toKeyString);
+        return size;
+    }
+
+    @Override
+    protected long replaceStringList(String keyString, List<String> stringList) {
+        long size = super.replaceStringList(keyString, stringList);
+        bumpVersion(keyString);
+        return size;
+    }
+
+    @Override
+    protected void deleteList(String keyString) {
+        super.deleteList(keyString);
+        versions.remove(keyString);
+    }
+
+    @Override
+    protected long getVersion(String keyString) {
+        return currentVersion(keyString, System.currentTimeMillis());
+    }
+
+    @Override
+    protected void setVersion(String keyString, long version) {
+        super.setVersion(keyString, version);
+        versions.put(keyString, new KnownVersion(version, System.currentTimeMillis()));
+    }
+
+    @Override
+    protected Map<String, Long> getVersions(List<String> keyStrings) {
+        long now = System.currentTimeMillis();
+        Map<String, Long> versionsByKey = new LinkedHashMap<>();
+        List<String> uncheckedKeys = new ArrayList<>();
+
+        for (String keyString : keyStrings) {
+            KnownVersion known = versions.get(keyString);
+
+            if (known != null && now - known.checkedAt < VERSION_CHECK_INTERVAL) {
+                versionsByKey.put(keyString, known.version);
+            } else {
+                versionsByKey.put(keyString, null);
+                uncheckedKeys.add(keyString);
+            }
+        }
+
+        if (!uncheckedKeys.isEmpty()) {
+            super.getVersions(uncheckedKeys).forEach((keyString, version) -> {
+                versionsByKey.put(keyString, version);
+                versions.put(keyString, new KnownVersion(version, now));
+            });
+        }
+
+        return versionsByKey;
+    }
+
+    @Override
+    protected void setVersions(Map<String, Long> versionsByKey) {
+        super.setVersions(versionsByKey);
+
+        long now = System.currentTimeMillis();
+        versionsByKey.forEach((keyString, version) -> versions.put(keyString, new KnownVersion(version, now)));
+    }
+
+    @Override
+    protected long addToVersion(String keyString, long delta) {
+        long version = super.addToVersion(keyString, delta);
+        versions.put(keyString, new KnownVersion(version, System.currentTimeMillis()));
+
+        return version;
+    }
+
+    @Override
+    protected Optional<PostList> getPostList(String keyString, Integer index) {
+        return cached(keyString, keyString + "#" + index, () -> super.getPostList(keyString, index),
+                postList -> postList.map(PostList::getSerializedSize).orElse(0));
+    }
+
+    @Override
+    protected List<PostList> getPostListRange(String keyString, int from, int to) {
+        List<PostList> postLists = cached(keyString, keyString + "#" + from + ":" + to,
+                () -> Collections.unmodifiableList(super.getPostListRange(keyString, from, to)),
+                list -> list.stream().mapToInt(PostList::getSerializedSize).sum());
+
+        return new ArrayList<>(postLists);
+    }
+
+    @Override
+    protected List<String> getStringList(String keyString, long length) {
+        List<String> stringList = cached(keyString, keyString + "#strings:" + length,
+                () -> Collections.unmodifiableList(super.getStringList(keyString, length)),
+                list -> list.stream().mapToInt(string -> 2 * string.length()).sum());
+
+        return new ArrayList<>(stringList);
+    }
+
+    /**
+     * @return number of reads served from the cache
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return number of reads forwarded to the underlying data store
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return approximate number of bytes held by cached entries
+     */
+    public long getWeight() {
+        return weight.get();
+    }
+
+    @Override
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> cache = new LinkedHashMap<>();
+        cache.put("hits", getHitCount());
+        cache.put("misses", getMissCount());
+        cache.put("weight", getWeight());
+        cache.put("maxWeight", maxWeight);
+
+        Map<String, Object> statistics = super.getStatistics();
+        statistics.put("nearCache", cache);
+        return statistics;
+    }
+
+    /**
+     * Serves a value from the cache if it was read from the current version of its list, and otherwise loads it from
+     * the underlying data store and caches it. The version is read before the value, so a cached value is never older
+     * than the version it is recorded against.
+     *
+     * @param keyString key string of the list the value is read from
+     * @param entryKey  key of the value in the cache
+     * @param loader    reads the value from the underlying data store
+     * @param weigher   approximate size of the value in bytes
+     * @return the value, from the cache or the underlying data store
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T cached(String keyString, String entryKey, Supplier<T> loader, Weigher<T> weigher) {
+        long now = System.currentTimeMillis();
+        long version = currentVersion(keyString, now);
+
+        Entry entry = entries.getIfPresent(entryKey);
+
+        if (entry != null && entry.version == version) {
+            hits.incrementAndGet();
+            return (T) entry.value;
+        }
+
+        misses.incrementAndGet();
+        T value = loader.get();
+
+        // unversioned lists may be changed by writers which do not increment versions, so cannot be cached safely
+        if (version > 0) {
+            long entryWeight = (long) weigher.weigh(value) + ENTRY_OVERHEAD + 2 * entryKey.length();
+            put(entryKey, version, value, entryWeight);
+        }
+
+        return value;
+    }
+
+    private void put(String entryKey, long version, Object value, long entryWeight) {
+        if (entryWeight > Math.min(maxWeight, Integer.MAX_VALUE)) {
+            return;
+        }
+
+        // weight is added before the entry, so the weight of an entry evicted at once is never taken away first
+        weight.addAndGet(entryWeight);
+        entries.put(entryKey, new Entry(version, value, (int) entryWeight));
+    }
+
+    /**
+     * Returns the version of a list, as last read from the underlying data store, reading it again if it was last
+     * read more than VERSION_CHECK_INTERVAL milliseconds ago
+     */
+    private long currentVersion(String keyString, long now) {
+        KnownVersion known = versions.get(keyString);
+
+        if (known != null && now - known.checkedAt < VERSION_CHECK_INTERVAL) {
+            return known.version;
+        }
+
+        long version = super.getVersion(keyString);
+        versions.put(keyString, new KnownVersion(version, now));
+
+        // versions checked more than VERSION_CHECK_INTERVAL ago would be read again anyway
+        if (versions.size() > MAX_KNOWN_VERSIONS) {
+            versions.values().removeIf(knownVersion -> now - knownVersion.checkedAt >= VERSION_CHECK_INTERVAL);
+        }
+
+        return version;
+    }
+
+    /**
+     * Increments the version of a list after this process has written to it, so that its own entries for the list
+     * are never served again
+     */
+    private void bumpVersion(String keyString) {
+        long version = super.incrementVersion(keyString);
+        versions.put(keyString, new KnownVersion(version, System.currentTimeMillis()));
+    }
+
+    @FunctionalInterface
+    private interface Weigher<T> {
+        int weigh(T value);
+    }
+}
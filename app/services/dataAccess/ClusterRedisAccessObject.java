@@ -0,0 +1,207 @@
+package services.dataAccess;
+
+import play.Logger;
+import redis.clients.jedis.BinaryJedisCluster;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.exceptions.JedisAskDataException;
+import redis.clients.jedis.exceptions.JedisClusterException;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisMovedDataException;
+import redis.clients.util.JedisClusterCRC16;
+import redis.clients.util.SafeEncoder;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static services.PublicConstants.REDIS_CLUSTER_URL;
+
+/**
+ * Data store on a Redis Cluster. Each key is sent directly to the master node serving its hash slot, as listed by the
+ * cluster, so every transaction runs on a single node. Within a transaction, every key written alongside a list (its
+ * version, and the staging key of a replacement) wraps the key of the list in a hash tag, so hashes to the same slot
+ * as the list. Operations over a whole namespace send one pipeline to each master node.
+ * <p>
+ * The slot of each node is read when this object is created, and read again whenever a node answers that a slot has
+ * moved (MOVED), for example after a node is added; the operation is then run again on the node now serving the slot.
+ * While a slot is being migrated, an operation on a key which has already left the slot (ASK) is run again on the
+ * node importing the slot, after telling the node that the request was redirected (ASKING). Operations, including
+ * transactions, follow at most MAX_REDIRECTS redirects.
+ */
+public class ClusterRedisAccessObject extends ShardedRedisAccessObject {
+
+    private static final int MAX_REDIRECTS = 5; // number of times an operation is run again after a redirect
+
+    // reads the reply of a node, given as host:port, to CLUSTER SLOTS
+    private final Function<String, List<Object>> clusterSlots;
+
+    // index, in the list of endpoints, of the master node serving each hash slot, or -1 if no node serves it; replaced
+    // as a whole when the slots are read again
+    private volatile int[] slotShards;
+
+    // slot and node index of the ASK redirect being followed by the current thread, if any
+    private final ThreadLocal<int[]> askRedirect = new ThreadLocal<>();
+
+    public ClusterRedisAccessObject() {
+        this(System.getenv(REDIS_CLUSTER_URL));
+    }
+
+    /**
+     * @param seedEndpoint host:port of any node of the cluster; the port defaults to the Redis default port if omitted
+     */
+    public ClusterRedisAccessObject(String seedEndpoint) {
+        this(seedEndpoint, ClusterRedisAccessObject::readClusterSlots);
+    }
+
+    /**
+     * @param seedEndpoint host:port of any node of the cluster; the port defaults to the Redis default port if omitted
+     * @param clusterSlots reads the reply of a node, given as host:port, to CLUSTER SLOTS
+     */
+    protected ClusterRedisAccessObject(String seedEndpoint, Function<String, List<Object>> clusterSlots) {
+        this(readSlotRanges(seedEndpoint.trim(), clusterSlots), clusterSlots);
+    }
+
+    private ClusterRedisAccessObject(Map<String, List<int[]>> slotRanges,
+                                     Function<String, List<Object>> clusterSlots) {
+        super(new ArrayList<>(slotRanges.keySet()), true);
+
+        this.clusterSlots = clusterSlots;
+        this.slotShards = slotShardsOf(slotRanges);
+    }
+
+    @Override
+    protected int shardIndexOf(String keyString) {
+        int slot = JedisClusterCRC16.getSlot(keyString);
+
+        // a key of a slot being migrated, which has already left its node, is served by the node importing the slot
+        int[] ask = askRedirect.get();
+        if (ask != null && ask[0] == slot) {
+            return ask[1];
+        }
+
+        int shard = slotShards[slot];
+        if (shard < 0) {
+            throw new JedisClusterException("No node of the Redis Cluster serves slot " + slot);
+        }
+        return shard;
+    }
+
+    @Override
+    protected <T> T redirected(Supplier<T> operation) {
+        int[] ask = null;
+
+        for (int redirects = 0; ; redirects++) {
+            askRedirect.set(ask);
+
+            try {
+                return ask == null ? operation.get() : getShard(ask[1]).asking(operation);
+            } catch (JedisAskDataException askData) {
+                if (redirects >= MAX_REDIRECTS) {
+                    throw askData;
+                }
+                ask = new int[]{askData.getSlot(), connect(endpointOf(askData.getTargetNode()))};
+            } catch (JedisMovedDataException moved) {
+                if (redirects >= MAX_REDIRECTS) {
+                    throw moved;
+                }
+                ask = null;
+                refreshSlots();
+            } finally {
+                askRedirect.remove();
+            }
+        }
+    }
+
+    /**
+     * Reads the slot of each master node again, from the first node of the cluster which can be reached, and connects
+     * to any master node not yet known
+     *
+     * @return true if the master node serving any slot has changed
+     */
+    public synchronized boolean refreshSlots() {
+        for (String endpoint : getEndpoints()) {
+            Map<String, List<int[]>> slotRanges;
+
+            try {
+                slotRanges = readSlotRanges(endpoint, clusterSlots);
+            } catch (JedisConnectionException jCE) {
+                Logger.warn("Could not read the slots of the Redis Cluster from " + endpoint);
+                continue;
+            }
+
+            int[] previous = slotShards;
+            slotShards = slotShardsOf(slotRanges);
+            return !Arrays.equals(previous, slotShards);
+        }
+
+        throw new JedisClusterException("No node of the Redis Cluster could be reached");
+    }
+
+    /**
+     * @param slotRanges host:port of each master node, mapped to the ranges of slots it serves
+     * @return index, in the list of endpoints, of the master node serving each hash slot, or -1 if no node serves it
+     */
+    private int[] slotShardsOf(Map<String, List<int[]>> slotRanges) {
+        int[] shards = new int[BinaryJedisCluster.HASHSLOTS];
+        Arrays.fill(shards, -1);
+
+        slotRanges.forEach((endpoint, ranges) -> {
+            int shard = connect(endpoint);
+            for (int[] range : ranges) {
+                Arrays.fill(shards, range[0], range[1] + 1, shard);
+            }
+        });
+
+        return shards;
+    }
+
+    private static String endpointOf(HostAndPort node) {
+        return node.getHost() + ":" + node.getPort();
+    }
+
+    /**
+     * Asks a node of the cluster for the master node serving each range of hash slots
+     *
+     * @param endpoint     host:port of any node of the cluster
+     * @param clusterSlots reads the reply of a node to CLUSTER SLOTS
+     * @return host:port of each master node, mapped to the ranges of slots it serves as {first, last} pairs
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, List<int[]>> readSlotRanges(String endpoint,
+                                                           Function<String, List<Object>> clusterSlots) {
+        Map<String, List<int[]>> slotRanges = new LinkedHashMap<>();
+        int portIndex = endpoint.lastIndexOf(':');
+        String nodeHost = portIndex < 0 ? endpoint : endpoint.substring(0, portIndex);
+
+        // each entry holds the first and last slot of a range, then the master and replicas serving the range
+        for (Object slotInfo : clusterSlots.apply(endpoint)) {
+            List<Object> range = (List<Object>) slotInfo;
+            List<Object> master = (List<Object>) range.get(2);
+
+            // a node which does not know its own address reports an empty host for itself
+            String host = SafeEncoder.encode((byte[]) master.get(0));
+            String masterEndpoint = (host.isEmpty() ? nodeHost : host) + ":" + master.get(1);
+
+            slotRanges.computeIfAbsent(masterEndpoint, node -> new ArrayList<>())
+                    .add(new int[]{((Long) range.get(0)).intValue(), ((Long) range.get(1)).intValue()});
+        }
+
+        return slotRanges;
+    }
+
+    /**
+     * @param endpoint host:port of a node of the cluster; the port defaults to the Redis default port if omitted
+     * @return reply of the node to CLUSTER SLOTS
+     */
+    private static List<Object> readClusterSlots(String endpoint) {
+        int portIndex = endpoint.lastIndexOf(':');
+        String host = portIndex < 0 ? endpoint : endpoint.substring(0, portIndex);
+        int port = portIndex < 0 ? Protocol.DEFAULT_PORT : Integer.parseInt(endpoint.substring(portIndex + 1));
+
+        try (Jedis node = new Jedis(host, port)) {
+            return node.clusterSlots();
+        }
+    }
+}
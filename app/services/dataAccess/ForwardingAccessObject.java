@@ -0,0 +1,207 @@
+package services.dataAccess;
+
+import services.dataAccess.proto.PostListProto.PostList;
+import services.dataAccess.proto.PostProto.Post;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Data store which forwards every operation to another data store. Decorators extend this class and override only
+ * the operations they change. Retention policies belong to the underlying data store, which applies them.
+ */
+public abstract class ForwardingAccessObject extends AbstractDataAccess {
+
+    private final AbstractDataAccess delegate;
+
+    /**
+     * @param delegate data store to which every operation is forwarded
+     */
+    protected ForwardingAccessObject(AbstractDataAccess delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * @return data store to which every operation is forwarded
+     */
+    public AbstractDataAccess getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    protected long addNewPost(String keyString, Post post) {
+        return delegate.addNewPost(keyString, post);
+    }
+
+    @Override
+    protected long addNewPosts(String keyString, List<Post> listOfPosts) {
+        return delegate.addNewPosts(keyString, listOfPosts);
+    }
+
+    @Override
+    protected long upsertPosts(String keyString, List<Post> listOfPosts) {
+        return delegate.upsertPosts(keyString, listOfPosts);
+    }
+
+    @Override
+    protected Optional<Post> popFirstPost(String keyString) {
+        return delegate.popFirstPost(keyString);
+    }
+
+    @Override
+    protected List<Post> getAllPosts(String keyString) {
+        return delegate.getAllPosts(keyString);
+    }
+
+    @Override
+    protected String deleteFirstNPosts(String keyString, Integer numPosts) {
+        return delegate.deleteFirstNPosts(keyString, numPosts);
+    }
+
+    @Override
+    protected List<Post> drainPosts(String keyString, int maxPosts) {
+        return delegate.drainPosts(keyString, maxPosts);
+    }
+
+    @Override
+    protected long addNewPostList(String keyString, PostList postList) {
+        return delegate.addNewPostList(keyString, postList);
+    }
+
+    @Override
+    protected long addNewPostLists(String keyString, List<PostList> postLists) {
+        return delegate.addNewPostLists(keyString, postLists);
+    }
+
+    @Override
+    protected Optional<PostList> getPostList(String keyString, Integer index) {
+        return delegate.getPostList(keyString, index);
+    }
+
+    @Override
+    protected List<PostList> getAllPostLists(String keyString) {
+        return delegate.getAllPostLists(keyString);
+    }
+
+    @Override
+    protected Map<String, List<PostList>> getAllPostLists(List<String> keyStrings) {
+        return delegate.getAllPostLists(keyStrings);
+    }
+
+    @Override
+    protected List<PostList> getPostListRange(String keyString, int from, int to) {
+        return delegate.getPostListRange(keyString, from, to);
+    }
+
+    @Override
+    protected Iterator<PostList> iteratePostLists(String keyString, int chunkSize) {
+        return delegate.iteratePostLists(keyString, chunkSize);
+    }
+
+    @Override
+    public long getNumPostsInNameSpace(String nameSpace) {
+        return delegate.getNumPostsInNameSpace(nameSpace);
+    }
+
+    @Override
+    public List<String> getKeysInNameSpace(String nameSpace) {
+        return delegate.getKeysInNameSpace(nameSpace);
+    }
+
+    @Override
+    public long getNumPostsInSources() {
+        return delegate.getNumPostsInSources();
+    }
+
+    @Override
+    public long recountPostsInSources() {
+        return delegate.recountPostsInSources();
+    }
+
+    @Override
+    protected long getListSize(String keyString) {
+        return delegate.getListSize(keyString);
+    }
+
+    @Override
+    protected List<String> getStringList(String keyString, long length) {
+        return delegate.getStringList(keyString, length);
+    }
+
+    @Override
+    protected long replaceStringList(String keyString, List<String> stringList) {
+        return delegate.replaceStringList(keyString, stringList);
+    }
+
+    @Override
+    protected long replacePostLists(String keyString, List<PostList> postLists) {
+        return delegate.replacePostLists(keyString, postLists);
+    }
+
+    @Override
+    protected long replacePostLists(Map<String, List<PostList>> postListsByKey) {
+        return delegate.replacePostLists(postListsByKey);
+    }
+
+    @Override
+    protected long copyList(String fromKeyString, String toKeyString) {
+        return delegate.copyList(fromKeyString, toKeyString);
+    }
+
+    @Override
+    protected long getVersion(String keyString) {
+        return delegate.getVersion(keyString);
+    }
+
+    @Override
+    protected long incrementVersion(String keyString) {
+        return delegate.incrementVersion(keyString);
+    }
+
+    @Override
+    protected Map<String, Long> incrementVersions(List<String> keyStrings) {
+        return delegate.incrementVersions(keyStrings);
+    }
+
+    @Override
+    protected void setVersion(String keyString, long version) {
+        delegate.setVersion(keyString, version);
+    }
+
+    @Override
+    protected Map<String, Long> getVersions(List<String> keyStrings) {
+        return delegate.getVersions(keyStrings);
+    }
+
+    @Override
+    protected void setVersions(Map<String, Long> versionsByKey) {
+        delegate.setVersions(versionsByKey);
+    }
+
+    @Override
+    protected long addToVersion(String keyString, long delta) {
+        return delegate.addToVersion(keyString, delta);
+    }
+
+    @Override
+    protected void deleteList(String keyString) {
+        delegate.deleteList(keyString);
+    }
+
+    @Override
+    public void setRetentionPolicy(String nameSpace, RetentionPolicy policy) {
+        delegate.setRetentionPolicy(nameSpace, policy);
+    }
+
+    @Override
+    public RetentionPolicy getRetentionPolicy(String nameSpace) {
+        return delegate.getRetentionPolicy(nameSpace);
+    }
+
+    @Override
+    public Map<String, Object> getStatistics() {
+        return delegate.getStatistics();
+    }
+}
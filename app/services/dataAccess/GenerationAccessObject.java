@@ -0,0 +1,332 @@
+package services.dataAccess;
+
+import play.Logger;
+import services.dataAccess.proto.PostListProto.PostList;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Data store through which a sort writes new versions of display channels, hashtag channels and string lists, under
+ * keys of a generation of its own (for example display:g42:top), while readers of the data store keep reading the
+ * versions published before. publish makes every channel written in the new generation visible to readers in a single
+ * step.
+ * <p>
+ * Only channels written by the sort move to the new generation. Each channel has a pointer holding the generations of
+ * its two latest versions, and readers of a published generation read the latest version which is not newer than it.
+ * publish updates the pointers of the channels written, and of no other channel, before publishing the generation, so
+ * channels not written by a sort are neither read nor copied by it, and expire under their retention policy. Versions
+ * superseded by a publish are deleted in the background once no reader can still be resolving them; the version each
+ * publish replaces is kept until the channel is next written, for readers which have not yet seen the new generation.
+ * <p>
+ * Reads through this object see the channels already written in the new generation, and the published version of
+ * every other channel. Pushing postLists onto a channel not yet written copies its published version first, so the new
+ * version continues from it. Source queues are not part of any generation.
+ */
+public class GenerationAccessObject extends ForwardingAccessObject {
+
+    // old generations are deleted on a single background thread, so sorting is never held up by deletes
+    private static final ScheduledExecutorService COLLECTOR = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "generation-collector");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // a reader may hold on to the generation published before for GENERATION_CHECK_INTERVAL, and to the pointer of a
+    // channel for as long again if it caches versions, so a second publish within that time could otherwise delete
+    // the version the reader is still resolving; deletes wait twice as long, leaving room for reads under way
+    private static final long COLLECT_DELAY =
+            2 * (GENERATION_CHECK_INTERVAL + CachingAccessObject.VERSION_CHECK_INTERVAL);
+
+    private final long generation;
+    private final long publishedGeneration;
+
+    // each channel accessed so far, by its key in the new generation
+    private final ConcurrentMap<String, Channel> channels = new ConcurrentHashMap<>();
+    private final Set<String> writtenKeys = ConcurrentHashMap.newKeySet();
+    private final Set<String> emptiedKeys = ConcurrentHashMap.newKeySet();
+
+    // keys of the versions of channels which no reader reads once the new generation is published
+    private final Set<String> supersededKeys = ConcurrentHashMap.newKeySet();
+
+    private static final class Channel {
+        final String nameSpace;
+        final String name;
+        final long pointer;         // pointer of the channel, as read when the channel was first accessed
+        final String publishedKey;  // key of the version of the channel read by readers of the published generation
+
+        Channel(String nameSpace, String name, long pointer, long publishedGeneration) {
+            this.nameSpace = nameSpace;
+            this.name = name;
+            this.pointer = pointer;
+            this.publishedKey = getGenerationKey(nameSpace, getGenerationOfChannel(pointer, publishedGeneration), name);
+        }
+    }
+
+    /**
+     * Starts a new generation of channels in a data store
+     *
+     * @param delegate data store holding every generation
+     */
+    public GenerationAccessObject(AbstractDataAccess delegate) {
+        super(delegate);
+        publishedGeneration = delegate.getPublishedGeneration();
+
+        // a counter lost along with the data it numbered restarts below the published generation, so skip past it
+        long nextGeneration = incrementVersion(NEXT_GENERATION);
+        if (nextGeneration <= publishedGeneration) {
+            nextGeneration = publishedGeneration + 1;
+            setVersion(NEXT_GENERATION, nextGeneration);
+        }
+        generation = nextGeneration;
+    }
+
+    /**
+     * @return number of the generation written through this object
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Makes the new generation the generation served to readers. The pointers of the channels written in the new
+     * generation are moved to it in a single call first, so readers of the published generation keep reading the
+     * versions it replaces until the generation itself is published. Channels emptied by the new generation lose their
+     * pointer instead. Versions superseded by the new generation are then deleted in the background, once readers
+     * which looked up an earlier generation have seen the new one.
+     *
+     * @return number of the published generation
+     */
+    public long publish() {
+        Map<String, Long> pointers = new LinkedHashMap<>();
+        List<String> emptiedPointerKeys = new ArrayList<>();
+
+        for (String keyString : writtenKeys) {
+            Channel channel = channels.get(keyString);
+            long replacedGeneration = getGenerationOfKey(channel.publishedKey);
+
+            // of the two versions the pointer held, any not read by readers of the published generation is now unread
+            supersede(channel, getPreviousGeneration(channel.pointer), replacedGeneration);
+            supersede(channel, getLatestGeneration(channel.pointer), replacedGeneration);
+
+            if (emptiedKeys.contains(keyString)) {
+                emptiedPointerKeys.add(getPointerKey(channel.nameSpace, channel.name));
+                supersededKeys.add(keyString);
+                if (replacedGeneration > 0) {
+                    supersededKeys.add(channel.publishedKey);
+                }
+            } else {
+                pointers.put(getPointerKey(channel.nameSpace, channel.name),
+                        packPointer(replacedGeneration, generation));
+            }
+        }
+
+        if (!pointers.isEmpty()) {
+            setVersions(pointers);
+        }
+        getDelegate().setPublishedGeneration(generation);
+        emptiedPointerKeys.forEach(this::deleteList);
+
+        COLLECTOR.schedule(this::collectOldGenerations, COLLECT_DELAY, TimeUnit.MILLISECONDS);
+
+        return generation;
+    }
+
+    /**
+     * Deletes the versions of channels superseded when this generation was published: for each channel written, the
+     * version older than the one it replaced, and for each channel emptied, every prefixed version. The replaced
+     * version of every other channel is kept until the channel is next written, so readers which looked up the
+     * published generation just before this one was published can still read it. Channels without a generation prefix
+     * predate generations, and expire under their retention policy. publish schedules this COLLECT_DELAY milliseconds
+     * after publishing; each channel is deleted once, however often this is called.
+     *
+     * @return number of channels deleted
+     */
+    public int collectOldGenerations() {
+        int numDeleted = 0;
+
+        for (String keyString : supersededKeys) {
+            if (supersededKeys.remove(keyString)) {
+                deleteList(keyString);
+                numDeleted++;
+            }
+        }
+
+        Logger.debug("Deleted " + numDeleted + " channels superseded by generation " + generation);
+        return numDeleted;
+    }
+
+    @Override
+    public List<String> getAllHashTags() {
+        Set<String> hashtags = new LinkedHashSet<>();
+
+        // hashtags of the published generation are replaced by those of the new generation once written
+        for (String hashtag : getChannelsOfGenerations(getHashtagNamespace(), 0, publishedGeneration)) {
+            if (!writtenKeys.contains(getGenerationKey(getHashtagNamespace(), generation, hashtag))) {
+                hashtags.add(hashtag);
+            }
+        }
+        hashtags.addAll(getChannelsOfGenerations(getHashtagNamespace(), generation, generation));
+
+        return new ArrayList<>(hashtags);
+    }
+
+    @Override
+    protected String channelKey(String nameSpace, String name) {
+        String keyString = getGenerationKey(nameSpace, generation, name);
+
+        if (!channels.containsKey(keyString)) {
+            long pointer = getVersion(getPointerKey(nameSpace, name));
+            channels.putIfAbsent(keyString, new Channel(nameSpace, name, pointer, publishedGeneration));
+        }
+
+        return keyString;
+    }
+
+    @Override
+    protected Map<String, String> channelKeys(String nameSpace, Collection<String> names) {
+        Map<String, String> keysByName = new LinkedHashMap<>();
+        Map<String, String> unknownNames = new LinkedHashMap<>();
+
+        for (String name : names) {
+            String keyString = getGenerationKey(nameSpace, generation, name);
+
+            keysByName.put(name, keyString);
+            if (!channels.containsKey(keyString)) {
+                unknownNames.put(getPointerKey(nameSpace, name), name);
+            }
+        }
+
+        // pointers of every channel not yet accessed are read at once
+        if (!unknownNames.isEmpty()) {
+            getVersions(new ArrayList<>(unknownNames.keySet())).forEach((pointerKey, pointer) -> {
+                String name = unknownNames.get(pointerKey);
+                channels.putIfAbsent(keysByName.get(name), new Channel(nameSpace, name, pointer, publishedGeneration));
+            });
+        }
+
+        return keysByName;
+    }
+
+    @Override
+    protected long addNewPostList(String keyString, PostList postList) {
+        continuePublished(keyString);
+        return super.addNewPostList(keyString, postList);
+    }
+
+    @Override
+    protected long addNewPostLists(String keyString, List<PostList> postLists) {
+        continuePublished(keyString);
+        return super.addNewPostLists(keyString, postLists);
+    }
+
+    @Override
+    protected long replacePostLists(String keyString, List<PostList> postLists) {
+        markWritten(keyString, postLists.isEmpty());
+        return super.replacePostLists(keyString, postLists);
+    }
+
+    @Override
+    protected long replacePostLists(Map<String, List<PostList>> postListsByKey) {
+        postListsByKey.forEach((keyString, postLists) -> markWritten(keyString, postLists.isEmpty()));
+        return super.replacePostLists(postListsByKey);
+    }
+
+    @Override
+    protected long replaceStringList(String keyString, List<String> stringList) {
+        markWritten(keyString, stringList.isEmpty());
+        return super.replaceStringList(keyString, stringList);
+    }
+
+    @Override
+    protected Optional<PostList> getPostList(String keyString, Integer index) {
+        return super.getPostList(readKey(keyString), index);
+    }
+
+    @Override
+    protected List<PostList> getAllPostLists(String keyString) {
+        return super.getAllPostLists(readKey(keyString));
+    }
+
+    @Override
+    protected Map<String, List<PostList>> getAllPostLists(List<String> keyStrings) {
+        Map<String, List<PostList>> read = super.getAllPostLists(
+                keyStrings.stream().map(this::readKey).collect(Collectors.toList()));
+
+        Map<String, List<PostList>> postListsByKey = new LinkedHashMap<>();
+        keyStrings.forEach(keyString -> postListsByKey.put(keyString, read.get(readKey(keyString))));
+        return postListsByKey;
+    }
+
+    @Override
+    protected List<PostList> getPostListRange(String keyString, int from, int to) {
+        return super.getPostListRange(readKey(keyString), from, to);
+    }
+
+    @Override
+    protected Iterator<PostList> iteratePostLists(String keyString, int chunkSize) {
+        return super.iteratePostLists(readKey(keyString), chunkSize);
+    }
+
+    @Override
+    protected long getListSize(String keyString) {
+        return super.getListSize(readKey(keyString));
+    }
+
+    @Override
+    protected List<String> getStringList(String keyString, long length) {
+        return super.getStringList(readKey(keyString), length);
+    }
+
+    /**
+     * Returns the key a channel of the new generation is read from: its own key once written, and otherwise the key of
+     * the published version it replaces
+     */
+    private String readKey(String keyString) {
+        if (writtenKeys.contains(keyString)) {
+            return keyString;
+        }
+
+        Channel channel = channels.get(keyString);
+        return channel == null ? keyString : channel.publishedKey;
+    }
+
+    /**
+     * Copies the published version of a channel of the new generation within the data store, before postLists are first
+     * pushed onto the new version
+     */
+    private void continuePublished(String keyString) {
+        if (!writtenKeys.contains(keyString)) {
+            super.copyList(readKey(keyString), keyString);
+        }
+        markWritten(keyString, false);
+    }
+
+    /**
+     * Marks a version of a channel for deletion once the new generation is published, unless it is the version readers
+     * of the published generation read, or has no generation prefix
+     */
+    private void supersede(Channel channel, long oldGeneration, long replacedGeneration) {
+        if (oldGeneration > 0 && oldGeneration != replacedGeneration) {
+            supersededKeys.add(getGenerationKey(channel.nameSpace, oldGeneration, channel.name));
+        }
+    }
+
+    /**
+     * Records that a channel of the new generation has been written, and whether it was left empty
+     */
+    private void markWritten(String keyString, boolean empty) {
+        writtenKeys.add(keyString);
+
+        if (empty) {
+            emptiedKeys.add(keyString);
+        } else {
+            emptiedKeys.remove(keyString);
+        }
+    }
+}
@@ -5,170 +5,208 @@ import services.dataAccess.proto.PostProto.Post;
 
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
+/**
+ * Thread-safe, in-memory data store. Source queues are lock-free queues, postLists are stored in ring buffer stacks
+ * with lock-free reads, and string lists are immutable snapshots replaced on every write (copy-on-write), so readers
+ * never block writers. Appends, pops, page pushes and trims are all constant time. The maximum number of PostLists
+ * under a key follows the retention policy of its namespace; keys held in memory do not expire, so time to live is not
+ * applied.
+ */
 public class InMemoryAccessObject extends AbstractDataAccess {
 
-    private Map<String, List<Post>> postDataStore;
-    private Map<String, List<PostList>> postListDataStore;
-    private Map<String, List<String>> stringListDataStore;
+    private ConcurrentMap<String, PostQueue> postDataStore;
+    private ConcurrentMap<String, PageStack> postListDataStore;
+    private ConcurrentMap<String, List<String>> stringListDataStore;
+    private ConcurrentMap<String, AtomicLong> versions;
 
     public InMemoryAccessObject() {
-        postDataStore = new HashMap<>();
-        postListDataStore = new HashMap<>();
-        stringListDataStore = new HashMap<>();
+        postDataStore = new ConcurrentHashMap<>();
+        postListDataStore = new ConcurrentHashMap<>();
+        stringListDataStore = new ConcurrentHashMap<>();
+        versions = new ConcurrentHashMap<>();
     }
 
     @Override
     protected long addNewPost(String keyString, Post post) {
 
-        List<Post> listAtKeyString;
+        // append post to queue at key, creating queue if key does not exist
+        long newSize = postDataStore.computeIfAbsent(keyString, k -> new PostQueue()).add(post);
+        countPending(keyString, 1);
 
-        // If key exists in map, append post to list,
-        if (postDataStore.containsKey(keyString)) {
-            listAtKeyString = postDataStore.get(keyString);
-            listAtKeyString.add(post);
-
-            // otherwise, create new map entry containing post in list
-        } else {
-            listAtKeyString = new ArrayList<>();
-            listAtKeyString.add(post);
-            postDataStore.put(keyString, listAtKeyString);
-        }
-        return listAtKeyString.size();
+        return newSize;
     }
 
     @Override
     protected long addNewPosts(String keyString, List<Post> listOfPosts) {
 
-        List<Post> listAtKeyString;
+        // append posts to queue at key, creating queue if key does not exist
+        long newSize = postDataStore.computeIfAbsent(keyString, k -> new PostQueue()).addAll(listOfPosts);
+        countPending(keyString, listOfPosts.size());
 
-        // If key exists in map, append post to list
-        if (postDataStore.containsKey(keyString)) {
-            listAtKeyString = postDataStore.get(keyString);
-            listAtKeyString.addAll(listOfPosts);
+        return newSize;
+    }
 
-        } else {
-            // otherwise initialize key
-            listAtKeyString = postDataStore.put(keyString, new ArrayList<>(listOfPosts));
-        }
+    @Override
+    protected long upsertPosts(String keyString, List<Post> listOfPosts) {
 
-        if (listAtKeyString == null) {
-            return 0;
-        } else {
-            return listAtKeyString.size();
-        }
+        // append new posts to queue at key and update waiting posts in place, creating queue if key does not exist
+        long numAppended = postDataStore.computeIfAbsent(keyString, k -> new PostQueue()).upsertAll(listOfPosts);
+        countPending(keyString, numAppended);
+
+        return numAppended;
     }
 
     @Override
     protected Optional<Post> popFirstPost(String keyString) {
 
-        List<Post> listAtKeyString = postDataStore.get(keyString);
-        Post oldestPost = null;
-
-        if (listAtKeyString != null && listAtKeyString.size() > 0) {
-            // pop post if one exists
-            oldestPost = listAtKeyString.get(0);
-            listAtKeyString.remove(0);
-        }
+        PostQueue queueAtKeyString = postDataStore.get(keyString);
 
-        if (oldestPost == null) {
+        // pop post if one exists
+        if (queueAtKeyString == null) {
             return Optional.empty();
         } else {
-            return Optional.of(oldestPost);
+            Optional<Post> post = queueAtKeyString.poll();
+            post.ifPresent(p -> countPending(keyString, -1));
+            return post;
         }
     }
 
     @Override
     protected List<Post> getAllPosts(String keyString) {
 
-        List<Post> listOfPosts = postDataStore.get(keyString);
+        PostQueue queueAtKeyString = postDataStore.get(keyString);
 
-        // return list of posts under a key, or empty list if key does not exist
-        if (listOfPosts == null) {
+        // return snapshot of posts under a key, or empty list if key does not exist
+        if (queueAtKeyString == null) {
             return Collections.emptyList();
         } else {
-            return listOfPosts;
+            return queueAtKeyString.snapshot();
         }
     }
 
     @Override
     protected String deleteFirstNPosts(String keyString, Integer numPosts) {
-        List<Post> listAtKeyString = postDataStore.get(keyString);
+        PostQueue queueAtKeyString = postDataStore.get(keyString);
 
-        if (listAtKeyString == null) {
+        if (queueAtKeyString == null) {
             return "EMPTY";
         } else {
-            if (listAtKeyString.size() <= numPosts) {   // clear entire list
-                listAtKeyString.clear();
-            } else {
-                // clear subList from index 0 (inclusive) to index numPosts (exclusive)
-                listAtKeyString.subList(0, numPosts).clear();
-            }
+            // remove from head of queue until numPosts are removed, or queue is empty
+            countPending(keyString, -queueAtKeyString.remove(numPosts));
             return "OK";
         }
     }
 
     @Override
-    protected long addNewPostList(String keyString, PostList postList) {
-
-        List<PostList> listAtKeyString;
-
-        // if key exists, add postList at *beginning* of list
-        if (postListDataStore.containsKey(keyString)) {
-            listAtKeyString = postListDataStore.get(keyString);
-            listAtKeyString.add(0, postList);
+    protected List<Post> drainPosts(String keyString, int maxPosts) {
+        PostQueue queueAtKeyString = postDataStore.get(keyString);
 
-            // if key does not exist, create new map entry and insert postList
+        // each post is polled from the queue exactly once, so concurrent drains never return the same post
+        if (queueAtKeyString == null) {
+            return Collections.emptyList();
         } else {
-            listAtKeyString = new ArrayList<>();
-            listAtKeyString.add(0, postList);
-            postListDataStore.put(keyString, listAtKeyString);
+            List<Post> drained = queueAtKeyString.drain(maxPosts);
+            countPending(keyString, -drained.size());
+            return drained;
         }
+    }
 
-        // truncate oldest PostList if this list has reached maximum size
-        if (listAtKeyString.size() > MAX_POSTLISTS) {
-            listAtKeyString.remove(listAtKeyString.size() - 1);
-        }
+    @Override
+    protected long addNewPostList(String keyString, PostList postList) {
+
+        // push postList onto *top* of stack at key; oldest PostList is truncated if stack has reached maximum size
+        PageStack stackAtKeyString = postListDataStore.compute(keyString, (key, stack) -> {
+            stack = applyRetentionPolicy(key, stack);
+            stack.push(postList);
+            return stack;
+        });
 
-        return listAtKeyString.size();
+        return stackAtKeyString.size();
     }
 
 
+    @Override
+    protected long addNewPostLists(String keyString, List<PostList> postLists) {
+
+        // push postLists onto *top* of stack at key in one step, so readers observe either none or all of them
+        PageStack stackAtKeyString = postListDataStore.compute(keyString, (key, stack) -> {
+            stack = applyRetentionPolicy(key, stack);
+            stack.pushAll(postLists);
+            return stack;
+        });
+
+        return stackAtKeyString.size();
+    }
+
     @Override
     protected Optional<PostList> getPostList(String keyString, Integer index) {
-        List<PostList> listAtKeyString = postListDataStore.get(keyString);
+        PageStack stackAtKeyString = postListDataStore.get(keyString);
 
         // get entry at index if it exists
-        if (listAtKeyString == null || index >= listAtKeyString.size()) {
+        if (stackAtKeyString == null) {
             return Optional.empty();
         } else {
-            return Optional.of(listAtKeyString.get(index));
+            return Optional.ofNullable(stackAtKeyString.get(index));
         }
     }
 
     @Override
     protected List<PostList> getAllPostLists(String keyString) {
-        List<PostList> listOfPostLists = postListDataStore.get(keyString);
+        PageStack stackAtKeyString = postListDataStore.get(keyString);
 
         // return list of posts under a key, or empty list if key does not exist
-        if (listOfPostLists == null) {
+        if (stackAtKeyString == null) {
             return Collections.emptyList();
         } else {
-            return listOfPostLists;
+            return stackAtKeyString.snapshot();
         }
     }
 
+    @Override
+    protected Map<String, List<PostList>> getAllPostLists(List<String> keyStrings) {
+        Map<String, List<PostList>> postListsByKey = new LinkedHashMap<>();
+        keyStrings.forEach(keyString -> postListsByKey.put(keyString, getAllPostLists(keyString)));
+
+        return postListsByKey;
+    }
+
+    @Override
+    protected List<PostList> getPostListRange(String keyString, int from, int to) {
+        PageStack stackAtKeyString = postListDataStore.get(keyString);
+
+        // return consistent snapshot of entries in range, or empty list if key does not exist
+        if (stackAtKeyString == null) {
+            return Collections.emptyList();
+        } else {
+            return stackAtKeyString.range(from, to);
+        }
+    }
+
+    @Override
+    protected Iterator<PostList> iteratePostLists(String keyString, int chunkSize) {
+
+        // postLists are already held in memory, so iterate over a snapshot of the stack
+        return getAllPostLists(keyString).iterator();
+    }
+
     @Override
     public long getNumPostsInNameSpace(String nameSpace) {
 
         // get all keys in desired nameSpace
         List<String> keysInNameSpace = getKeysInNameSpace(nameSpace);
 
-        // sum size of list at each key
+        // sum size of queue at each key
         long count = 0;
         for (String key : keysInNameSpace) {
-            count += postDataStore.get(key).size();
+            PostQueue queueAtKey = postDataStore.get(key);
+            if (queueAtKey != null) {
+                count += queueAtKey.size();
+            }
         }
 
         return count;
@@ -216,10 +254,13 @@ public class InMemoryAccessObject extends AbstractDataAccess {
     @Override
     protected long getListSize(String keyString) {
 
-        List<PostList> postLists = postListDataStore.get(keyString);
+        PageStack postLists = postListDataStore.get(keyString);
+        PostQueue posts = postDataStore.get(keyString);
 
         if (postLists != null) {
             return postLists.size();
+        } else if (posts != null) {
+            return posts.size();
         } else {
             return 0L;
         }
@@ -248,15 +289,138 @@ public class InMemoryAccessObject extends AbstractDataAccess {
     @Override
     protected long replaceStringList(String keyString, List<String> stringList) {
 
-        stringListDataStore.put(keyString, new ArrayList<>(stringList));
+        stringListDataStore.put(keyString, Collections.unmodifiableList(new ArrayList<>(stringList)));
         return stringList.size();
     }
 
     @Override
     protected long replacePostLists(String keyString, List<PostList> postLists) {
 
-        postListDataStore.put(keyString, postLists);
-        return postLists.size();
+        int maxPostLists = getRetentionPolicyOfKey(keyString).getMaxPostLists();
+        List<PostList> retained = postLists.subList(0, Math.min(postLists.size(), maxPostLists));
+
+        postListDataStore.put(keyString, new PageStack(retained, maxPostLists));
+        return retained.size();
+    }
+
+    @Override
+    protected long replacePostLists(Map<String, List<PostList>> postListsByKey) {
+        long numPostLists = 0;
+        for (Map.Entry<String, List<PostList>> e : postListsByKey.entrySet()) {
+            numPostLists += replacePostLists(e.getKey(), e.getValue());
+        }
+
+        return numPostLists;
+    }
+
+    @Override
+    protected long copyList(String fromKeyString, String toKeyString) {
+        PageStack postLists = postListDataStore.get(fromKeyString);
+        List<String> stringList = stringListDataStore.get(fromKeyString);
+
+        if (postLists != null) {
+            // pages are immutable, so the copy shares them with the stack at fromKeyString
+            int maxPostLists = getRetentionPolicyOfKey(toKeyString).getMaxPostLists();
+            PageStack copy = new PageStack(postLists.range(0, maxPostLists - 1), maxPostLists);
+
+            postListDataStore.put(toKeyString, copy);
+            return copy.size();
+        } else if (stringList != null) {
+            return replaceStringList(toKeyString, stringList);
+        } else {
+            return replacePostLists(toKeyString, Collections.emptyList());
+        }
+    }
+
+    @Override
+    protected long getVersion(String keyString) {
+        AtomicLong version = versions.get(keyString);
+        return version == null ? 0L : version.get();
+    }
+
+    @Override
+    protected long incrementVersion(String keyString) {
+        return versions.computeIfAbsent(keyString, k -> new AtomicLong()).incrementAndGet();
+    }
+
+    @Override
+    protected Map<String, Long> incrementVersions(List<String> keyStrings) {
+        Map<String, Long> newVersions = new LinkedHashMap<>();
+        keyStrings.forEach(keyString -> newVersions.put(keyString, incrementVersion(keyString)));
+
+        return newVersions;
+    }
+
+    @Override
+    protected void setVersion(String keyString, long version) {
+        versions.computeIfAbsent(keyString, k -> new AtomicLong()).set(version);
+    }
+
+    @Override
+    protected Map<String, Long> getVersions(List<String> keyStrings) {
+        Map<String, Long> versionsByKey = new LinkedHashMap<>();
+        keyStrings.forEach(keyString -> versionsByKey.put(keyString, getVersion(keyString)));
+
+        return versionsByKey;
+    }
+
+    @Override
+    protected void setVersions(Map<String, Long> versionsByKey) {
+        versionsByKey.forEach(this::setVersion);
+    }
+
+    @Override
+    protected long addToVersion(String keyString, long delta) {
+        return versions.computeIfAbsent(keyString, k -> new AtomicLong()).addAndGet(delta);
+    }
+
+    @Override
+    protected void deleteList(String keyString) {
+        postDataStore.remove(keyString);
+        postListDataStore.remove(keyString);
+        stringListDataStore.remove(keyString);
+        versions.remove(keyString);
+    }
+
+    /**
+     * @return keys of every list with a version in the data store
+     */
+    Set<String> getVersionedKeys() {
+        return versions.keySet();
+    }
+
+    /**
+     * Adds the number of posts added to or removed from the queue at keyString to the counter of posts waiting in
+     * source queues, if keyString is counted by it
+     *
+     * @param keyString string denoting key in data store
+     * @param delta     number of posts added to the queue, or negated number of posts removed from it
+     */
+    private void countPending(String keyString, long delta) {
+        if (delta != 0 && isCountedQueue(keyString)) {
+            addToVersion(PENDING_POSTS, delta);
+        }
+    }
+
+    /**
+     * Returns a stack at keyString sized according to the retention policy of its namespace, creating the stack if it
+     * does not exist, and resizing it if the policy has changed since it was created
+     *
+     * @param keyString string denoting key in data store
+     * @param stack     current stack at keyString, or null if none exists
+     * @return stack whose maximum size matches the retention policy of keyString
+     */
+    private PageStack applyRetentionPolicy(String keyString, PageStack stack) {
+        int maxPostLists = getRetentionPolicyOfKey(keyString).getMaxPostLists();
+
+        if (stack == null) {
+            return new PageStack(maxPostLists);
+        } else if (stack.maxSize() != maxPostLists) {
+            List<PostList> pages = stack.snapshot();
+            return new PageStack(pages.subList(0, Math.min(pages.size(), maxPostLists)), maxPostLists);
+        } else {
+            return stack;
+        }
     }
 
 }
@@ -0,0 +1,91 @@
+package services.dataAccess;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies, counted in buckets whose bounds double from one microsecond, so that recording a latency
+ * never takes a lock or allocates. Percentiles are reported as the upper bound of the bucket holding them, so are at
+ * most twice the true value.
+ */
+public class LatencyHistogram {
+
+    private static final int NUM_BUCKETS = 32; // the last bucket holds every latency above about 35 minutes
+
+    private final LongAdder[] buckets = new LongAdder[NUM_BUCKETS];
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    public LatencyHistogram() {
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @param nanos latency to be recorded, in nanoseconds
+     */
+    public void record(long nanos) {
+        long micros = Math.max(TimeUnit.NANOSECONDS.toMicros(nanos), 1);
+
+        // bucket i holds latencies of more than 2^(i - 1) and at most 2^i microseconds
+        int bucket = 64 - Long.numberOfLeadingZeros(micros - 1);
+        buckets[Math.min(bucket, NUM_BUCKETS - 1)].increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+    }
+
+    /**
+     * @return number of latencies recorded
+     */
+    public long getCount() {
+        long count = 0;
+        for (LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    /**
+     * @param percentile percentile of recorded latencies, between 0 and 100
+     * @return upper bound, in microseconds, of the bucket holding the percentile, or 0 if nothing has been recorded
+     */
+    public long getPercentileMicros(double percentile) {
+        long[] counts = new long[NUM_BUCKETS];
+        long count = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+            count += counts[i];
+        }
+
+        long rank = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS && count > 0; i++) {
+            seen += counts[i];
+            if (seen >= Math.max(rank, 1)) {
+                return 1L << i;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return latencies recorded so far, summarized as count, mean, percentiles and maximum in microseconds
+     */
+    public Map<String, Object> summarize() {
+        long count = getCount();
+        Map<String, Object> summary = new LinkedHashMap<>();
+
+        summary.put("count", count);
+        summary.put("meanMicros", count > 0 ? TimeUnit.NANOSECONDS.toMicros(totalNanos.sum() / count) : 0);
+        summary.put("p50Micros", getPercentileMicros(50));
+        summary.put("p99Micros", getPercentileMicros(99));
+        summary.put("p999Micros", getPercentileMicros(99.9));
+        summary.put("maxMicros", TimeUnit.NANOSECONDS.toMicros(maxNanos.get()));
+
+        return summary;
+    }
+}
@@ -0,0 +1,271 @@
+package services.dataAccess;
+
+import play.Logger;
+import services.dataAccess.SlabAllocator.Block;
+import services.dataAccess.proto.PostListProto.PostList;
+
+import javax.inject.Singleton;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static services.PublicConstants.MAPPED_FILE_DIRECTORY;
+
+/**
+ * Persistent data store for single-node deployments, so that a restart serves the feed it was serving before rather
+ * than an empty one. Every change to a postList channel or string list is appended to a log of memory-mapped segment
+ * files, and channels hold references to the postList bytes in the mapped segments, so pages are read straight from
+ * the page cache. On startup the segments are mapped and replayed to rebuild the channels; replay reads only record
+ * headers, without parsing any postList.
+ * <p>
+ * Records reach the page cache as soon as they are written, so they survive a restart of the process; flush forces
+ * them to disk. Versions of lists, which include the published generation, are logged too, so a restart serves the
+ * same generation. When the log grows well past the size of the data still in use, it is compacted by writing the
+ * current contents of every channel, and the version of every list, to new segments and deleting the old ones. Source
+ * queues are buffers between collection and sorting, and are kept in memory only.
+ */
+@Singleton
+public class MappedFileAccessObject extends OffHeapAccessObject {
+
+    private static final String DEFAULT_DIRECTORY = "data/pages";
+    private static final int SEGMENT_SIZE = 64 << 20; // bytes mapped for each new segment
+
+    // types of record in the log
+    private static final byte PUSH_POSTLISTS = 1;
+    private static final byte REPLACE_POSTLISTS = 2;
+    private static final byte REPLACE_STRINGS = 3;
+    private static final byte DELETE_LIST = 4;
+    private static final byte SET_VERSION = 5;
+
+    private final Object writeLock = new Object();
+    private final PageLog log;
+    private final int segmentSize;
+    private long liveBytes = 0; // bytes of postLists still referenced by a channel; guarded by writeLock
+
+    public MappedFileAccessObject() {
+        this(Paths.get(System.getenv(MAPPED_FILE_DIRECTORY) != null
+                ? System.getenv(MAPPED_FILE_DIRECTORY)
+                : DEFAULT_DIRECTORY), SEGMENT_SIZE);
+    }
+
+    /**
+     * @param directory   directory holding the log segments; created if it does not exist
+     * @param segmentSize number of bytes mapped for each new segment
+     */
+    public MappedFileAccessObject(Path directory, int segmentSize) {
+        this.segmentSize = segmentSize;
+        this.log = new PageLog(directory, segmentSize);
+
+        long start = System.currentTimeMillis();
+        synchronized (writeLock) {
+            long numRecords = log.replay(this::restore);
+            Logger.info("MappedFileAccessObject: replayed " + numRecords + " records from " + directory + " in "
+                    + (System.currentTimeMillis() - start) + "ms");
+        }
+    }
+
+    @Override
+    protected long addNewPostLists(String keyString, List<PostList> postLists) {
+        int maxPostLists = getRetentionPolicyOfKey(keyString).getMaxPostLists();
+        List<byte[]> values = serialize(postLists.subList(0, Math.min(postLists.size(), maxPostLists)));
+
+        if (values.isEmpty()) {
+            return getListSize(keyString);
+        }
+
+        // log and apply under one lock, so that replay applies changes to a channel in the order they were made
+        synchronized (writeLock) {
+            long size = pushBlocks(keyString, track(log.append(PUSH_POSTLISTS, keyString, values)), maxPostLists);
+            compactIfNeeded();
+            return size;
+        }
+    }
+
+    @Override
+    protected long replacePostLists(String keyString, List<PostList> postLists) {
+        int maxPostLists = getRetentionPolicyOfKey(keyString).getMaxPostLists();
+        List<byte[]> values = serialize(postLists.subList(0, Math.min(postLists.size(), maxPostLists)));
+
+        synchronized (writeLock) {
+            long size = replaceBlocks(keyString, track(log.append(REPLACE_POSTLISTS, keyString, values)), maxPostLists);
+            compactIfNeeded();
+            return size;
+        }
+    }
+
+    @Override
+    protected long copyList(String fromKeyString, String toKeyString) {
+        synchronized (writeLock) {
+            if (!getPostListKeys().contains(fromKeyString)) {
+                return super.copyList(fromKeyString, toKeyString);
+            }
+
+            // the copy is logged as a replacement, so that replay does not depend on the list it was copied from
+            int maxPostLists = getRetentionPolicyOfKey(toKeyString).getMaxPostLists();
+            List<byte[]> values = readPages(fromKeyString, 0, maxPostLists - 1);
+
+            long size = replaceBlocks(toKeyString, track(log.append(REPLACE_POSTLISTS, toKeyString, values)),
+                    maxPostLists);
+            compactIfNeeded();
+            return size;
+        }
+    }
+
+    @Override
+    protected long replaceStringList(String keyString, List<String> stringList) {
+        List<byte[]> values = stringList.stream()
+                .map(string -> string.getBytes(StandardCharsets.UTF_8))
+                .collect(Collectors.toList());
+
+        synchronized (writeLock) {
+            log.append(REPLACE_STRINGS, keyString, values);
+            return super.replaceStringList(keyString, stringList);
+        }
+    }
+
+    @Override
+    protected long incrementVersion(String keyString) {
+        synchronized (writeLock) {
+            long version = super.incrementVersion(keyString);
+            log.append(SET_VERSION, keyString, Collections.singletonList(encodeVersion(version)));
+            return version;
+        }
+    }
+
+    @Override
+    protected void setVersion(String keyString, long version) {
+        synchronized (writeLock) {
+            log.append(SET_VERSION, keyString, Collections.singletonList(encodeVersion(version)));
+            super.setVersion(keyString, version);
+        }
+    }
+
+    @Override
+    protected long addToVersion(String keyString, long delta) {
+        synchronized (writeLock) {
+            long version = super.addToVersion(keyString, delta);
+            log.append(SET_VERSION, keyString, Collections.singletonList(encodeVersion(version)));
+            return version;
+        }
+    }
+
+    @Override
+    protected void deleteList(String keyString) {
+        synchronized (writeLock) {
+            log.append(DELETE_LIST, keyString, Collections.emptyList());
+            super.deleteList(keyString);
+        }
+    }
+
+    /**
+     * Forces every change written so far to the storage device
+     */
+    public void flush() {
+        synchronized (writeLock) {
+            log.flush();
+        }
+    }
+
+    /**
+     * @return number of bytes written to the log, including changes which have since been superseded
+     */
+    public long getLogSize() {
+        synchronized (writeLock) {
+            return log.size();
+        }
+    }
+
+    /**
+     * @return number of segment files in the log
+     */
+    public int getNumLogSegments() {
+        synchronized (writeLock) {
+            return log.numSegments();
+        }
+    }
+
+    @Override
+    void free(Block block) {
+        // blocks live in the log until it is compacted
+        liveBytes -= block.length();
+    }
+
+    /**
+     * Applies a record of the log to the data store during replay
+     */
+    private void restore(byte type, String keyString, List<ByteBuffer> values) {
+        int maxPostLists = getRetentionPolicyOfKey(keyString).getMaxPostLists();
+
+        switch (type) {
+            case PUSH_POSTLISTS:
+                pushBlocks(keyString, track(values), maxPostLists);
+                break;
+            case REPLACE_POSTLISTS:
+                replaceBlocks(keyString, track(values), maxPostLists);
+                break;
+            case REPLACE_STRINGS:
+                super.replaceStringList(keyString, values.stream()
+                        .map(value -> StandardCharsets.UTF_8.decode(value).toString())
+                        .collect(Collectors.toList()));
+                break;
+            case DELETE_LIST:
+                super.deleteList(keyString);
+                break;
+            case SET_VERSION:
+                super.setVersion(keyString, values.get(0).getLong(0));
+                break;
+            default:
+                Logger.warn("Unknown page log record type " + type); // todo: better error handling
+        }
+    }
+
+    /**
+     * Compacts the log if it has grown well past the size of the postLists still in use, by writing the current
+     * contents of every channel, string list and version to new segments, and deleting all older segments. Readers
+     * are not blocked; each channel is swapped to its new blocks atomically.
+     */
+    private void compactIfNeeded() {
+        if (log.size() <= 2 * liveBytes + segmentSize) {
+            return;
+        }
+
+        long firstSegment = log.roll();
+
+        for (String keyString : new ArrayList<>(getPostListKeys())) {
+            int maxPostLists = getRetentionPolicyOfKey(keyString).getMaxPostLists();
+            List<byte[]> values = readPages(keyString, 0, Integer.MAX_VALUE);
+
+            replaceBlocks(keyString, track(log.append(REPLACE_POSTLISTS, keyString, values)), maxPostLists);
+        }
+
+        for (String keyString : getKeysInNameSpace(getStringListNamespace())) {
+            log.append(REPLACE_STRINGS, keyString, getStringList(keyString, Long.MAX_VALUE).stream()
+                    .map(string -> string.getBytes(StandardCharsets.UTF_8))
+                    .collect(Collectors.toList()));
+        }
+
+        for (String keyString : new ArrayList<>(getVersionedKeys())) {
+            log.append(SET_VERSION, keyString, Collections.singletonList(encodeVersion(getVersion(keyString))));
+        }
+
+        log.deleteSegmentsBefore(firstSegment);
+    }
+
+    /**
+     * Wraps buffers over postLists in the log as blocks, and counts them as in use
+     */
+    private List<Block> track(List<ByteBuffer> values) {
+        List<Block> blocks = values.stream().map(Block::wrap).collect(Collectors.toList());
+        liveBytes += blocks.stream().mapToLong(Block::length).sum();
+        return blocks;
+    }
+
+    private static byte[] encodeVersion(long version) {
+        return ByteBuffer.allocate(8).putLong(version).array();
+    }
+}
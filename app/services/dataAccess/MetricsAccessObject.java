@@ -0,0 +1,233 @@
+package services.dataAccess;
+
+import services.dataAccess.proto.PostListProto.PostList;
+import services.dataAccess.proto.PostProto.Post;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Data store decorator recording the latency of every operation on the underlying data store in a histogram per
+ * operation, reported with the statistics of the underlying data store. Operations which fail are timed as well, so a
+ * slow or unreachable instance shows in the latencies of the operations it fails.
+ */
+public class MetricsAccessObject extends ForwardingAccessObject {
+
+    private final ConcurrentMap<String, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+
+    /**
+     * @param delegate data store whose operations are timed
+     */
+    public MetricsAccessObject(AbstractDataAccess delegate) {
+        super(delegate);
+    }
+
+    @Override
+    protected long addNewPost(String keyString, Post post) {
+        return timed("addNewPost", () -> super.addNewPost(keyString, post));
+    }
+
+    @Override
+    protected long addNewPosts(String keyString, List<Post> listOfPosts) {
+        return timed("addNewPosts", () -> super.addNewPosts(keyString, listOfPosts));
+    }
+
+    @Override
+    protected long upsertPosts(String keyString, List<Post> listOfPosts) {
+        return timed("upsertPosts", () -> super.upsertPosts(keyString, listOfPosts));
+    }
+
+    @Override
+    protected Optional<Post> popFirstPost(String keyString) {
+        return timed("popFirstPost", () -> super.popFirstPost(keyString));
+    }
+
+    @Override
+    protected List<Post> getAllPosts(String keyString) {
+        return timed("getAllPosts", () -> super.getAllPosts(keyString));
+    }
+
+    @Override
+    protected String deleteFirstNPosts(String keyString, Integer numPosts) {
+        return timed("deleteFirstNPosts", () -> super.deleteFirstNPosts(keyString, numPosts));
+    }
+
+    @Override
+    protected List<Post> drainPosts(String keyString, int maxPosts) {
+        return timed("drainPosts", () -> super.drainPosts(keyString, maxPosts));
+    }
+
+    @Override
+    protected long addNewPostList(String keyString, PostList postList) {
+        return timed("addNewPostList", () -> super.addNewPostList(keyString, postList));
+    }
+
+    @Override
+    protected long addNewPostLists(String keyString, List<PostList> postLists) {
+        return timed("addNewPostLists", () -> super.addNewPostLists(keyString, postLists));
+    }
+
+    @Override
+    protected Optional<PostList> getPostList(String keyString, Integer index) {
+        return timed("getPostList", () -> super.getPostList(keyString, index));
+    }
+
+    @Override
+    protected List<PostList> getAllPostLists(String keyString) {
+        return timed("getAllPostLists", () -> super.getAllPostLists(keyString));
+    }
+
+    @Override
+    protected Map<String, List<PostList>> getAllPostLists(List<String> keyStrings) {
+        return timed("getAllPostListsBatch", () -> super.getAllPostLists(keyStrings));
+    }
+
+    @Override
+    protected List<PostList> getPostListRange(String keyString, int from, int to) {
+        return timed("getPostListRange", () -> super.getPostListRange(keyString, from, to));
+    }
+
+    @Override
+    protected Iterator<PostList> iteratePostLists(String keyString, int chunkSize) {
+        Iterator<PostList> postLists = super.iteratePostLists(keyString, chunkSize);
+
+        // the underlying data store reads a chunk whenever hasNext runs out of postLists, so each call is timed
+        return new Iterator<PostList>() {
+            @Override
+            public boolean hasNext() {
+                return timed("iteratePostLists", postLists::hasNext);
+            }
+
+            @Override
+            public PostList next() {
+                return postLists.next();
+            }
+        };
+    }
+
+    @Override
+    public long getNumPostsInNameSpace(String nameSpace) {
+        return timed("getNumPostsInNameSpace", () -> super.getNumPostsInNameSpace(nameSpace));
+    }
+
+    @Override
+    public List<String> getKeysInNameSpace(String nameSpace) {
+        return timed("getKeysInNameSpace", () -> super.getKeysInNameSpace(nameSpace));
+    }
+
+    @Override
+    protected long getListSize(String keyString) {
+        return timed("getListSize", () -> super.getListSize(keyString));
+    }
+
+    @Override
+    protected List<String> getStringList(String keyString, long length) {
+        return timed("getStringList", () -> super.getStringList(keyString, length));
+    }
+
+    @Override
+    protected long replaceStringList(String keyString, List<String> stringList) {
+        return timed("replaceStringList", () -> super.replaceStringList(keyString, stringList));
+    }
+
+    @Override
+    protected long replacePostLists(String keyString, List<PostList> postLists) {
+        return timed("replacePostLists", () -> super.replacePostLists(keyString, postLists));
+    }
+
+    @Override
+    protected long replacePostLists(Map<String, List<PostList>> postListsByKey) {
+        return timed("replacePostListsBatch", () -> super.replacePostLists(postListsByKey));
+    }
+
+    @Override
+    protected long copyList(String fromKeyString, String toKeyString) {
+        return timed("copyList", () -> super.copyList(fromKeyString, toKeyString));
+    }
+
+    @Override
+    protected long getVersion(String keyString) {
+        return timed("getVersion", () -> super.getVersion(keyString));
+    }
+
+    @Override
+    protected long incrementVersion(String keyString) {
+        return timed("incrementVersion", () -> super.incrementVersion(keyString));
+    }
+
+    @Override
+    protected Map<String, Long> incrementVersions(List<String> keyStrings) {
+        return timed("incrementVersions", () -> super.incrementVersions(keyStrings));
+    }
+
+    @Override
+    protected void setVersion(String keyString, long version) {
+        timed("setVersion", () -> {
+            super.setVersion(keyString, version);
+            return null;
+        });
+    }
+
+    @Override
+    protected Map<String, Long> getVersions(List<String> keyStrings) {
+        return timed("getVersions", () -> super.getVersions(keyStrings));
+    }
+
+    @Override
+    protected void setVersions(Map<String, Long> versionsByKey) {
+        timed("setVersions", () -> {
+            super.setVersions(versionsByKey);
+            return null;
+        });
+    }
+
+    @Override
+    protected long addToVersion(String keyString, long delta) {
+        return timed("addToVersion", () -> super.addToVersion(keyString, delta));
+    }
+
+    @Override
+    protected void deleteList(String keyString) {
+        timed("deleteList", () -> {
+            super.deleteList(keyString);
+            return null;
+        });
+    }
+
+    /**
+     * @param operation name of an operation of the data store
+     * @return latencies of the operation recorded so far, or null if it has not run
+     */
+    public LatencyHistogram getLatencies(String operation) {
+        return latencies.get(operation);
+    }
+
+    @Override
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> operations = new TreeMap<>();
+        latencies.forEach((operation, histogram) -> operations.put(operation, histogram.summarize()));
+
+        Map<String, Object> statistics = super.getStatistics();
+        statistics.put("latency", operations);
+        return statistics;
+    }
+
+    /**
+     * Runs an operation of the underlying data store, recording its latency whether or not it succeeds
+     *
+     * @param operation name of the operation
+     * @param call      runs the operation
+     * @return result of the operation
+     */
+    private <T> T timed(String operation, Supplier<T> call) {
+        long start = System.nanoTime();
+
+        try {
+            return call.get();
+        } finally {
+            latencies.computeIfAbsent(operation, name -> new LatencyHistogram()).record(System.nanoTime() - start);
+        }
+    }
+}
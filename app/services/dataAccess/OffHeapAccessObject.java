@@ -0,0 +1,324 @@
+package services.dataAccess;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import play.Logger;
+import services.dataAccess.SlabAllocator.Block;
+import services.dataAccess.proto.PostListProto.PostList;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
+
+/**
+ * In-memory data store which keeps postLists off the Java heap. Each postList is stored in serialized form in a block
+ * of direct memory handed out by a slab allocator, and is only parsed when it is read; the heap holds one block
+ * reference per page instead of a complete protobuf object graph, so display and hashtag channels add next to nothing
+ * to garbage collection work. Source queues and string lists are short-lived and small, and stay on the heap.
+ */
+public class OffHeapAccessObject extends InMemoryAccessObject {
+
+    private static final int SLAB_SIZE = 1 << 20; // bytes reserved at once for each size class
+
+    private final SlabAllocator allocator = new SlabAllocator(SLAB_SIZE);
+    private final ConcurrentMap<String, OffHeapPageStack> pageStore = new ConcurrentHashMap<>();
+
+    // pages are written with this codec; pages of every format are read, so the codec can change with data in place
+    private volatile PageCodec pageCodec = PageCodec.fromEnvironment();
+
+    /**
+     * Sets the codec with which pages are written from now on; pages already stored are still read in their format
+     *
+     * @param pageCodec codec of pages written by this object
+     */
+    public void setPageCodec(PageCodec pageCodec) {
+        this.pageCodec = pageCodec;
+    }
+
+    @Override
+    protected long addNewPostList(String keyString, PostList postList) {
+        return addNewPostLists(keyString, Collections.singletonList(postList));
+    }
+
+    @Override
+    protected long addNewPostLists(String keyString, List<PostList> postLists) {
+
+        // serialize and copy postLists off-heap before taking any lock; pages past the maximum are never stored
+        int maxPostLists = getRetentionPolicyOfKey(keyString).getMaxPostLists();
+        List<Block> blocks = store(postLists.subList(0, Math.min(postLists.size(), maxPostLists)));
+
+        return pushBlocks(keyString, blocks, maxPostLists);
+    }
+
+    @Override
+    protected Optional<PostList> getPostList(String keyString, Integer index) {
+        List<PostList> postLists = getPostListRange(keyString, index, index);
+
+        if (postLists.isEmpty()) {
+            return Optional.empty();
+        } else {
+            return Optional.of(postLists.get(0));
+        }
+    }
+
+    @Override
+    protected List<PostList> getAllPostLists(String keyString) {
+        return getPostListRange(keyString, 0, Integer.MAX_VALUE);
+    }
+
+    @Override
+    protected List<PostList> getPostListRange(String keyString, int from, int to) {
+        List<byte[]> byteList = readPages(keyString, from, to);
+        List<PostList> listOfPostLists = new ArrayList<>(byteList.size());
+
+        // parse each postList only once its bytes have been copied out consistently
+        for (byte[] bytes : byteList) {
+            try {
+                listOfPostLists.add(PageCodec.decode(bytes));
+            } catch (InvalidProtocolBufferException iPBE) {
+                // todo: better error handling
+                Logger.warn("Invalid PostList Protocol Buffer");
+            }
+        }
+
+        return listOfPostLists;
+    }
+
+    @Override
+    protected Iterator<PostList> iteratePostLists(String keyString, int chunkSize) {
+        int windowSize = Math.max(chunkSize, 1);
+
+        // parse one window of postLists at a time, so that a whole channel is never materialized on the heap at once
+        return new Iterator<PostList>() {
+            private int windowStart = 0;
+            private Iterator<PostList> window = Collections.emptyIterator();
+            private boolean lastWindow = false;
+
+            @Override
+            public boolean hasNext() {
+                while (!window.hasNext() && !lastWindow) {
+                    List<PostList> postLists = getPostListRange(keyString, windowStart, windowStart + windowSize - 1);
+
+                    windowStart += windowSize;
+                    lastWindow = postLists.size() < windowSize;
+                    window = postLists.iterator();
+                }
+                return window.hasNext();
+            }
+
+            @Override
+            public PostList next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return window.next();
+            }
+        };
+    }
+
+    @Override
+    public List<String> getKeysInNameSpace(String nameSpace) {
+        List<String> keys = new ArrayList<>(super.getKeysInNameSpace(nameSpace));
+
+        // add keys of postLists stored off-heap
+        keys.addAll(pageStore.keySet().stream()
+                .filter(key -> key.startsWith(nameSpace + NAMESPACE_DELIMITER))
+                .collect(Collectors.toList()));
+
+        return keys;
+    }
+
+    @Override
+    protected long getListSize(String keyString) {
+        OffHeapPageStack stackAtKeyString = pageStore.get(keyString);
+
+        // queues of posts are kept on the heap
+        if (stackAtKeyString != null) {
+            return stackAtKeyString.size();
+        } else {
+            return super.getListSize(keyString);
+        }
+    }
+
+    @Override
+    protected long replacePostLists(String keyString, List<PostList> postLists) {
+        int maxPostLists = getRetentionPolicyOfKey(keyString).getMaxPostLists();
+        List<Block> blocks = store(postLists.subList(0, Math.min(postLists.size(), maxPostLists)));
+
+        return replaceBlocks(keyString, blocks, maxPostLists);
+    }
+
+    @Override
+    protected long copyList(String fromKeyString, String toKeyString) {
+        if (!pageStore.containsKey(fromKeyString)) {
+            return super.copyList(fromKeyString, toKeyString);
+        }
+
+        // page bytes are copied into new blocks as they are, without decoding them
+        int maxPostLists = getRetentionPolicyOfKey(toKeyString).getMaxPostLists();
+        List<Block> blocks = readPages(fromKeyString, 0, maxPostLists - 1).stream()
+                .map(allocator::store)
+                .collect(Collectors.toList());
+
+        return replaceBlocks(toKeyString, blocks, maxPostLists);
+    }
+
+    @Override
+    protected void deleteList(String keyString) {
+        replaceBlocks(keyString, Collections.emptyList(), 0);
+        super.deleteList(keyString);
+    }
+
+    /**
+     * @return number of off-heap bytes reserved for postLists, whether in use or free
+     */
+    public long getReservedOffHeapBytes() {
+        return allocator.reservedBytes();
+    }
+
+    /**
+     * @return number of off-heap bytes in use by stored postLists
+     */
+    public long getUsedOffHeapBytes() {
+        return allocator.usedBytes();
+    }
+
+    /**
+     * Pushes blocks holding serialized postLists onto *top* of the stack at keyString in one step, so readers observe
+     * either none or all of them. Blocks trimmed from the bottom of the stack are freed.
+     *
+     * @param keyString    string denoting key in data store
+     * @param blocks       blocks holding the postLists to be pushed, first postList at the top
+     * @param maxPostLists maximum number of postLists under keyString, according to its retention policy
+     * @return size of stack at keyString after insertion
+     */
+    long pushBlocks(String keyString, List<Block> blocks, int maxPostLists) {
+        List<Block> removed = new ArrayList<>();
+
+        OffHeapPageStack stackAtKeyString = pageStore.compute(keyString, (key, stack) -> {
+            stack = applyRetentionPolicy(stack, maxPostLists, removed);
+            removed.addAll(stack.pushAll(blocks));
+            return stack;
+        });
+
+        // blocks trimmed from the bottom of the stack can now be reused
+        removed.forEach(this::free);
+
+        return stackAtKeyString.size();
+    }
+
+    /**
+     * Replaces the stack at keyString with a stack holding the specified blocks, or removes the stack if there are no
+     * blocks. Readers observe either the complete old stack or the complete new stack. Blocks of the old stack are
+     * freed.
+     *
+     * @param keyString    string denoting key in data store
+     * @param blocks       blocks holding the new postLists, in order
+     * @param maxPostLists maximum number of postLists under keyString, according to its retention policy
+     * @return size of stack at keyString after replacement
+     */
+    long replaceBlocks(String keyString, List<Block> blocks, int maxPostLists) {
+        OffHeapPageStack replaced;
+
+        if (blocks.isEmpty()) {
+            // If input is empty list, delete all existing entries
+            replaced = pageStore.remove(keyString);
+        } else {
+            // build the new stack completely before swapping it into place
+            OffHeapPageStack stack = new OffHeapPageStack(maxPostLists);
+            stack.pushAll(blocks).forEach(this::free);
+            replaced = pageStore.put(keyString, stack);
+        }
+
+        // readers still holding the old stack will find it released, and read the new stack instead
+        if (replaced != null) {
+            replaced.release().forEach(this::free);
+        }
+
+        return Math.min(blocks.size(), maxPostLists);
+    }
+
+    /**
+     * Copies the bytes of the postLists between two indices of the stack at keyString, as a consistent snapshot
+     *
+     * @param keyString string denoting key in data store
+     * @param from      index of first postList, where 0 is the top of the stack
+     * @param to        index of last postList (inclusive)
+     * @return bytes of each postList between from and to, or empty list if keyString does not exist
+     */
+    List<byte[]> readPages(String keyString, int from, int to) {
+        List<byte[]> byteList = null;
+
+        // a null read means the stack was replaced while being read, so read the stack now stored at key
+        while (byteList == null) {
+            OffHeapPageStack stackAtKeyString = pageStore.get(keyString);
+
+            if (stackAtKeyString == null) {
+                return Collections.emptyList();
+            }
+            byteList = stackAtKeyString.read(from, to);
+        }
+
+        return byteList;
+    }
+
+    /**
+     * @return keys of every stack of postLists in the data store
+     */
+    Set<String> getPostListKeys() {
+        return pageStore.keySet();
+    }
+
+    /**
+     * Frees a block which has been removed from its stack
+     *
+     * @param block block to be freed
+     */
+    void free(Block block) {
+        allocator.free(block);
+    }
+
+    /**
+     * Serializes each postList into its own off-heap block
+     *
+     * @param postLists postLists to be stored
+     * @return blocks holding each postList, in order
+     */
+    private List<Block> store(List<PostList> postLists) {
+        return serialize(postLists).stream()
+                .map(allocator::store)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @param postLists postLists to be stored
+     * @return each postList encoded with the current page codec, in order
+     */
+    List<byte[]> serialize(List<PostList> postLists) {
+        PageCodec codec = pageCodec;
+        return postLists.stream().map(codec::encode).collect(Collectors.toList());
+    }
+
+    /**
+     * Returns a stack at a key sized according to its retention policy, creating the stack if it does not exist, and
+     * moving its pages to a resized stack if the policy has changed since it was created
+     *
+     * @param stack        current stack at key, or null if none exists
+     * @param maxPostLists maximum number of postLists under key, according to its retention policy
+     * @param removed      list to which blocks trimmed from the stack are added, to be freed by the caller
+     * @return stack whose maximum size matches maxPostLists
+     */
+    private static OffHeapPageStack applyRetentionPolicy(OffHeapPageStack stack, int maxPostLists,
+                                                         List<Block> removed) {
+        if (stack == null) {
+            return new OffHeapPageStack(maxPostLists);
+        } else if (stack.maxSize() != maxPostLists) {
+            OffHeapPageStack resized = new OffHeapPageStack(maxPostLists);
+            removed.addAll(resized.pushAll(stack.release()));
+            return resized;
+        } else {
+            return stack;
+        }
+    }
+
+}
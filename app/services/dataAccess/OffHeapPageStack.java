@@ -0,0 +1,190 @@
+package services.dataAccess;
+
+import services.dataAccess.SlabAllocator.Block;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Bounded stack of serialized pages held in off-heap blocks, stored in a ring buffer with the most recently pushed
+ * page at the top. Only the block references live on the heap.
+ * <p>
+ * Readers copy page bytes under an optimistic read stamp and retry under a read lock if a writer intervened, so
+ * readers never block each other and only wait for a writer in the rare case of a collision. Blocks removed from the
+ * stack are handed back to the caller to be freed, and are never reused while a copy of them could still be
+ * validated: any removal takes the write lock, which invalidates every outstanding stamp.
+ */
+final class OffHeapPageStack {
+
+    private final StampedLock lock = new StampedLock();
+    private final int maxSize;
+
+    // guarded by lock; read optimistically by readers
+    private Block[] slots = new Block[1];
+    private int top = 0;
+    private int size = 0;
+    private boolean released = false;
+
+    /**
+     * Creates an empty stack, holding at most maxSize pages
+     *
+     * @param maxSize maximum number of pages in the stack
+     */
+    OffHeapPageStack(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Pushes a series of pages onto the top of the stack, such that the first page is at the top of the stack, and
+     * trims the bottom of the stack if it exceeds its maximum size. Readers observe either none or all of the pages.
+     *
+     * @param blocks blocks holding the pages to be pushed, in order from top to bottom of the stack
+     * @return blocks removed from the stack (or never added to it), which the caller must free
+     */
+    List<Block> pushAll(List<Block> blocks) {
+        List<Block> removed = new ArrayList<>();
+
+        // pages past the maximum size would be trimmed as soon as they are pushed
+        int numPushed = Math.min(blocks.size(), maxSize);
+        removed.addAll(blocks.subList(numPushed, blocks.size()));
+
+        long stamp = lock.writeLock();
+        try {
+            // grow ring buffer if it cannot hold the new size; otherwise the oldest slots are overwritten in place
+            int newSize = Math.min(size + numPushed, maxSize);
+            if (newSize > slots.length) {
+                grow(Math.min(Math.max(newSize, 2 * slots.length), maxSize));
+            }
+
+            // push last page first, so that the first page is at the top of the stack
+            for (int i = numPushed - 1; i >= 0; i--) {
+                top = (top - 1 + slots.length) % slots.length;
+
+                if (size == slots.length) {
+                    removed.add(slots[top]);
+                } else {
+                    size++;
+                }
+                slots[top] = blocks.get(i);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+
+        return removed;
+    }
+
+    /**
+     * Removes every page from the stack and marks the stack as released; readers of a released stack are told to look
+     * up the stack at their key again.
+     *
+     * @return blocks held by the stack, in order from top to bottom, which the caller must either free or push onto
+     * another stack
+     */
+    List<Block> release() {
+        List<Block> removed;
+
+        long stamp = lock.writeLock();
+        try {
+            removed = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                removed.add(slots[(top + i) % slots.length]);
+            }
+
+            slots = new Block[1];
+            top = 0;
+            size = 0;
+            released = true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+
+        return removed;
+    }
+
+    /**
+     * Copies the bytes of the pages between two indices of the stack, from top to bottom, as a consistent snapshot
+     *
+     * @param from index of first page, where 0 is the top of the stack
+     * @param to   index of last page (inclusive); indices past the bottom of the stack are ignored
+     * @return bytes of each page between from and to, or null if the stack has been released
+     */
+    List<byte[]> read(int from, int to) {
+        long stamp = lock.tryOptimisticRead();
+
+        if (stamp != 0L) {
+            try {
+                List<byte[]> pages = copy(from, to);
+                if (lock.validate(stamp)) {
+                    return pages;
+                }
+            } catch (RuntimeException rE) {
+                // fields were torn by a concurrent writer; fall through and retry under the read lock
+            }
+        }
+
+        stamp = lock.readLock();
+        try {
+            return copy(from, to);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    int size() {
+        long stamp = lock.tryOptimisticRead();
+        int currentSize = size;
+
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                currentSize = size;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        return currentSize;
+    }
+
+    int maxSize() {
+        return maxSize;
+    }
+
+    private List<byte[]> copy(int from, int to) {
+        if (released) {
+            return null;
+        }
+
+        Block[] currentSlots = slots;
+        int currentTop = top;
+        int last = Math.min(to, size - 1);
+
+        if (from < 0 || from > last) {
+            return Collections.emptyList();
+        }
+
+        List<byte[]> pages = new ArrayList<>(last - from + 1);
+        for (int i = from; i <= last; i++) {
+            pages.add(currentSlots[(currentTop + i) % currentSlots.length].read());
+        }
+
+        return pages;
+    }
+
+    /**
+     * Copies the stack into a larger ring buffer, with the top of the stack at the start of the buffer
+     */
+    private void grow(int capacity) {
+        Block[] grown = new Block[capacity];
+
+        for (int i = 0; i < size; i++) {
+            grown[i] = slots[(top + i) % slots.length];
+        }
+
+        slots = grown;
+        top = 0;
+    }
+}
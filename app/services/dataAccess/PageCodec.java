@@ -0,0 +1,132 @@
+package services.dataAccess;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import services.dataAccess.proto.PostListProto.PostList;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static services.PublicConstants.PAGE_CODEC;
+
+/**
+ * Encoding of postList pages held as bytes by a data store. Pages are either raw PostList protocol buffers, or
+ * compressed pages behind a header: a zero byte, which no protocol buffer starts with (field number 0 is invalid), a
+ * format byte, and the length of the raw page. Every codec decodes pages of every format, so pages written before
+ * compression was turned on, or by a store with compression turned off, are always readable.
+ * <p>
+ * Compressed pages are deflated with a preset dictionary of strings repeated across posts of every source, such as
+ * links and placeholders, so that even small pages compress well. A page which does not shrink is stored raw.
+ */
+public final class PageCodec {
+
+    // pages are stored as raw PostList protocol buffers
+    public static final PageCodec RAW = new PageCodec(false);
+
+    // pages are deflated with the preset dictionary, if this makes them smaller
+    public static final PageCodec DEFLATE = new PageCodec(true);
+
+    private static final byte HEADER = 0;
+    private static final byte FORMAT_DEFLATE = 1; // deflated with DICTIONARY; bump if the dictionary ever changes
+    private static final int HEADER_SIZE = 2 + Integer.BYTES;
+
+    // most common strings last, as deflate finds closer matches at shorter distances
+    private static final byte[] DICTIONARY = String.join("",
+            "http://www.reddit.com/r/", "https://i.redd.it/", "https://i.imgur.com/", "http://imgur.com/",
+            "https://api.imgur.com/", "https://pbs.twimg.com/media/", "https://t.co/", ".jpg", ".png", ".gif",
+            "RT @", "https://twitter.com", "N/A")
+            .getBytes(StandardCharsets.UTF_8);
+
+    // deflaters and inflaters hold native buffers, so each thread reuses its own rather than creating one per page
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(
+            () -> new Deflater(Deflater.BEST_SPEED));
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+
+    private final boolean compress;
+
+    private PageCodec(boolean compress) {
+        this.compress = compress;
+    }
+
+    /**
+     * @return codec named by the page codec environment variable ("deflate"), or RAW if it is not set
+     */
+    public static PageCodec fromEnvironment() {
+        return "deflate".equals(System.getenv(PAGE_CODEC)) ? DEFLATE : RAW;
+    }
+
+    /**
+     * @param postList page to be stored
+     * @return encoded page
+     */
+    public byte[] encode(PostList postList) {
+        byte[] raw = postList.toByteArray();
+
+        if (!compress || raw.length == 0) {
+            return raw;
+        }
+
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setDictionary(DICTIONARY);
+        deflater.setInput(raw);
+        deflater.finish();
+
+        // a page which would not shrink is stored raw
+        byte[] encoded = new byte[raw.length];
+        ByteBuffer.wrap(encoded).put(HEADER).put(FORMAT_DEFLATE).putInt(raw.length);
+        int length = HEADER_SIZE;
+
+        while (!deflater.finished() && length < encoded.length) {
+            length += deflater.deflate(encoded, length, encoded.length - length);
+        }
+
+        if (!deflater.finished()) {
+            return raw;
+        }
+
+        byte[] trimmed = new byte[length];
+        System.arraycopy(encoded, 0, trimmed, 0, length);
+        return trimmed;
+    }
+
+    /**
+     * @param bytes page encoded by any codec
+     * @return decoded page
+     * @throws InvalidProtocolBufferException if bytes are not a valid page
+     */
+    public static PostList decode(byte[] bytes) throws InvalidProtocolBufferException {
+        if (bytes.length == 0 || bytes[0] != HEADER) {
+            return PostList.parseFrom(bytes);
+        }
+
+        if (bytes.length < HEADER_SIZE || bytes[1] != FORMAT_DEFLATE) {
+            throw new InvalidProtocolBufferException("Unknown page format");
+        }
+
+        byte[] raw = new byte[ByteBuffer.wrap(bytes, 2, Integer.BYTES).getInt()];
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setInput(bytes, HEADER_SIZE, bytes.length - HEADER_SIZE);
+
+        try {
+            int length = 0;
+            while (length < raw.length) {
+                int inflated = inflater.inflate(raw, length, raw.length - length);
+
+                if (inflated == 0 && inflater.needsDictionary()) {
+                    inflater.setDictionary(DICTIONARY);
+                } else if (inflated == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new InvalidProtocolBufferException("Truncated page");
+                }
+                length += inflated;
+            }
+        } catch (DataFormatException dFE) {
+            throw new InvalidProtocolBufferException(dFE.getMessage());
+        }
+
+        return PostList.parseFrom(raw);
+    }
+}
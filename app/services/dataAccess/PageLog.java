@@ -0,0 +1,288 @@
+package services.dataAccess;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of records, stored in a directory of memory-mapped segment files. Each record holds a type, a key
+ * and a list of values; values are returned as buffers over the mapped segments, so they can be read straight from
+ * the page cache without copying them onto the heap.
+ * <p>
+ * Each record is laid out as [int length][int crc32][byte type][int key length][key][int count]([int length][value])*,
+ * where length and crc32 cover everything after them. The length is written last, so a record torn by a crash is
+ * never replayed; segments are zero-filled, so a length of zero marks the end of a segment. This class is not
+ * thread-safe; callers must serialize appends.
+ */
+final class PageLog {
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int HEADER_SIZE = 8; // record length and checksum
+
+    /**
+     * Receives each record of the log, in order, during replay
+     */
+    interface RecordHandler {
+        void apply(byte type, String key, List<ByteBuffer> values);
+    }
+
+    private static final class Segment {
+        final long sequence;
+        final Path path;
+        final MappedByteBuffer buffer;
+        int position;
+
+        Segment(long sequence, Path path, MappedByteBuffer buffer) {
+            this.sequence = sequence;
+            this.path = path;
+            this.buffer = buffer;
+        }
+    }
+
+    private final Path directory;
+    private final int segmentSize;
+    private final List<Segment> segments = new ArrayList<>(); // oldest segment first
+
+    /**
+     * @param directory   directory holding the segment files; created if it does not exist
+     * @param segmentSize number of bytes mapped for each new segment
+     */
+    PageLog(Path directory, int segmentSize) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException IOe) {
+            throw new UncheckedIOException("Cannot create page log directory " + directory, IOe);
+        }
+    }
+
+    /**
+     * Maps every existing segment and passes each valid record to handler, oldest first. Reading a segment stops at
+     * its first torn or corrupt record. New records are appended after the last valid record of the newest segment.
+     *
+     * @param handler receives each record of the log
+     * @return number of records replayed
+     */
+    long replay(RecordHandler handler) {
+        long numRecords = 0;
+        List<Path> paths = new ArrayList<>();
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(paths::add);
+        } catch (IOException IOe) {
+            throw new UncheckedIOException("Cannot list page log directory " + directory, IOe);
+        }
+
+        // zero-padded sequence numbers sort in order of creation
+        paths.sort(null);
+
+        for (Path path : paths) {
+            Segment segment = map(sequenceOf(path), path, 0);
+            segments.add(segment);
+            numRecords += scan(segment, handler);
+        }
+
+        return numRecords;
+    }
+
+    /**
+     * Appends a record to the log, starting a new segment if the current segment cannot hold it
+     *
+     * @param type   type of record
+     * @param key    key the record applies to
+     * @param values values of the record, in order
+     * @return buffers over each value in the mapped segment, in order
+     */
+    List<ByteBuffer> append(byte type, String key, List<byte[]> values) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+
+        int bodySize = 1 + 4 + keyBytes.length + 4;
+        for (byte[] value : values) {
+            bodySize += 4 + value.length;
+        }
+
+        Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (segment == null || segment.position + HEADER_SIZE + bodySize > segment.buffer.capacity()) {
+            segment = startSegment(HEADER_SIZE + bodySize);
+        }
+
+        // write record body, keeping the offset of each value
+        ByteBuffer buffer = segment.buffer.duplicate();
+        int start = segment.position;
+        List<Integer> offsets = new ArrayList<>(values.size());
+
+        buffer.position(start + HEADER_SIZE);
+        buffer.put(type).putInt(keyBytes.length).put(keyBytes).putInt(values.size());
+        for (byte[] value : values) {
+            buffer.putInt(value.length);
+            offsets.add(buffer.position());
+            buffer.put(value);
+        }
+
+        // write checksum, then length, which makes the record visible to replay
+        buffer.limit(start + HEADER_SIZE + bodySize).position(start + HEADER_SIZE);
+        CRC32 crc = new CRC32();
+        crc.update(buffer);
+        segment.buffer.putInt(start + 4, (int) crc.getValue());
+        segment.buffer.putInt(start, bodySize);
+        segment.position = start + HEADER_SIZE + bodySize;
+
+        List<ByteBuffer> valueBuffers = new ArrayList<>(values.size());
+        for (int i = 0; i < values.size(); i++) {
+            valueBuffers.add(slice(segment.buffer, offsets.get(i), values.get(i).length));
+        }
+
+        return valueBuffers;
+    }
+
+    /**
+     * Starts a new, empty segment; later records are appended to it
+     *
+     * @return sequence number of the new segment
+     */
+    long roll() {
+        return startSegment(0).sequence;
+    }
+
+    /**
+     * Deletes every segment older than the segment with the specified sequence number, oldest first, so that a crash
+     * part way through never leaves a later record without the records before it. Buffers over deleted segments stay
+     * readable until they are garbage collected.
+     *
+     * @param sequence sequence number of the oldest segment to be kept
+     */
+    void deleteSegmentsBefore(long sequence) {
+        Iterator<Segment> iterator = segments.iterator();
+
+        while (iterator.hasNext()) {
+            Segment segment = iterator.next();
+            if (segment.sequence >= sequence) {
+                break;
+            }
+
+            try {
+                Files.deleteIfExists(segment.path);
+            } catch (IOException IOe) {
+                throw new UncheckedIOException("Cannot delete page log segment " + segment.path, IOe);
+            }
+            iterator.remove();
+        }
+    }
+
+    /**
+     * @return number of bytes written to the log, across all segments
+     */
+    long size() {
+        return segments.stream().mapToLong(segment -> segment.position).sum();
+    }
+
+    /**
+     * @return number of segment files in the log
+     */
+    int numSegments() {
+        return segments.size();
+    }
+
+    /**
+     * Forces every record written so far to the storage device
+     */
+    void flush() {
+        segments.forEach(segment -> segment.buffer.force());
+    }
+
+    /**
+     * Passes each valid record of a segment to handler, and moves the segment's position past the last valid record
+     */
+    private static long scan(Segment segment, RecordHandler handler) {
+        MappedByteBuffer mapped = segment.buffer;
+        int position = 0;
+        long numRecords = 0;
+
+        while (position + HEADER_SIZE <= mapped.capacity()) {
+            int bodySize = mapped.getInt(position);
+            if (bodySize <= 0 || bodySize > mapped.capacity() - position - HEADER_SIZE) {
+                break;
+            }
+
+            // stop at the first record whose checksum does not match its contents
+            ByteBuffer body = slice(mapped, position + HEADER_SIZE, bodySize);
+            CRC32 crc = new CRC32();
+            crc.update(body.duplicate());
+            if ((int) crc.getValue() != mapped.getInt(position + 4)) {
+                break;
+            }
+
+            try {
+                byte type = body.get();
+                byte[] keyBytes = new byte[body.getInt()];
+                body.get(keyBytes);
+
+                int count = body.getInt();
+                List<ByteBuffer> values = new ArrayList<>(Math.min(count, bodySize));
+                for (int i = 0; i < count; i++) {
+                    int length = body.getInt();
+                    values.add(slice(body, body.position(), length));
+                    body.position(body.position() + length);
+                }
+
+                handler.apply(type, new String(keyBytes, StandardCharsets.UTF_8), values);
+            } catch (RuntimeException rE) {
+                break; // malformed record despite a matching checksum
+            }
+
+            position += HEADER_SIZE + bodySize;
+            numRecords++;
+        }
+
+        segment.position = position;
+        return numRecords;
+    }
+
+    private Segment startSegment(int minimumSize) {
+        long sequence = segments.isEmpty() ? 0 : segments.get(segments.size() - 1).sequence + 1;
+        Path path = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+
+        Segment segment = map(sequence, path, Math.max(segmentSize, minimumSize));
+        segments.add(segment);
+        return segment;
+    }
+
+    /**
+     * Maps a segment file into memory, creating the file with the specified size if it does not exist
+     */
+    private static Segment map(long sequence, Path path, int size) {
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+
+            long mappedSize = Math.max(channel.size(), size);
+            return new Segment(sequence, path, channel.map(FileChannel.MapMode.READ_WRITE, 0, mappedSize));
+        } catch (IOException IOe) {
+            throw new UncheckedIOException("Cannot map page log segment " + path, IOe);
+        }
+    }
+
+    private static long sequenceOf(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.limit(offset + length).position(offset);
+        return duplicate.slice();
+    }
+}
@@ -0,0 +1,216 @@
+package services.dataAccess;
+
+import services.dataAccess.proto.PostListProto.PostList;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded stack of postList pages stored in a ring buffer. Pushing a page onto the top of the stack, and trimming the
+ * oldest page once the stack is full, are both constant time.
+ *
+ * Writers are serialized on the stack, while readers never lock: each slot records the sequence number of the push
+ * that wrote it, so a reader can detect that a slot was overwritten after it read the stack's view, and retry.
+ */
+class PageStack {
+
+    private final int maxSize;
+    private volatile View view;
+
+    /**
+     * Immutable view of the stack: the sequence number of the page at the top of the stack, the number of pages in
+     * the stack, and the ring buffer holding them.
+     */
+    private static final class View {
+        final long top;
+        final int size;
+        final AtomicReferenceArray<Slot> slots;
+
+        View(long top, int size, AtomicReferenceArray<Slot> slots) {
+            this.top = top;
+            this.size = size;
+            this.slots = slots;
+        }
+    }
+
+    private static final class Slot {
+        final long sequence;
+        final PostList page;
+
+        Slot(long sequence, PostList page) {
+            this.sequence = sequence;
+            this.page = page;
+        }
+    }
+
+    /**
+     * Creates an empty stack, holding at most maxSize pages
+     *
+     * @param maxSize maximum number of pages in the stack
+     */
+    PageStack(int maxSize) {
+        this.maxSize = maxSize;
+        this.view = new View(0, 0, new AtomicReferenceArray<>(1));
+    }
+
+    /**
+     * Creates a stack containing the specified pages, with the first page at the top of the stack. The stack may
+     * initially hold more than maxSize pages; it is trimmed to maxSize on the next push.
+     *
+     * @param pages   pages to be stored, in order from top to bottom of the stack
+     * @param maxSize maximum number of pages in the stack
+     */
+    PageStack(List<PostList> pages, int maxSize) {
+        this.maxSize = maxSize;
+
+        int size = pages.size();
+        AtomicReferenceArray<Slot> slots = new AtomicReferenceArray<>(Math.max(size, 1));
+
+        // page at index i has sequence number (size - i), so the top of the stack has the highest sequence number
+        for (int i = 0; i < size; i++) {
+            long sequence = size - i;
+            slots.set((int) (sequence % slots.length()), new Slot(sequence, pages.get(i)));
+        }
+
+        this.view = new View(size, size, slots);
+    }
+
+    /**
+     * Pushes a page onto the top of the stack, trimming the bottom of the stack if it exceeds its maximum size
+     *
+     * @param page page to be pushed
+     * @return size of stack after insertion
+     */
+    int push(PostList page) {
+        return pushAll(Collections.singletonList(page));
+    }
+
+    /**
+     * Pushes a series of pages onto the top of the stack, such that the first page is at the top of the stack, and
+     * trims the bottom of the stack if it exceeds its maximum size. Readers observe either none or all of the pages.
+     *
+     * @param pages pages to be pushed, in order from top to bottom of the stack
+     * @return size of stack after insertion
+     */
+    synchronized int pushAll(List<PostList> pages) {
+        View current = view;
+
+        // pages past the maximum size would be trimmed as soon as they are pushed
+        int numPushed = Math.min(pages.size(), maxSize);
+        if (numPushed == 0) {
+            return current.size;
+        }
+
+        long sequence = current.top;
+        int size = Math.min(current.size + numPushed, maxSize);
+
+        // grow ring buffer if it cannot hold the new size; otherwise the oldest slots are overwritten in place
+        AtomicReferenceArray<Slot> slots = current.slots;
+        if (size > slots.length()) {
+            slots = grow(current, Math.min(Math.max(size, 2 * slots.length()), maxSize));
+        }
+
+        // push last page first, so that the first page is at the top of the stack
+        for (int i = numPushed - 1; i >= 0; i--) {
+            sequence++;
+            slots.set((int) (sequence % slots.length()), new Slot(sequence, pages.get(i)));
+        }
+
+        view = new View(sequence, size, slots);
+
+        return size;
+    }
+
+    /**
+     * Retrieves, but does not remove, the page at the specified index from the top of the stack
+     *
+     * @param index index of page, where 0 is the top of the stack
+     * @return page at index, or null if index is out of bounds
+     */
+    PostList get(int index) {
+        while (true) {
+            View current = view;
+
+            if (index < 0 || index >= current.size) {
+                return null;
+            }
+
+            long sequence = current.top - index;
+            Slot slot = current.slots.get((int) (sequence % current.slots.length()));
+
+            // slot is only stale if it was overwritten by a concurrent push; retry against the new view
+            if (slot != null && slot.sequence == sequence) {
+                return slot.page;
+            }
+        }
+    }
+
+    /**
+     * Returns a consistent snapshot of all pages in the stack, from top to bottom
+     *
+     * @return list of pages in stack
+     */
+    List<PostList> snapshot() {
+        return range(0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns a consistent snapshot of the pages between two indices of the stack, from top to bottom
+     *
+     * @param from index of first page, where 0 is the top of the stack
+     * @param to   index of last page (inclusive); indices past the bottom of the stack are ignored
+     * @return list of pages between from and to, or empty list if no page lies in that range
+     */
+    List<PostList> range(int from, int to) {
+        while (true) {
+            View current = view;
+            int last = Math.min(to, current.size - 1);
+
+            if (from < 0 || from > last) {
+                return Collections.emptyList();
+            }
+
+            List<PostList> pages = new ArrayList<>(last - from + 1);
+
+            for (int i = from; i <= last; i++) {
+                long sequence = current.top - i;
+                Slot slot = current.slots.get((int) (sequence % current.slots.length()));
+
+                if (slot == null || slot.sequence != sequence) {
+                    break;
+                }
+                pages.add(slot.page);
+            }
+
+            // retry if any slot was overwritten by a concurrent push
+            if (pages.size() == last - from + 1) {
+                return Collections.unmodifiableList(pages);
+            }
+        }
+    }
+
+    int size() {
+        return view.size;
+    }
+
+    int maxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Copies the pages of a view into a new, larger ring buffer. The previous ring buffer is left untouched, so that
+     * readers of the previous view are unaffected.
+     */
+    private static AtomicReferenceArray<Slot> grow(View current, int capacity) {
+        AtomicReferenceArray<Slot> slots = new AtomicReferenceArray<>(capacity);
+
+        for (int i = 0; i < current.size; i++) {
+            long sequence = current.top - i;
+            slots.set((int) (sequence % capacity), current.slots.get((int) (sequence % current.slots.length())));
+        }
+
+        return slots;
+    }
+}
@@ -0,0 +1,168 @@
+package services.dataAccess;
+
+import services.dataAccess.proto.PostProto.Post;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Lock-free FIFO queue of posts with constant time appends, pops and size. The size is kept in a counter alongside
+ * the queue, as ConcurrentLinkedQueue.size() traverses the entire queue. Appends count a post before it is visible in
+ * the queue, so the size is never less than the number of posts a reader can see.
+ * <p>
+ * Posts added by upsertAll are deduplicated by ID while they wait in the queue: later upserts replace the version held
+ * by the queued entry of the post, which is returned in place of the version first queued. Posts added by add or
+ * addAll are neither deduplicated nor replaced.
+ */
+class PostQueue {
+
+    private final Queue<Entry> posts = new ConcurrentLinkedQueue<>();
+    private final AtomicLong size = new AtomicLong();
+
+    // entry of each post added by upsertAll and still waiting in the queue, by post ID
+    private final ConcurrentMap<String, Entry> upserted = new ConcurrentHashMap<>();
+
+    /**
+     * Position of a post in the queue. The post of an entry added by upsertAll is replaced by later upserts of its ID,
+     * under the lock ConcurrentHashMap holds on the ID while updating its mapping.
+     */
+    private static final class Entry {
+        volatile Post post;
+
+        Entry(Post post) {
+            this.post = post;
+        }
+    }
+
+    /**
+     * Appends a post to the end of the queue
+     *
+     * @param post post to be appended
+     * @return size of queue after insertion
+     */
+    long add(Post post) {
+        long newSize = size.incrementAndGet();
+        posts.add(new Entry(post));
+
+        return newSize;
+    }
+
+    /**
+     * Appends a list of posts, in order, to the end of the queue
+     *
+     * @param listOfPosts posts to be appended
+     * @return size of queue after insertion
+     */
+    long addAll(List<Post> listOfPosts) {
+        long newSize = size.addAndGet(listOfPosts.size());
+        posts.addAll(listOfPosts.stream().map(Entry::new).collect(Collectors.toList()));
+
+        return newSize;
+    }
+
+    /**
+     * Appends each post whose ID is not already waiting in the queue, in order, and replaces the waiting version of
+     * every other post without changing its position
+     *
+     * @param listOfPosts posts to be appended or replaced
+     * @return number of posts appended
+     */
+    int upsertAll(List<Post> listOfPosts) {
+        int numAppended = 0;
+
+        for (Post post : listOfPosts) {
+            Entry entry = new Entry(post);
+
+            // replace the post of the waiting entry of its ID, or else make this entry the waiting one and append it
+            Entry waiting = upserted.merge(post.getId(), entry, (current, ignored) -> {
+                current.post = post;
+                return current;
+            });
+
+            if (waiting == entry) {
+                size.incrementAndGet();
+                posts.add(entry);
+                numAppended++;
+            }
+        }
+
+        return numAppended;
+    }
+
+    /**
+     * Retrieves and removes the post at the head of the queue
+     *
+     * @return the post at the head of the queue, or the empty optional if the queue is empty
+     */
+    Optional<Post> poll() {
+        Entry entry = posts.poll();
+
+        if (entry == null) {
+            return Optional.empty();
+        } else {
+            size.decrementAndGet();
+
+            // once out of the queue, a post added by upsertAll is appended again by its next upsert; the entry is only
+            // unmapped if it is the waiting one, as an entry added by add is never mapped. Entries have no equals, so
+            // they are compared by identity
+            upserted.remove(entry.post.getId(), entry);
+            return Optional.of(entry.post);
+        }
+    }
+
+    /**
+     * Removes up to numPosts posts from the head of the queue
+     *
+     * @param numPosts maximum number of posts to remove
+     * @return number of posts removed
+     */
+    int remove(int numPosts) {
+        int numRemoved = 0;
+
+        while (numRemoved < numPosts && poll().isPresent()) {
+            numRemoved++;
+        }
+
+        return numRemoved;
+    }
+
+    /**
+     * Retrieves and removes up to maxPosts posts from the head of the queue
+     *
+     * @param maxPosts maximum number of posts to retrieve
+     * @return list of removed posts, in order
+     */
+    List<Post> drain(int maxPosts) {
+        List<Post> drained = new ArrayList<>();
+        Optional<Post> post;
+
+        while (drained.size() < maxPosts && (post = poll()).isPresent()) {
+            drained.add(post.get());
+        }
+
+        return drained;
+    }
+
+    /**
+     * Returns a snapshot of all posts in the queue, in order
+     *
+     * @return list of posts in queue
+     */
+    List<Post> snapshot() {
+        List<Post> snapshot = new ArrayList<>();
+        posts.forEach(entry -> snapshot.add(entry.post));
+
+        return snapshot;
+    }
+
+    long size() {
+        return size.get();
+    }
+}
@@ -4,95 +4,370 @@ import com.google.common.collect.Lists;
 import com.google.protobuf.InvalidProtocolBufferException;
 import play.Logger;
 import redis.clients.jedis.*;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisRedirectionException;
+import redis.clients.util.JedisURIHelper;
 import services.dataAccess.proto.PostListProto.PostList;
 import services.dataAccess.proto.PostProto.Post;
 
 import javax.inject.Singleton;
 import java.io.IOException;
+import java.net.URI;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import static services.PublicConstants.DATA_SOURCE;
+import static services.PublicConstants.REDIS_BORROW_TIMEOUT;
+import static services.PublicConstants.REDIS_MAX_CONNECTIONS;
+import static services.PublicConstants.REDIS_MAX_IDLE;
+import static services.PublicConstants.REDIS_MIN_IDLE;
 import static services.PublicConstants.REDIS_PORT;
+import static services.PublicConstants.REDIS_REPLICA_URLS;
+import static services.PublicConstants.REDIS_TIMEOUT;
 import static services.PublicConstants.REDIS_URL;
 
 @Singleton
 public class RedisAccessObject extends AbstractDataAccess {
 
-    private static JedisPool pool;
-    private static final int KEY_TIMEOUT = 86400; // number of seconds from postList update or access to expiry
+    private static final int MAX_CONNECTIONS = 128;  // default maximum number of connections in each pool
+    private static final int BORROW_TIMEOUT = 2000;  // default milliseconds to wait for a free connection
+
+    // every pool is sized from the environment; a request waits at most the borrow timeout for a free connection, so
+    // that a slow instance fails requests quickly rather than holding every request thread
+    private static final JedisPoolConfig POOL_CONFIG = createPoolConfig();
+    private static final int TIMEOUT = intFromEnvironment(REDIS_TIMEOUT, Protocol.DEFAULT_TIMEOUT); // milliseconds
+
+    private final JedisPool pool;
+
+    // time each operation waited for a connection from any pool of this object
+    private final LatencyHistogram borrowWait = new LatencyHistogram();
+
+    // pages and string lists are read from replicas in turn, if any; everything else goes to the primary pool
+    private final List<JedisPool> replicaPools;
+    private final AtomicInteger nextReplica = new AtomicInteger();
+
+    // a replica which could not be reached is skipped until this time (in milliseconds), so reads do not wait on it
+    private static final long REPLICA_RETRY_INTERVAL = 5000; // milliseconds
+    private final AtomicLongArray replicaDownUntil;
+
+    // a replica is only read from while its link to the primary is up and it trails the primary by at most
+    // MAX_REPLICA_LAG bytes of the replication stream, as found by a check at most every REPLICA_CHECK_INTERVAL
+    private static final long MAX_REPLICA_LAG = 1 << 20;   // bytes
+    private static final long REPLICA_CHECK_INTERVAL = 1000; // milliseconds
+    private final AtomicLongArray replicaCheckDue;
+
+    // a node of a Redis Cluster only accepts transactions whose keys all hash to the same slot
+    private final boolean clusterNode;
+
+    // pages are written with this codec; pages of every format are read, so the codec can change with data in place
+    private volatile PageCodec pageCodec = PageCodec.fromEnvironment();
+
+    // reads reset the TTL of a key at most once per interval, rather than on every access
+    private static final long REFRESH_INTERVAL = 60000; // milliseconds
+    private static final int MAX_REFRESH_ENTRIES = 100000;
+
+    // every key written by this object is registered in a set under the key index namespace, one set per namespace
+    private static final String KEY_INDEX_NAMESPACE = "keyindex";
+    private static final int SCAN_BATCH_SIZE = 1000;
+
+    // unregisters each key in ARGV from the key index at KEYS[1] only if the key still does not exist, so a key
+    // recreated (and registered again) since it was found missing is never dropped from the index
+    private static final byte[] PRUNE_INDEX_SCRIPT = (
+            "local numRemoved = 0 "
+                    + "for i = 1, #ARGV do "
+                    + "  if redis.call('exists', ARGV[i]) == 0 then "
+                    + "    numRemoved = numRemoved + redis.call('srem', KEYS[1], ARGV[i]) "
+                    + "  end "
+                    + "end "
+                    + "return numRemoved").getBytes();
+
+    // replacement lists are written under the staging namespace before being renamed into place; the replaced key is
+    // wrapped in a hash tag, so that on a Redis Cluster the staging key hashes to the same slot as the key it replaces
+    private static final String STAGING_NAMESPACE = "staging";
+    private static final int STAGING_TIMEOUT = 3600; // number of seconds before an abandoned staging key expires
+
+    // latest version of each upserted post waiting in a list is kept in a hash under the upsert namespace, keyed by
+    // post ID; the key of the list is wrapped in a hash tag, so that the hash hashes to the same cluster slot
+    private static final String UPSERT_NAMESPACE = "upsert";
+    private static final int UPSERT_TIMEOUT = 86400; // number of seconds from the last upsert to expiry of the hash
+
+    // sets the latest version of each (ID, post) pair in ARGV after the timeout of the hash in ARGV[1], appending to
+    // the list only posts not already waiting; the hash expires, so that versions left behind by a list which was
+    // deleted or expired do not keep their posts from being queued again for ever
+    private static final byte[] UPSERT_SCRIPT = (
+            "local numAppended = 0 "
+                    + "for i = 2, #ARGV, 2 do "
+                    + "  if redis.call('hset', KEYS[2], ARGV[i], ARGV[i + 1]) == 1 then "
+                    + "    redis.call('rpush', KEYS[1], ARGV[i + 1]) "
+                    + "    numAppended = numAppended + 1 "
+                    + "  end "
+                    + "end "
+                    + "redis.call('expire', KEYS[2], ARGV[1]) "
+                    + "if KEYS[3] and numAppended > 0 then "
+                    + "  redis.call('incrby', KEYS[3], numAppended) "
+                    + "end "
+                    + "return numAppended").getBytes();
+
+    // replaces the list at KEYS[2] with a copy of the list at KEYS[1], moving ARGV[1] values per command, as Lua can
+    // only unpack so many values at once. The copy expires after ARGV[2] seconds, if positive, and is registered in
+    // (or, if empty, removed from) the key index at KEYS[3], if given
+    private static final byte[] COPY_LIST_SCRIPT = (
+            "redis.call('del', KEYS[2]) "
+                    + "local length = redis.call('llen', KEYS[1]) "
+                    + "local chunk = tonumber(ARGV[1]) "
+                    + "for i = 0, length - 1, chunk do "
+                    + "  redis.call('rpush', KEYS[2], unpack(redis.call('lrange', KEYS[1], i, i + chunk - 1))) "
+                    + "end "
+                    + "if length > 0 and tonumber(ARGV[2]) > 0 then "
+                    + "  redis.call('expire', KEYS[2], ARGV[2]) "
+                    + "end "
+                    + "if KEYS[3] then "
+                    + "  if length > 0 then "
+                    + "    redis.call('sadd', KEYS[3], KEYS[2]) "
+                    + "  else "
+                    + "    redis.call('srem', KEYS[3], KEYS[2]) "
+                    + "  end "
+                    + "end "
+                    + "return length").getBytes();
+    private static final int COPY_CHUNK_SIZE = 1000;
+
+    // removes and returns up to ARGV[1] posts from the head of the list at KEYS[1], each replaced by, and removed
+    // from, its latest version in the hash at KEYS[2] if it was upserted, and subtracts the number removed from the
+    // counter at KEYS[3], if given. The ID of a post is read from its serialized form, which begins with the ID as
+    // field 1 (tag byte 10, then the length as a varint), or with another field if the ID is empty
+    private static final byte[] TAKE_FIRST_SCRIPT = (
+            "local posts = redis.call('lrange', KEYS[1], 0, tonumber(ARGV[1]) - 1) "
+                    + "if #posts == 0 then "
+                    + "  return posts "
+                    + "end "
+                    + "redis.call('ltrim', KEYS[1], #posts, -1) "
+                    + "if KEYS[3] then "
+                    + "  redis.call('decrby', KEYS[3], #posts) "
+                    + "end "
+                    + "if redis.call('exists', KEYS[2]) == 1 then "
+                    + "  for i = 1, #posts do "
+                    + "    local post = posts[i] "
+                    + "    if string.byte(post, 1) == 10 then "
+                    + "      local length, shift, j, b = 0, 1, 2, 128 "
+                    + "      while b >= 128 do "
+                    + "        b = string.byte(post, j) "
+                    + "        length = length + (b % 128) * shift "
+                    + "        shift = shift * 128 "
+                    + "        j = j + 1 "
+                    + "      end "
+                    + "      local id = string.sub(post, j, j + length - 1) "
+                    + "      local latest = redis.call('hget', KEYS[2], id) "
+                    + "      if latest then "
+                    + "        posts[i] = latest "
+                    + "        redis.call('hdel', KEYS[2], id) "
+                    + "      end "
+                    + "    end "
+                    + "  end "
+                    + "end "
+                    + "return posts").getBytes();
+
+    // versions of lists are counters under the version namespace, outliving the lists they describe
+    private static final String VERSION_NAMESPACE = "version";
+
+    // namespaces whose key index has been rebuilt from the keyspace by this process
+    private final Set<String> indexedNameSpaces = ConcurrentHashMap.newKeySet();
+
+    // time (in milliseconds) at which this process last reset the TTL of each key
+    private final ConcurrentMap<String, Long> lastRefreshed = new ConcurrentHashMap<>();
+
+    // whether connections borrowed by the current thread must send ASKING first, to reach a slot being imported
+    private final ThreadLocal<Boolean> asking = ThreadLocal.withInitial(() -> false);
 
     public RedisAccessObject() {
-        JedisPoolConfig poolConfig = new JedisPoolConfig();
-        poolConfig.setMaxTotal(128);
+        this(createPool(System.getenv(REDIS_URL)), createPools(System.getenv(REDIS_REPLICA_URLS)), false);
+    }
+
+    /**
+     * @param host host name of the Redis instance
+     * @param port port of the Redis instance
+     */
+    public RedisAccessObject(String host, int port) {
+        this(host, port, false);
+    }
+
+    /**
+     * Reads of pages and string lists are spread over the replicas of the Redis instance in turn. Reads from a replica
+     * which cannot be reached, or which lags too far behind the primary, go to the primary instead; a read which finds
+     * nothing on a replica within the lag bound is answered as empty, without asking the primary.
+     *
+     * @param host             host name of the primary Redis instance
+     * @param port             port of the primary Redis instance
+     * @param replicaEndpoints host:port of each replica of the primary
+     */
+    public RedisAccessObject(String host, int port, List<String> replicaEndpoints) {
+        this(new JedisPool(POOL_CONFIG, host, port, TIMEOUT), createPools(String.join(",", replicaEndpoints)), false);
+    }
+
+    /**
+     * On a node of a Redis Cluster, keys are not registered in the key index, whose set would hash to another slot
+     * than the keys it registers; keys of a namespace are found by scanning the node instead. Versions are stored
+     * under a hash tag of the key they describe, so they are written in the same transaction as the key.
+     *
+     * @param host        host name of the Redis instance
+     * @param port        port of the Redis instance
+     * @param clusterNode whether the Redis instance is a master node of a Redis Cluster
+     */
+    RedisAccessObject(String host, int port, boolean clusterNode) {
+        this(new JedisPool(POOL_CONFIG, host, port, TIMEOUT), Collections.emptyList(), clusterNode);
+    }
 
-        pool = new JedisPool(poolConfig, System.getenv(REDIS_URL));
+    private RedisAccessObject(JedisPool pool, List<JedisPool> replicaPools, boolean clusterNode) {
+        this.pool = pool;
+        this.replicaPools = replicaPools;
+        this.replicaDownUntil = new AtomicLongArray(replicaPools.size());
+        this.replicaCheckDue = new AtomicLongArray(replicaPools.size());
+        this.clusterNode = clusterNode;
+    }
+
+    @Override
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> statistics = super.getStatistics();
+        statistics.put("pool", poolStatistics(pool));
+        if (!replicaPools.isEmpty()) {
+            statistics.put("replicaPools", replicaPools.stream()
+                    .map(RedisAccessObject::poolStatistics)
+                    .collect(Collectors.toList()));
+        }
+        statistics.put("borrowWait", borrowWait.summarize());
+        statistics.put("borrowTimeoutMillis", POOL_CONFIG.getMaxWaitMillis());
+
+        return statistics;
+    }
+
+    /**
+     * Sets the codec with which pages are written from now on; pages already stored are still read in their format
+     *
+     * @param pageCodec codec of pages written by this object
+     */
+    public void setPageCodec(PageCodec pageCodec) {
+        this.pageCodec = pageCodec;
     }
 
     @Override
     protected long addNewPost(String keyString, Post post) {
-        long result;
+        Response<Long> result;
+        byte[] key = keyString.getBytes();
+
+        try (BinaryJedis redisAccess = borrow(pool)) {
+
+            Pipeline pipe = redisAccess.pipelined();
+            pipe.multi();
+
+            // push post to right side of value list under key, and register key in its namespace index
+            result = pipe.rpush(key, post.toByteArray());
+            register(pipe, keyString);
+            countPending(pipe, keyString, 1);
 
-        try (BinaryJedis redisAccess = pool.getResource()) {
+            pipe.exec();
+            throwRedirect(pipe.syncAndReturnAll());
 
-            // push post to right side of value list under key
-            result = redisAccess.rpush(keyString.getBytes(), post.toByteArray());
+            try {
+                pipe.close();
+            } catch (IOException IOe) {
+                Logger.error("Problems closing Redis Pipe"); // todo: handle better
+            }
         }
-        return result;
+        return result.get();
     }
 
     @Override
     protected long addNewPosts(String keyString, List<Post> listOfPosts) {
         long newLength;
+        byte[] key = keyString.getBytes();
 
-        try (BinaryJedis redisAccess = pool.getResource()) {
+        try (BinaryJedis redisAccess = borrow(pool)) {
 
             Pipeline pipe = redisAccess.pipelined();
             pipe.multi();
 
             for (Post post : listOfPosts) {
-                pipe.rpush(keyString.getBytes(), post.toByteArray());
+                pipe.rpush(key, post.toByteArray());
+            }
+
+            // register key in its namespace index
+            if (!listOfPosts.isEmpty()) {
+                register(pipe, keyString);
+                countPending(pipe, keyString, listOfPosts.size());
             }
 
-            Response<List<Object>> results = pipe.exec();
+            pipe.exec();
+            throwRedirect(pipe.syncAndReturnAll());
 
             try {
                 pipe.close();
             } catch (IOException IOe) {
                 Logger.error("Problems closing Redis Pipe"); // todo: handle better
             }
-            newLength = (long) results.get().size();
+            newLength = (long) listOfPosts.size();
         }
 
         return newLength;
     }
 
     @Override
-    protected Optional<Post> popFirstPost(String keyString) {
-        Post oldestPost = null;
-        byte[] result;
+    protected long upsertPosts(String keyString, List<Post> listOfPosts) {
+        Response<Object> result;
+        List<byte[]> args = new ArrayList<>();
+
+        if (listOfPosts.isEmpty()) {
+            return 0;
+        }
 
-        try (BinaryJedis redisAccess = pool.getResource()) {
-            // pop from left of value list under key
-            result = redisAccess.lpop(keyString.getBytes());
+        args.add(String.valueOf(UPSERT_TIMEOUT).getBytes());
+        for (Post post : listOfPosts) {
+            args.add(post.getId().getBytes());
+            args.add(post.toByteArray());
         }
 
-        if (result != null) {
-            // parse Post object from byte array
+        try (BinaryJedis redisAccess = borrow(pool)) {
+
+            Pipeline pipe = redisAccess.pipelined();
+            pipe.multi();
+
+            // append or update every post in a single script, so a post is never both waiting and absent from the hash
+            result = pipe.eval(UPSERT_SCRIPT,
+                    withPendingCounter(keyString, keyString.getBytes(), upsertKey(keyString)), args);
+
+            // register key in its namespace index
+            register(pipe, keyString);
+
+            pipe.exec();
+            throwRedirect(pipe.syncAndReturnAll());
+
             try {
-                oldestPost = Post.parseFrom(result);
-            } catch (InvalidProtocolBufferException iPBE) {
-                //todo: handle this more elegantly
-                Logger.warn("Invalid Protocol Buffer");
+                pipe.close();
+            } catch (IOException IOe) {
+                Logger.error("Problems closing Redis Pipe"); // todo: handle better
             }
+        }
+
+        return (Long) result.get();
+    }
+
+    @Override
+    protected Optional<Post> popFirstPost(String keyString) {
+        List<Post> oldestPost;
 
+        try (BinaryJedis redisAccess = borrow(pool)) {
+            // pop from left of value list under key, replacing the post by its latest version if it was upserted
+            oldestPost = takeFirst(redisAccess, keyString, 1);
         }
 
         // handle negative case and return
-        if (oldestPost == null) {
+        if (oldestPost.isEmpty()) {
             return Optional.empty();
         } else {
-            return Optional.of(oldestPost);
+            return Optional.of(oldestPost.get(0));
         }
     }
 
@@ -100,25 +375,32 @@ public class RedisAccessObject extends AbstractDataAccess {
     protected List<Post> getAllPosts(String keyString) {
         List<byte[]> byteList;
 
+        List<byte[]> latestList = Collections.emptyList();
+        List<Post> postList = new ArrayList<>();
+
         // connect to redis and obtain all posts under keystring (negative indexing for final post)
-        try (BinaryJedis redisAccess = pool.getResource()) {
+        try (BinaryJedis redisAccess = borrow(pool)) {
             byteList = redisAccess.lrange(keyString.getBytes(), 0, -1);
-        }
 
-        List<Post> postList = new ArrayList<>();
+            // parse each post returned into Post objects
+            for (byte[] bytes : byteList) {
+                try {
+                    Post post = Post.parseFrom(bytes);
+                    postList.add(post);
+                } catch (InvalidProtocolBufferException iPBE) {
+                    // todo: better error handling
+                    Logger.warn("Invalid Protocol Buffer");
+                }
+            }
 
-        // parse each post returned into Post objects
-        for (byte[] bytes : byteList) {
-            try {
-                Post post = Post.parseFrom(bytes);
-                postList.add(post);
-            } catch (InvalidProtocolBufferException iPBE) {
-                // todo: better error handling
-                Logger.warn("Invalid Protocol Buffer");
+            // read, without removing, the latest version of each upserted post
+            if (!postList.isEmpty()) {
+                latestList = redisAccess.hmget(upsertKey(keyString),
+                        postList.stream().map(post -> post.getId().getBytes()).toArray(byte[][]::new));
             }
         }
 
-        return postList;
+        return withLatest(postList, latestList);
     }
 
     @Override
@@ -129,33 +411,85 @@ public class RedisAccessObject extends AbstractDataAccess {
             return returnString; // todo: handle better
         }
 
-        try (BinaryJedis redisAccess = pool.getResource()) {
-            returnString = redisAccess.ltrim(keyString.getBytes(), numPosts, -1);
+        // a range ending at index -1 would read the whole list
+        if (numPosts == 0) {
+            return "OK";
+        }
+
+        try (BinaryJedis redisAccess = borrow(pool)) {
+
+            // the deleted posts are read, so that their upserted versions can be deleted with them
+            takeFirst(redisAccess, keyString, numPosts);
+            returnString = "OK";
         }
 
         return returnString;
     }
 
+    @Override
+    protected List<Post> drainPosts(String keyString, int maxPosts) {
+        if (maxPosts <= 0) {
+            return Collections.emptyList();
+        }
+
+        try (BinaryJedis redisAccess = borrow(pool)) {
+
+            // read and trim the head of the queue in one script, so no other client can drain the same posts
+            return takeFirst(redisAccess, keyString, maxPosts);
+        }
+    }
+
     @Override
     protected long addNewPostList(String keyString, PostList postList) {
-        long result;
+        return addNewPostLists(keyString, Collections.singletonList(postList));
+    }
 
+    @Override
+    protected long addNewPostLists(String keyString, List<PostList> postLists) {
+        Response<Long> result;
         byte[] key = keyString.getBytes();
+        RetentionPolicy policy = getRetentionPolicyOfKey(keyString);
 
-        try (BinaryJedis redisAccess = pool.getResource()) {
+        if (postLists.isEmpty()) {
+            return getListSize(keyString);
+        }
+
+        try (BinaryJedis redisAccess = borrow(pool)) {
+
+            Pipeline pipe = redisAccess.pipelined();
+            pipe.multi();
+
+            // push to left of value list under key, in reverse order (so first is at top of stack)
+            byte[][] pages = Lists.reverse(postLists).stream().map(pageCodec::encode).toArray(byte[][]::new);
+            result = pipe.lpush(key, pages);
 
-            // push to left of value list under key
-            result = redisAccess.lpush(key, postList.toByteArray());
+            // trim list to contain only the first maxPostLists PostLists of the retention policy
+            pipe.ltrim(key, 0, policy.getMaxPostLists() - 1);
+
+            // (re)set TTL on key to the time to live of the retention policy
+            if (policy.expires()) {
+                pipe.expire(key, policy.getTimeToLive());
+            } else {
+                pipe.persist(key);
+            }
 
-            // trim list to contain only the first MAX_POSTLISTS PostLists.
-            redisAccess.ltrim(key, 0, MAX_POSTLISTS - 1);
+            // register key in its namespace index
+            register(pipe, keyString);
 
-            // (re)set TTL on key to KEY_TIMEOUT seconds from now
-            redisAccess.expire(key, KEY_TIMEOUT);
+            // all commands are sent and executed in a single round trip
+            pipe.exec();
+            throwRedirect(pipe.syncAndReturnAll());
 
+            try {
+                pipe.close();
+            } catch (IOException IOe) {
+                Logger.error("Problems closing Redis Pipe"); // todo: handle better
+            }
         }
 
-        return result;
+        markRefreshed(keyString);
+
+        return Math.min(result.get(), policy.getMaxPostLists());
     }
 
     @Override
@@ -165,7 +499,7 @@ public class RedisAccessObject extends AbstractDataAccess {
         try {
             Optional<byte[]> postListByte = getByte(keyString, index);
             if (postListByte.isPresent()) {
-                postList = PostList.parseFrom(postListByte.get());
+                postList = PageCodec.decode(postListByte.get());
             }
         } catch (InvalidProtocolBufferException iPBE) {
             //todo: handle this more elegantly.
@@ -184,7 +518,7 @@ public class RedisAccessObject extends AbstractDataAccess {
         List<byte[]> byteList;
 
         // get all posts under a particular key (-1 refers to the last post in list)
-        try (BinaryJedis redisAccess = pool.getResource()) {
+        try (BinaryJedis redisAccess = borrow(pool)) {
             byteList = redisAccess.lrange(keyString.getBytes(), 0, -1);
         }
 
@@ -193,7 +527,7 @@ public class RedisAccessObject extends AbstractDataAccess {
         // parse each post returned into Post objects
         for (byte[] bytes : byteList) {
             try {
-                PostList postList = PostList.parseFrom(bytes);
+                PostList postList = PageCodec.decode(bytes);
                 listOfPostLists.add(postList);
             } catch (InvalidProtocolBufferException iPBE) {
                 // todo: better error handling
@@ -204,6 +538,81 @@ public class RedisAccessObject extends AbstractDataAccess {
         return listOfPostLists;
     }
 
+    @Override
+    protected Map<String, List<PostList>> getAllPostLists(List<String> keyStrings) {
+        Map<String, Response<List<byte[]>>> responses = new LinkedHashMap<>();
+
+        // every list is read on one pipeline, so a batch of channels costs a single round trip
+        try (BinaryJedis redisAccess = borrow(pool)) {
+            Pipeline pipe = redisAccess.pipelined();
+
+            for (String keyString : keyStrings) {
+                responses.put(keyString, pipe.lrange(keyString.getBytes(), 0, -1));
+            }
+            pipe.sync();
+
+            try {
+                pipe.close();
+            } catch (IOException IOe) {
+                Logger.error("Problems closing Redis Pipe"); // todo: handle better
+            }
+        }
+
+        Map<String, List<PostList>> postListsByKey = new LinkedHashMap<>();
+        responses.forEach((keyString, response) -> {
+            List<PostList> listOfPostLists = new ArrayList<>();
+
+            for (byte[] bytes : response.get()) {
+                try {
+                    listOfPostLists.add(PageCodec.decode(bytes));
+                } catch (InvalidProtocolBufferException iPBE) {
+                    // todo: better error handling
+                    Logger.warn("Invalid PostList Protocol Buffer");
+                }
+            }
+            postListsByKey.put(keyString, listOfPostLists);
+        });
+
+        return postListsByKey;
+    }
+
+    @Override
+    protected List<PostList> getPostListRange(String keyString, int from, int to) {
+        List<byte[]> byteList;
+        byte[] key = keyString.getBytes();
+
+        if (from < 0 || to < from) {
+            return Collections.emptyList();
+        }
+
+        // read every postList in range with a single LRANGE
+        byteList = readRange(key, from, to);
+
+        // reset key timeout, if the retention policy asks for it and it has not been reset recently
+        if (!byteList.isEmpty()) {
+            refresh(keyString);
+        }
+
+        List<PostList> listOfPostLists = new ArrayList<>();
+
+        // parse each postList returned into PostList objects
+        for (byte[] bytes : byteList) {
+            try {
+                listOfPostLists.add(PageCodec.decode(bytes));
+            } catch (InvalidProtocolBufferException iPBE) {
+                // todo: better error handling
+                Logger.warn("Invalid PostList Protocol Buffer");
+            }
+        }
+
+        return listOfPostLists;
+    }
+
+    @Override
+    protected Iterator<PostList> iteratePostLists(String keyString, int chunkSize) {
+        return new PostListIterator(keyString.getBytes(), chunkSize);
+    }
+
     @Override
     public long getNumPostsInNameSpace(String nameSpace) {
 
@@ -211,16 +620,15 @@ public class RedisAccessObject extends AbstractDataAccess {
         List<String> keysInNameSpace = getKeysInNameSpace(nameSpace);
         List<Response<Long>> responseList = new ArrayList<>();
 
-        // Connect to redis, with pipelined queries
-        try (BinaryJedis redisAccess = pool.getResource()) {
+        // Connect to redis, with pipelined queries; not a transaction, as the keys may hash to different cluster slots
+        try (BinaryJedis redisAccess = borrow(pool)) {
             Pipeline pipe = redisAccess.pipelined();
-            pipe.multi();
 
             // get number of posts at each key in namespace, with responses stored in responseList
             responseList.addAll(keysInNameSpace.stream().map(keyString -> pipe.llen(keyString.getBytes())).collect(Collectors.toList()));
 
             // execute queries and disconnect
-            pipe.exec();
+            pipe.sync();
 
             try {
                 pipe.close();
@@ -235,26 +643,127 @@ public class RedisAccessObject extends AbstractDataAccess {
 
     }
 
+    @Override
+    public long getNumPostsInSources() {
+
+        // a cluster node keeps no counter of waiting posts, so its source queues are counted directly
+        return clusterNode ? getNumPostsInNameSpace(SOURCE_NAMESPACE) : super.getNumPostsInSources();
+    }
+
+    @Override
+    public long recountPostsInSources() {
+        return clusterNode ? getNumPostsInNameSpace(SOURCE_NAMESPACE) : super.recountPostsInSources();
+    }
+
     @Override
     public List<String> getKeysInNameSpace(String nameSpace) {
         Set<byte[]> byteList;
+        List<String> liveKeys = new ArrayList<>();
+        List<byte[]> staleKeys = new ArrayList<>();
+        byte[] index = (KEY_INDEX_NAMESPACE + NAMESPACE_DELIMITER + nameSpace).getBytes();
+
+        // a cluster node keeps no key index, and every key found by scanning it exists
+        if (clusterNode) {
+            return scanKeysInNameSpace(nameSpace).stream().map(String::new).collect(Collectors.toList());
+        }
 
-        // retrieve set of keys matching matchString
-        try (BinaryJedis redisAccess = pool.getResource()) {
+        // keys written before the index existed are only found by scanning the keyspace, once per process
+        if (!indexedNameSpaces.contains(nameSpace)) {
+            rebuildKeyIndex(nameSpace);
+        }
 
-            // match all keys with namespace by using wildcard '*'
-            byteList = redisAccess.keys((nameSpace + NAMESPACE_DELIMITER + "*").getBytes());
+        try (BinaryJedis redisAccess = borrow(pool)) {
+
+            // retrieve set of keys registered under namespace
+            byteList = redisAccess.smembers(index);
+
+            if (!byteList.isEmpty()) {
+
+                // check existence of each registered key, as keys may have expired or been emptied since registration
+                Map<byte[], Response<Boolean>> responseMap = new LinkedHashMap<>();
+                Pipeline pipe = redisAccess.pipelined();
+                byteList.forEach(key -> responseMap.put(key, pipe.exists(key)));
+                pipe.sync();
+
+                try {
+                    pipe.close();
+                } catch (IOException IOe) {
+                    Logger.error("Problems closing Redis Pipe"); // todo: handle better
+                }
+
+                responseMap.forEach((key, exists) -> {
+                    if (exists.get()) {
+                        liveKeys.add(new String(key));
+                    } else {
+                        staleKeys.add(key);
+                    }
+                });
+
+                // unregister keys that no longer exist, checking again atomically in case they were recreated since
+                if (!staleKeys.isEmpty()) {
+                    redisAccess.eval(PRUNE_INDEX_SCRIPT, Collections.singletonList(index), staleKeys);
+                }
+            }
         }
 
-        // convert set of bytes to list of strings and return
-        return byteList.stream().map(String::new).collect(Collectors.toList());
+        return liveKeys;
+    }
+
+    /**
+     * Rebuilds the key index of a namespace by incrementally scanning the keyspace for keys under that namespace.
+     * Unlike KEYS, SCAN does not block the Redis server for the duration of the search.
+     *
+     * @param nameSpace string corresponding to the desired namespace (proceeds namespace delimiter in any unique key)
+     * @return number of keys found under nameSpace
+     */
+    public long rebuildKeyIndex(String nameSpace) {
+        byte[] index = (KEY_INDEX_NAMESPACE + NAMESPACE_DELIMITER + nameSpace).getBytes();
+        List<byte[]> keys = scanKeysInNameSpace(nameSpace);
+
+        try (BinaryJedis redisAccess = borrow(pool)) {
+
+            // register matching keys in batches, so no single command grows with the size of the namespace
+            for (List<byte[]> batch : Lists.partition(keys, SCAN_BATCH_SIZE)) {
+                redisAccess.sadd(index, batch.toArray(new byte[batch.size()][]));
+            }
+        }
+
+        indexedNameSpaces.add(nameSpace);
+        return keys.size();
+    }
+
+    /**
+     * Incrementally scans the keyspace for keys under a namespace. Unlike KEYS, SCAN does not block the Redis server
+     * for the duration of the search.
+     *
+     * @param nameSpace string corresponding to the desired namespace (proceeds namespace delimiter in any unique key)
+     * @return keys found under nameSpace, as byte arrays
+     */
+    private List<byte[]> scanKeysInNameSpace(String nameSpace) {
+        List<byte[]> keys = new ArrayList<>();
+        ScanParams params = new ScanParams()
+                .match((nameSpace + NAMESPACE_DELIMITER + "*").getBytes())
+                .count(SCAN_BATCH_SIZE);
+
+        try (BinaryJedis redisAccess = borrow(pool)) {
+            byte[] cursor = ScanParams.SCAN_POINTER_START_BINARY;
+
+            // iterate through keyspace until cursor returns to start, collecting each matching key
+            do {
+                ScanResult<byte[]> scanResult = redisAccess.scan(cursor, params);
+                keys.addAll(scanResult.getResult());
+                cursor = scanResult.getCursorAsBytes();
+            } while (!Arrays.equals(cursor, ScanParams.SCAN_POINTER_START_BINARY));
+        }
+
+        return keys;
     }
 
     @Override
     protected long getListSize(String keyString) {
         long size;
 
-        try (BinaryJedis redisAccess = pool.getResource()) {
+        try (BinaryJedis redisAccess = borrow(pool)) {
             size = redisAccess.llen(keyString.getBytes());
         }
 
@@ -266,16 +775,8 @@ public class RedisAccessObject extends AbstractDataAccess {
         List<byte[]> byteList;
         byte[] key = keyString.getBytes();
 
-        try (BinaryJedis redisAccess = pool.getResource()) {
-
-            // obtain max length of request, and scale to max length if needed
-            long listLen = redisAccess.llen(key);
-            if (length > listLen) {
-                length = listLen;
-            }
-
-            byteList = redisAccess.lrange(keyString.getBytes(), 0, length);
-        }
+        // a range past the end of the list is cut short by Redis, so no separate LLEN is needed
+        byteList = readRange(key, 0, length);
 
         // convert list of byte arrays to list of strings and return
         return byteList.stream().map(String::new).collect(Collectors.toList());
@@ -284,97 +785,898 @@ public class RedisAccessObject extends AbstractDataAccess {
 
     @Override
     protected long replaceStringList(String keyString, List<String> stringList) {
-        int listLength = stringList.size();
-        byte[] key = keyString.getBytes();
-        List<String> reversedStringList = Lists.reverse(stringList);
+        byte[][] values = stringList.stream().map(String::getBytes).toArray(byte[][]::new);
+
+        return replaceList(keyString, values, getRetentionPolicyOfKey(keyString).getTimeToLive());
+    }
 
-        try (BinaryJedis redisAccess = pool.getResource()) {
+    @Override
+    protected long replacePostLists(String keyString, List<PostList> postLists) {
+        RetentionPolicy policy = getRetentionPolicyOfKey(keyString);
+        byte[][] values = postLists.stream()
+                .limit(policy.getMaxPostLists())
+                .map(pageCodec::encode)
+                .toArray(byte[][]::new);
+
+        return replaceList(keyString, values, policy.getTimeToLive());
+    }
 
+    @Override
+    protected long replacePostLists(Map<String, List<PostList>> postListsByKey) {
+        long numPostLists = 0;
+
+        // every replacement is queued on one pipeline, so a batch of channels costs a single round trip
+        try (BinaryJedis redisAccess = borrow(pool)) {
             Pipeline pipe = redisAccess.pipelined();
-            pipe.multi();
 
-            // push strings in reverse order (so first is at front)
-            for (String s : reversedStringList) {
-                pipe.lpush(key, s.getBytes());
-            }
+            for (Map.Entry<String, List<PostList>> e : postListsByKey.entrySet()) {
+                RetentionPolicy policy = getRetentionPolicyOfKey(e.getKey());
+                byte[][] values = e.getValue().stream()
+                        .limit(policy.getMaxPostLists())
+                        .map(pageCodec::encode)
+                        .toArray(byte[][]::new);
 
-            pipe.exec();
+                queueReplaceList(pipe, e.getKey(), values, policy.getTimeToLive());
+                numPostLists += values.length;
+            }
+            throwRedirect(pipe.syncAndReturnAll());
 
             try {
                 pipe.close();
             } catch (IOException IOe) {
                 Logger.error("Problems closing Redis Pipe"); // todo: handle better
             }
-
-            if (listLength > 0) {
-                // delete old entries, so that only new string list remains
-                redisAccess.ltrim(key, 0, listLength - 1);
-            } else {
-                // if replacing with empty list, delete all in channel
-                redisAccess.del(key);
-            }
         }
 
-        return listLength;
+        postListsByKey.forEach((keyString, postLists) -> markReplaced(keyString,
+                Math.min(postLists.size(), getRetentionPolicyOfKey(keyString).getMaxPostLists())));
+
+        return numPostLists;
     }
 
     @Override
-    protected long replacePostLists(String keyString, List<PostList> postLists) {
-        int listLength = postLists.size();
+    protected long copyList(String fromKeyString, String toKeyString) {
+        if (clusterNode) {
+            // the two keys hash to different slots, which a script on a cluster node may not touch together
+            return restoreList(toKeyString, dumpList(fromKeyString));
+        }
+
+        List<byte[]> keys = Arrays.asList(fromKeyString.getBytes(), toKeyString.getBytes(), indexKey(toKeyString));
+        List<byte[]> args = Arrays.asList(String.valueOf(COPY_CHUNK_SIZE).getBytes(),
+                String.valueOf(getRetentionPolicyOfKey(toKeyString).getTimeToLive()).getBytes());
+        long length;
+
+        // the list is copied within Redis in a single script, so readers of toKeyString never observe a partial copy
+        try (BinaryJedis redisAccess = borrow(pool)) {
+            length = (Long) redisAccess.eval(COPY_LIST_SCRIPT, keys, args);
+        }
+
+        markReplaced(toKeyString, (int) length);
+
+        return length;
+    }
+
+    /**
+     * Serializes the list at keyString with DUMP, so that it can be restored under another key, possibly on another
+     * Redis instance
+     *
+     * @param keyString string corresponding to key in Redis (complete with namespace and delimiter)
+     * @return serialized list, or null if there is no list at keyString
+     */
+    byte[] dumpList(String keyString) {
+        try (BinaryJedis redisAccess = borrow(pool)) {
+            return redisAccess.dump(keyString.getBytes());
+        }
+    }
+
+    /**
+     * Atomically replaces the list at keyString with a list serialized by dumpList, setting its TTL according to the
+     * retention policy of keyString. Restoring a missing list deletes keyString.
+     *
+     * @param keyString string corresponding to key in Redis (complete with namespace and delimiter)
+     * @param dump      serialized list, or null if there was no list to serialize
+     * @return length of list at keyString after replacement
+     */
+    long restoreList(String keyString, byte[] dump) {
+        int timeout = getRetentionPolicyOfKey(keyString).getTimeToLive();
         byte[] key = keyString.getBytes();
-        List<PostList> reversedPostList = Lists.reverse(postLists);
-        try (BinaryJedis redisAccess = pool.getResource()) {
+        Response<Long> length;
+
+        if (dump == null) {
+            return replaceList(keyString, new byte[0][], timeout);
+        }
+
+        try (BinaryJedis redisAccess = borrow(pool)) {
 
             Pipeline pipe = redisAccess.pipelined();
             pipe.multi();
 
-            // push postlists in reverse order (so first is at top of stack)
-            for (PostList pl : reversedPostList) {
-                pipe.lpush(key, pl.toByteArray());
-            }
+            // RESTORE cannot replace an existing key on Redis before 3.0, so the old list is deleted first
+            pipe.del(key);
+            pipe.restore(key, timeout > 0 ? timeout * 1000 : 0, dump);
+            register(pipe, keyString);
+            length = pipe.llen(key);
 
             pipe.exec();
+            throwRedirect(pipe.syncAndReturnAll());
 
             try {
                 pipe.close();
             } catch (IOException IOe) {
                 Logger.error("Problems closing Redis Pipe"); // todo: handle better
             }
+        }
 
-            if (listLength > 0) {
-                // trim entries, so that only new postLists remain
-                redisAccess.ltrim(key, 0, listLength - 1);
-            } else {
-                // If input is empty list, delete all existing entries
-                redisAccess.del(key);
-            }
+        markReplaced(keyString, length.get().intValue());
+
+        return length.get();
+    }
+
+    @Override
+    protected long getVersion(String keyString) {
+        byte[] version;
+
+        try (BinaryJedis redisAccess = borrow(pool)) {
+            version = redisAccess.get(versionKey(keyString));
         }
 
-        return listLength;
+        return version == null ? 0L : Long.parseLong(new String(version));
     }
 
-    /**
-     * Retrieves the byte array stored at the specified index in Redis under keyString. The byte array can then be
-     * parsed into either a Post or PostList.
-     *
-     * @param keyString string corresponding to key in Redis (complete with namespace and delimiter)
-     * @param index     desired index of list under keyString
-     * @return Optional of byte array stored at index, empty if not found.
-     */
-    private Optional<byte[]> getByte(String keyString, Integer index) {
-        List<byte[]> entryList;
-        byte[] key = keyString.getBytes();
+    @Override
+    protected long incrementVersion(String keyString) {
+        return addToVersion(keyString, 1);
+    }
+
+    @Override
+    protected Map<String, Long> incrementVersions(List<String> keyStrings) {
+        Map<String, Response<Long>> results = new LinkedHashMap<>();
+
+        // each version is incremented in a transaction of its own, as in addToVersion, all on a single pipeline
+        try (BinaryJedis redisAccess = borrow(pool)) {
+            Pipeline pipe = redisAccess.pipelined();
+
+            for (String keyString : keyStrings) {
+                byte[] key = versionKey(keyString);
+                RetentionPolicy policy = getRetentionPolicyOfKey(keyString);
 
-        try (BinaryJedis redisAccess = pool.getResource()) {// connect to redis and get element under key at index
-            entryList = redisAccess.lrange(key, index, index);
-            redisAccess.expire(key, KEY_TIMEOUT); // reset key timeout to KEY_TIMEOUT seconds from access
+                pipe.multi();
+                results.put(keyString, pipe.incr(key));
+                if (policy.expires()) {
+                    pipe.expire(key, 2 * policy.getTimeToLive());
+                }
+                pipe.exec();
+            }
+            throwRedirect(pipe.syncAndReturnAll());
+
+            try {
+                pipe.close();
+            } catch (IOException IOe) {
+                Logger.error("Problems closing Redis Pipe"); // todo: handle better
+            }
         }
 
-        if (entryList.isEmpty() || index < 0) {     // if we found something, take the first element
+        Map<String, Long> newVersions = new LinkedHashMap<>();
+        results.forEach((keyString, result) -> newVersions.put(keyString, result.get()));
+        return newVersions;
+    }
+
+    @Override
+    protected long addToVersion(String keyString, long delta) {
+        Response<Long> result;
+        byte[] key = versionKey(keyString);
+        RetentionPolicy policy = getRetentionPolicyOfKey(keyString);
+
+        try (BinaryJedis redisAccess = borrow(pool)) {
+
+            Pipeline pipe = redisAccess.pipelined();
+            pipe.multi();
+
+            result = pipe.incrBy(key, delta);
+
+            // version outlives the list it describes, so a recreated list never repeats a version of the old one
+            if (policy.expires()) {
+                pipe.expire(key, 2 * policy.getTimeToLive());
+            }
+
+            pipe.exec();
+            throwRedirect(pipe.syncAndReturnAll());
+
+            try {
+                pipe.close();
+            } catch (IOException IOe) {
+                Logger.error("Problems closing Redis Pipe"); // todo: handle better
+            }
+        }
+
+        return result.get();
+    }
+
+    @Override
+    protected void setVersion(String keyString, long version) {
+        byte[] key = versionKey(keyString);
+        byte[] value = String.valueOf(version).getBytes();
+        RetentionPolicy policy = getRetentionPolicyOfKey(keyString);
+
+        try (BinaryJedis redisAccess = borrow(pool)) {
+            if (policy.expires()) {
+                redisAccess.setex(key, 2 * policy.getTimeToLive(), value);
+            } else {
+                redisAccess.set(key, value);
+            }
+        }
+    }
+
+    @Override
+    protected Map<String, Long> getVersions(List<String> keyStrings) {
+        Map<String, Response<byte[]>> results = new LinkedHashMap<>();
+
+        // versions are read on a single pipeline rather than with MGET, as on a cluster node they may be in any slot
+        try (BinaryJedis redisAccess = borrow(pool)) {
+            Pipeline pipe = redisAccess.pipelined();
+
+            keyStrings.forEach(keyString -> results.put(keyString, pipe.get(versionKey(keyString))));
+            throwRedirect(pipe.syncAndReturnAll());
+
+            try {
+                pipe.close();
+            } catch (IOException IOe) {
+                Logger.error("Problems closing Redis Pipe"); // todo: handle better
+            }
+        }
+
+        Map<String, Long> versionsByKey = new LinkedHashMap<>();
+        results.forEach((keyString, result) ->
+                versionsByKey.put(keyString, result.get() == null ? 0L : Long.parseLong(new String(result.get()))));
+        return versionsByKey;
+    }
+
+    @Override
+    protected void setVersions(Map<String, Long> versionsByKey) {
+        try (BinaryJedis redisAccess = borrow(pool)) {
+            Pipeline pipe = redisAccess.pipelined();
+
+            versionsByKey.forEach((keyString, version) -> {
+                byte[] value = String.valueOf(version).getBytes();
+                RetentionPolicy policy = getRetentionPolicyOfKey(keyString);
+
+                if (policy.expires()) {
+                    pipe.setex(versionKey(keyString), 2 * policy.getTimeToLive(), value);
+                } else {
+                    pipe.set(versionKey(keyString), value);
+                }
+            });
+            throwRedirect(pipe.syncAndReturnAll());
+
+            try {
+                pipe.close();
+            } catch (IOException IOe) {
+                Logger.error("Problems closing Redis Pipe"); // todo: handle better
+            }
+        }
+    }
+
+    @Override
+    protected void deleteList(String keyString) {
+        byte[] key = keyString.getBytes();
+
+        try (BinaryJedis redisAccess = borrow(pool)) {
+
+            Pipeline pipe = redisAccess.pipelined();
+            pipe.multi();
+
+            pipe.del(key, versionKey(keyString), upsertKey(keyString));
+            unregister(pipe, keyString);
+
+            pipe.exec();
+            throwRedirect(pipe.syncAndReturnAll());
+
+            try {
+                pipe.close();
+            } catch (IOException IOe) {
+                Logger.error("Problems closing Redis Pipe"); // todo: handle better
+            }
+        }
+
+        lastRefreshed.remove(keyString);
+    }
+
+    /**
+     * Atomically replaces the list at keyString with the specified values. The new list is written to a unique staging
+     * key, then renamed over keyString in a transaction, so readers of keyString observe either the complete old list
+     * or the complete new list, never a mix of the two. Replacing with an empty list deletes keyString.
+     *
+     * @param keyString string corresponding to key in Redis (complete with namespace and delimiter)
+     * @param values    values of the new list, in order
+     * @param timeout   TTL of keyString in seconds after replacement, or -1 if keyString should not expire
+     * @return length of list at keyString after replacement
+     */
+    private long replaceList(String keyString, byte[][] values, int timeout) {
+        try (BinaryJedis redisAccess = borrow(pool)) {
+
+            Pipeline pipe = redisAccess.pipelined();
+            queueReplaceList(pipe, keyString, values, timeout);
+            throwRedirect(pipe.syncAndReturnAll());
+
+            try {
+                pipe.close();
+            } catch (IOException IOe) {
+                Logger.error("Problems closing Redis Pipe"); // todo: handle better
+            }
+        }
+
+        markReplaced(keyString, values.length);
+
+        return values.length;
+    }
+
+    /**
+     * Queues the replacement of the list at keyString on a pipeline, as described in replaceList
+     *
+     * @param pipe      pipeline on which the list is replaced
+     * @param keyString string corresponding to key in Redis (complete with namespace and delimiter)
+     * @param values    values of the new list, in order
+     * @param timeout   TTL of keyString in seconds after replacement, or -1 if keyString should not expire
+     */
+    private void queueReplaceList(Pipeline pipe, String keyString, byte[][] values, int timeout) {
+        byte[] key = keyString.getBytes();
+        byte[] stagingKey = (STAGING_NAMESPACE + NAMESPACE_DELIMITER + "{" + keyString + "}" + NAMESPACE_DELIMITER
+                + UUID.randomUUID().toString()).getBytes();
+
+        if (values.length > 0) {
+            // write new list under staging key; staging key expires if this replacement is abandoned part way
+            pipe.rpush(stagingKey, values);
+            pipe.expire(stagingKey, STAGING_TIMEOUT);
+
+            // swap staging key into place, replacing old list in a single step
+            pipe.multi();
+            pipe.rename(stagingKey, key);
+            if (timeout > 0) {
+                pipe.expire(key, timeout);
+            } else {
+                pipe.persist(key);
+            }
+            register(pipe, keyString);
+            pipe.exec();
+
+        } else {
+            // If input is empty list, delete all existing entries
+            pipe.multi();
+            pipe.del(key);
+            unregister(pipe, keyString);
+            pipe.exec();
+        }
+    }
+
+    /**
+     * Records the refresh of keyString once its replacement has been synced
+     *
+     * @param keyString string corresponding to key in Redis (complete with namespace and delimiter)
+     * @param length    length of the list at keyString after replacement
+     */
+    private void markReplaced(String keyString, int length) {
+        if (length > 0) {
+            markRefreshed(keyString);
+        } else {
+            lastRefreshed.remove(keyString);
+        }
+    }
+
+    /**
+     * Retrieves the byte array stored at the specified index in Redis under keyString. The byte array can then be
+     * parsed into either a Post or PostList.
+     *
+     * @param keyString string corresponding to key in Redis (complete with namespace and delimiter)
+     * @param index     desired index of list under keyString
+     * @return Optional of byte array stored at index, empty if not found.
+     */
+    private Optional<byte[]> getByte(String keyString, Integer index) {
+        List<byte[]> entryList;
+        byte[] key = keyString.getBytes();
+
+        // get element under key at index
+        entryList = readRange(key, index, index);
+
+        // reset key timeout, if the retention policy asks for it and it has not been reset recently
+        if (!entryList.isEmpty()) {
+            refresh(keyString);
+        }
+
+        if (entryList.isEmpty() || index < 0) {     // if we found something, take the first element
             return Optional.empty();
         } else {
             return Optional.of(entryList.get(0));
         }
     }
 
+    /**
+     * Reads a range of the list at key from the next replica in turn, or from the primary if there are no replicas.
+     * The read goes to the primary instead if the replica cannot be reached, or lags behind the primary by more than
+     * MAX_REPLICA_LAG. A replica within that bound answers every read, including those finding nothing: it may miss a
+     * list written within its replication delay, such as a channel of a generation just published, for that delay.
+     *
+     * @param key  key of the list in Redis, as a byte array
+     * @param from index of the first element of the range
+     * @param to   index of the last element of the range (inclusive)
+     * @return elements of the list in range, as byte arrays
+     */
+    private List<byte[]> readRange(byte[] key, long from, long to) {
+        long now = System.currentTimeMillis();
+
+        for (int attempt = 0; attempt < replicaPools.size(); attempt++) {
+            int replica = Math.floorMod(nextReplica.getAndIncrement(), replicaPools.size());
+            if (replicaDownUntil.get(replica) > now || !checkReplica(replica, now)) {
+                continue;
+            }
+
+            try (BinaryJedis redisAccess = borrow(replicaPools.get(replica))) {
+                return redisAccess.lrange(key, from, to);
+            } catch (JedisConnectionException jCE) {
+                Logger.warn("Redis replica unavailable, reading from primary");
+                replicaDownUntil.set(replica, now + REPLICA_RETRY_INTERVAL);
+            }
+        }
+
+        try (BinaryJedis redisAccess = borrow(pool)) {
+            return redisAccess.lrange(key, from, to);
+        }
+    }
+
+    /**
+     * Checks the replication lag of a replica if its last check is more than REPLICA_CHECK_INTERVAL old; when several
+     * threads find the check due at once, exactly one of them makes it. A replica found unreachable or lagging is
+     * skipped until its next check.
+     *
+     * @param replica index of the replica in replicaPools
+     * @param now     current time (in milliseconds)
+     * @return false if the replica has just been found unreachable or lagging, true otherwise
+     */
+    private boolean checkReplica(int replica, long now) {
+        long due = replicaCheckDue.get(replica);
+        if (due > now || !replicaCheckDue.compareAndSet(replica, due, now + REPLICA_CHECK_INTERVAL)) {
+            return true;
+        }
+
+        try {
+            long primaryOffset;
+            Map<String, String> replication;
+
+            // the primary offset is read first, so the replica can only have caught up further by the time it is read
+            try (BinaryJedis redisAccess = borrow(pool)) {
+                primaryOffset = Long.parseLong(parseInfo(redisAccess.info("replication"))
+                        .getOrDefault("master_repl_offset", "0"));
+            }
+            try (BinaryJedis redisAccess = borrow(replicaPools.get(replica))) {
+                replication = parseInfo(redisAccess.info("replication"));
+            }
+
+            long replicaOffset = Long.parseLong(replication.getOrDefault("slave_repl_offset", "-1"));
+            if ("up".equals(replication.get("master_link_status")) && replicaOffset >= 0
+                    && primaryOffset - replicaOffset <= MAX_REPLICA_LAG) {
+                return true;
+            }
+            Logger.warn("Redis replica lagging or unlinked, reading from primary");
+
+        } catch (JedisConnectionException jCE) {
+            Logger.warn("Redis replica unavailable, reading from primary");
+            replicaDownUntil.set(replica, now + REPLICA_RETRY_INTERVAL);
+            return false;
+        }
+
+        replicaDownUntil.set(replica, now + REPLICA_CHECK_INTERVAL);
+        return false;
+    }
+
+    /**
+     * @param info reply of the INFO command
+     * @return value of each field of the reply, by field name
+     */
+    private static Map<String, String> parseInfo(String info) {
+        Map<String, String> fields = new HashMap<>();
+
+        for (String line : info.split("\r?\n")) {
+            int separator = line.indexOf(':');
+            if (separator > 0 && !line.startsWith("#")) {
+                fields.put(line.substring(0, separator), line.substring(separator + 1).trim());
+            }
+        }
+
+        return fields;
+    }
+
+    /**
+     * Borrows a connection from a pool, recording how long the caller waited for it. If no connection is free within
+     * the borrow timeout, a JedisConnectionException is thrown.
+     *
+     * @param from pool of connections to a Redis instance
+     * @return connection, to be closed by the caller to return it to the pool
+     */
+    private BinaryJedis borrow(JedisPool from) {
+        long start = System.nanoTime();
+
+        try {
+            Jedis connection = from.getResource();
+            if (asking.get()) {
+                connection.asking();
+            }
+            return connection;
+        } finally {
+            borrowWait.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Runs an operation on this node of a Redis Cluster after an ASK redirect to it. Every connection borrowed by the
+     * operation sends ASKING first, so that the node serves the keys of the slot it is importing; within a
+     * transaction, ASKING applies to every command of the transaction.
+     *
+     * @param operation operation reading or writing keys of a slot being imported by this node
+     * @param <T>       type of the result of the operation
+     * @return result of the operation
+     */
+    <T> T asking(Supplier<T> operation) {
+        asking.set(true);
+        try {
+            return operation.get();
+        } finally {
+            asking.remove();
+        }
+    }
+
+    /**
+     * @param of pool of connections to a Redis instance
+     * @return number of connections in use and idle, and of callers waiting for one, with the wait of past borrows
+     */
+    private static Map<String, Object> poolStatistics(JedisPool of) {
+        Map<String, Object> statistics = new LinkedHashMap<>();
+        statistics.put("active", of.getNumActive());
+        statistics.put("idle", of.getNumIdle());
+        statistics.put("waiting", of.getNumWaiters());
+        statistics.put("maxTotal", POOL_CONFIG.getMaxTotal());
+        statistics.put("meanBorrowWaitMillis", of.getMeanBorrowWaitTimeMillis());
+        statistics.put("maxBorrowWaitMillis", of.getMaxBorrowWaitTimeMillis());
+
+        return statistics;
+    }
+
+    /**
+     * Resets the TTL of keyString on the primary, if claimRefresh allows it after a read of keyString
+     *
+     * @param keyString string corresponding to key in Redis (complete with namespace and delimiter)
+     */
+    private void refresh(String keyString) {
+        if (claimRefresh(keyString)) {
+            try (BinaryJedis redisAccess = borrow(pool)) {
+                redisAccess.expire(keyString.getBytes(), getRetentionPolicyOfKey(keyString).getTimeToLive());
+            }
+        }
+    }
+
+    /**
+     * Parses each byte array into a Post object, skipping those which are not valid Post protocol buffers
+     *
+     * @param byteList list of serialized posts
+     * @return list of parsed posts, in order
+     */
+    private static List<Post> parsePosts(List<byte[]> byteList) {
+        List<Post> postList = new ArrayList<>();
+
+        for (byte[] bytes : byteList) {
+            try {
+                postList.add(Post.parseFrom(bytes));
+            } catch (InvalidProtocolBufferException iPBE) {
+                // todo: better error handling
+                Logger.warn("Invalid Protocol Buffer");
+            }
+        }
+
+        return postList;
+    }
+
+    /**
+     * Removes up to numPosts posts from the head of the list at keyString in a single script, which also removes the
+     * latest version of each removed post added by upsertPosts, and updates the counter of posts waiting in source
+     * queues by the number actually removed. A post upserted again after this is appended to the list anew.
+     *
+     * @param redisAccess connection to Redis
+     * @param keyString   string corresponding to key in Redis (complete with namespace and delimiter)
+     * @param numPosts    maximum number of posts to remove
+     * @return removed posts, in order, each replaced by its latest version if it was upserted
+     */
+    @SuppressWarnings("unchecked")
+    private List<Post> takeFirst(BinaryJedis redisAccess, String keyString, int numPosts) {
+        List<byte[]> byteList = (List<byte[]>) redisAccess.eval(TAKE_FIRST_SCRIPT,
+                withPendingCounter(keyString, keyString.getBytes(), upsertKey(keyString)),
+                Collections.singletonList(String.valueOf(numPosts).getBytes()));
+
+        return parsePosts(byteList);
+    }
+
+    /**
+     * @param posts      posts read from a list
+     * @param latestList latest version of each post, or null for posts which were not upserted
+     * @return posts, each replaced by its latest version if there is one
+     */
+    private static List<Post> withLatest(List<Post> posts, List<byte[]> latestList) {
+        List<Post> postList = new ArrayList<>(posts);
+
+        for (int i = 0; i < postList.size() && i < latestList.size(); i++) {
+            if (latestList.get(i) != null) {
+                try {
+                    postList.set(i, Post.parseFrom(latestList.get(i)));
+                } catch (InvalidProtocolBufferException iPBE) {
+                    // todo: better error handling
+                    Logger.warn("Invalid Protocol Buffer");
+                }
+            }
+        }
+
+        return postList;
+    }
+
+    /**
+     * Decides whether a read of keyString should reset its TTL. A key is refreshed on access only if its retention
+     * policy expires keys and refreshes on access, and only if its TTL has not been reset by this process within
+     * REFRESH_INTERVAL; when several threads read the key at once, exactly one of them is told to refresh it.
+     *
+     * @param keyString string corresponding to key in Redis (complete with namespace and delimiter)
+     * @return true if the caller should reset the TTL of keyString
+     */
+    private boolean claimRefresh(String keyString) {
+        RetentionPolicy policy = getRetentionPolicyOfKey(keyString);
+        if (!policy.expires() || !policy.isRefreshOnAccess()) {
+            return false;
+        }
+
+        long now = System.currentTimeMillis();
+        Long previous = lastRefreshed.get(keyString);
+
+        if (previous == null) {
+            if (lastRefreshed.size() >= MAX_REFRESH_ENTRIES) {
+                lastRefreshed.clear(); // forgetting refresh times only costs a few extra refreshes
+            }
+            return lastRefreshed.putIfAbsent(keyString, now) == null;
+        } else if (now - previous >= REFRESH_INTERVAL) {
+            return lastRefreshed.replace(keyString, previous, now);
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Records that the TTL of keyString has just been (re)set, so reads within REFRESH_INTERVAL do not reset it again
+     *
+     * @param keyString string corresponding to key in Redis (complete with namespace and delimiter)
+     */
+    private void markRefreshed(String keyString) {
+        if (lastRefreshed.size() >= MAX_REFRESH_ENTRIES) {
+            lastRefreshed.clear();
+        }
+        lastRefreshed.put(keyString, System.currentTimeMillis());
+    }
+
+    /**
+     * Iterates over the postLists stored in a Redis list, reading the list in windows of chunkSize elements with
+     * LRANGE and parsing each postList only when it is reached.
+     */
+    private class PostListIterator implements Iterator<PostList> {
+
+        private final byte[] key;
+        private final int chunkSize;
+
+        private long windowStart = 0;
+        private boolean lastWindow = false;
+        private Iterator<byte[]> window = Collections.emptyIterator();
+        private PostList nextPostList;
+
+        PostListIterator(byte[] key, int chunkSize) {
+            this.key = key;
+            this.chunkSize = Math.max(chunkSize, 1);
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (nextPostList == null) {
+
+                if (!window.hasNext()) {
+                    if (lastWindow) {
+                        return false;
+                    }
+
+                    // read next window of the list; a short window means the end of the list has been reached
+                    List<byte[]> byteList;
+                    try (BinaryJedis redisAccess = borrow(pool)) {
+                        byteList = redisAccess.lrange(key, windowStart, windowStart + chunkSize - 1);
+                    }
+
+                    windowStart += chunkSize;
+                    lastWindow = byteList.size() < chunkSize;
+                    window = byteList.iterator();
+
+                } else {
+                    try {
+                        nextPostList = PageCodec.decode(window.next());
+                    } catch (InvalidProtocolBufferException iPBE) {
+                        // todo: better error handling
+                        Logger.warn("Invalid PostList Protocol Buffer");
+                    }
+                }
+            }
+
+            return true;
+        }
+
+        @Override
+        public PostList next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            PostList postList = nextPostList;
+            nextPostList = null;
+            return postList;
+        }
+    }
+
+    private static JedisPoolConfig createPoolConfig() {
+        JedisPoolConfig poolConfig = new JedisPoolConfig();
+        poolConfig.setMaxTotal(intFromEnvironment(REDIS_MAX_CONNECTIONS, MAX_CONNECTIONS));
+        poolConfig.setMaxIdle(intFromEnvironment(REDIS_MAX_IDLE, poolConfig.getMaxIdle()));
+        poolConfig.setMinIdle(intFromEnvironment(REDIS_MIN_IDLE, poolConfig.getMinIdle()));
+        poolConfig.setMaxWaitMillis(intFromEnvironment(REDIS_BORROW_TIMEOUT, BORROW_TIMEOUT));
+
+        return poolConfig;
+    }
+
+    /**
+     * @param name         name of an environment variable holding an integer
+     * @param defaultValue value if the variable is not set
+     * @return value of the variable, or defaultValue
+     */
+    private static int intFromEnvironment(String name, int defaultValue) {
+        String value = System.getenv(name);
+        return value != null ? Integer.parseInt(value.trim()) : defaultValue;
+    }
+
+    /**
+     * @param url host name or redis:// URL of the Redis instance, as accepted by JedisPool
+     * @return a connection pool for the instance
+     */
+    private static JedisPool createPool(String url) {
+        URI uri = URI.create(url);
+
+        if (JedisURIHelper.isValid(uri)) {
+            return new JedisPool(POOL_CONFIG, uri, TIMEOUT);
+        } else {
+            return new JedisPool(POOL_CONFIG, url, Protocol.DEFAULT_PORT, TIMEOUT);
+        }
+    }
+
+    /**
+     * @param endpoints comma-separated host:port of each Redis instance, or null; the port defaults to the Redis
+     *                  default port if omitted
+     * @return a connection pool for each instance
+     */
+    private static List<JedisPool> createPools(String endpoints) {
+        List<JedisPool> pools = new ArrayList<>();
+
+        if (endpoints != null) {
+            for (String endpoint : endpoints.split(",")) {
+                String[] hostAndPort = endpoint.trim().split(":");
+                if (!hostAndPort[0].isEmpty()) {
+                    int port = hostAndPort.length > 1 ? Integer.parseInt(hostAndPort[1]) : Protocol.DEFAULT_PORT;
+                    pools.add(new JedisPool(POOL_CONFIG, hostAndPort[0], port, TIMEOUT));
+                }
+            }
+        }
+
+        return pools;
+    }
+
+    /**
+     * Returns the key of the version counter of the list at keyString. On a cluster node, keyString is wrapped in a
+     * hash tag, so the counter hashes to the same slot as the list (names of channels never contain braces).
+     *
+     * @param keyString string corresponding to key in Redis (complete with namespace and delimiter)
+     * @return key of the version counter, as a byte array
+     */
+    private byte[] versionKey(String keyString) {
+        if (clusterNode) {
+            return (VERSION_NAMESPACE + NAMESPACE_DELIMITER + "{" + keyString + "}").getBytes();
+        } else {
+            return (VERSION_NAMESPACE + NAMESPACE_DELIMITER + keyString).getBytes();
+        }
+    }
+
+    /**
+     * Returns the key of the hash holding the latest version of each upserted post waiting in the list at keyString
+     *
+     * @param keyString string corresponding to key in Redis (complete with namespace and delimiter)
+     * @return key of the hash, as a byte array
+     */
+    private static byte[] upsertKey(String keyString) {
+        return (UPSERT_NAMESPACE + NAMESPACE_DELIMITER + "{" + keyString + "}").getBytes();
+    }
+
+    /**
+     * Returns the key of the set indexing all keys in the same namespace as keyString
+     *
+     * @param keyString string corresponding to key in Redis (complete with namespace and delimiter)
+     * @return key of the namespace index set, as a byte array
+     */
+    private static byte[] indexKey(String keyString) {
+        return (KEY_INDEX_NAMESPACE + NAMESPACE_DELIMITER + getNameSpaceOfKey(keyString)).getBytes();
+    }
+
+    /**
+     * Queues registration of keyString in its namespace index on a pipeline, unless this is a cluster node
+     *
+     * @param pipe      pipeline on which the key is written
+     * @param keyString string corresponding to key in Redis (complete with namespace and delimiter)
+     */
+    private void register(Pipeline pipe, String keyString) {
+        if (!clusterNode) {
+            pipe.sadd(indexKey(keyString), keyString.getBytes());
+        }
+    }
+
+    /**
+     * Throws the first redirect among the replies to the commands of a pipeline. A node of a Redis Cluster answers a
+     * command queued in a transaction on a key it does not serve with a redirect, then discards the whole transaction
+     * without an error of its own; the redirect is thrown so that the transaction can be run on the node serving the
+     * key.
+     *
+     * @param replies reply to each command of a pipeline, or the error answered to it
+     */
+    private static void throwRedirect(List<Object> replies) {
+        for (Object reply : replies) {
+            if (reply instanceof JedisRedirectionException) {
+                throw (JedisRedirectionException) reply;
+            }
+        }
+    }
+
+    /**
+     * Queues an update of the counter of posts waiting in source queues on a pipeline, if keyString is counted by it.
+     * On a cluster node the counter would hash to another slot than the queue, so a cluster node keeps no counter.
+     *
+     * @param pipe      pipeline on which the queue at keyString is written
+     * @param keyString string corresponding to key in Redis (complete with namespace and delimiter)
+     * @param delta     number of posts added to the queue
+     */
+    private void countPending(Pipeline pipe, String keyString, long delta) {
+        if (!clusterNode && isCountedQueue(keyString)) {
+            pipe.incrBy(versionKey(PENDING_POSTS), delta);
+        }
+    }
+
+    /**
+     * Lists the keys of a script writing the queue at keyString, followed by the key of the counter of posts waiting
+     * in source queues if the script must update it
+     *
+     * @param keyString string corresponding to key in Redis (complete with namespace and delimiter)
+     * @param keys      keys of the script
+     * @return keys, followed by the key of the counter if keyString is counted by it and this is not a cluster node
+     */
+    private List<byte[]> withPendingCounter(String keyString, byte[]... keys) {
+        List<byte[]> scriptKeys = new ArrayList<>(Arrays.asList(keys));
+        if (!clusterNode && isCountedQueue(keyString)) {
+            scriptKeys.add(versionKey(PENDING_POSTS));
+        }
+
+        return scriptKeys;
+    }
+
+    /**
+     * Queues removal of keyString from its namespace index on a pipeline, unless this is a cluster node
+     *
+     * @param pipe      pipeline on which the key is deleted
+     * @param keyString string corresponding to key in Redis (complete with namespace and delimiter)
+     */
+    private void unregister(Pipeline pipe, String keyString) {
+        if (!clusterNode) {
+            pipe.srem(indexKey(keyString), keyString.getBytes());
+        }
+    }
+
 }
@@ -0,0 +1,52 @@
+package services.dataAccess;
+
+/**
+ * Describes how long, and how much, a data store retains under the keys of a namespace. Policies are immutable and
+ * are assigned to namespaces through AbstractDataAccess.setRetentionPolicy.
+ */
+public class RetentionPolicy {
+
+    public static final int NO_EXPIRY = -1;
+
+    private final int timeToLive;
+    private final int maxPostLists;
+    private final boolean refreshOnAccess;
+
+    /**
+     * @param timeToLive      number of seconds from update (or access, if refreshOnAccess) to expiry of a key;
+     *                        NO_EXPIRY if keys never expire
+     * @param maxPostLists    maximum number of PostLists retained under a key; older PostLists are truncated
+     * @param refreshOnAccess whether reading a key resets its time to live
+     */
+    public RetentionPolicy(int timeToLive, int maxPostLists, boolean refreshOnAccess) {
+        if (maxPostLists < 1) {
+            throw new IllegalArgumentException("maxPostLists must be positive");
+        }
+
+        this.timeToLive = timeToLive > 0 ? timeToLive : NO_EXPIRY;
+        this.maxPostLists = maxPostLists;
+        this.refreshOnAccess = refreshOnAccess;
+    }
+
+    public int getTimeToLive() {
+        return timeToLive;
+    }
+
+    public int getMaxPostLists() {
+        return maxPostLists;
+    }
+
+    public boolean isRefreshOnAccess() {
+        return refreshOnAccess;
+    }
+
+    public boolean expires() {
+        return timeToLive != NO_EXPIRY;
+    }
+
+    @Override
+    public String toString() {
+        return "RetentionPolicy{timeToLive=" + timeToLive + ", maxPostLists=" + maxPostLists
+                + ", refreshOnAccess=" + refreshOnAccess + "}";
+    }
+}
@@ -0,0 +1,432 @@
+package services.dataAccess;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import redis.clients.jedis.Protocol;
+import services.dataAccess.proto.PostListProto.PostList;
+import services.dataAccess.proto.PostProto.Post;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static services.PublicConstants.REDIS_URLS;
+
+/**
+ * Data store spreading keys across several Redis instances, so that channels are not limited by the memory or CPU of a
+ * single instance. Each key is placed on an instance by consistent hashing of the complete key string: every instance
+ * owns many points on a hash ring, and a key belongs to the instance owning the first point at or after its hash.
+ * Adding or removing an instance therefore only moves the keys of that instance.
+ * <p>
+ * Every operation on a single key, including its version, its registration in the key index and any staging key, runs
+ * on the instance owning the key, so transactions never span instances. Operations over a whole namespace are sent to
+ * every instance and their results combined.
+ */
+public class ShardedRedisAccessObject extends AbstractDataAccess {
+
+    private static final int POINTS_PER_SHARD = 160; // points on the hash ring owned by each instance
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    // instances are only ever appended, so the index of an instance never changes
+    private final List<RedisAccessObject> shards = new CopyOnWriteArrayList<>();
+    private final List<String> endpoints = new CopyOnWriteArrayList<>();
+    private final TreeMap<Long, Integer> ring = new TreeMap<>();
+    private final boolean clusterNodes;
+
+    // retention policies set on this object, applied to every instance including those connected later
+    private final Map<String, RetentionPolicy> retentionPolicies = new ConcurrentHashMap<>();
+
+    public ShardedRedisAccessObject() {
+        this(Arrays.asList(System.getenv(REDIS_URLS).split(",")));
+    }
+
+    /**
+     * @param endpoints host:port of each Redis instance; the port defaults to the Redis default port if omitted
+     */
+    public ShardedRedisAccessObject(List<String> endpoints) {
+        this(endpoints, false);
+
+        // points are derived from the endpoint rather than its position, so reordering endpoints moves no keys
+        for (int shard = 0; shard < this.endpoints.size(); shard++) {
+            for (int point = 0; point < POINTS_PER_SHARD; point++) {
+                ring.put(hash(this.endpoints.get(shard) + "#" + point), shard);
+            }
+        }
+    }
+
+    /**
+     * Connects to each Redis instance, leaving the placement of keys to a subclass overriding shardIndexOf
+     *
+     * @param endpoints    host:port of each Redis instance; the port defaults to the Redis default port if omitted
+     * @param clusterNodes whether the instances are the master nodes of a Redis Cluster
+     */
+    protected ShardedRedisAccessObject(List<String> endpoints, boolean clusterNodes) {
+        this.clusterNodes = clusterNodes;
+        endpoints.forEach(this::connect);
+    }
+
+    /**
+     * Connects to a Redis instance, unless already connected to it
+     *
+     * @param endpoint host:port of the Redis instance; the port defaults to the Redis default port if omitted
+     * @return index of the instance in the list of endpoints
+     */
+    protected synchronized int connect(String endpoint) {
+        endpoint = endpoint.trim();
+        int shard = endpoints.indexOf(endpoint);
+        if (shard >= 0) {
+            return shard;
+        }
+
+        RedisAccessObject redisAccess;
+        int portIndex = endpoint.lastIndexOf(':');
+
+        if (portIndex < 0) {
+            redisAccess = new RedisAccessObject(endpoint, Protocol.DEFAULT_PORT, clusterNodes);
+        } else {
+            redisAccess = new RedisAccessObject(endpoint.substring(0, portIndex),
+                    Integer.parseInt(endpoint.substring(portIndex + 1)), clusterNodes);
+        }
+        retentionPolicies.forEach(redisAccess::setRetentionPolicy);
+
+        shards.add(redisAccess);
+        endpoints.add(endpoint);
+        return shards.size() - 1;
+    }
+
+    /**
+     * @param keyString string denoting key in data store (complete with namespace and delimiter)
+     * @return host:port of the Redis instance holding keyString
+     */
+    public String getEndpointOf(String keyString) {
+        return endpoints.get(shardIndexOf(keyString));
+    }
+
+    @Override
+    protected long addNewPost(String keyString, Post post) {
+        return redirected(() -> shardOf(keyString).addNewPost(keyString, post));
+    }
+
+    @Override
+    protected long addNewPosts(String keyString, List<Post> listOfPosts) {
+        return redirected(() -> shardOf(keyString).addNewPosts(keyString, listOfPosts));
+    }
+
+    @Override
+    protected long upsertPosts(String keyString, List<Post> listOfPosts) {
+        return redirected(() -> shardOf(keyString).upsertPosts(keyString, listOfPosts));
+    }
+
+    @Override
+    protected Optional<Post> popFirstPost(String keyString) {
+        return redirected(() -> shardOf(keyString).popFirstPost(keyString));
+    }
+
+    @Override
+    protected List<Post> getAllPosts(String keyString) {
+        return redirected(() -> shardOf(keyString).getAllPosts(keyString));
+    }
+
+    @Override
+    protected String deleteFirstNPosts(String keyString, Integer numPosts) {
+        return redirected(() -> shardOf(keyString).deleteFirstNPosts(keyString, numPosts));
+    }
+
+    @Override
+    protected List<Post> drainPosts(String keyString, int maxPosts) {
+        return redirected(() -> shardOf(keyString).drainPosts(keyString, maxPosts));
+    }
+
+    @Override
+    protected long addNewPostList(String keyString, PostList postList) {
+        return redirected(() -> shardOf(keyString).addNewPostList(keyString, postList));
+    }
+
+    @Override
+    protected long addNewPostLists(String keyString, List<PostList> postLists) {
+        return redirected(() -> shardOf(keyString).addNewPostLists(keyString, postLists));
+    }
+
+    @Override
+    protected Optional<PostList> getPostList(String keyString, Integer index) {
+        return redirected(() -> shardOf(keyString).getPostList(keyString, index));
+    }
+
+    @Override
+    protected List<PostList> getAllPostLists(String keyString) {
+        return redirected(() -> shardOf(keyString).getAllPostLists(keyString));
+    }
+
+    @Override
+    protected Map<String, List<PostList>> getAllPostLists(List<String> keyStrings) {
+        Map<String, List<PostList>> read = redirected(() -> {
+            Map<String, List<PostList>> shardPostLists = new HashMap<>();
+            keysByShard(keyStrings).forEach((shard, keys) ->
+                    shardPostLists.putAll(shards.get(shard).getAllPostLists(keys)));
+            return shardPostLists;
+        });
+
+        // results are returned in the order keys were requested, whichever instance holds them
+        Map<String, List<PostList>> postListsByKey = new LinkedHashMap<>();
+        keyStrings.forEach(keyString -> postListsByKey.put(keyString, read.get(keyString)));
+        return postListsByKey;
+    }
+
+    @Override
+    protected List<PostList> getPostListRange(String keyString, int from, int to) {
+        return redirected(() -> shardOf(keyString).getPostListRange(keyString, from, to));
+    }
+
+    @Override
+    protected Iterator<PostList> iteratePostLists(String keyString, int chunkSize) {
+        return redirected(() -> shardOf(keyString).iteratePostLists(keyString, chunkSize));
+    }
+
+    @Override
+    public long getNumPostsInNameSpace(String nameSpace) {
+
+        // query every instance at once, so the call takes one round trip rather than one per instance
+        return shards.parallelStream()
+                .mapToLong(shard -> shard.getNumPostsInNameSpace(nameSpace))
+                .sum();
+    }
+
+    @Override
+    public List<String> getKeysInNameSpace(String nameSpace) {
+        return shards.parallelStream()
+                .flatMap(shard -> shard.getKeysInNameSpace(nameSpace).stream())
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public long getNumPostsInSources() {
+
+        // each instance counts the posts waiting in the source queues it holds
+        return shards.parallelStream()
+                .mapToLong(RedisAccessObject::getNumPostsInSources)
+                .sum();
+    }
+
+    @Override
+    public long recountPostsInSources() {
+        return shards.parallelStream()
+                .mapToLong(RedisAccessObject::recountPostsInSources)
+                .sum();
+    }
+
+    @Override
+    protected long getListSize(String keyString) {
+        return redirected(() -> shardOf(keyString).getListSize(keyString));
+    }
+
+    @Override
+    protected List<String> getStringList(String keyString, long length) {
+        return redirected(() -> shardOf(keyString).getStringList(keyString, length));
+    }
+
+    @Override
+    protected long replaceStringList(String keyString, List<String> stringList) {
+        return redirected(() -> shardOf(keyString).replaceStringList(keyString, stringList));
+    }
+
+    @Override
+    protected long replacePostLists(String keyString, List<PostList> postLists) {
+        return redirected(() -> shardOf(keyString).replacePostLists(keyString, postLists));
+    }
+
+    @Override
+    protected long copyList(String fromKeyString, String toKeyString) {
+        return redirected(() -> {
+            RedisAccessObject from = shardOf(fromKeyString);
+            RedisAccessObject to = shardOf(toKeyString);
+
+            // a list on another instance is moved as a serialized DUMP, still without parsing its values
+            if (from == to) {
+                return from.copyList(fromKeyString, toKeyString);
+            } else {
+                return to.restoreList(toKeyString, from.dumpList(fromKeyString));
+            }
+        });
+    }
+
+    @Override
+    protected long replacePostLists(Map<String, List<PostList>> postListsByKey) {
+
+        // replacing a list again is harmless, so after a move every list is replaced on its new instance
+        return redirected(() -> {
+            long numPostLists = 0;
+
+            for (Map.Entry<Integer, List<String>> e : keysByShard(postListsByKey.keySet()).entrySet()) {
+                Map<String, List<PostList>> shardPostLists = new LinkedHashMap<>();
+                e.getValue().forEach(keyString -> shardPostLists.put(keyString, postListsByKey.get(keyString)));
+
+                numPostLists += shards.get(e.getKey()).replacePostLists(shardPostLists);
+            }
+
+            return numPostLists;
+        });
+    }
+
+    @Override
+    protected long getVersion(String keyString) {
+        return redirected(() -> shardOf(keyString).getVersion(keyString));
+    }
+
+    @Override
+    protected long incrementVersion(String keyString) {
+        return redirected(() -> shardOf(keyString).incrementVersion(keyString));
+    }
+
+    @Override
+    protected Map<String, Long> incrementVersions(List<String> keyStrings) {
+        Map<String, Long> newVersions = redirected(() -> {
+            Map<String, Long> shardVersions = new HashMap<>();
+            keysByShard(keyStrings).forEach((shard, keys) ->
+                    shardVersions.putAll(shards.get(shard).incrementVersions(keys)));
+            return shardVersions;
+        });
+
+        Map<String, Long> versionsByKey = new LinkedHashMap<>();
+        keyStrings.forEach(keyString -> versionsByKey.put(keyString, newVersions.get(keyString)));
+        return versionsByKey;
+    }
+
+    @Override
+    protected void setVersion(String keyString, long version) {
+        redirected(() -> {
+            shardOf(keyString).setVersion(keyString, version);
+            return null;
+        });
+    }
+
+    @Override
+    protected Map<String, Long> getVersions(List<String> keyStrings) {
+        Map<String, Long> read = redirected(() -> {
+            Map<String, Long> shardVersions = new HashMap<>();
+            keysByShard(keyStrings).forEach((shard, keys) ->
+                    shardVersions.putAll(shards.get(shard).getVersions(keys)));
+            return shardVersions;
+        });
+
+        Map<String, Long> versionsByKey = new LinkedHashMap<>();
+        keyStrings.forEach(keyString -> versionsByKey.put(keyString, read.get(keyString)));
+        return versionsByKey;
+    }
+
+    @Override
+    protected void setVersions(Map<String, Long> versionsByKey) {
+        redirected(() -> {
+            keysByShard(versionsByKey.keySet()).forEach((shard, keys) -> {
+                Map<String, Long> shardVersions = new LinkedHashMap<>();
+                keys.forEach(keyString -> shardVersions.put(keyString, versionsByKey.get(keyString)));
+                shards.get(shard).setVersions(shardVersions);
+            });
+            return null;
+        });
+    }
+
+    @Override
+    protected long addToVersion(String keyString, long delta) {
+        return redirected(() -> shardOf(keyString).addToVersion(keyString, delta));
+    }
+
+    @Override
+    protected void deleteList(String keyString) {
+        redirected(() -> {
+            shardOf(keyString).deleteList(keyString);
+            return null;
+        });
+    }
+
+    @Override
+    public void setRetentionPolicy(String nameSpace, RetentionPolicy policy) {
+
+        // each instance applies the policy to the keys it holds
+        super.setRetentionPolicy(nameSpace, policy);
+        retentionPolicies.put(nameSpace, policy);
+        shards.forEach(shard -> shard.setRetentionPolicy(nameSpace, policy));
+    }
+
+    @Override
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> shardStatistics = new LinkedHashMap<>();
+        for (int shard = 0; shard < shards.size(); shard++) {
+            shardStatistics.put(endpoints.get(shard), shards.get(shard).getStatistics());
+        }
+
+        Map<String, Object> statistics = super.getStatistics();
+        statistics.put("shards", shardStatistics);
+        return statistics;
+    }
+
+    /**
+     * @param pageCodec codec with which every instance writes pages from now on
+     */
+    public void setPageCodec(PageCodec pageCodec) {
+        shards.forEach(shard -> shard.setPageCodec(pageCodec));
+    }
+
+    /**
+     * Groups keys by the Redis instance holding them, so that each instance serves its keys in a single batch
+     *
+     * @param keyStrings strings denoting keys in data store (complete with namespace and delimiter)
+     * @return map of the index of each instance to the keys it holds, in their original order
+     */
+    private Map<Integer, List<String>> keysByShard(Collection<String> keyStrings) {
+        Map<Integer, List<String>> keys = new TreeMap<>();
+        keyStrings.forEach(keyString -> keys.computeIfAbsent(shardIndexOf(keyString), shard -> new ArrayList<>())
+                .add(keyString));
+
+        return keys;
+    }
+
+    private RedisAccessObject shardOf(String keyString) {
+        return shards.get(shardIndexOf(keyString));
+    }
+
+    /**
+     * @param shard index of an instance in the list of endpoints
+     * @return the instance
+     */
+    protected RedisAccessObject getShard(int shard) {
+        return shards.get(shard);
+    }
+
+    /**
+     * @return host:port of every instance, in order of their index
+     */
+    protected List<String> getEndpoints() {
+        return Collections.unmodifiableList(endpoints);
+    }
+
+    /**
+     * Runs an operation on the instances holding its keys, as found by shardIndexOf. A subclass whose keys can move
+     * between instances overrides this to find the instances again and rerun the operation after a move; every
+     * operation passed here may therefore run more than once.
+     *
+     * @param operation operation on the instances holding one or more keys
+     * @param <T>       type of the result of the operation
+     * @return result of the operation
+     */
+    protected <T> T redirected(Supplier<T> operation) {
+        return operation.get();
+    }
+
+    /**
+     * @param keyString string denoting key in data store (complete with namespace and delimiter)
+     * @return index, in the list of endpoints, of the Redis instance holding keyString
+     */
+    protected int shardIndexOf(String keyString) {
+        Map.Entry<Long, Integer> point = ring.ceilingEntry(hash(keyString));
+
+        // keys hashing past the last point belong to the first point of the ring
+        return point != null ? point.getValue() : ring.firstEntry().getValue();
+    }
+
+    private static long hash(String string) {
+        return HASH.hashString(string, StandardCharsets.UTF_8).asLong();
+    }
+}
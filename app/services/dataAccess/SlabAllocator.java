@@ -0,0 +1,160 @@
+package services.dataAccess;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Allocates blocks of off-heap memory for serialized pages. Memory is reserved from the operating system in slabs of
+ * direct ByteBuffers, and each slab is carved into equally sized blocks of one size class (powers of two, from
+ * MIN_BLOCK_SIZE up to the slab size). Freed blocks are kept on a free list per size class and reused, so memory held
+ * off-heap is bounded by the peak amount of data stored, rather than growing with every write. Blocks larger than a
+ * slab are given a dedicated buffer, which is released to the garbage collector when freed.
+ */
+final class SlabAllocator {
+
+    static final int MIN_BLOCK_SIZE = 256;
+
+    private final int slabSize;
+    private final List<Deque<ByteBuffer>> freeLists = new ArrayList<>();
+
+    private long reservedBytes = 0;
+    private long usedBytes = 0;
+
+    /**
+     * A block of off-heap memory holding a single serialized value. The length of a block never changes, so its
+     * contents can be copied out without holding any lock; a copy is only meaningful if the block has not been freed
+     * and reused in the meantime.
+     */
+    static final class Block {
+        private final ByteBuffer buffer;
+        private final int length;
+        private final int sizeClass;
+
+        private Block(ByteBuffer buffer, int length, int sizeClass) {
+            this.buffer = buffer;
+            this.length = length;
+            this.sizeClass = sizeClass;
+        }
+
+        /**
+         * Wraps a buffer which is not managed by any allocator, such as a region of a memory-mapped file. The block
+         * holds the bytes from the buffer's position to its limit, and must never be passed to free.
+         *
+         * @param buffer buffer holding a single serialized value
+         * @return block reading from buffer
+         */
+        static Block wrap(ByteBuffer buffer) {
+            return new Block(buffer.slice(), buffer.remaining(), -1);
+        }
+
+        /**
+         * @return a copy of the bytes stored in the block
+         */
+        byte[] read() {
+            byte[] bytes = new byte[length];
+            buffer.duplicate().get(bytes);
+            return bytes;
+        }
+
+        int length() {
+            return length;
+        }
+    }
+
+    /**
+     * @param slabSize number of bytes reserved at once for each size class; must be a power of two
+     */
+    SlabAllocator(int slabSize) {
+        if (Integer.bitCount(slabSize) != 1 || slabSize < MIN_BLOCK_SIZE) {
+            throw new IllegalArgumentException("slabSize must be a power of two of at least " + MIN_BLOCK_SIZE);
+        }
+        this.slabSize = slabSize;
+
+        for (int blockSize = MIN_BLOCK_SIZE; blockSize <= slabSize; blockSize <<= 1) {
+            freeLists.add(new ArrayDeque<>());
+        }
+    }
+
+    /**
+     * Copies bytes into a newly allocated off-heap block
+     *
+     * @param bytes bytes to be stored
+     * @return block holding bytes
+     */
+    Block store(byte[] bytes) {
+        Block block = allocate(bytes.length);
+
+        // blocks are not visible to any reader until they are stored in a page stack, so copy outside of the lock
+        block.buffer.duplicate().put(bytes);
+        return block;
+    }
+
+    /**
+     * Returns a block to its free list, to be reused by a later allocation of the same size class. A block must not be
+     * freed while any reader could still validate a copy of its contents.
+     *
+     * @param block block to be freed
+     */
+    synchronized void free(Block block) {
+        usedBytes -= block.buffer.capacity();
+
+        if (block.sizeClass < 0) {
+            reservedBytes -= block.buffer.capacity();
+        } else {
+            freeLists.get(block.sizeClass).push(block.buffer);
+        }
+    }
+
+    /**
+     * @return number of off-heap bytes reserved by this allocator, whether in use or free
+     */
+    synchronized long reservedBytes() {
+        return reservedBytes;
+    }
+
+    /**
+     * @return number of off-heap bytes in blocks which have been allocated and not freed
+     */
+    synchronized long usedBytes() {
+        return usedBytes;
+    }
+
+    private synchronized Block allocate(int length) {
+
+        // values larger than a slab are given a buffer of their own
+        if (length > slabSize) {
+            reservedBytes += length;
+            usedBytes += length;
+            return new Block(ByteBuffer.allocateDirect(length), length, -1);
+        }
+
+        int sizeClass = sizeClassOf(length);
+        int blockSize = MIN_BLOCK_SIZE << sizeClass;
+        Deque<ByteBuffer> freeList = freeLists.get(sizeClass);
+
+        // reserve a new slab for this size class, split into blocks, if none are free
+        if (freeList.isEmpty()) {
+            ByteBuffer slab = ByteBuffer.allocateDirect(slabSize);
+            reservedBytes += slabSize;
+
+            for (int offset = 0; offset < slabSize; offset += blockSize) {
+                slab.limit(offset + blockSize).position(offset);
+                freeList.push(slab.slice());
+            }
+        }
+
+        usedBytes += blockSize;
+        return new Block(freeList.pop(), length, sizeClass);
+    }
+
+    /**
+     * @return index of the smallest size class whose blocks can hold length bytes
+     */
+    private static int sizeClassOf(int length) {
+        int blockSize = Math.max(Integer.highestOneBit(Math.max(length - 1, 1)) << 1, MIN_BLOCK_SIZE);
+        return Integer.numberOfTrailingZeros(blockSize) - Integer.numberOfTrailingZeros(MIN_BLOCK_SIZE);
+    }
+}
@@ -9,7 +9,10 @@ import services.dataAccess.proto.PostProto.Post;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Arrays;
 import java.util.Optional;
 
@@ -47,10 +50,19 @@ public class TestDataAccess extends AbstractDataAccess {
         return x;
     }
 
+    public long addNewPostLists(String keyString, List<PostList> postLists) {
+        return x;
+    }
+
     public List<Post> getAllPosts(String keyString) {
         return testPostList;
     }
 
+    @Override
+    protected long upsertPosts(String keyString, List<Post> listOfPosts) {
+        return x;
+    }
+
     @Override
     protected Optional<Post> popFirstPost(String keyString) {
         return null;
@@ -66,6 +78,64 @@ public class TestDataAccess extends AbstractDataAccess {
         return Collections.singletonList(testOptPostList.get());
     }
 
+    @Override
+    protected Map<String, List<PostList>> getAllPostLists(List<String> keyStrings) {
+        Map<String, List<PostList>> postListsByKey = new LinkedHashMap<>();
+        keyStrings.forEach(keyString -> postListsByKey.put(keyString, getAllPostLists(keyString)));
+        return postListsByKey;
+    }
+
+    @Override
+    protected List<PostList> getPostListRange(String keyString, int from, int to) {
+        return getAllPostLists(keyString);
+    }
+
+    @Override
+    protected long getVersion(String keyString) {
+        return x;
+    }
+
+    @Override
+    protected long incrementVersion(String keyString) {
+        return x;
+    }
+
+    @Override
+    protected Map<String, Long> incrementVersions(List<String> keyStrings) {
+        Map<String, Long> newVersions = new LinkedHashMap<>();
+        keyStrings.forEach(keyString -> newVersions.put(keyString, x));
+        return newVersions;
+    }
+
+    @Override
+    protected void setVersion(String keyString, long version) {
+    }
+
+    @Override
+    protected Map<String, Long> getVersions(List<String> keyStrings) {
+        Map<String, Long> versions = new LinkedHashMap<>();
+        keyStrings.forEach(keyString -> versions.put(keyString, x));
+        return versions;
+    }
+
+    @Override
+    protected void setVersions(Map<String, Long> versionsByKey) {
+    }
+
+    @Override
+    protected long addToVersion(String keyString, long delta) {
+        return x;
+    }
+
+    @Override
+    protected void deleteList(String keyString) {
+    }
+
+    @Override
+    protected Iterator<PostList> iteratePostLists(String keyString, int chunkSize) {
+        return getAllPostLists(keyString).iterator();
+    }
+
     @Override
     public Optional<PostList> getDisplayPostList(String keyString, Integer index) {
         return Optional.of(TestDataGenerator.generatePostList(50));
@@ -81,6 +151,11 @@ public class TestDataAccess extends AbstractDataAccess {
         return null;
     }
 
+    @Override
+    protected List<Post> drainPosts(String keyString, int maxPosts) {
+        return Collections.emptyList();
+    }
+
     @Override
     public long getNumPostsInNameSpace(String nameSpace) {
         return 0;
@@ -112,4 +187,14 @@ public class TestDataAccess extends AbstractDataAccess {
         return 0;
     }
 
+    @Override
+    protected long replacePostLists(Map<String, List<PostList>> postListsByKey) {
+        return 0;
+    }
+
+    @Override
+    protected long copyList(String fromKeyString, String toKeyString) {
+        return 0;
+    }
+
 }
@@ -2,6 +2,8 @@ package services.serializer;
 
 import services.dataAccess.proto.PostListProto.PostList;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.List;
 
 public final class BinarySerializer implements Serializer{
@@ -13,4 +15,20 @@ public final class BinarySerializer implements Serializer{
 
     @Override
     public byte[] serialize(List<String> stringList) { return stringList.toString().getBytes(); }
+
+    @Override
+    public byte[] serializePostLists(List<PostList> postLists) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        // each postList is prefixed with its length, so the postLists can be parsed back one at a time
+        try {
+            for (PostList postList : postLists) {
+                postList.writeDelimitedTo(output);
+            }
+        } catch (IOException IOe) {
+            throw new IllegalStateException(IOe); // writing to a byte array cannot fail
+        }
+
+        return output.toByteArray();
+    }
 }
@@ -16,4 +16,7 @@ public final class JsonSerializer implements Serializer {
 
     @Override
     public String serialize(List<String> stringList) { return gson.toJson(stringList); }
+
+    @Override
+    public String serializePostLists(List<PostList> postLists) { return gson.toJson(postLists); }
 }
@@ -8,4 +8,5 @@ public interface Serializer {
 
     Object serialize(PostList postList);
     Object serialize(List<String> stringList);
+    Object serializePostLists(List<PostList> postLists);
 }
@@ -6,13 +6,79 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Collectors;
 
+import static services.PublicConstants.SCORE_MODE;
+
 public class Calculator {
 
+    /**
+     * Ways of combining the engagement of a post with its age into a popularity score
+     */
+    public enum ScoreMode {
+
+        // weighted engagement scaled by a linear decay to zero at expiry, relative to the current time; scores of stored
+        // posts must be recalculated on every sort, and ranks change as posts age
+        LINEAR,
+
+        // log of weighted engagement plus the post's timestamp over HOT_DECAY_TIME, fixed once calculated; newer posts
+        // rank higher, so the relative order of posts never changes as they age, and expiry is a timestamp cutoff
+        HOT
+    }
+
     private static final Double LIKE_WEIGHT = 0.9;
     private static final Double COMMENT_WEIGHT = 0.5;
     private static final Double SHARE_WEIGHT = 1.1;
     private static final Long POST_EXPIRY = 259200000L; // three days (in milliseconds)
 
+    private static final long HOT_EPOCH = 1451606400000L;   // 2016-01-01 (in milliseconds), keeping scores small
+    private static final double HOT_DECAY_TIME = 45000000;  // a post needs ten times the engagement to outrank one
+                                                            // posted this long (12.5 hours) after it, in milliseconds
+    private static final double HOT_SCALE = 1000;           // score units per power of ten of engagement
+
+    private final ScoreMode scoreMode;
+
+    public Calculator() {
+        this("hot".equals(System.getenv(SCORE_MODE)) ? ScoreMode.HOT : ScoreMode.LINEAR);
+    }
+
+    /**
+     * @param scoreMode way of calculating popularity scores
+     */
+    public Calculator(ScoreMode scoreMode) {
+        this.scoreMode = scoreMode;
+    }
+
+    /**
+     * @return whether popularity scores, once calculated, stay valid as posts age, so need never be recalculated
+     */
+    public boolean isTimeInvariant() {
+        return scoreMode == ScoreMode.HOT;
+    }
+
+    /**
+     * Decides whether a post with a calculated popularity score is popular enough to be displayed. With linear scores,
+     * the decayed score is compared to the threshold; with time-invariant scores, the weighted engagement of a post
+     * which has not expired is compared to the threshold.
+     *
+     * @param post      post holding its popularity score
+     * @param threshold minimum (decayed) weighted engagement of a popular post
+     * @return whether post is popular
+     */
+    public boolean isPopular(Post post, int threshold) {
+        if (scoreMode == ScoreMode.HOT) {
+            return !isExpired(post) && weightedEngagement(post) >= threshold;
+        } else {
+            return post.getPopularityScore() >= threshold;
+        }
+    }
+
+    /**
+     * @param post Post object to be evaluated
+     * @return whether post is older than the post expiry
+     */
+    public boolean isExpired(Post post) {
+        return System.currentTimeMillis() - timestampOf(post) >= POST_EXPIRY;
+    }
+
     /**
      * Calculates and inserts popularity score to each post in a list of posts
      *
@@ -33,26 +99,63 @@ public class Calculator {
      */
     public Post calculatePopularityAndRebuild(Post post) {
 
-        long timestamp;
+        // rebuild post with new score
+        post = post.toBuilder().setPopularityScore(calculatePopularity(post)).build();
+
+        return post;
+    }
 
-        // default to current timestamp if no timestamp is available
+    /**
+     * Calculates the current popularity score of a given post, without rebuilding it
+     *
+     * @param post Post object to be evaluated
+     * @return popularity score
+     */
+    public int calculatePopularity(Post post) {
+
+        // calculate popularity score of post
+        if (scoreMode == ScoreMode.HOT) {
+            return calculateHotScore(weightedEngagement(post), timestampOf(post));
+        } else {
+            return calculatePopularityScore(
+                    post.getNumComments(),
+                    post.getNumLikes(),
+                    post.getNumShares(),
+                    timestampOf(post));
+        }
+    }
+
+    /**
+     * @param post Post object to be evaluated
+     * @return timestamp of post, defaulting to the current timestamp if no timestamp is available
+     */
+    private static long timestampOf(Post post) {
         if (post.hasField(Post.getDescriptor().findFieldByNumber(Post.TIMESTAMP_FIELD_NUMBER))) {
-            timestamp = post.getTimestamp();
+            return post.getTimestamp();
         } else {
-            timestamp = System.currentTimeMillis();
+            return System.currentTimeMillis();
         }
+    }
 
-        // calculate popularity score of post
-        int popularity = calculatePopularityScore(
-                post.getNumComments(),
-                post.getNumLikes(),
-                post.getNumShares(),
-                timestamp);
+    private static double weightedEngagement(Post post) {
+        return COMMENT_WEIGHT * post.getNumComments()
+                + LIKE_WEIGHT * post.getNumLikes()
+                + SHARE_WEIGHT * post.getNumShares();
+    }
 
-        // rebuild post with new score
-        post = post.toBuilder().setPopularityScore(popularity).build();
+    /**
+     * Calculates a time-invariant popularity score; scores of posts of equal engagement grow by HOT_SCALE every
+     * HOT_DECAY_TIME between their timestamps, as do scores of posts of equal timestamp every tenfold engagement
+     *
+     * @param engagement weighted engagement of post
+     * @param timeStamp  timestamp of post
+     * @return popularity score
+     */
+    private static int calculateHotScore(double engagement, long timeStamp) {
+        double popularity = HOT_SCALE * (Math.log10(Math.max(engagement, 1)) + (timeStamp - HOT_EPOCH) / HOT_DECAY_TIME);
 
-        return post;
+        // handle boundary conditions
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, popularity));
     }
 
     /**
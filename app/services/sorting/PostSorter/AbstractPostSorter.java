@@ -17,6 +17,7 @@ public abstract class AbstractPostSorter {
 
     AbstractDataAccess dataSource;
     private static final int PAGE_LIMIT = Integer.valueOf(System.getenv(POSTS_PER_PAGE));
+    static final int PAGE_CHUNK_SIZE = 50; // number of stored pages read from the data store at once
 
     public AbstractPostSorter(AbstractDataAccess dataSource) {
         this.dataSource = dataSource;
@@ -91,15 +92,9 @@ public abstract class AbstractPostSorter {
      * @return size of channel after display pages have been added
      */
     long addDisplayPages(String key, List<PostList> pages) {
-        ListIterator li = pages.listIterator(pages.size());
-        long pagesInChannel = 0;
 
-        while (li.hasPrevious()) {
-            pagesInChannel = dataSource.addNewDisplayPostList(key, pages.get(li.previousIndex()));
-            li.previous();
-        }
-
-        return pagesInChannel;
+        // pages are pushed in a single operation, with the first page at the top of the stack
+        return dataSource.addNewDisplayPostLists(key, pages);
     }
 
     /**
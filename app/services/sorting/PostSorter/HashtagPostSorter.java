@@ -1,15 +1,30 @@
 package services.sorting.PostSorter;
 
+import com.google.common.collect.Lists;
 import services.dataAccess.AbstractDataAccess;
+import services.dataAccess.proto.PostListProto.PostList;
 import services.dataAccess.proto.PostProto.Post;
 import services.sorting.Calculator;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 
 public class HashtagPostSorter extends AbstractPostSorter {
 
-    private static final int POST_THRESHOLD = AbstractDataAccess.getMaxPostlists() / 2;
+    private static final int BATCH_SIZE = 100; // hashtags read and written in a single round trip
+
+    // hashtags are loaded on a pool of their own, as load itself runs on one of the sorting node's stage threads
+    private static final ExecutorService LOADERS = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), runnable -> {
+                Thread thread = new Thread(runnable, "hashtag-loader");
+                thread.setDaemon(true);
+                return thread;
+            });
+
     private static final String NO_HASHTAGS = "N/A";
     private Calculator calc;
 
@@ -62,52 +77,135 @@ public class HashtagPostSorter extends AbstractPostSorter {
      * Prepares the new hashtag display channels given a list of new posts, pre-sorted into a map of hashtags to list
      * of posts containing that hashtag
      *
-     * Only loads a list of posts under a hashtag if its size is greater than POST_THRESHOLD
+     * Only hashtags holding new posts are merged and rewritten. Channels of every other hashtag are neither read nor
+     * written until the next sweep, including when a generation written through a GenerationAccessObject is published,
+     * so they expire under their retention policy unless read. Hashtags are loaded in batches of BATCH_SIZE, each read
+     * and written in a single round trip per data store instance, with batches spread across the LOADERS pool.
      * @param sortedPosts map of hashtags to list of posts containing that hashtag
+     * @return number of pages loaded
      */
     @Override
     public long load(Map<String, List<Post>> sortedPosts) {
-        Map<String, List<Post>> hashTagPosts = new HashMap<>(sortedPosts);
-        List<String> oldHashTags = dataSource.getAllHashTags();     // retrieve list of all currently stored hashtags
+        List<String> hashtags = new ArrayList<>(sortedPosts.keySet());
+        hashtags.remove(NO_HASHTAGS);
+
+        List<CompletableFuture<Long>> batches = Lists.partition(hashtags, BATCH_SIZE).stream()
+                .map(batch -> CompletableFuture.supplyAsync(() -> loadBatch(batch, sortedPosts), LOADERS))
+                .collect(Collectors.toList());
+
+        return joinAll(batches);
+    }
+
+    /**
+     * Removes expired posts from the channels of hashtags which this sort did not load, deleting channels left with no
+     * posts at all. Channels are only rewritten if they held expired posts. As every stored hashtag is read, sweeps are
+     * meant to run far less often than loads; hashtags are swept in batches of BATCH_SIZE across the LOADERS pool.
+     *
+     * @param loadedHashtags hashtags whose channels were just rewritten by load, so hold no expired posts
+     * @return number of hashtag channels deleted
+     */
+    public long sweep(Set<String> loadedHashtags) {
+        List<String> hashtags = dataSource.getAllHashTags().stream()
+                .filter(hashtag -> !loadedHashtags.contains(hashtag))
+                .collect(Collectors.toList());
 
-        // iterate over existing hashtags
-        oldHashTags.forEach(hashtag -> {
+        List<CompletableFuture<Long>> batches = Lists.partition(hashtags, BATCH_SIZE).stream()
+                .map(batch -> CompletableFuture.supplyAsync(() -> sweepBatch(batch), LOADERS))
+                .collect(Collectors.toList());
+
+        return joinAll(batches);
+    }
+
+    /**
+     * Merges the new posts of a batch of hashtags with the posts already stored under them, and replaces the stored
+     * pages of the whole batch at once
+     *
+     * @param hashtags    hashtags of the batch
+     * @param sortedPosts map of hashtags to list of new posts containing that hashtag
+     * @return number of pages loaded
+     */
+    private long loadBatch(List<String> hashtags, Map<String, List<Post>> sortedPosts) {
+        Map<String, List<PostList>> storedPages = dataSource.getAllHashtagPostLists(hashtags);
+        Map<String, List<PostList>> newPages = new LinkedHashMap<>();
+        long numPagesAdded = 0;
+
+        for (String hashtag : hashtags) {
 
             // get list of new posts under this hashtag, as well as old posts under this hashtag
-            List<Post> allPosts = new ArrayList<>();
+            List<Post> allPosts = new ArrayList<>(sortedPosts.get(hashtag));
+            allPosts.addAll(expandPostLists(storedPages.getOrDefault(hashtag, Collections.emptyList())));
 
-            if (sortedPosts.containsKey(hashtag)) {
-                allPosts.addAll(sortedPosts.get(hashtag));
+            // calculate new popularity score, unless scores are time-invariant, in which case stored scores still hold
+            if (!calc.isTimeInvariant()) {
+                allPosts = calc.calculatePopularityScoreOfAllPosts(allPosts);
             }
-            allPosts.addAll(expandPostLists(dataSource.getAllHashtagPostLists(hashtag)));
-
-            // calculate new popularity score
-            allPosts = calc.calculatePopularityScoreOfAllPosts(allPosts);
-
-            // filter out duplicate posts, expired posts, and load merged posts into map
-            hashTagPosts.put(hashtag,
-                    allPosts.stream()
-                            .filter(distinctById(Post::getId))
-                            .filter(post -> post.getPopularityScore() > 0)
-                            .sorted(Collections.reverseOrder(Comparator.comparingInt(Post::getPopularityScore)))
-                            .collect(Collectors.toList())
-            );
-
-        });
-
-        // filter out lists with fewer than POST_THRESHOLD posts
-        hashTagPosts.forEach((s, l) -> {
-            if (l.size() < POST_THRESHOLD) {
-                l = Collections.emptyList();
-            }
-        });
 
-        // load each hashtag list into data store under hashtag key
-        long numPagesAdded = 0;
-        for (Map.Entry<String, List<Post>> e : hashTagPosts.entrySet()) {
-            numPagesAdded += addHashtagPages(e.getKey(), preparePages(e.getValue()));
+            // filter out duplicate posts and expired posts
+            List<PostList> pages = preparePages(allPosts.stream()
+                    .filter(distinctById(Post::getId))
+                    .filter(post -> calc.isPopular(post, 1))
+                    .sorted(Collections.reverseOrder(Comparator.comparingInt(Post::getPopularityScore)))
+                    .collect(Collectors.toList()));
+
+            // highest rated pages at top of stack
+            newPages.put(hashtag, Lists.reverse(pages));
+            numPagesAdded += pages.size();
         }
 
+        dataSource.replaceHashTagPostLists(newPages);
+
         return numPagesAdded;
     }
+
+    /**
+     * Rewrites the channels of a batch of hashtags holding expired posts without them, all at once
+     *
+     * @param hashtags hashtags of the batch
+     * @return number of channels deleted, having held only expired posts
+     */
+    private long sweepBatch(List<String> hashtags) {
+        Map<String, List<PostList>> newPages = new LinkedHashMap<>();
+        long numDeleted = 0;
+
+        for (Map.Entry<String, List<PostList>> e : dataSource.getAllHashtagPostLists(hashtags).entrySet()) {
+            List<Post> storedPosts = expandPostLists(e.getValue());
+            List<Post> livePosts = storedPosts.stream()
+                    .filter(post -> !calc.isExpired(post))
+                    .sorted(Collections.reverseOrder(Comparator.comparingInt(Post::getPopularityScore)))
+                    .collect(Collectors.toList());
+
+            if (livePosts.size() < storedPosts.size()) {
+                newPages.put(e.getKey(), Lists.reverse(preparePages(livePosts)));
+                numDeleted += livePosts.isEmpty() ? 1 : 0;
+            }
+        }
+
+        if (!newPages.isEmpty()) {
+            dataSource.replaceHashTagPostLists(newPages);
+        }
+
+        return numDeleted;
+    }
+
+    /**
+     * Waits for every batch, rethrowing the first failure of any batch
+     *
+     * @param batches batches running on the LOADERS pool
+     * @return sum of the results of the batches
+     */
+    private static long joinAll(List<CompletableFuture<Long>> batches) {
+        long total = 0;
+        for (CompletableFuture<Long> batch : batches) {
+            try {
+                total += batch.join();
+            } catch (CompletionException cE) {
+                if (cE.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) cE.getCause();
+                }
+                throw cE;
+            }
+        }
+
+        return total;
+    }
 }
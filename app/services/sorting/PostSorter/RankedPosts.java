@@ -0,0 +1,173 @@
+package services.sorting.PostSorter;
+
+import services.dataAccess.proto.PostProto.Post;
+
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+
+/**
+ * Posts ranked in decreasing order of popularity score, with an index by post ID, kept from one sort to the next so
+ * that each sort only inserts its new posts rather than re-reading and re-sorting the whole ranked channel. Adding,
+ * replacing or removing a post takes O(log n). Posts of equal score are ranked by ID, so the ranking is deterministic.
+ * <p>
+ * A ranking records the generation of the published channel it matches. When another sorting node publishes a
+ * generation in the meantime, the ranking no longer matches the published channel, and is rebuilt from it.
+ * <p>
+ * Not thread-safe: a ranking belongs to a single sorting node.
+ */
+public class RankedPosts {
+
+    private static final Comparator<Post> BY_RANK = Comparator.comparingInt(Post::getPopularityScore).reversed()
+            .thenComparing(Post::getId);
+    private static final Comparator<Post> BY_AGE = Comparator.comparingLong(Post::getTimestamp)
+            .thenComparing(Post::getId);
+
+    private final TreeSet<Post> ranking = new TreeSet<>(BY_RANK);
+    private final TreeSet<Post> postsByAge = new TreeSet<>(BY_AGE);
+    private final Map<String, Post> postsById = new HashMap<>();
+    private long generation = -1; // published generation whose channel holds these posts, or -1 if none
+
+    /**
+     * Adds a post to the ranking, replacing any post of the same ID
+     *
+     * @param post post holding its popularity score
+     */
+    public void put(Post post) {
+        Post replaced = postsById.put(post.getId(), post);
+
+        if (replaced != null) {
+            ranking.remove(replaced);
+            postsByAge.remove(replaced);
+        }
+        ranking.add(post);
+        postsByAge.add(post);
+    }
+
+    /**
+     * @param id ID of post to be removed
+     * @return whether a post of that ID was ranked
+     */
+    public boolean remove(String id) {
+        Post removed = postsById.remove(id);
+
+        if (removed != null) {
+            ranking.remove(removed);
+            postsByAge.remove(removed);
+        }
+        return removed != null;
+    }
+
+    /**
+     * Removes every post whose timestamp is before a cutoff, taking O(log n) per post removed. Posts without a
+     * timestamp count as posted at time zero.
+     *
+     * @param cutoff earliest timestamp of a ranked post (in milliseconds)
+     * @return number of posts removed
+     */
+    public int removePostedBefore(long cutoff) {
+        int numRemoved = 0;
+
+        while (!postsByAge.isEmpty() && postsByAge.first().getTimestamp() < cutoff) {
+            remove(postsByAge.first().getId());
+            numRemoved++;
+        }
+
+        return numRemoved;
+    }
+
+    /**
+     * Removes the lowest ranked posts until at most maxSize posts remain, taking O(log n) per post removed
+     *
+     * @param maxSize maximum number of ranked posts
+     * @return number of posts removed
+     */
+    public int truncate(int maxSize) {
+        int numRemoved = 0;
+
+        while (ranking.size() > maxSize) {
+            remove(ranking.last().getId());
+            numRemoved++;
+        }
+
+        return numRemoved;
+    }
+
+    /**
+     * Recalculates the score of every ranked post, moving only the posts whose score changed, and removing those which
+     * are no longer to be ranked
+     *
+     * @param scorer calculates the current popularity score of a post
+     * @param keep   decides whether a post holding its new score stays in the ranking
+     * @return number of posts moved or removed
+     */
+    public int rescore(ToIntFunction<Post> scorer, Predicate<Post> keep) {
+        List<Post> changed = new ArrayList<>();
+        List<Post> dropped = new ArrayList<>();
+
+        for (Post post : ranking) {
+            int score = scorer.applyAsInt(post);
+            Post rescored = score != post.getPopularityScore()
+                    ? post.toBuilder().setPopularityScore(score).build()
+                    : post;
+
+            if (!keep.test(rescored)) {
+                dropped.add(rescored);
+            } else if (rescored != post) {
+                changed.add(rescored);
+            }
+        }
+
+        changed.forEach(this::put);
+        dropped.forEach(post -> remove(post.getId()));
+
+        return changed.size() + dropped.size();
+    }
+
+    /**
+     * @param id ID of a post
+     * @return the ranked post of that ID, if any
+     */
+    public Optional<Post> get(String id) {
+        return Optional.ofNullable(postsById.get(id));
+    }
+
+    /**
+     * @return ranked posts, in decreasing order of popularity score
+     */
+    public List<Post> toList() {
+        return new ArrayList<>(ranking);
+    }
+
+    /**
+     * Removes every post, and forgets the generation the ranking matched
+     */
+    public void clear() {
+        ranking.clear();
+        postsByAge.clear();
+        postsById.clear();
+        generation = -1;
+    }
+
+    /**
+     * @return published generation whose channel holds the ranked posts, or -1 if unknown
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @param generation published generation whose channel holds the ranked posts
+     */
+    public void setGeneration(long generation) {
+        this.generation = generation;
+    }
+
+    public int size() {
+        return ranking.size();
+    }
+
+    public boolean isEmpty() {
+        return ranking.isEmpty();
+    }
+}
@@ -5,7 +5,6 @@ import services.dataAccess.proto.PostProto.Post;
 import services.sorting.Calculator;
 
 import java.util.*;
-import java.util.stream.Collectors;
 
 import static services.PublicConstants.TOP;
 
@@ -13,14 +12,26 @@ public class TopPostSorter extends AbstractPostSorter {
 
     private static final int POPULARITY_THRESHOLD = 100;
     private Calculator calc;
+    private RankedPosts ranking;
 
     public TopPostSorter(AbstractDataAccess dataSource) {
+        this(dataSource, new RankedPosts());
+    }
+
+    /**
+     * @param dataSource data store holding the top channel
+     * @param ranking    top posts ranked by earlier sorts, updated by each sort; rebuilt from the top channel if it does
+     *                   not match the published generation
+     */
+    public TopPostSorter(AbstractDataAccess dataSource, RankedPosts ranking) {
         super(dataSource);
         calc = new Calculator();
+        this.ranking = ranking;
     }
 
     /**
-     * Sorts a list of posts based on their popularity scores (posts must contain popularity score)
+     * Sorts a list of posts based on their popularity scores (posts must contain popularity score), together with the
+     * posts already ranked
      *
      * @param posts list of posts to be sorted
      * @return map of TOP string to sorted list of posts, in decreasing order of popularity
@@ -28,20 +39,47 @@ public class TopPostSorter extends AbstractPostSorter {
     @Override
     public Map<String, List<Post>> sort(List<Post> posts) {
         Map<String, List<Post>> sortedPosts = new HashMap<>();
-        List<Post> allTopPosts = new ArrayList<>(posts);
-
-        // collect existing top posts and recalculate popularity score
-        List<Post> oldPosts = new ArrayList<>(expandPostLists(dataSource.getAllDisplayPostLists(TOP)));
-        oldPosts = calc.calculatePopularityScoreOfAllPosts(oldPosts);
-        allTopPosts.addAll(oldPosts);
-
-        // sort all top posts
-        // filter out duplicate IDs, posts below popularity score, and sort by popularity score in decreasing order
-        sortedPosts.put(TOP, allTopPosts.stream()
-                .filter(distinctById(Post::getId))
-                .filter(post -> post.getPopularityScore() >= POPULARITY_THRESHOLD)
-                .sorted(Collections.reverseOrder(Comparator.comparingInt(Post::getPopularityScore)))
-                .collect(Collectors.toList()));
+
+        // stream existing top posts page by page only if the ranking does not already hold them, e.g. on the first
+        // sort of this process, or after another process published the channel
+        long publishedGeneration = dataSource.getPublishedGeneration();
+        boolean rebuilt = ranking.getGeneration() != publishedGeneration;
+        if (rebuilt) {
+            ranking.clear();
+            dataSource.iterateDisplayPostLists(TOP, PAGE_CHUNK_SIZE).forEachRemaining(page ->
+                    page.getPostsList().forEach(ranking::put));
+            ranking.setGeneration(publishedGeneration);
+        }
+
+        // recalculate popularity score of ranked posts as they decay, moving only those whose score changed, and
+        // keeping only those that remain above the popularity threshold; time-invariant scores are only recalculated
+        // when read back from the channel, which may have been scored differently, and otherwise posts only leave the
+        // ranking once expired
+        if (rebuilt || !calc.isTimeInvariant()) {
+            ranking.rescore(calc::calculatePopularity, post -> calc.isPopular(post, POPULARITY_THRESHOLD));
+        } else {
+            ranking.removePostedBefore(System.currentTimeMillis() - Calculator.getPostExpiry());
+        }
+
+        // insert new posts, replacing ranked versions of the same posts; the first of duplicate IDs wins, and a post
+        // which drops below the popularity threshold leaves the ranking
+        Set<String> newIds = new HashSet<>();
+        for (Post post : posts) {
+            if (newIds.add(post.getId())) {
+                if (calc.isPopular(post, POPULARITY_THRESHOLD)) {
+                    ranking.put(post);
+                } else {
+                    ranking.remove(post.getId());
+                }
+            }
+        }
+
+        // the top channel only keeps as many pages as its retention policy allows, so posts ranked past its last page
+        // are dropped, as they would be from a ranking rebuilt from the channel
+        int maxPostLists = dataSource.getRetentionPolicy(AbstractDataAccess.getDisplayNamespace()).getMaxPostLists();
+        ranking.truncate(maxPostLists * getPageLimit());
+
+        sortedPosts.put(TOP, ranking.toList());
 
         return sortedPosts;
     }
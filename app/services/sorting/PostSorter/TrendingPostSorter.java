@@ -66,12 +66,14 @@ public class TrendingPostSorter extends AbstractPostSorter {
     private List<Post> calculateRelativePopularity(String displayName, List<Post> newPosts) {
         List<Post> calculatedPosts;
 
-        // retrieve old posts from specified display channel
-        List<Post> oldPosts = expandPostLists(dataSource.getAllDisplayPostLists(displayName));
+        Set<String> newPostIds = newPosts.stream().map(Post::getId).collect(Collectors.toSet());
         Map<String, Post> oldPostIdMap = new HashMap<>();
 
-        // load old posts into map of unique IDs to post
-        oldPosts.forEach(post -> oldPostIdMap.put(post.getId(), post));
+        // stream old posts from specified display channel page by page, keeping only those matching a new post
+        dataSource.iterateDisplayPostLists(displayName, PAGE_CHUNK_SIZE).forEachRemaining(page ->
+                page.getPostsList().stream()
+                        .filter(post -> newPostIds.contains(post.getId()))
+                        .forEach(post -> oldPostIdMap.put(post.getId(), post)));
 
         // calculate popularity velocity for each new post, relative to the same post in the past
         calculatedPosts = newPosts.stream()
@@ -2,18 +2,27 @@ package services.sorting;
 
 import services.ThreadNotification;
 import services.dataAccess.AbstractDataAccess;
+import services.dataAccess.GenerationAccessObject;
 import services.dataAccess.proto.PostProto.Post;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 import play.Logger;
 import services.sorting.PostSorter.AbstractPostSorter;
 import services.sorting.PostSorter.HashtagPostSorter;
+import services.sorting.PostSorter.RankedPosts;
 import services.sorting.PostSorter.TopPostSorter;
 import services.sorting.PostSorter.TrendingPostSorter;
 import services.sorting.StringSorter.AbstractStringSorter;
 import services.sorting.StringSorter.TopHashtagStringSorter;
 
+import static services.PublicConstants.NUM_TOP_HASHTAGS;
 import static services.PublicConstants.TOP;
 import static services.PublicConstants.TRENDING;
 import static services.PublicConstants.SORTING_NODE_INPUT_THRESHOLD;
@@ -21,8 +30,24 @@ import static services.PublicConstants.SORTING_NODE_INPUT_THRESHOLD;
 public class SortingNode implements Runnable {
 
     private static final Long PROCESS_INPUT_THRESHOLD = Long.valueOf(System.getenv(SORTING_NODE_INPUT_THRESHOLD));
+    private static final int MAX_POSTS_PER_SOURCE = 10000; // max posts drained from each source per sort
+    private static final long SWEEP_INTERVAL = 3600000;     // milliseconds between sweeps of stale hashtag channels
+
+    // stages of a sort run on a pool of their own, with a thread for each stage which may run at once
+    private static final int NUM_STAGE_THREADS = 3;
+    private static final ExecutorService STAGES = Executors.newFixedThreadPool(NUM_STAGE_THREADS, runnable -> {
+        Thread thread = new Thread(runnable, "sorting-stage");
+        thread.setDaemon(true);
+        return thread;
+    });
     private Calculator calc;
 
+    // top posts ranked by earlier sorts, so that each sort only ranks its new posts
+    private final RankedPosts topRanking = new RankedPosts();
+
+    // duration (in milliseconds) of each stage of the last sort, in order of completion
+    private final Map<String, Long> stageMillis = Collections.synchronizedMap(new LinkedHashMap<>());
+
     private AbstractDataAccess dataSource;
     private ThreadNotification sortNotification;
 
@@ -30,6 +55,9 @@ public class SortingNode implements Runnable {
         this.dataSource = dataSource;
         this.sortNotification = sortNotification;
         calc = new Calculator();
+
+        // posts queued before this process started may not be counted yet
+        dataSource.recountPostsInSources();
     }
 
     /**
@@ -62,83 +90,175 @@ public class SortingNode implements Runnable {
 
         List<Post> newPosts = new ArrayList<>();
 
-        // Obtain number of posts available for processing and exit if this does not meet the threshold
+        // Obtain number of posts available for processing, from a counter rather than by counting every source queue,
+        // and exit if this does not meet the threshold
         Long numAvailablePosts = dataSource.getNumPostsInSources();
         if (numAvailablePosts < PROCESS_INPUT_THRESHOLD) {
             Logger.debug("Sorter is dissatisfied with the number of available posts. Waiting...");
             return;
         }
         Logger.info("Sorting posts at " + new Date());
+        stageMillis.clear();
 
         /*
            GATHERING NEW POSTS
          */
 
-        // Obtain all source channels, obtain all posts from each, and delete these posts from the source channels
-        List<String> sourceKeys = dataSource.getSources();
-        for (String key : sourceKeys) {
-            List<Post> postsFromSource = dataSource.getAllPostsFromSource(key);   // get all posts provided by source
+        // Obtain all source channels, and drain a bounded batch of posts from each; any remaining posts are left in the
+        // source channels for the next sort
+        timed("gather", () -> {
+            List<String> sourceKeys = dataSource.getSources();
+            for (String key : sourceKeys) {
+                newPosts.addAll(dataSource.drainSource(key, MAX_POSTS_PER_SOURCE));
+            }
+            return newPosts.size();
+        });
+
+        // correct any drift of the counter, e.g. from source queues which expired, once per sort
+        dataSource.recountPostsInSources();
 
-            newPosts.addAll(postsFromSource);                           // load posts into memory
-            // delete all posts that have been gathered
-            dataSource.deleteFirstNPostsFromSourceQueue(key, postsFromSource.size());
-        }
+        // sorted channels are written to a new generation, which readers only see once it is complete
+        GenerationAccessObject generation = new GenerationAccessObject(dataSource);
 
-        AbstractPostSorter topPostSorter = new TopPostSorter(dataSource);
-        AbstractPostSorter trendingPostSorter = new TrendingPostSorter(dataSource);
-        AbstractPostSorter hashtagPostSorter = new HashtagPostSorter(dataSource);
+        AbstractPostSorter topPostSorter = new TopPostSorter(generation, topRanking);
+        AbstractPostSorter trendingPostSorter = new TrendingPostSorter(generation);
+        HashtagPostSorter hashtagPostSorter = new HashtagPostSorter(generation);
 
-        AbstractStringSorter topHashtagStringSorter = new TopHashtagStringSorter(dataSource);
+        AbstractStringSorter topHashtagStringSorter = new TopHashtagStringSorter(generation);
 
 
         /*
            SORTING NEW POSTS
          */
 
-        // calculate popularity score of all posts
-        List<Post> calculatedPosts = calc.calculatePopularityScoreOfAllPosts(newPosts);
+        // calculate popularity score of all posts, once for every sorter
+        List<Post> calculatedPosts = timed("score", () -> calc.calculatePopularityScoreOfAllPosts(newPosts));
 
-        // sort top posts and load in in pages
-        Map<String, List<Post>> newSortedTopPosts = topPostSorter.sort(calculatedPosts);
-        Logger.info("Sorter sorted " + newSortedTopPosts.get(TOP).size() + " new top posts.");
+        // sort top, trending and hashtag posts in parallel; sorters compare new posts with the published channels, so
+        // every sort completes before any load writes to the new generation
+        CompletableFuture<Map<String, List<Post>>> newSortedTopPosts =
+                stage("sort top", () -> topPostSorter.sort(calculatedPosts));
+        CompletableFuture<Map<String, List<Post>>> newSortedTrendingPosts =
+                stage("sort trending", () -> trendingPostSorter.sort(calculatedPosts));
+        CompletableFuture<Map<String, List<Post>>> postsByHashTag =
+                stage("sort hashtags", () -> hashtagPostSorter.sort(calculatedPosts));
+        await(CompletableFuture.allOf(newSortedTopPosts, newSortedTrendingPosts, postsByHashTag));
 
-        // Sort trending posts, process into postList, and add to trending channel
-        Map<String, List<Post>> newSortedTrendingPosts = trendingPostSorter.sort(calculatedPosts);
-        Logger.info("Sorter sorted " + newSortedTrendingPosts.get(TRENDING).size() + " new trending posts.");
-
-        // Finally sort hashtags, also in reverse order of popularity
-        // Bin posts containing particular hashtags together, and add to individual channels
-        Map<String, List<Post>> postsByHashTag = hashtagPostSorter.sort(calculatedPosts);
-        Logger.info("Sorter sorted " + postsByHashTag.size() + " hashtags.");
+        Logger.info("Sorter sorted " + newSortedTopPosts.join().get(TOP).size() + " new top posts.");
+        Logger.info("Sorter sorted " + newSortedTrendingPosts.join().get(TRENDING).size() + " new trending posts.");
+        Logger.info("Sorter sorted " + postsByHashTag.join().size() + " hashtags.");
 
 
         /*
            STORING SORTED DATA
          */
 
-        // add top content in pages to display top stack
-        topPostSorter.load(newSortedTopPosts);
-        Logger.info("Sorter loaded new top posts");
+        // load top, trending and hashtag pages in parallel, each into its own channels of the new generation
+        CompletableFuture<Long> topLoaded = stage("load top", () -> topPostSorter.load(newSortedTopPosts.join()));
+        CompletableFuture<Long> trendingLoaded =
+                stage("load trending", () -> trendingPostSorter.load(newSortedTrendingPosts.join()));
+
+        // only hashtags of new posts are loaded; the rest are swept of expired posts every SWEEP_INTERVAL, timed from
+        // the last sweep recorded in the data store, so that restarting a node does not sweep again
+        long now = System.currentTimeMillis();
+        boolean sweepDue = now - dataSource.getLastHashtagSweep() >= SWEEP_INTERVAL;
+        if (sweepDue) {
+            dataSource.setLastHashtagSweep(now);
+        }
 
-        // add new trending content in pages to dsiplay trending stack
-        trendingPostSorter.load(newSortedTrendingPosts);
-        Logger.info("Sorter loaded new trending posts");
+        // top hashtags are ranked by the size of hashtag channels, so are sorted once hashtags are loaded and swept.
+        // Between sweeps only the channels just loaded change size, so only they and the published top hashtags are
+        // ranked, if there are any; after a sweep, every hashtag is ranked (given as an empty list)
+        Set<String> rankedHashtags = new LinkedHashSet<>();
+        if (!sweepDue) {
+            rankedHashtags.addAll(generation.getTopHashTags(NUM_TOP_HASHTAGS));
+            rankedHashtags.addAll(postsByHashTag.join().keySet());
+        }
 
-        // add hashtag pages to their corresponding keys in data store
-        hashtagPostSorter.load(postsByHashTag);
-        Logger.info("Sorter loaded new hashtag posts");
+        CompletableFuture<Long> topHashtagsLoaded =
+                stage("load hashtags", () -> hashtagPostSorter.load(postsByHashTag.join()))
+                        .thenCompose(numPages -> !sweepDue
+                                ? CompletableFuture.completedFuture(0L)
+                                : stage("sweep hashtags",
+                                        () -> hashtagPostSorter.sweep(postsByHashTag.join().keySet())))
+                        .thenCompose(numDeleted -> !sweepDue && rankedHashtags.isEmpty()
+                                ? CompletableFuture.completedFuture(0L)
+                                : stage("load top hashtags", () -> topHashtagStringSorter.load(
+                                        topHashtagStringSorter.sort(new ArrayList<>(rankedHashtags)))));
+        await(CompletableFuture.allOf(topLoaded, trendingLoaded, topHashtagsLoaded));
+        Logger.info("Sorter loaded new top, trending and hashtag posts, and new top hashtags");
 
 
         /*
-           Update Top Hashtags
+           PUBLISHING SORTED DATA
          */
-        topHashtagStringSorter.load(topHashtagStringSorter.sort(Collections.emptyList()));
-        Logger.info("Sorter sorted and loaded new top hashtags");
 
+        // switch readers to every new channel at once
+        timed("publish", generation::publish);
+        topRanking.setGeneration(generation.getGeneration());
+        Logger.info("Sorter published generation " + generation.getGeneration());
+        Logger.info("Sorter stage times (ms): " + getStageMillis());
+    }
+
+    /**
+     * Runs a stage of the sort on the stage executor, recording its duration
+     *
+     * @param name name of the stage
+     * @param task runs the stage
+     * @return future result of the stage
+     */
+    private <T> CompletableFuture<T> stage(String name, Supplier<T> task) {
+        return CompletableFuture.supplyAsync(() -> timed(name, task), STAGES);
+    }
+
+    /**
+     * Runs a stage of the sort on the calling thread, recording its duration
+     *
+     * @param name name of the stage
+     * @param task runs the stage
+     * @return result of the stage
+     */
+    private <T> T timed(String name, Supplier<T> task) {
+        long start = System.nanoTime();
+
+        try {
+            return task.get();
+        } finally {
+            stageMillis.put(name, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+    }
+
+    /**
+     * Waits for stages to complete, rethrowing the exception of a failed stage as the stage threw it
+     *
+     * @param stages future completing once every stage has completed
+     */
+    private static void await(CompletableFuture<Void> stages) {
+        try {
+            stages.join();
+        } catch (CompletionException cE) {
+            if (cE.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) cE.getCause();
+            }
+            throw cE;
+        }
+    }
+
+    /**
+     * @return duration (in milliseconds) of each stage of the last sort, in order of completion
+     */
+    public Map<String, Long> getStageMillis() {
+        synchronized (stageMillis) {
+            return new LinkedHashMap<>(stageMillis);
+        }
     }
 
     /** static getters **/
     public static Long getProcessInputThreshold() {
         return PROCESS_INPUT_THRESHOLD;
     }
+
+    public static int getMaxPostsPerSource() {
+        return MAX_POSTS_PER_SOURCE;
+    }
 }
@@ -30,11 +30,13 @@ public class TopHashtagStringSorter extends AbstractStringSorter {
         }
 
         Map<String, Long> hashtagPopularityMap = new HashMap<>();
-        // retrieve number of pages of hashtag posts at each hashtag display
+        // retrieve number of pages of hashtag posts at each hashtag display; hashtags without pages are not ranked
         strings.forEach(h -> {
             Long numPages = dataSource.getNumHashTagPostLists(h);
 
-            hashtagPopularityMap.put(h, numPages);
+            if (numPages > 0) {
+                hashtagPopularityMap.put(h, numPages);
+            }
         });
 
         // sort hashtags by number of pages available, in decreasing order
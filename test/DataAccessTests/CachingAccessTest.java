@@ -0,0 +1,182 @@
+package DataAccessTests;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import services.dataAccess.CachingAccessObject;
+import services.dataAccess.InMemoryAccessObject;
+import services.dataAccess.MetricsAccessObject;
+import services.dataAccess.proto.PostListProto.PostList;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+import static services.dataAccess.TestDataGenerator.generatePostList;
+
+/**
+ * Tests functionality of services.dataAccess.CachingAccessObject, in particular that pages are served from the cache
+ * only while the channel they were read from is unchanged.
+ */
+public class CachingAccessTest {
+
+    private static final String testKeyString = "test";
+    private static final Integer numTestPosts = 10;
+    private static final long cacheBytes = 1 << 20;
+    private static final long versionCheckInterval = 1000; // milliseconds
+
+    private InMemoryAccessObject sharedStore;
+    private CachingAccessObject cachingAccess;
+
+    @Before
+    @After
+    public void empty() {
+        sharedStore = new InMemoryAccessObject();
+        cachingAccess = new CachingAccessObject(sharedStore, cacheBytes);
+    }
+
+    @Test
+    public void repeatedReadsAreServedFromCache() {
+        List<PostList> postLists = generatePostLists(numTestPosts);
+        cachingAccess.replaceDisplayPostLists(testKeyString, postLists);
+
+        assertEquals(Optional.of(postLists.get(0)), cachingAccess.getDisplayPostList(testKeyString, 0));
+        assertEquals(Optional.of(postLists.get(0)), cachingAccess.getDisplayPostList(testKeyString, 0));
+        assertEquals(postLists.subList(1, 4), cachingAccess.getDisplayPostLists(testKeyString, 1, 3));
+        assertEquals(postLists.subList(1, 4), cachingAccess.getDisplayPostLists(testKeyString, 1, 3));
+
+        assertEquals(2, cachingAccess.getMissCount());
+        assertEquals(2, cachingAccess.getHitCount());
+    }
+
+    @Test
+    public void writesInvalidateCachedPages() {
+        List<PostList> postLists = generatePostLists(numTestPosts);
+        PostList postList = generatePostList(numTestPosts);
+
+        cachingAccess.replaceHashTagPostLists(testKeyString, postLists);
+        assertEquals(Optional.of(postLists.get(0)), cachingAccess.getHashTagPostList(testKeyString, 0));
+
+        cachingAccess.addNewHashTagPostList(testKeyString, postList);
+        assertEquals(Optional.of(postList), cachingAccess.getHashTagPostList(testKeyString, 0));
+
+        cachingAccess.replaceHashTagPostLists(testKeyString, Collections.emptyList());
+        assertEquals(Optional.empty(), cachingAccess.getHashTagPostList(testKeyString, 0));
+    }
+
+    @Test
+    public void writesOfAnotherInstanceAreSeenAfterVersionCheck() throws InterruptedException {
+        List<PostList> postLists = generatePostLists(numTestPosts);
+        PostList postList = generatePostList(numTestPosts);
+
+        // second cache over the same data store stands in for another process
+        CachingAccessObject otherAccess = new CachingAccessObject(sharedStore, cacheBytes);
+
+        otherAccess.replaceDisplayPostLists(testKeyString, postLists);
+        assertEquals(Optional.of(postLists.get(0)), cachingAccess.getDisplayPostList(testKeyString, 0));
+
+        otherAccess.addNewDisplayPostList(testKeyString, postList);
+        Thread.sleep(versionCheckInterval + 100);
+
+        assertEquals(Optional.of(postList), cachingAccess.getDisplayPostList(testKeyString, 0));
+    }
+
+    @Test
+    public void unversionedChannelsAreNotCached() {
+        List<PostList> postLists = generatePostLists(numTestPosts);
+
+        // written without passing through a cache, so the channel has no version
+        sharedStore.replaceDisplayPostLists(testKeyString, postLists);
+
+        assertEquals(Optional.of(postLists.get(0)), cachingAccess.getDisplayPostList(testKeyString, 0));
+        assertEquals(Optional.of(postLists.get(0)), cachingAccess.getDisplayPostList(testKeyString, 0));
+        assertEquals(0, cachingAccess.getHitCount());
+    }
+
+    @Test
+    public void topHashtagsAreCached() {
+        List<String> hashtags = Arrays.asList("tag1", "tag2", "tag3");
+        cachingAccess.addTopHashtags(hashtags);
+
+        List<String> topHashtags = cachingAccess.getTopHashTags(hashtags.size());
+        assertEquals(hashtags, topHashtags);
+
+        // lists returned are copies, so changing them does not change the cache
+        topHashtags.clear();
+        assertEquals(hashtags, cachingAccess.getTopHashTags(hashtags.size()));
+        assertEquals(1, cachingAccess.getHitCount());
+    }
+
+    @Test
+    public void leastRecentlyUsedPagesAreEvicted() {
+        PostList postList = generatePostList(numTestPosts);
+        long maxWeight = 4 * postList.getSerializedSize();
+        CachingAccessObject smallAccess = new CachingAccessObject(sharedStore, maxWeight);
+
+        for (int i = 0; i < numTestPosts; i++) {
+            smallAccess.addNewDisplayPostList(testKeyString + i, postList);
+            smallAccess.getDisplayPostList(testKeyString + i, 0);
+            assertTrue(smallAccess.getWeight() <= maxWeight);
+        }
+
+        // most recently read page is still cached, the first page read has been evicted
+        smallAccess.getDisplayPostList(testKeyString + (numTestPosts - 1), 0);
+        assertEquals(1, smallAccess.getHitCount());
+        smallAccess.getDisplayPostList(testKeyString + 0, 0);
+        assertEquals(1, smallAccess.getHitCount());
+    }
+
+    @Test
+    public void batchWritesInvalidateCachedPagesInOneVersionUpdate() {
+        MetricsAccessObject metricsAccess = new MetricsAccessObject(sharedStore);
+        CachingAccessObject batchAccess = new CachingAccessObject(metricsAccess, cacheBytes);
+        List<PostList> postLists = generatePostLists(numTestPosts);
+        PostList postList = generatePostList(numTestPosts);
+
+        Map<String, List<PostList>> postListsByHashtag = new LinkedHashMap<>();
+        for (int i = 0; i < numTestPosts; i++) {
+            postListsByHashtag.put(testKeyString + i, postLists);
+        }
+        batchAccess.replaceHashTagPostLists(postListsByHashtag);
+        assertEquals(Optional.of(postLists.get(0)), batchAccess.getHashTagPostList(testKeyString + 0, 0));
+
+        postListsByHashtag.replaceAll((hashtag, pages) -> Collections.singletonList(postList));
+        batchAccess.replaceHashTagPostLists(postListsByHashtag);
+        assertEquals(Optional.of(postList), batchAccess.getHashTagPostList(testKeyString + 0, 0));
+
+        // versions of each batch are incremented together, never one key at a time
+        assertEquals(2, metricsAccess.getLatencies("incrementVersions").getCount());
+        assertNull(metricsAccess.getLatencies("incrementVersion"));
+    }
+
+    @Test
+    public void concurrentReadsAreServedFromCache() throws InterruptedException {
+        List<PostList> postLists = generatePostLists(numTestPosts);
+        cachingAccess.replaceDisplayPostLists(testKeyString, postLists);
+        cachingAccess.getDisplayPostList(testKeyString, 0);
+
+        List<Thread> readers = new ArrayList<>();
+        for (int i = 0; i < numTestPosts; i++) {
+            Thread reader = new Thread(() -> {
+                for (int read = 0; read < 1000; read++) {
+                    assertEquals(Optional.of(postLists.get(0)), cachingAccess.getDisplayPostList(testKeyString, 0));
+                }
+            });
+            readers.add(reader);
+            reader.start();
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        assertEquals(1, cachingAccess.getMissCount());
+        assertEquals(numTestPosts * 1000, cachingAccess.getHitCount());
+    }
+
+    private static List<PostList> generatePostLists(int numPostLists) {
+        List<PostList> postLists = new ArrayList<>();
+        for (int i = 0; i < numPostLists; i++) {
+            postLists.add(generatePostList(i + 1));
+        }
+        return postLists;
+    }
+}
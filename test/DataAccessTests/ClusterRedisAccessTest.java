@@ -0,0 +1,280 @@
+package DataAccessTests;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import redis.clients.jedis.BinaryJedis;
+import services.dataAccess.AbstractDataAccess;
+import services.dataAccess.ClusterRedisAccessObject;
+import services.dataAccess.GenerationAccessObject;
+import services.dataAccess.proto.PostListProto.PostList;
+import services.dataAccess.proto.PostProto.Post;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+import static services.PublicConstants.DATA_SOURCE;
+import static services.PublicConstants.REDIS_CLUSTER_URL;
+import static services.PublicConstants.REDIS_PORT;
+import static services.PublicConstants.REDIS_URL;
+import static services.dataAccess.TestDataGenerator.generateListOfPosts;
+import static services.dataAccess.TestDataGenerator.generatePostList;
+
+/**
+ * <p>
+ * Tests functionality of services.dataAccess.ClusterRedisAccessObject
+ * on a real Redis Cluster.
+ * <p>
+ * The host:port of any node of the cluster must be specified as an
+ * environment variable:
+ * <p>
+ * redis_cluster_url="localhost:7000"
+ * <p>
+ * data_source="redis"
+ * must also be set. Otherwise, all tests are skipped.
+ */
+public class ClusterRedisAccessTest {
+
+    private static final Integer numTestPosts = 10;
+    private static boolean clusterTestsIncluded = false;
+
+    private static ClusterRedisAccessObject clusterAccessObject;
+    private static Set<String> masters;
+
+    @BeforeClass
+    public static void clusterTestSetUp() {
+        String dataSource = System.getenv(DATA_SOURCE);
+        String clusterUrl = System.getenv(REDIS_CLUSTER_URL);
+        clusterTestsIncluded = dataSource != null && dataSource.equals("redis") && clusterUrl != null;
+
+        if (clusterTestsIncluded) {
+            clusterAccessObject = new ClusterRedisAccessObject(clusterUrl);
+
+            // every master node serves some of the keys below
+            masters = new HashSet<>();
+            for (int i = 0; i < 1000; i++) {
+                masters.add(clusterAccessObject.getEndpointOf(hashtagKey("tag" + i)));
+            }
+        }
+    }
+
+    // Delete all data from every master node before and after each test
+    @Before
+    @After
+    public void emptyCluster() {
+        if (clusterTestsIncluded) {
+            masters.forEach(endpoint -> {
+                BinaryJedis directToRedis = connect(endpoint);
+                directToRedis.flushAll();
+                directToRedis.disconnect();
+            });
+        }
+    }
+
+    @Test
+    public void testChannelsAreStoredOnNodeServingTheirSlot() {
+        assumeTrue(clusterTestsIncluded);
+
+        List<PostList> postLists = Arrays.asList(generatePostList(numTestPosts), generatePostList(numTestPosts));
+        for (int i = 0; i < numTestPosts; i++) {
+            clusterAccessObject.replaceHashTagPostLists("tag" + i, postLists);
+        }
+
+        for (int i = 0; i < numTestPosts; i++) {
+            String key = hashtagKey("tag" + i);
+            BinaryJedis directToRedis = connect(clusterAccessObject.getEndpointOf(key));
+            assertTrue(directToRedis.exists(key.getBytes()));
+            directToRedis.disconnect();
+
+            assertEquals(postLists, clusterAccessObject.getAllHashtagPostLists("tag" + i));
+        }
+    }
+
+    @Test
+    public void testVersionIsStoredAlongsideItsList() {
+        assumeTrue(clusterTestsIncluded);
+
+        GenerationAccessObject generation = new GenerationAccessObject(clusterAccessObject);
+        generation.replaceHashTagPostLists("tag", Collections.singletonList(generatePostList(numTestPosts)));
+        generation.publish();
+
+        // version of the published generation is hash-tagged with its key, so is held by the same node
+        String key = "generation:published";
+        BinaryJedis directToRedis = connect(clusterAccessObject.getEndpointOf(key));
+        assertArrayEquals(String.valueOf(generation.getGeneration()).getBytes(),
+                directToRedis.get(("version:{" + key + "}").getBytes()));
+        directToRedis.disconnect();
+
+        assertEquals(generation.getGeneration(), clusterAccessObject.getPublishedGeneration());
+    }
+
+    @Test
+    public void testNamespaceOperationsCoverEveryNode() {
+        assumeTrue(clusterTestsIncluded);
+
+        List<Post> posts = generateListOfPosts(numTestPosts);
+        for (int i = 0; i < numTestPosts; i++) {
+            clusterAccessObject.addNewPostsFromSource("source" + i, posts);
+            clusterAccessObject.addNewHashTagPostList("tag" + i, generatePostList(1));
+        }
+
+        Set<String> usedEndpoints = clusterAccessObject.getSources().stream()
+                .map(source -> clusterAccessObject.getEndpointOf(AbstractDataAccess.getSourceNamespace()
+                        + AbstractDataAccess.getNamespaceDelimiter() + source))
+                .collect(Collectors.toSet());
+        assertTrue(usedEndpoints.size() > 1);
+
+        assertEquals(numTestPosts * numTestPosts, clusterAccessObject.getNumPostsInSources());
+        assertEquals(numTestPosts.intValue(), clusterAccessObject.getSources().size());
+        assertEquals(numTestPosts.intValue(), clusterAccessObject.getAllHashTags().size());
+    }
+
+    @Test
+    public void testSlotsAreReadAgainAfterTheyMove() {
+        List<List<Object>> slots = new ArrayList<>();
+        slots.add(slotsServedBy("127.0.0.1", 7001));
+
+        // no node is contacted: the reply to CLUSTER SLOTS is given, and connections are opened on first use
+        ClusterRedisAccessObject cluster = new ClusterRedisAccessObject("127.0.0.1:7001", node -> slots.get(0)) {
+        };
+        String key = hashtagKey("tag");
+        assertEquals("127.0.0.1:7001", cluster.getEndpointOf(key));
+        assertFalse(cluster.refreshSlots());
+
+        // slots moved to a node added to the cluster are served by that node once the slots are read again
+        slots.set(0, slotsServedBy("127.0.0.1", 7002));
+        assertEquals("127.0.0.1:7001", cluster.getEndpointOf(key));
+        assertTrue(cluster.refreshSlots());
+        assertEquals("127.0.0.1:7002", cluster.getEndpointOf(key));
+    }
+
+    @Test
+    public void testOperationsFollowMovedSlots() throws IOException {
+        String dataSource = System.getenv(DATA_SOURCE);
+        assumeTrue(dataSource != null && dataSource.equals("redis"));
+
+        // a node which answers MOVED to every command, naming a standalone Redis instance as the node serving the key
+        String target = System.getenv(REDIS_URL) + ":" + System.getenv(REDIS_PORT);
+        List<List<Object>> slots = new ArrayList<>();
+
+        try (ServerSocket movedNode = movedNode(target)) {
+            slots.add(slotsServedBy("127.0.0.1", movedNode.getLocalPort()));
+            ClusterRedisAccessObject cluster = new ClusterRedisAccessObject("127.0.0.1:" + movedNode.getLocalPort(),
+                    node -> slots.get(0)) {
+            };
+            slots.set(0, slotsServedBy(System.getenv(REDIS_URL), Integer.parseInt(System.getenv(REDIS_PORT))));
+
+            // both a transaction, which the moved node discards, and a single command are run again on the target
+            List<Post> posts = generateListOfPosts(numTestPosts);
+            cluster.addNewPostsFromSource("moved", posts);
+            assertEquals(target, cluster.getEndpointOf(AbstractDataAccess.getSourceNamespace()
+                    + AbstractDataAccess.getNamespaceDelimiter() + "moved"));
+            assertEquals(posts, cluster.getAllPostsFromSource("moved"));
+        } finally {
+            BinaryJedis directToRedis = connect(target);
+            directToRedis.del((AbstractDataAccess.getSourceNamespace() + AbstractDataAccess.getNamespaceDelimiter()
+                    + "moved").getBytes());
+            directToRedis.disconnect();
+        }
+    }
+
+    /**
+     * @return reply to CLUSTER SLOTS of a cluster whose every slot is served by a single master node
+     */
+    private static List<Object> slotsServedBy(String host, int port) {
+        return Collections.singletonList(
+                Arrays.asList(0L, 16383L, Arrays.asList(host.getBytes(), (long) port, "node".getBytes())));
+    }
+
+    /**
+     * Starts a node which answers every command on a key with a MOVED redirect to another node, as a node of a Redis
+     * Cluster does after its slots are moved. MULTI is accepted, and EXEC discards the transaction.
+     *
+     * @param target host:port of the node named in every redirect
+     * @return socket on which the node accepts connections, to be closed when the node is no longer needed
+     */
+    private static ServerSocket movedNode(String target) throws IOException {
+        ServerSocket server = new ServerSocket(0);
+
+        Thread acceptor = new Thread(() -> {
+            while (!server.isClosed()) {
+                try {
+                    Socket connection = server.accept();
+                    Thread responder = new Thread(() -> answerMoved(connection, target));
+                    responder.setDaemon(true);
+                    responder.start();
+                } catch (IOException iOE) {
+                    // server socket closed
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        return server;
+    }
+
+    private static void answerMoved(Socket connection, String target) {
+        try (Socket socket = connection) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            OutputStream out = socket.getOutputStream();
+
+            // each command is an array of bulk strings: *<count>, then $<length> and the bytes of each argument
+            String header;
+            while ((header = readLine(in)) != null) {
+                String command = null;
+                for (int i = 0; i < Integer.parseInt(header.substring(1)); i++) {
+                    byte[] argument = new byte[Integer.parseInt(readLine(in).substring(1))];
+                    in.readFully(argument);
+                    readLine(in);
+
+                    if (command == null) {
+                        command = new String(argument).toUpperCase();
+                    }
+                }
+
+                if ("MULTI".equals(command)) {
+                    out.write("+OK\r\n".getBytes());
+                } else if ("EXEC".equals(command)) {
+                    out.write("-EXECABORT Transaction discarded because of previous errors.\r\n".getBytes());
+                } else {
+                    out.write(("-MOVED 0 " + target + "\r\n").getBytes());
+                }
+                out.flush();
+            }
+        } catch (IOException iOE) {
+            // connection closed by the client
+        }
+    }
+
+    private static String readLine(DataInputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\r') {
+            if (c < 0) {
+                return null;
+            }
+            line.append((char) c);
+        }
+        in.read(); // '\n'
+
+        return line.toString();
+    }
+
+    private static String hashtagKey(String hashtag) {
+        return AbstractDataAccess.getHashtagNamespace() + AbstractDataAccess.getNamespaceDelimiter() + hashtag;
+    }
+
+    private static BinaryJedis connect(String endpoint) {
+        String[] hostAndPort = endpoint.trim().split(":");
+        BinaryJedis directToRedis = new BinaryJedis(hostAndPort[0], Integer.parseInt(hostAndPort[1]));
+        directToRedis.connect();
+        return directToRedis;
+    }
+}
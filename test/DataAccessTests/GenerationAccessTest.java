@@ -0,0 +1,252 @@
+package DataAccessTests;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import services.dataAccess.AbstractDataAccess;
+import services.dataAccess.GenerationAccessObject;
+import services.dataAccess.InMemoryAccessObject;
+import services.dataAccess.MetricsAccessObject;
+import services.dataAccess.proto.PostListProto.PostList;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+import static services.PublicConstants.TOP;
+import static services.PublicConstants.TRENDING;
+import static services.dataAccess.TestDataGenerator.generatePostList;
+
+/**
+ * Tests functionality of services.dataAccess.GenerationAccessObject, in particular that channels written to a new
+ * generation are only seen by readers once the generation is published, that channels not written are left in place,
+ * and that old generations are deleted.
+ */
+public class GenerationAccessTest {
+
+    private static final String testKeyString = "test";
+    private static final Integer numTestPosts = 10;
+
+    private InMemoryAccessObject inMemoryAccess;
+
+    @Before
+    @After
+    public void empty() {
+        inMemoryAccess = new InMemoryAccessObject();
+    }
+
+    @Test
+    public void writesAreHiddenUntilPublished() {
+        List<PostList> oldPostLists = generatePostLists(numTestPosts);
+        List<PostList> newPostLists = generatePostLists(numTestPosts - 1);
+        List<String> hashtags = Arrays.asList("tag1", "tag2");
+
+        inMemoryAccess.replaceDisplayPostLists(TOP, oldPostLists);
+        assertEquals(0, inMemoryAccess.getPublishedGeneration());
+
+        GenerationAccessObject generation = new GenerationAccessObject(inMemoryAccess);
+        generation.replaceDisplayPostLists(TOP, newPostLists);
+        generation.addTopHashtags(hashtags);
+
+        // the generation reads its own writes, while readers of the data store do not see them
+        assertEquals(newPostLists, generation.getAllDisplayPostLists(TOP));
+        assertEquals(oldPostLists, inMemoryAccess.getAllDisplayPostLists(TOP));
+        assertEquals(Collections.emptyList(), inMemoryAccess.getTopHashTags(hashtags.size()));
+
+        assertEquals(generation.getGeneration(), generation.publish());
+
+        assertEquals(generation.getGeneration(), inMemoryAccess.getPublishedGeneration());
+        assertEquals(newPostLists, inMemoryAccess.getAllDisplayPostLists(TOP));
+        assertEquals(hashtags, inMemoryAccess.getTopHashTags(hashtags.size()));
+    }
+
+    @Test
+    public void pushContinuesPublishedChannel() {
+        List<PostList> postLists = generatePostLists(numTestPosts);
+        PostList postList = generatePostList(numTestPosts);
+
+        inMemoryAccess.replaceDisplayPostLists(TRENDING, postLists);
+
+        GenerationAccessObject generation = new GenerationAccessObject(inMemoryAccess);
+        generation.addNewDisplayPostList(TRENDING, postList);
+        generation.publish();
+
+        List<PostList> expected = new ArrayList<>();
+        expected.add(postList);
+        expected.addAll(postLists);
+        assertEquals(expected, inMemoryAccess.getAllDisplayPostLists(TRENDING));
+    }
+
+    @Test
+    public void unwrittenChannelsAreCarriedForward() {
+        List<PostList> postLists = generatePostLists(numTestPosts);
+        List<String> hashtags = Arrays.asList("tag1", "tag2");
+
+        inMemoryAccess.replaceHashTagPostLists(testKeyString, postLists);
+        inMemoryAccess.addTopHashtags(hashtags);
+
+        // first generation is published without writing any channel
+        new GenerationAccessObject(inMemoryAccess).publish();
+
+        assertEquals(postLists, inMemoryAccess.getAllHashtagPostLists(testKeyString));
+        assertEquals(Collections.singletonList(testKeyString), inMemoryAccess.getAllHashTags());
+        assertEquals(hashtags, inMemoryAccess.getTopHashTags(hashtags.size()));
+    }
+
+    @Test
+    public void hashtagsOfGenerationReplacePublishedHashtags() {
+        List<PostList> postLists = generatePostLists(numTestPosts);
+
+        inMemoryAccess.replaceHashTagPostLists(testKeyString + 0, postLists);
+
+        GenerationAccessObject generation = new GenerationAccessObject(inMemoryAccess);
+        generation.replaceHashTagPostLists(testKeyString + 1, postLists);
+
+        List<String> hashtags = generation.getAllHashTags();
+        Collections.sort(hashtags);
+        assertEquals(Arrays.asList(testKeyString + 0, testKeyString + 1), hashtags);
+        assertEquals(Collections.singletonList(testKeyString + 0), inMemoryAccess.getAllHashTags());
+    }
+
+    @Test
+    public void unwrittenChannelsAreNotCopied() {
+        List<PostList> oldPostLists = generatePostLists(numTestPosts);
+        List<PostList> newPostLists = generatePostLists(numTestPosts - 1);
+        List<String> hashtags = new ArrayList<>();
+
+        for (int i = 0; i < 250; i++) {
+            hashtags.add(testKeyString + i);
+            inMemoryAccess.replaceHashTagPostLists(testKeyString + i, oldPostLists);
+        }
+
+        GenerationAccessObject generation = new GenerationAccessObject(inMemoryAccess);
+        generation.replaceHashTagPostLists(Collections.singletonMap(testKeyString + 0, newPostLists));
+
+        Map<String, List<PostList>> read = generation.getAllHashtagPostLists(hashtags.subList(0, 2));
+        assertEquals(newPostLists, read.get(testKeyString + 0));
+        assertEquals(oldPostLists, read.get(testKeyString + 1));
+        assertEquals(oldPostLists, inMemoryAccess.getAllHashtagPostLists(testKeyString + 0));
+
+        generation.publish();
+
+        Map<String, List<PostList>> published = inMemoryAccess.getAllHashtagPostLists(hashtags);
+        assertEquals(newPostLists, published.get(testKeyString + 0));
+        hashtags.subList(1, hashtags.size()).forEach(hashtag -> assertEquals(oldPostLists, published.get(hashtag)));
+        assertEquals(hashtags.size(), inMemoryAccess.getAllHashTags().size());
+
+        // only the written channel has a version in the new generation
+        assertEquals(hashtags.size() + 1, inMemoryAccess.getKeysInNameSpace(
+                AbstractDataAccess.getHashtagNamespace()).size());
+    }
+
+    @Test
+    public void readersOfReplacedGenerationKeepReadingIt() {
+        List<List<PostList>> versions = new ArrayList<>();
+        GenerationAccessObject reader = null;
+
+        for (int i = 0; i < 3; i++) {
+            versions.add(generatePostLists(i + 1));
+
+            GenerationAccessObject generation = new GenerationAccessObject(inMemoryAccess);
+            generation.replaceDisplayPostLists(TOP, versions.get(i));
+            generation.publish();
+
+            // looks up the published generation before the last publish, and only reads once it has happened
+            if (i == 1) {
+                reader = new GenerationAccessObject(inMemoryAccess);
+            }
+        }
+
+        assertEquals(versions.get(1), reader.getAllDisplayPostLists(TOP));
+        assertEquals(versions.get(2), inMemoryAccess.getAllDisplayPostLists(TOP));
+    }
+
+    @Test
+    public void emptiedChannelsAreDeleted() {
+        GenerationAccessObject generation = new GenerationAccessObject(inMemoryAccess);
+        generation.replaceHashTagPostLists(testKeyString, generatePostLists(numTestPosts));
+        generation.publish();
+
+        generation = new GenerationAccessObject(inMemoryAccess);
+        generation.replaceHashTagPostLists(testKeyString, Collections.emptyList());
+        generation.publish();
+        generation.collectOldGenerations();
+
+        assertEquals(Collections.emptyList(), inMemoryAccess.getAllHashtagPostLists(testKeyString));
+        assertEquals(Collections.emptyList(), inMemoryAccess.getAllHashTags());
+        assertEquals(Collections.emptyList(), inMemoryAccess.getKeysInNameSpace(
+                AbstractDataAccess.getHashtagNamespace()));
+    }
+
+    @Test
+    public void publishedGenerationIsReadOncePerInterval() {
+        MetricsAccessObject metricsAccess = new MetricsAccessObject(inMemoryAccess);
+        GenerationAccessObject generation = new GenerationAccessObject(metricsAccess);
+        generation.replaceDisplayPostLists(TOP, generatePostLists(numTestPosts));
+        generation.publish();
+
+        long numVersionReads = metricsAccess.getLatencies("getVersion").getCount();
+        for (int i = 0; i < numTestPosts; i++) {
+            assertEquals(numTestPosts.intValue(), metricsAccess.getAllDisplayPostLists(TOP).size());
+        }
+
+        // the generation was just published through this data store, and the channel's pointer is read once
+        assertEquals(numVersionReads + 1, metricsAccess.getLatencies("getVersion").getCount());
+    }
+
+    @Test
+    public void oldGenerationsAreCollected() {
+        List<GenerationAccessObject> generations = new ArrayList<>();
+
+        for (int i = 0; i < 3; i++) {
+            GenerationAccessObject generation = new GenerationAccessObject(inMemoryAccess);
+            generation.replaceDisplayPostLists(TOP, generatePostLists(i + 1));
+            generation.publish();
+            generations.add(generation);
+        }
+
+        generations.get(2).collectOldGenerations();
+
+        // the generation replaced by the last publish is kept for readers which have not yet seen the new generation
+        List<String> keys = inMemoryAccess.getKeysInNameSpace(AbstractDataAccess.getDisplayNamespace());
+        assertFalse(keys.contains(displayKey(generations.get(0).getGeneration())));
+        assertTrue(keys.contains(displayKey(generations.get(1).getGeneration())));
+        assertTrue(keys.contains(displayKey(generations.get(2).getGeneration())));
+        assertEquals(3, inMemoryAccess.getAllDisplayPostLists(TOP).size());
+    }
+
+    @Test
+    public void supersededVersionsOutliveStaleReaders() {
+        MetricsAccessObject readerAccess = new MetricsAccessObject(inMemoryAccess);
+        List<PostList> firstPostLists = generatePostLists(1);
+
+        GenerationAccessObject generation = new GenerationAccessObject(inMemoryAccess);
+        generation.replaceDisplayPostLists(TOP, firstPostLists);
+        generation.publish();
+        assertEquals(firstPostLists, readerAccess.getAllDisplayPostLists(TOP));
+
+        // two more publishes before the reader next reads the published generation supersede the version it reads
+        for (int i = 2; i <= 3; i++) {
+            generation = new GenerationAccessObject(inMemoryAccess);
+            generation.replaceDisplayPostLists(TOP, generatePostLists(i));
+            generation.publish();
+        }
+
+        // the superseded version is only deleted once the reader can no longer be resolving it, and only once
+        assertEquals(firstPostLists, readerAccess.getAllDisplayPostLists(TOP));
+        assertEquals(1, generation.collectOldGenerations());
+        assertEquals(0, generation.collectOldGenerations());
+    }
+
+    private static String displayKey(long generation) {
+        return AbstractDataAccess.getDisplayNamespace() + AbstractDataAccess.getNamespaceDelimiter() + "g" + generation
+                + AbstractDataAccess.getNamespaceDelimiter() + TOP;
+    }
+
+    private static List<PostList> generatePostLists(int numPostLists) {
+        List<PostList> postLists = new ArrayList<>();
+        for (int i = 0; i < numPostLists; i++) {
+            postLists.add(generatePostList(i + 1));
+        }
+        return postLists;
+    }
+}
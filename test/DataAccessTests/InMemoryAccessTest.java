@@ -7,10 +7,12 @@ import org.junit.Before;
 import org.junit.Test;
 import services.dataAccess.AbstractDataAccess;
 import services.dataAccess.InMemoryAccessObject;
+import services.dataAccess.RetentionPolicy;
 import services.dataAccess.proto.PostProto.Post;
 import services.dataAccess.proto.PostListProto.PostList;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
@@ -231,6 +233,169 @@ public class InMemoryAccessTest {
         assertEquals(Optional.empty(), inMemoryAccess.getDisplayPostList(testKeyString, Integer.MAX_VALUE));
     }
 
+    @Test
+    public void addPostListsPastMaximum() {
+        List<PostList> postLists = new ArrayList<>();
+        for (int i = 0; i < AbstractDataAccess.getMaxPostlists() + numTestPosts; i++) {
+            postLists.add(generatePostList(1));
+        }
+
+        // push every postList onto the same channel
+        postLists.forEach(postList -> inMemoryAccess.addNewDisplayPostList(testKeyString, postList));
+
+        // channel is trimmed to the maximum, keeping the most recently added postLists at the top
+        List<PostList> channel = inMemoryAccess.getAllDisplayPostLists(testKeyString);
+        assertEquals(AbstractDataAccess.getMaxPostlists().intValue(), channel.size());
+        assertEquals(Lists.reverse(postLists).subList(0, AbstractDataAccess.getMaxPostlists()), channel);
+        assertEquals(Optional.empty(),
+                inMemoryAccess.getDisplayPostList(testKeyString, AbstractDataAccess.getMaxPostlists()));
+    }
+
+    @Test
+    public void addPostListsPastRetentionPolicyMaximum() {
+        int maxPostLists = numTestPosts / 2;
+        List<PostList> postLists = new ArrayList<>();
+        for (int i = 0; i < numTestPosts; i++) {
+            postLists.add(generatePostList(1));
+        }
+
+        inMemoryAccess.setRetentionPolicy(AbstractDataAccess.getDisplayNamespace(),
+                new RetentionPolicy(RetentionPolicy.NO_EXPIRY, maxPostLists, false));
+        postLists.forEach(postList -> inMemoryAccess.addNewDisplayPostList(testKeyString, postList));
+
+        // channel is trimmed to the policy's maximum
+        assertEquals(Lists.reverse(postLists).subList(0, maxPostLists),
+                inMemoryAccess.getAllDisplayPostLists(testKeyString));
+    }
+
+    @Test
+    public void addPostListAfterRetentionPolicyChange() {
+        int maxPostLists = numTestPosts / 2;
+        List<PostList> postLists = new ArrayList<>();
+        for (int i = 0; i < numTestPosts; i++) {
+            postLists.add(generatePostList(1));
+        }
+        PostList postList = generatePostList(numTestPosts);
+
+        // fill channel under the default policy, then shrink the policy and push a new postList on top
+        inMemoryAccess.addNewDisplayPostLists(testKeyString, postLists);
+        inMemoryAccess.setRetentionPolicy(AbstractDataAccess.getDisplayNamespace(),
+                new RetentionPolicy(RetentionPolicy.NO_EXPIRY, maxPostLists, false));
+        assertEquals(maxPostLists, inMemoryAccess.addNewDisplayPostList(testKeyString, postList));
+
+        List<PostList> expected = new ArrayList<>();
+        expected.add(postList);
+        expected.addAll(postLists.subList(0, maxPostLists - 1));
+        assertEquals(expected, inMemoryAccess.getAllDisplayPostLists(testKeyString));
+    }
+
+    @Test
+    public void replacePostListsPastRetentionPolicyMaximum() {
+        int maxPostLists = numTestPosts / 2;
+        List<PostList> postLists = new ArrayList<>();
+        for (int i = 0; i < numTestPosts; i++) {
+            postLists.add(generatePostList(1));
+        }
+
+        inMemoryAccess.setRetentionPolicy(AbstractDataAccess.getHashtagNamespace(),
+                new RetentionPolicy(RetentionPolicy.NO_EXPIRY, maxPostLists, false));
+        assertEquals(maxPostLists, inMemoryAccess.replaceHashTagPostLists(testKeyString, postLists));
+        assertEquals(postLists.subList(0, maxPostLists), inMemoryAccess.getAllHashtagPostLists(testKeyString));
+    }
+
+    @Test
+    public void defaultRetentionPolicies() {
+        assertEquals(AbstractDataAccess.getDefaultRetentionPolicy(),
+                inMemoryAccess.getRetentionPolicy(AbstractDataAccess.getDisplayNamespace()));
+        assertEquals(AbstractDataAccess.getMaxPostlists().intValue(),
+                inMemoryAccess.getRetentionPolicy(AbstractDataAccess.getHashtagNamespace()).getMaxPostLists());
+        assertFalse(inMemoryAccess.getRetentionPolicy(AbstractDataAccess.getStringListNamespace()).expires());
+    }
+
+    @Test
+    public void addPostListAfterReplace() {
+        PostList postList = generatePostList(numTestPosts);
+        List<PostList> postLists = new ArrayList<>();
+        for (int i = 0; i < numTestPosts; i++) {
+            postLists.add(generatePostList(1));
+        }
+
+        // replace channel, then push a new postList on top
+        inMemoryAccess.replaceDisplayPostLists(testKeyString, postLists);
+        inMemoryAccess.addNewDisplayPostList(testKeyString, postList);
+
+        List<PostList> expected = new ArrayList<>(postLists);
+        expected.add(0, postList);
+        assertEquals(expected, inMemoryAccess.getAllDisplayPostLists(testKeyString));
+    }
+
+    @Test
+    public void iteratePostLists() {
+        List<PostList> postLists = new ArrayList<>();
+        for (int i = 0; i < numTestPosts; i++) {
+            postLists.add(generatePostList(i + 1));
+        }
+        inMemoryAccess.replaceDisplayPostLists(testKeyString, postLists);
+
+        // iterator should return every postList in order
+        List<PostList> iterated = new ArrayList<>();
+        inMemoryAccess.iterateDisplayPostLists(testKeyString, 3).forEachRemaining(iterated::add);
+        assertEquals(postLists, iterated);
+    }
+
+    @Test
+    public void getDisplayPostListRange() {
+        List<PostList> postLists = new ArrayList<>();
+        for (int i = 0; i < numTestPosts; i++) {
+            postLists.add(generatePostList(i + 1));
+        }
+        inMemoryAccess.replaceDisplayPostLists(testKeyString, postLists);
+
+        // ranges are inclusive, and are cut short at the end of the channel
+        assertEquals(postLists.subList(1, 4), inMemoryAccess.getDisplayPostLists(testKeyString, 1, 3));
+        assertEquals(postLists.subList(2, numTestPosts),
+                inMemoryAccess.getDisplayPostLists(testKeyString, 2, numTestPosts + 5));
+        assertEquals(Collections.emptyList(),
+                inMemoryAccess.getDisplayPostLists(testKeyString, numTestPosts, numTestPosts + 5));
+        assertEquals(Collections.emptyList(), inMemoryAccess.getDisplayPostLists(testKeyString, 3, 1));
+        assertEquals(Collections.emptyList(), inMemoryAccess.getDisplayPostLists(testKeyString, -1, 1));
+    }
+
+    @Test
+    public void getEmptyHashTagPostListRange() {
+        assertEquals(Collections.emptyList(), inMemoryAccess.getHashTagPostLists(testKeyString, 0, numTestPosts));
+    }
+
+    @Test
+    public void addDisplayPostListsToNonEmptyMemory() {
+        PostList postList = generatePostList(numTestPosts);
+        List<PostList> postLists = new ArrayList<>();
+        for (int i = 0; i < numTestPosts; i++) {
+            postLists.add(generatePostList(i + 1));
+        }
+
+        // batch of postLists is pushed on top of existing postList, with first postList of batch at the top
+        inMemoryAccess.addNewDisplayPostList(testKeyString, postList);
+        assertEquals(numTestPosts + 1, inMemoryAccess.addNewDisplayPostLists(testKeyString, postLists));
+
+        List<PostList> expected = new ArrayList<>(postLists);
+        expected.add(postList);
+        assertEquals(expected, inMemoryAccess.getAllDisplayPostLists(testKeyString));
+    }
+
+    @Test
+    public void addDisplayPostListsPastMaximum() {
+        int maxPostLists = AbstractDataAccess.getMaxPostlists();
+        List<PostList> postLists = new ArrayList<>();
+        for (int i = 0; i < maxPostLists + numTestPosts; i++) {
+            postLists.add(generatePostList(1));
+        }
+
+        // only the first maxPostLists postLists of the batch should be kept
+        assertEquals(maxPostLists, inMemoryAccess.addNewDisplayPostLists(testKeyString, postLists));
+        assertEquals(postLists.subList(0, maxPostLists), inMemoryAccess.getAllDisplayPostLists(testKeyString));
+    }
+
     /*
      * getNumPostsInNameSpace tests
      */
@@ -253,6 +418,75 @@ public class InMemoryAccessTest {
         assertEquals(3 * numTestPosts, inMemoryAccess.getNumPostsInNameSpace("source"));
     }
 
+    @Test
+    public void upsertPostsUpdatesWaitingPosts() {
+        List<Post> posts = generateListOfPosts(numTestPosts);
+        List<Post> refetched = new ArrayList<>();
+        refetched.add(posts.get(2).toBuilder().setNumLikes(posts.get(2).getNumLikes() + 1).build());
+        refetched.add(generateListOfPosts(numTestPosts + 1).get(numTestPosts));
+
+        assertEquals(numTestPosts.longValue(), inMemoryAccess.upsertPostsFromSource(testKeyString, posts));
+
+        // a refetched post is updated in place, and only the post with a new ID is appended
+        assertEquals(1, inMemoryAccess.upsertPostsFromSource(testKeyString, refetched));
+
+        List<Post> expected = new ArrayList<>(posts);
+        expected.set(2, refetched.get(0));
+        expected.add(refetched.get(1));
+        assertEquals(expected, inMemoryAccess.getAllPostsFromSource(testKeyString));
+        assertEquals(numTestPosts + 1, inMemoryAccess.getNumPostsInSources());
+
+        // drained posts are returned in their latest version, and are queued again if fetched again
+        assertEquals(expected.subList(0, 3), inMemoryAccess.drainSource(testKeyString, 3));
+        assertEquals(1, inMemoryAccess.upsertPostsFromSource(testKeyString, posts.subList(2, 4)));
+        assertEquals(Optional.of(expected.get(3)), inMemoryAccess.popFirstPostFromSource(testKeyString));
+        assertEquals(numTestPosts - 2, inMemoryAccess.getNumPostsInSources());
+    }
+
+    @Test
+    public void addedPostsDoNotTakeUpsertedVersions() {
+        Post post = generateListOfPosts(1).get(0);
+        List<Post> versions = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            versions.add(post.toBuilder().setNumLikes(post.getNumLikes() + i).build());
+        }
+
+        // a post added ahead of an upserted post of the same ID keeps its own version
+        inMemoryAccess.addNewPostFromSource(testKeyString, post);
+        assertEquals(1, inMemoryAccess.upsertPostsFromSource(testKeyString, versions.subList(0, 1)));
+        assertEquals(Arrays.asList(post, versions.get(0)), inMemoryAccess.getAllPostsFromSource(testKeyString));
+        assertEquals(Optional.of(post), inMemoryAccess.popFirstPostFromSource(testKeyString));
+
+        // the upserted post is still waiting, so it is updated rather than appended again, and is returned once
+        assertEquals(0, inMemoryAccess.upsertPostsFromSource(testKeyString, versions.subList(1, 2)));
+        assertEquals(Collections.singletonList(versions.get(1)), inMemoryAccess.drainSource(testKeyString, 2));
+        assertEquals(0, inMemoryAccess.getNumPostsInSources());
+
+        // once out of the queue, the post is appended by its next upsert
+        assertEquals(1, inMemoryAccess.upsertPostsFromSource(testKeyString, versions.subList(2, 3)));
+        assertEquals(Collections.singletonList(versions.get(2)), inMemoryAccess.getAllPostsFromSource(testKeyString));
+    }
+
+    @Test
+    public void getNumPostsInSourcesFollowsQueues() {
+        List<Post> posts = generateListOfPosts(numTestPosts);
+
+        inMemoryAccess.addNewPostsFromSource(testKeyString, posts);
+        inMemoryAccess.addNewPostFromSource(testKeyString + "0", posts.get(0));
+        assertEquals(numTestPosts + 1, inMemoryAccess.getNumPostsInSources());
+
+        // every way of removing posts from a source queue is counted
+        inMemoryAccess.drainSource(testKeyString, 3);
+        inMemoryAccess.popFirstPostFromSource(testKeyString);
+        inMemoryAccess.deleteFirstNPostsFromSourceQueue(testKeyString + "0", numTestPosts);
+        assertEquals(numTestPosts - 4, inMemoryAccess.getNumPostsInSources());
+        assertEquals(inMemoryAccess.getNumPostsInNameSpace("source"), inMemoryAccess.getNumPostsInSources());
+
+        // draining more posts than are queued never counts below zero
+        inMemoryAccess.drainSource(testKeyString, 2 * numTestPosts);
+        assertEquals(0, inMemoryAccess.getNumPostsInSources());
+    }
+
     /*
      * getKeysInNameSpace tests
      */
@@ -320,6 +554,37 @@ public class InMemoryAccessTest {
         assertEquals(posts, inMemoryAccess.getAllPostsFromSource(testKeyString));
     }
 
+    /*
+     * drainSource tests
+     */
+
+    @Test
+    public void drainPostsFromEmptySource() {
+        assertEquals(Collections.emptyList(), inMemoryAccess.drainSource(testKeyString, numTestPosts));
+    }
+
+    @Test
+    public void drainFewerThanAllPostsFromSource() {
+        List<Post> posts = generateListOfPosts(numTestPosts);
+
+        inMemoryAccess.addNewPostsFromSource(testKeyString, posts);
+
+        // first 5 posts are returned in order and removed, remaining posts stay queued
+        assertEquals(posts.subList(0, 5), inMemoryAccess.drainSource(testKeyString, 5));
+        assertEquals(posts.subList(5, numTestPosts), inMemoryAccess.getAllPostsFromSource(testKeyString));
+    }
+
+    @Test
+    public void drainMoreThanAllPostsFromSource() {
+        List<Post> posts = generateListOfPosts(numTestPosts);
+
+        inMemoryAccess.addNewPostsFromSource(testKeyString, posts);
+
+        // all posts are returned and the queue is left empty
+        assertEquals(posts, inMemoryAccess.drainSource(testKeyString, numTestPosts + 1));
+        assertEquals(Collections.emptyList(), inMemoryAccess.getAllPostsFromSource(testKeyString));
+    }
+
     @Test
     public void testHashTagPostListReplaceSingle() {
 
@@ -0,0 +1,160 @@
+package DataAccessTests;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import services.dataAccess.AbstractDataAccess;
+import services.dataAccess.InMemoryAccessObject;
+import services.dataAccess.proto.PostListProto.PostList;
+import services.dataAccess.proto.PostProto.Post;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+import static services.dataAccess.TestDataGenerator.generateListOfPosts;
+import static services.dataAccess.TestDataGenerator.generatePostList;
+
+/**
+ * Stress tests services.dataAccess.InMemoryAccessObject under the access pattern of the running application:
+ * several collector threads appending to source queues while the sorting node drains them, and request threads
+ * reading display pages while the sorting node rewrites them.
+ */
+public class InMemoryConcurrencyTest {
+
+    private static final String testKeyString = "test";
+    private static final int numProducers = 3;
+    private static final int numBatches = 200;
+    private static final int postsPerBatch = 50;
+    private static final int numReaders = 4;
+    private static final int numPageWrites = 500;
+
+    private AbstractDataAccess inMemoryAccess;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        inMemoryAccess = new InMemoryAccessObject();
+        executor = Executors.newFixedThreadPool(numProducers + numReaders + 1);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testConcurrentIngestAndDrain() throws Exception {
+        CountDownLatch producersDone = new CountDownLatch(numProducers);
+        List<Post> drainedPosts = new ArrayList<>();
+
+        // producers append batches of posts with IDs unique across all producers
+        for (int p = 0; p < numProducers; p++) {
+            final String producerId = String.valueOf(p);
+            executor.submit(() -> {
+                for (int b = 0; b < numBatches; b++) {
+                    final String batchId = producerId + "-" + b + "-";
+                    inMemoryAccess.addNewPostsFromSource(testKeyString, generateListOfPosts(postsPerBatch).stream()
+                            .map(post -> post.toBuilder().setId(batchId + post.getId()).build())
+                            .collect(Collectors.toList()));
+                }
+                producersDone.countDown();
+            });
+        }
+
+        // consumer drains the queue in the same way as the sorting node, until producers are done and queue is empty
+        Future<?> consumer = executor.submit(() -> {
+            boolean finished;
+            do {
+                finished = producersDone.getCount() == 0;
+                List<Post> posts = inMemoryAccess.getAllPostsFromSource(testKeyString);
+                inMemoryAccess.deleteFirstNPostsFromSourceQueue(testKeyString, posts.size());
+                drainedPosts.addAll(posts);
+            } while (!finished || inMemoryAccess.getNumPostsInSources() > 0);
+        });
+
+        consumer.get(60, TimeUnit.SECONDS);
+
+        // every post should have been drained exactly once
+        int expectedNumPosts = numProducers * numBatches * postsPerBatch;
+        Set<String> drainedIds = drainedPosts.stream().map(Post::getId).collect(Collectors.toSet());
+        assertEquals(expectedNumPosts, drainedPosts.size());
+        assertEquals(expectedNumPosts, drainedIds.size());
+    }
+
+    @Test
+    public void testConcurrentPopsDoNotDuplicate() throws Exception {
+        int numPosts = numBatches * postsPerBatch;
+        inMemoryAccess.addNewPostsFromSource(testKeyString, generateListOfPosts(numPosts));
+
+        // several threads pop from the same queue until it is empty
+        List<Future<List<Post>>> futures = new ArrayList<>();
+        for (int i = 0; i < numReaders; i++) {
+            futures.add(executor.submit(() -> {
+                List<Post> popped = new ArrayList<>();
+                Optional<Post> post;
+                while ((post = inMemoryAccess.popFirstPostFromSource(testKeyString)).isPresent()) {
+                    popped.add(post.get());
+                }
+                return popped;
+            }));
+        }
+
+        List<String> poppedIds = new ArrayList<>();
+        for (Future<List<Post>> future : futures) {
+            future.get(60, TimeUnit.SECONDS).forEach(post -> poppedIds.add(post.getId()));
+        }
+
+        // each post should have been popped by exactly one thread
+        assertEquals(numPosts, poppedIds.size());
+        assertEquals(numPosts, new HashSet<>(poppedIds).size());
+    }
+
+    @Test
+    public void testConcurrentPageReadsDuringWrites() throws Exception {
+        List<PostList> pages = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            pages.add(generatePostList(10));
+        }
+        Set<PostList> writtenPages = new HashSet<>(pages);
+
+        AtomicBoolean writing = new AtomicBoolean(true);
+        Queue<String> errors = new ConcurrentLinkedQueue<>();
+
+        // writer alternates between replacing the channel and pushing single pages onto it
+        Future<?> writer = executor.submit(() -> {
+            for (int i = 0; i < numPageWrites; i++) {
+                inMemoryAccess.replaceDisplayPostLists(testKeyString, pages);
+                inMemoryAccess.addNewDisplayPostList(testKeyString, pages.get(i % pages.size()));
+            }
+            writing.set(false);
+        });
+
+        // readers should only ever observe complete pages that have been written
+        List<Future<?>> readers = new ArrayList<>();
+        for (int r = 0; r < numReaders; r++) {
+            readers.add(executor.submit(() -> {
+                while (writing.get()) {
+                    List<PostList> channel = inMemoryAccess.getAllDisplayPostLists(testKeyString);
+                    channel.stream()
+                            .filter(page -> !writtenPages.contains(page))
+                            .forEach(page -> errors.add("unexpected page in channel"));
+
+                    Optional<PostList> page = inMemoryAccess.getDisplayPostList(testKeyString, channel.size() - 1);
+                    page.filter(p -> !writtenPages.contains(p))
+                            .ifPresent(p -> errors.add("unexpected page at index"));
+                }
+            }));
+        }
+
+        writer.get(60, TimeUnit.SECONDS);
+        for (Future<?> reader : readers) {
+            reader.get(60, TimeUnit.SECONDS);
+        }
+
+        assertEquals(Collections.emptyList(), new ArrayList<>(errors));
+        assertEquals(pages.size() + 1, inMemoryAccess.getAllDisplayPostLists(testKeyString).size());
+    }
+}
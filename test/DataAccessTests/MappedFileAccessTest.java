@@ -0,0 +1,203 @@
+package DataAccessTests;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import services.dataAccess.AbstractDataAccess;
+import services.dataAccess.GenerationAccessObject;
+import services.dataAccess.MappedFileAccessObject;
+import services.dataAccess.proto.PostListProto.PostList;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+import static services.dataAccess.TestDataGenerator.generatePostList;
+import static services.dataAccess.TestDataGenerator.randomHashtags;
+
+/**
+ * Tests functionality of services.dataAccess.MappedFileAccessObject, in particular that channels written to the
+ * memory-mapped log are restored by a new instance over the same directory, as they would be after a restart.
+ */
+public class MappedFileAccessTest {
+
+    private static final String testKeyString = "test";
+    private static final Integer numTestPosts = 10;
+    private static final int segmentSize = 64 * 1024;
+
+    private Path directory;
+    private MappedFileAccessObject mappedAccess;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("pagelog");
+        mappedAccess = new MappedFileAccessObject(directory, segmentSize);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.list(directory)) {
+            for (Path path : paths.collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    public void channelsAreRestoredAfterRestart() {
+        List<PostList> postLists = generatePostLists(numTestPosts);
+        PostList postList = generatePostList(numTestPosts);
+        List<String> hashtags = randomHashtags();
+
+        mappedAccess.replaceDisplayPostLists(testKeyString, postLists);
+        mappedAccess.addNewDisplayPostList(testKeyString, postList);
+        mappedAccess.replaceHashTagPostLists(testKeyString, postLists);
+        mappedAccess.addTopHashtags(hashtags);
+
+        MappedFileAccessObject restarted = new MappedFileAccessObject(directory, segmentSize);
+
+        List<PostList> expected = new ArrayList<>();
+        expected.add(postList);
+        expected.addAll(postLists);
+        assertEquals(expected, restarted.getAllDisplayPostLists(testKeyString));
+        assertEquals(Optional.of(postList), restarted.getDisplayPostList(testKeyString, 0));
+        assertEquals(postLists, restarted.getAllHashtagPostLists(testKeyString));
+        assertEquals(hashtags, restarted.getTopHashTags(hashtags.size()));
+    }
+
+    @Test
+    public void publishedGenerationIsRestoredAfterRestart() {
+        List<PostList> postLists = generatePostLists(numTestPosts);
+
+        for (int i = 0; i < 3; i++) {
+            GenerationAccessObject generation = new GenerationAccessObject(mappedAccess);
+            generation.replaceDisplayPostLists(testKeyString, postLists.subList(0, i + 1));
+            generation.publish();
+            generation.collectOldGenerations();
+        }
+
+        MappedFileAccessObject restarted = new MappedFileAccessObject(directory, segmentSize);
+
+        assertEquals(mappedAccess.getPublishedGeneration(), restarted.getPublishedGeneration());
+        assertEquals(postLists.subList(0, 3), restarted.getAllDisplayPostLists(testKeyString));
+
+        // deleted generations stay deleted, and new generations are numbered after those restored
+        assertEquals(2, restarted.getKeysInNameSpace(AbstractDataAccess.getDisplayNamespace()).size());
+        assertTrue(new GenerationAccessObject(restarted).getGeneration() > restarted.getPublishedGeneration());
+    }
+
+    @Test
+    public void copiedChannelsAreRestoredAfterRestart() {
+        List<PostList> postLists = generatePostLists(numTestPosts);
+        PostList postList = generatePostList(numTestPosts);
+
+        GenerationAccessObject published = new GenerationAccessObject(mappedAccess);
+        published.replaceDisplayPostLists(testKeyString, postLists);
+        published.publish();
+
+        GenerationAccessObject generation = new GenerationAccessObject(mappedAccess);
+        generation.addNewDisplayPostList(testKeyString, postList);
+        generation.publish();
+
+        MappedFileAccessObject restarted = new MappedFileAccessObject(directory, segmentSize);
+
+        List<PostList> expected = new ArrayList<>();
+        expected.add(postList);
+        expected.addAll(postLists);
+        assertEquals(expected, restarted.getAllDisplayPostLists(testKeyString));
+    }
+
+    @Test
+    public void emptiedChannelsStayEmptyAfterRestart() {
+        mappedAccess.replaceHashTagPostLists(testKeyString, generatePostLists(numTestPosts));
+        mappedAccess.replaceHashTagPostLists(testKeyString, Collections.emptyList());
+
+        MappedFileAccessObject restarted = new MappedFileAccessObject(directory, segmentSize);
+
+        assertEquals(Collections.emptyList(), restarted.getAllHashtagPostLists(testKeyString));
+        assertEquals(Collections.emptyList(), restarted.getAllHashTags());
+    }
+
+    @Test
+    public void corruptRecordIsNotReplayed() throws IOException {
+        List<PostList> postLists = generatePostLists(numTestPosts);
+
+        mappedAccess.replaceDisplayPostLists(testKeyString, postLists);
+        mappedAccess.addNewDisplayPostList(testKeyString, generatePostList(numTestPosts));
+        mappedAccess.flush();
+
+        // flip the last byte written, which belongs to the most recent record
+        long logSize = mappedAccess.getLogSize();
+        try (Stream<Path> paths = Files.list(directory);
+             RandomAccessFile segment = new RandomAccessFile(paths.findFirst().get().toFile(), "rw")) {
+            segment.seek(logSize - 1);
+            int lastByte = segment.read();
+            segment.seek(logSize - 1);
+            segment.write(~lastByte);
+        }
+
+        // the log is restored up to the corrupt record, and new records are appended after the last valid one
+        MappedFileAccessObject restarted = new MappedFileAccessObject(directory, segmentSize);
+        assertEquals(postLists, restarted.getAllDisplayPostLists(testKeyString));
+
+        PostList postList = generatePostList(1);
+        restarted.addNewDisplayPostList(testKeyString, postList);
+        assertEquals(postList, new MappedFileAccessObject(directory, segmentSize)
+                .getAllDisplayPostLists(testKeyString).get(0));
+    }
+
+    @Test
+    public void logIsCompacted() {
+        List<PostList> postLists = generatePostLists(numTestPosts);
+
+        // channels which are never rewritten must survive compaction
+        for (int i = 0; i < 3; i++) {
+            mappedAccess.addNewHashTagPostList(testKeyString + i, postLists.get(i));
+        }
+
+        // rewrite the same channel until far more has been written than a single segment holds
+        for (int i = 0; i < 200; i++) {
+            mappedAccess.replaceDisplayPostLists(testKeyString, postLists);
+        }
+
+        assertTrue(mappedAccess.getLogSize() < 3 * segmentSize);
+        assertTrue(mappedAccess.getNumLogSegments() <= 3);
+        assertEquals(postLists, mappedAccess.getAllDisplayPostLists(testKeyString));
+
+        // compacted log restores the same channels
+        MappedFileAccessObject restarted = new MappedFileAccessObject(directory, segmentSize);
+        assertEquals(postLists, restarted.getAllDisplayPostLists(testKeyString));
+        for (int i = 0; i < 3; i++) {
+            assertEquals(Collections.singletonList(postLists.get(i)),
+                    restarted.getAllHashtagPostLists(testKeyString + i));
+        }
+    }
+
+    @Test
+    public void postListsLargerThanASegment() {
+        PostList postList = generatePostList(numTestPosts);
+        List<PostList> postLists = new ArrayList<>();
+        while (postLists.size() * postList.getSerializedSize() <= segmentSize) {
+            postLists.add(postList);
+        }
+
+        mappedAccess.replaceDisplayPostLists(testKeyString, postLists);
+
+        assertEquals(postLists, new MappedFileAccessObject(directory, segmentSize)
+                .getAllDisplayPostLists(testKeyString));
+    }
+
+    private static List<PostList> generatePostLists(int numPostLists) {
+        List<PostList> postLists = new ArrayList<>();
+        for (int i = 0; i < numPostLists; i++) {
+            postLists.add(generatePostList(i + 1));
+        }
+        return postLists;
+    }
+}
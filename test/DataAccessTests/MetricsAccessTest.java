@@ -0,0 +1,84 @@
+package DataAccessTests;
+
+import com.google.common.collect.Lists;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import services.dataAccess.CachingAccessObject;
+import services.dataAccess.InMemoryAccessObject;
+import services.dataAccess.LatencyHistogram;
+import services.dataAccess.MetricsAccessObject;
+import services.dataAccess.proto.PostListProto.PostList;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static services.dataAccess.TestDataGenerator.generatePostList;
+
+/**
+ * Tests functionality of services.dataAccess.MetricsAccessObject and services.dataAccess.LatencyHistogram, in
+ * particular that every operation on the underlying data store is timed and reported with its statistics.
+ */
+public class MetricsAccessTest {
+
+    private static final String testKeyString = "test";
+    private static final Integer numTestPosts = 10;
+
+    private MetricsAccessObject metricsAccess;
+
+    @Before
+    @After
+    public void empty() {
+        metricsAccess = new MetricsAccessObject(new InMemoryAccessObject());
+    }
+
+    @Test
+    public void operationsAreTimed() {
+        List<PostList> postLists = Arrays.asList(generatePostList(numTestPosts), generatePostList(numTestPosts));
+
+        metricsAccess.replaceDisplayPostLists(testKeyString, postLists);
+        assertEquals(postLists, metricsAccess.getDisplayPostLists(testKeyString, 0, 1));
+        assertEquals(postLists, metricsAccess.getDisplayPostLists(testKeyString, 0, 1));
+        assertEquals(postLists, Lists.newArrayList(metricsAccess.iterateDisplayPostLists(testKeyString, 1)));
+
+        assertEquals(1, metricsAccess.getLatencies("replacePostLists").getCount());
+        assertEquals(2, metricsAccess.getLatencies("getPostListRange").getCount());
+        assertTrue(metricsAccess.getLatencies("iteratePostLists").getCount() > 0);
+        assertNull(metricsAccess.getLatencies("deleteList"));
+    }
+
+    @Test
+    public void statisticsIncludeLatencyAndUnderlyingStatistics() {
+        CachingAccessObject cachingAccess = new CachingAccessObject(metricsAccess, 1 << 20);
+        cachingAccess.replaceDisplayPostLists(testKeyString, Collections.singletonList(generatePostList(numTestPosts)));
+        cachingAccess.getDisplayPostList(testKeyString, 0);
+
+        Map<String, Object> statistics = cachingAccess.getStatistics();
+        assertTrue(statistics.containsKey("nearCache"));
+
+        @SuppressWarnings("unchecked")
+        Map<String, Map<String, Object>> latency = (Map<String, Map<String, Object>>) statistics.get("latency");
+        assertEquals(1L, latency.get("getPostList").get("count"));
+    }
+
+    @Test
+    public void histogramPercentilesBoundLatencies() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentileMicros(50));
+
+        // 90 fast latencies and 10 slow ones
+        for (int i = 0; i < 90; i++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(3));
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(5));
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(4, histogram.getPercentileMicros(50));
+        assertEquals(4, histogram.getPercentileMicros(90));
+        assertEquals(8192, histogram.getPercentileMicros(99));
+        assertEquals(5000L, histogram.summarize().get("maxMicros"));
+    }
+}
@@ -0,0 +1,227 @@
+package DataAccessTests;
+
+import com.google.common.collect.Lists;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import services.dataAccess.AbstractDataAccess;
+import services.dataAccess.OffHeapAccessObject;
+import services.dataAccess.RetentionPolicy;
+import services.dataAccess.proto.PostListProto.PostList;
+import services.dataAccess.proto.PostProto.Post;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+import static services.dataAccess.TestDataGenerator.generateListOfPosts;
+import static services.dataAccess.TestDataGenerator.generatePostList;
+
+/**
+ * Tests functionality of services.dataAccess.OffHeapAccessObject, in particular the storage of postLists in off-heap
+ * blocks, the reuse of those blocks, and the consistency of reads while blocks are being reused.
+ */
+public class OffHeapAccessTest {
+
+    private static final String testKeyString = "test";
+    private static final Integer numTestPosts = 10;
+    private static final int numReaders = 4;
+    private static final int numPageWrites = 500;
+
+    private OffHeapAccessObject offHeapAccess;
+
+    @Before
+    @After
+    public void empty() {
+        offHeapAccess = new OffHeapAccessObject();
+    }
+
+    @Test
+    public void addDisplayPostListToEmpty() {
+        PostList postList = generatePostList(numTestPosts);
+
+        assertEquals(1, offHeapAccess.addNewDisplayPostList(testKeyString, postList));
+        assertEquals(Optional.of(postList), offHeapAccess.getDisplayPostList(testKeyString, 0));
+        assertEquals(Optional.empty(), offHeapAccess.getDisplayPostList(testKeyString, 1));
+        assertEquals(Optional.empty(), offHeapAccess.getDisplayPostList(testKeyString, -1));
+    }
+
+    @Test
+    public void addDisplayPostListsToNonEmpty() {
+        PostList postList = generatePostList(numTestPosts);
+        List<PostList> postLists = new ArrayList<>();
+        for (int i = 0; i < numTestPosts; i++) {
+            postLists.add(generatePostList(i + 1));
+        }
+
+        // batch is pushed on top of existing postList, with first postList of batch at the top
+        offHeapAccess.addNewDisplayPostList(testKeyString, postList);
+        assertEquals(numTestPosts + 1, offHeapAccess.addNewDisplayPostLists(testKeyString, postLists));
+
+        List<PostList> expected = new ArrayList<>(postLists);
+        expected.add(postList);
+        assertEquals(expected, offHeapAccess.getAllDisplayPostLists(testKeyString));
+    }
+
+    @Test
+    public void addPostListsPastMaximum() {
+        List<PostList> postLists = new ArrayList<>();
+        for (int i = 0; i < AbstractDataAccess.getMaxPostlists() + numTestPosts; i++) {
+            postLists.add(generatePostList(1));
+        }
+
+        // push every postList onto the same channel
+        postLists.forEach(postList -> offHeapAccess.addNewDisplayPostList(testKeyString, postList));
+
+        // channel is trimmed to the maximum, keeping the most recently added postLists at the top
+        assertEquals(Lists.reverse(postLists).subList(0, AbstractDataAccess.getMaxPostlists()),
+                offHeapAccess.getAllDisplayPostLists(testKeyString));
+    }
+
+    @Test
+    public void addPostListAfterRetentionPolicyChange() {
+        int maxPostLists = numTestPosts / 2;
+        List<PostList> postLists = new ArrayList<>();
+        for (int i = 0; i < numTestPosts; i++) {
+            postLists.add(generatePostList(1));
+        }
+        PostList postList = generatePostList(numTestPosts);
+
+        // fill channel under the default policy, then shrink the policy and push a new postList on top
+        offHeapAccess.addNewDisplayPostLists(testKeyString, postLists);
+        offHeapAccess.setRetentionPolicy(AbstractDataAccess.getDisplayNamespace(),
+                new RetentionPolicy(RetentionPolicy.NO_EXPIRY, maxPostLists, false));
+        assertEquals(maxPostLists, offHeapAccess.addNewDisplayPostList(testKeyString, postList));
+
+        List<PostList> expected = new ArrayList<>();
+        expected.add(postList);
+        expected.addAll(postLists.subList(0, maxPostLists - 1));
+        assertEquals(expected, offHeapAccess.getAllDisplayPostLists(testKeyString));
+    }
+
+    @Test
+    public void replaceHashTagPostLists() {
+        List<PostList> postLists = new ArrayList<>();
+        for (int i = 0; i < numTestPosts; i++) {
+            postLists.add(generatePostList(i + 1));
+        }
+
+        offHeapAccess.addNewHashTagPostList(testKeyString, generatePostList(numTestPosts));
+        assertEquals(numTestPosts.longValue(), offHeapAccess.replaceHashTagPostLists(testKeyString, postLists));
+        assertEquals(postLists, offHeapAccess.getAllHashtagPostLists(testKeyString));
+        assertEquals(numTestPosts.longValue(), offHeapAccess.getNumHashTagPostLists(testKeyString));
+
+        // replacing with an empty list removes the channel
+        offHeapAccess.replaceHashTagPostLists(testKeyString, Collections.emptyList());
+        assertEquals(Collections.emptyList(), offHeapAccess.getAllHashtagPostLists(testKeyString));
+        assertEquals(Collections.emptyList(), offHeapAccess.getAllHashTags());
+    }
+
+    @Test
+    public void getDisplayPostListRangeAndIterate() {
+        List<PostList> postLists = new ArrayList<>();
+        for (int i = 0; i < numTestPosts; i++) {
+            postLists.add(generatePostList(i + 1));
+        }
+        offHeapAccess.replaceDisplayPostLists(testKeyString, postLists);
+
+        assertEquals(postLists.subList(1, 4), offHeapAccess.getDisplayPostLists(testKeyString, 1, 3));
+        assertEquals(Collections.emptyList(), offHeapAccess.getDisplayPostLists(testKeyString, 3, 1));
+
+        for (int chunkSize : Arrays.asList(1, 3, numTestPosts, numTestPosts + 1)) {
+            List<PostList> iterated = new ArrayList<>();
+            offHeapAccess.iterateDisplayPostLists(testKeyString, chunkSize).forEachRemaining(iterated::add);
+            assertEquals(postLists, iterated);
+        }
+    }
+
+    @Test
+    public void sourceQueuesAndKeysInNameSpace() {
+        List<Post> posts = generateListOfPosts(numTestPosts);
+
+        offHeapAccess.addNewPostsFromSource(testKeyString, posts);
+        offHeapAccess.addNewHashTagPostList(testKeyString, generatePostList(numTestPosts));
+
+        // source queues stay on heap, alongside hashtag channels stored off-heap
+        assertEquals(posts, offHeapAccess.getAllPostsFromSource(testKeyString));
+        assertEquals(Collections.singletonList(testKeyString), offHeapAccess.getSources());
+        assertEquals(Collections.singletonList(testKeyString), offHeapAccess.getAllHashTags());
+    }
+
+    @Test
+    public void replacedBlocksAreReused() {
+        List<PostList> postLists = new ArrayList<>();
+        for (int i = 0; i < numTestPosts; i++) {
+            postLists.add(generatePostList(numTestPosts));
+        }
+
+        offHeapAccess.replaceDisplayPostLists(testKeyString, postLists);
+        long reservedBytes = offHeapAccess.getReservedOffHeapBytes();
+        long usedBytes = offHeapAccess.getUsedOffHeapBytes();
+        assertTrue(usedBytes > 0);
+
+        // rewriting the same channel many times should reuse freed blocks rather than reserve more memory
+        for (int i = 0; i < 100; i++) {
+            offHeapAccess.replaceDisplayPostLists(testKeyString, postLists);
+        }
+        assertEquals(reservedBytes, offHeapAccess.getReservedOffHeapBytes());
+        assertEquals(usedBytes, offHeapAccess.getUsedOffHeapBytes());
+
+        offHeapAccess.replaceDisplayPostLists(testKeyString, Collections.emptyList());
+        assertEquals(0, offHeapAccess.getUsedOffHeapBytes());
+    }
+
+    @Test
+    public void concurrentReadsWhileBlocksAreReused() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(numReaders + 1);
+        List<PostList> pages = new ArrayList<>();
+        List<PostList> otherPages = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            pages.add(generatePostList(10));
+            otherPages.add(generatePostList(10));
+        }
+
+        AtomicBoolean writing = new AtomicBoolean(true);
+        Queue<String> errors = new ConcurrentLinkedQueue<>();
+
+        // writer replaces two channels in turn, so blocks freed by one are immediately reused by the other
+        Future<?> writer = executor.submit(() -> {
+            for (int i = 0; i < numPageWrites; i++) {
+                offHeapAccess.replaceDisplayPostLists(testKeyString, pages);
+                offHeapAccess.replaceDisplayPostLists(testKeyString + "0", otherPages);
+                offHeapAccess.addNewDisplayPostList(testKeyString, pages.get(i % pages.size()));
+            }
+            writing.set(false);
+        });
+
+        // readers should only ever observe complete pages of their own channel
+        Set<PostList> writtenPages = new HashSet<>(pages);
+        List<Future<?>> readers = new ArrayList<>();
+        for (int r = 0; r < numReaders; r++) {
+            readers.add(executor.submit(() -> {
+                while (writing.get()) {
+                    List<PostList> channel = offHeapAccess.getAllDisplayPostLists(testKeyString);
+                    channel.stream()
+                            .filter(page -> !writtenPages.contains(page))
+                            .forEach(page -> errors.add("unexpected page in channel"));
+
+                    if (!channel.isEmpty() && channel.size() != pages.size() && channel.size() != pages.size() + 1) {
+                        errors.add("partially replaced channel");
+                    }
+                }
+            }));
+        }
+
+        try {
+            writer.get(60, TimeUnit.SECONDS);
+            for (Future<?> reader : readers) {
+                reader.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(Collections.emptyList(), new ArrayList<>(errors));
+    }
+}
@@ -0,0 +1,71 @@
+package DataAccessTests;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import services.dataAccess.PageCodec;
+import services.dataAccess.proto.PostListProto.PostList;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static services.dataAccess.TestDataGenerator.generatePostList;
+
+/**
+ * Reports the size and speed of each services.dataAccess.PageCodec on generated pages: bytes per post, and nanoseconds
+ * to encode and decode a page. Not part of the unit test suite, as its timings depend on the machine; run it with
+ * {@code activator "test:runMain DataAccessTests.PageCodecBenchmark"}.
+ */
+public class PageCodecBenchmark {
+
+    private static final int numPostsPerPage = 10;
+    private static final int numPages = 200;
+    private static final int numWarmupRounds = 10;
+    private static final int numMeasuredRounds = 10;
+
+    public static void main(String[] args) throws InvalidProtocolBufferException {
+        List<PostList> pages = new ArrayList<>();
+        for (int i = 0; i < numPages; i++) {
+            pages.add(generatePostList(numPostsPerPage));
+        }
+
+        benchmark("raw", PageCodec.RAW, pages);
+        benchmark("deflate", PageCodec.DEFLATE, pages);
+    }
+
+    /**
+     * Encodes and decodes every page for a number of warm-up rounds, then prints the bytes per post and the mean time
+     * per page over the measured rounds
+     */
+    private static void benchmark(String name, PageCodec codec, List<PostList> pages)
+            throws InvalidProtocolBufferException {
+        List<byte[]> encoded = new ArrayList<>(pages.size());
+        long encodeNanos = 0;
+        long decodeNanos = 0;
+
+        for (int round = 0; round < numWarmupRounds + numMeasuredRounds; round++) {
+            encoded.clear();
+
+            long start = System.nanoTime();
+            for (PostList page : pages) {
+                encoded.add(codec.encode(page));
+            }
+            long encodedAt = System.nanoTime();
+
+            for (byte[] bytes : encoded) {
+                PageCodec.decode(bytes);
+            }
+            long decodedAt = System.nanoTime();
+
+            if (round >= numWarmupRounds) {
+                encodeNanos += encodedAt - start;
+                decodeNanos += decodedAt - encodedAt;
+            }
+        }
+
+        long numBytes = encoded.stream().mapToLong(bytes -> bytes.length).sum();
+        long numPageRuns = (long) pages.size() * numMeasuredRounds;
+
+        System.out.println(String.format("%s: %.1f bytes/post, encode %d ns/page, decode %d ns/page", name,
+                (double) numBytes / (pages.size() * numPostsPerPage), encodeNanos / numPageRuns,
+                decodeNanos / numPageRuns));
+    }
+}
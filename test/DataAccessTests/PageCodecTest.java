@@ -0,0 +1,105 @@
+package DataAccessTests;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.junit.Test;
+import services.dataAccess.OffHeapAccessObject;
+import services.dataAccess.PageCodec;
+import services.dataAccess.proto.PostListProto.PostList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.Assert.*;
+import static services.dataAccess.TestDataGenerator.generatePostList;
+
+/**
+ * Tests functionality of services.dataAccess.PageCodec, in particular that pages of every format decode whichever
+ * codec a store currently writes with, and that deflated pages are smaller than raw ones.
+ */
+public class PageCodecTest {
+
+    private static final String testKeyString = "test";
+    private static final int numTestPosts = 10;
+    private static final int numSizedPages = 200;
+
+    @Test
+    public void deflatedPagesRoundTrip() throws InvalidProtocolBufferException {
+        PostList postList = generatePostList(numTestPosts);
+        byte[] encoded = PageCodec.DEFLATE.encode(postList);
+
+        assertTrue(encoded.length < postList.getSerializedSize());
+        assertEquals(postList, PageCodec.decode(encoded));
+    }
+
+    @Test
+    public void rawPagesDecode() throws InvalidProtocolBufferException {
+        PostList postList = generatePostList(numTestPosts);
+
+        // pages written before compression are plain protocol buffers
+        assertArrayEquals(postList.toByteArray(), PageCodec.RAW.encode(postList));
+        assertEquals(postList, PageCodec.decode(postList.toByteArray()));
+    }
+
+    @Test
+    public void emptyPagesDecode() throws InvalidProtocolBufferException {
+        PostList empty = PostList.getDefaultInstance();
+
+        assertEquals(0, PageCodec.DEFLATE.encode(empty).length);
+        assertEquals(empty, PageCodec.decode(PageCodec.DEFLATE.encode(empty)));
+    }
+
+    @Test(expected = InvalidProtocolBufferException.class)
+    public void truncatedPagesAreInvalid() throws InvalidProtocolBufferException {
+        byte[] encoded = PageCodec.DEFLATE.encode(generatePostList(numTestPosts));
+        PageCodec.decode(Arrays.copyOf(encoded, encoded.length / 2));
+    }
+
+    @Test
+    public void storeReadsPagesWrittenWithEitherCodec() {
+        OffHeapAccessObject offHeapAccess = new OffHeapAccessObject();
+        PostList rawPostList = generatePostList(numTestPosts);
+        PostList deflatedPostList = generatePostList(numTestPosts);
+
+        // changing the codec leaves pages already stored readable
+        offHeapAccess.setPageCodec(PageCodec.RAW);
+        offHeapAccess.addNewDisplayPostList(testKeyString, rawPostList);
+        offHeapAccess.setPageCodec(PageCodec.DEFLATE);
+        offHeapAccess.addNewDisplayPostList(testKeyString, deflatedPostList);
+
+        assertEquals(Arrays.asList(deflatedPostList, rawPostList), offHeapAccess.getAllDisplayPostLists(testKeyString));
+        assertEquals(Optional.of(rawPostList), offHeapAccess.getDisplayPostList(testKeyString, 1));
+    }
+
+    @Test
+    public void deflateShrinksGeneratedPages() throws InvalidProtocolBufferException {
+        List<PostList> pages = new ArrayList<>();
+        for (int i = 0; i < numSizedPages; i++) {
+            pages.add(generatePostList(numTestPosts));
+        }
+
+        long rawBytes = encodedSize(PageCodec.RAW, pages);
+        long deflatedBytes = encodedSize(PageCodec.DEFLATE, pages);
+
+        assertEquals(pages.stream().mapToLong(PostList::getSerializedSize).sum(), rawBytes);
+        assertTrue(deflatedBytes < rawBytes);
+    }
+
+    /**
+     * Encodes every page, checking that each decodes back to the page it was encoded from
+     *
+     * @return total size of the encoded pages
+     */
+    private static long encodedSize(PageCodec codec, List<PostList> pages) throws InvalidProtocolBufferException {
+        long numBytes = 0;
+
+        for (PostList page : pages) {
+            byte[] encoded = codec.encode(page);
+            assertEquals(page, PageCodec.decode(encoded));
+            numBytes += encoded.length;
+        }
+
+        return numBytes;
+    }
+}
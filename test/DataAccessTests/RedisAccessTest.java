@@ -14,14 +14,20 @@ import java.util.*;
 
 import redis.clients.jedis.BinaryJedis;
 import services.dataAccess.AbstractDataAccess;
+import services.dataAccess.CachingAccessObject;
+import services.dataAccess.GenerationAccessObject;
+import services.dataAccess.PageCodec;
 import services.dataAccess.RedisAccessObject;
+import services.dataAccess.RetentionPolicy;
 import services.dataAccess.proto.PostProto.Post;
 import services.dataAccess.proto.PostListProto.PostList;
 import static services.dataAccess.TestDataGenerator.generateListOfPosts;
 
 import static services.PublicConstants.DATA_SOURCE;
 import static services.PublicConstants.REDIS_PORT;
+import static services.PublicConstants.REDIS_REPLICA_URLS;
 import static services.PublicConstants.REDIS_URL;
+import static services.PublicConstants.TOP_HASHTAGS;
 import static services.dataAccess.TestDataGenerator.generatePostList;
 import static services.dataAccess.TestDataGenerator.randomHashtags;
 
@@ -37,6 +43,11 @@ import static services.dataAccess.TestDataGenerator.randomHashtags;
  * redis_url=""
  * redis_port=""
  * <p>
+ * Tests of reads from replicas also need a standalone Redis instance
+ * standing in for a replica, which they write to directly:
+ * <p>
+ * redis_replica_urls="localhost:6383"
+ * <p>
  * data_source="redis"
  * must also be set.
  * <p>
@@ -44,6 +55,7 @@ import static services.dataAccess.TestDataGenerator.randomHashtags;
  */
 public class RedisAccessTest {
     private static final Integer numTestPosts = 10;     // MUST be greater than 1.
+    private static final long replicaCheckInterval = 1000; // milliseconds between checks of replication lag
 
     // generate unique ID within test namespace
     private static final String testKeyString = "test" + UUID.randomUUID().toString();
@@ -290,6 +302,92 @@ public class RedisAccessTest {
         assertEquals(Optional.empty(), redisAccessObject.getDisplayPostList(testKeyString, Integer.MAX_VALUE));
     }
 
+    @Test
+    public void testIterateEmptyPostLists() {
+        assumeTrue(redisTestsIncluded);
+
+        assertFalse(redisAccessObject.iterateDisplayPostLists(testKeyString, numTestPosts).hasNext());
+    }
+
+    @Test
+    public void testIteratePostListsInChunks() {
+        assumeTrue(redisTestsIncluded);
+
+        List<PostList> postLists = new ArrayList<>();
+        for (int i = 0; i < numTestPosts; i++) {
+            postLists.add(generatePostList(i + 1));
+        }
+        redisAccessObject.replaceDisplayPostLists(testKeyString, postLists);
+
+        // chunk sizes which do and do not evenly divide the list should both iterate over every postList, in order
+        for (int chunkSize : Arrays.asList(1, 3, numTestPosts, numTestPosts + 1)) {
+            List<PostList> iterated = new ArrayList<>();
+            redisAccessObject.iterateDisplayPostLists(testKeyString, chunkSize).forEachRemaining(iterated::add);
+
+            assertEquals(postLists, iterated);
+        }
+    }
+
+    @Test
+    public void testGetDisplayPostListRange() {
+        assumeTrue(redisTestsIncluded);
+
+        List<PostList> postLists = new ArrayList<>();
+        for (int i = 0; i < numTestPosts; i++) {
+            postLists.add(generatePostList(i + 1));
+        }
+        redisAccessObject.replaceDisplayPostLists(testKeyString, postLists);
+
+        // ranges are inclusive, and are cut short at the end of the channel
+        assertEquals(postLists.subList(1, 4), redisAccessObject.getDisplayPostLists(testKeyString, 1, 3));
+        assertEquals(postLists.subList(2, numTestPosts),
+                redisAccessObject.getDisplayPostLists(testKeyString, 2, numTestPosts + 5));
+        assertEquals(Collections.emptyList(),
+                redisAccessObject.getDisplayPostLists(testKeyString, numTestPosts, numTestPosts + 5));
+        assertEquals(Collections.emptyList(), redisAccessObject.getDisplayPostLists(testKeyString, 3, 1));
+        assertEquals(Collections.emptyList(), redisAccessObject.getDisplayPostLists(testKeyString, -1, 1));
+    }
+
+    @Test
+    public void testGetEmptyHashTagPostListRange() {
+        assumeTrue(redisTestsIncluded);
+        assertEquals(Collections.emptyList(), redisAccessObject.getHashTagPostLists(testKeyString, 0, numTestPosts));
+    }
+
+    @Test
+    public void testAddDisplayPostListsToNonEmpty() {
+        assumeTrue(redisTestsIncluded);
+
+        PostList postList = generatePostList(numTestPosts);
+        List<PostList> postLists = new ArrayList<>();
+        for (int i = 0; i < numTestPosts; i++) {
+            postLists.add(generatePostList(i + 1));
+        }
+
+        // batch of postLists is pushed on top of existing postList, with first postList of batch at the top
+        redisAccessObject.addNewDisplayPostList(testKeyString, postList);
+        assertEquals(numTestPosts + 1, redisAccessObject.addNewDisplayPostLists(testKeyString, postLists));
+
+        List<PostList> expected = new ArrayList<>(postLists);
+        expected.add(postList);
+        assertEquals(expected, redisAccessObject.getAllDisplayPostLists(testKeyString));
+    }
+
+    @Test
+    public void testAddDisplayPostListsPastMaximum() {
+        assumeTrue(redisTestsIncluded);
+
+        int maxPostLists = AbstractDataAccess.getMaxPostlists();
+        List<PostList> postLists = new ArrayList<>();
+        for (int i = 0; i < maxPostLists + numTestPosts; i++) {
+            postLists.add(generatePostList(1));
+        }
+
+        // only the first maxPostLists postLists of the batch should be kept
+        assertEquals(maxPostLists, redisAccessObject.addNewDisplayPostLists(testKeyString, postLists));
+        assertEquals(postLists.subList(0, maxPostLists), redisAccessObject.getAllDisplayPostLists(testKeyString));
+    }
+
     /*
      * getNumPosts Tests
      */
@@ -362,6 +460,71 @@ public class RedisAccessTest {
                 redisAccessObject.getKeysInNameSpace(AbstractDataAccess.getSourceNamespace()).get(0));
     }
 
+    @Test
+    public void testGetKeysInNameSpaceAfterQueueEmptied() {
+        assumeTrue(redisTestsIncluded);
+
+        List<Post> posts = generateListOfPosts(numTestPosts);
+
+        redisAccessObject.addNewPostsFromSource(testKeyString, posts);
+        redisAccessObject.deleteFirstNPostsFromSourceQueue(testKeyString, numTestPosts);
+
+        // emptied queue no longer exists in Redis, and so should no longer be listed
+        assertEquals(Collections.emptyList(),
+                redisAccessObject.getKeysInNameSpace(AbstractDataAccess.getSourceNamespace()));
+    }
+
+    @Test
+    public void testGetKeysInNameSpaceAfterEmptyReplace() {
+        assumeTrue(redisTestsIncluded);
+
+        redisAccessObject.addNewHashTagPostList(testKeyString, generatePostList(numTestPosts));
+        redisAccessObject.replaceHashTagPostLists(testKeyString, Collections.emptyList());
+
+        // replacing a channel with an empty list deletes the channel
+        assertEquals(Collections.emptyList(), redisAccessObject.getAllHashTags());
+    }
+
+    @Test
+    public void testMissingKeysArePrunedFromKeyIndex() {
+        assumeTrue(redisTestsIncluded);
+
+        redisAccessObject.addNewHashTagPostList(testKeyString + 0, generatePostList(numTestPosts));
+        redisAccessObject.addNewHashTagPostList(testKeyString + 1, generatePostList(numTestPosts));
+        String hashtagNamespace = AbstractDataAccess.getHashtagNamespace();
+        List<String> keys = redisAccessObject.getKeysInNameSpace(hashtagNamespace);
+        Collections.sort(keys);
+        byte[] index = ("keyindex" + AbstractDataAccess.getNamespaceDelimiter() + hashtagNamespace).getBytes();
+
+        // delete one key directly, leaving it registered in the key index
+        directToRedis.connect();
+        directToRedis.del(keys.get(0).getBytes());
+
+        assertEquals(Collections.singletonList(keys.get(1)), redisAccessObject.getKeysInNameSpace(hashtagNamespace));
+        assertEquals(Long.valueOf(1), directToRedis.scard(index));
+        assertTrue(directToRedis.sismember(index, keys.get(1).getBytes()));
+        directToRedis.disconnect();
+    }
+
+    @Test
+    public void testRebuildKeyIndex() {
+        assumeTrue(redisTestsIncluded);
+
+        String keyString = AbstractDataAccess.getSourceNamespace()
+                + AbstractDataAccess.getNamespaceDelimiter()
+                + testKeyString;
+
+        // write key directly, bypassing the key index
+        directToRedis.connect();
+        directToRedis.rpush(keyString.getBytes(), generatePostList(1).getPosts(0).toByteArray());
+        directToRedis.disconnect();
+
+        // scanning the keyspace should find and register the unindexed key
+        assertEquals(1, redisAccessObject.rebuildKeyIndex(AbstractDataAccess.getSourceNamespace()));
+        assertEquals(Collections.singletonList(keyString),
+                redisAccessObject.getKeysInNameSpace(AbstractDataAccess.getSourceNamespace()));
+    }
+
     /*
      * deleteNPosts Tests
      */
@@ -414,6 +577,43 @@ public class RedisAccessTest {
         assertEquals(posts, redisAccessObject.getAllPostsFromSource(testKeyString));
     }
 
+    /*
+     * drainSource Tests
+     */
+
+    @Test
+    public void testDrainPostsFromEmptySource() {
+        assumeTrue(redisTestsIncluded);
+
+        assertEquals(Collections.emptyList(), redisAccessObject.drainSource(testKeyString, numTestPosts));
+    }
+
+    @Test
+    public void testDrainFewerThanAllPostsFromSource() {
+        assumeTrue(redisTestsIncluded);
+
+        List<Post> posts = generateListOfPosts(numTestPosts);
+
+        redisAccessObject.addNewPostsFromSource(testKeyString, posts);
+
+        // first 5 posts are returned in order and removed, remaining posts stay queued
+        assertEquals(posts.subList(0, 5), redisAccessObject.drainSource(testKeyString, 5));
+        assertEquals(posts.subList(5, numTestPosts), redisAccessObject.getAllPostsFromSource(testKeyString));
+    }
+
+    @Test
+    public void testDrainMoreThanAllPostsFromSource() {
+        assumeTrue(redisTestsIncluded);
+
+        List<Post> posts = generateListOfPosts(numTestPosts);
+
+        redisAccessObject.addNewPostsFromSource(testKeyString, posts);
+
+        // all posts are returned and the queue is left empty
+        assertEquals(posts, redisAccessObject.drainSource(testKeyString, numTestPosts + 1));
+        assertEquals(Collections.emptyList(), redisAccessObject.getAllPostsFromSource(testKeyString));
+    }
+
     /*
      * Expiry Tests
      */
@@ -504,6 +704,530 @@ public class RedisAccessTest {
     }
 
 
+    @Test
+    public void testHashTagPostListReplaceSetsExpiry() {
+        assumeTrue(redisTestsIncluded);
+
+        redisAccessObject.replaceHashTagPostLists(testKeyString, Collections.singletonList(generatePostList(1)));
+
+        // replaced channel should expire, and no staging keys should remain after the swap
+        directToRedis.connect();
+        Long ttl = directToRedis.ttl((AbstractDataAccess.getHashtagNamespace()
+                + AbstractDataAccess.getNamespaceDelimiter()
+                + testKeyString).getBytes());
+        Set<byte[]> stagingKeys = directToRedis.keys("staging:*".getBytes());
+        directToRedis.disconnect();
+
+        assertTrue(ttl > 0);
+        assertEquals(Collections.emptySet(), stagingKeys);
+    }
+
+    @Test
+    public void testReplaceDisplayPostListsIsAtomicForReaders() throws Exception {
+        assumeTrue(redisTestsIncluded);
+
+        // two distinct versions of a channel, of different lengths
+        List<PostList> oldPostLists = new ArrayList<>();
+        List<PostList> newPostLists = new ArrayList<>();
+        for (int i = 0; i < numTestPosts; i++) {
+            oldPostLists.add(generatePostList(1));
+            newPostLists.add(generatePostList(2));
+        }
+        newPostLists.remove(0);
+        redisAccessObject.replaceDisplayPostLists(testKeyString, oldPostLists);
+
+        // writer repeatedly swaps between versions, while reader checks that it only ever sees a complete version
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < 100; i++) {
+                redisAccessObject.replaceDisplayPostLists(testKeyString, i % 2 == 0 ? newPostLists : oldPostLists);
+            }
+        });
+        writer.start();
+
+        List<List<PostList>> inconsistentReads = new ArrayList<>();
+        while (writer.isAlive()) {
+            List<PostList> read = redisAccessObject.getAllDisplayPostLists(testKeyString);
+            if (!read.equals(oldPostLists) && !read.equals(newPostLists)) {
+                inconsistentReads.add(read);
+            }
+        }
+        writer.join();
+
+        assertEquals(Collections.emptyList(), inconsistentReads);
+    }
+
+    /*
+       retention policy tests
+     */
+
+    @Test
+    public void testAddDisplayPostListsPastRetentionPolicyMaximum() {
+        assumeTrue(redisTestsIncluded);
+
+        int maxPostLists = numTestPosts / 2;
+        List<PostList> postLists = new ArrayList<>();
+        for (int i = 0; i < numTestPosts; i++) {
+            postLists.add(generatePostList(1));
+        }
+
+        redisAccessObject.setRetentionPolicy(AbstractDataAccess.getDisplayNamespace(),
+                new RetentionPolicy(600, maxPostLists, true));
+        try {
+            // channel is trimmed to the policy's maximum, and expires according to the policy
+            assertEquals(maxPostLists, redisAccessObject.addNewDisplayPostLists(testKeyString, postLists));
+
+            directToRedis.connect();
+            Long ttl = directToRedis.ttl((AbstractDataAccess.getDisplayNamespace()
+                    + AbstractDataAccess.getNamespaceDelimiter()
+                    + testKeyString).getBytes());
+            directToRedis.disconnect();
+
+            assertEquals(postLists.subList(0, maxPostLists), redisAccessObject.getAllDisplayPostLists(testKeyString));
+            assertTrue(ttl > 0 && ttl <= 600);
+        } finally {
+            redisAccessObject.setRetentionPolicy(AbstractDataAccess.getDisplayNamespace(),
+                    AbstractDataAccess.getDefaultRetentionPolicy());
+        }
+    }
+
+    @Test
+    public void testReplaceHashTagPostListsPastRetentionPolicyMaximum() {
+        assumeTrue(redisTestsIncluded);
+
+        int maxPostLists = numTestPosts / 2;
+        List<PostList> postLists = new ArrayList<>();
+        for (int i = 0; i < numTestPosts; i++) {
+            postLists.add(generatePostList(1));
+        }
+
+        redisAccessObject.setRetentionPolicy(AbstractDataAccess.getHashtagNamespace(),
+                new RetentionPolicy(600, maxPostLists, true));
+        try {
+            assertEquals(maxPostLists, redisAccessObject.replaceHashTagPostLists(testKeyString, postLists));
+            assertEquals(postLists.subList(0, maxPostLists), redisAccessObject.getAllHashtagPostLists(testKeyString));
+        } finally {
+            redisAccessObject.setRetentionPolicy(AbstractDataAccess.getHashtagNamespace(),
+                    AbstractDataAccess.getDefaultRetentionPolicy());
+        }
+    }
+
+    @Test
+    public void testTopHashtagsDoNotExpire() {
+        assumeTrue(redisTestsIncluded);
+
+        // randomHashtags may be empty, which would leave no key to check
+        redisAccessObject.addTopHashtags(Arrays.asList("tag1", "tag2"));
+
+        directToRedis.connect();
+        Long ttl = directToRedis.ttl((AbstractDataAccess.getStringListNamespace()
+                + AbstractDataAccess.getNamespaceDelimiter()
+                + TOP_HASHTAGS).getBytes());
+        directToRedis.disconnect();
+
+        assertEquals(Long.valueOf(-1), ttl);
+    }
+
+    @Test
+    public void testAccessRefreshIsCoalesced() {
+        assumeTrue(redisTestsIncluded);
+
+        // key not previously written or read by the object under test
+        String keyString = "test" + UUID.randomUUID().toString();
+        byte[] key = (AbstractDataAccess.getDisplayNamespace()
+                + AbstractDataAccess.getNamespaceDelimiter()
+                + keyString).getBytes();
+
+        directToRedis.connect();
+        directToRedis.lpush(key, generatePostList(numTestPosts).toByteArray());
+        directToRedis.expire(key, 100);
+        directToRedis.disconnect();
+
+        // first read resets the TTL to the policy's time to live
+        assertTrue(redisAccessObject.getDisplayPostList(keyString, 0).isPresent());
+        directToRedis.connect();
+        Long refreshedTtl = directToRedis.ttl(key);
+        directToRedis.expire(key, 100);
+        directToRedis.disconnect();
+
+        // a second read within the refresh interval does not reset it again
+        assertTrue(redisAccessObject.getDisplayPostList(keyString, 0).isPresent());
+        directToRedis.connect();
+        Long coalescedTtl = directToRedis.ttl(key);
+        directToRedis.disconnect();
+
+        assertTrue(refreshedTtl > 100);
+        assertTrue(coalescedTtl <= 100);
+    }
+
+    @Test
+    public void testNearCacheSeesWritesOfAnotherProcess() throws InterruptedException {
+        assumeTrue(redisTestsIncluded);
+
+        // separate caches over separate data store objects, as in separate processes
+        CachingAccessObject readerAccess = new CachingAccessObject(new RedisAccessObject(), 1 << 20);
+        CachingAccessObject writerAccess = new CachingAccessObject(new RedisAccessObject(), 1 << 20);
+        PostList postList = generatePostList(numTestPosts);
+        PostList newPostList = generatePostList(numTestPosts - 1);
+
+        writerAccess.addNewDisplayPostList(testKeyString, postList);
+        assertEquals(Optional.of(postList), readerAccess.getDisplayPostList(testKeyString, 0));
+        assertEquals(Optional.of(postList), readerAccess.getDisplayPostList(testKeyString, 0));
+        assertEquals(1, readerAccess.getHitCount());
+
+        // version is checked again at most a second later
+        writerAccess.addNewDisplayPostList(testKeyString, newPostList);
+        Thread.sleep(1100);
+        assertEquals(Optional.of(newPostList), readerAccess.getDisplayPostList(testKeyString, 0));
+
+        // version keys expire along with the channels they describe
+        directToRedis.connect();
+        Long ttl = directToRedis.ttl(("version" + AbstractDataAccess.getNamespaceDelimiter()
+                + AbstractDataAccess.getDisplayNamespace() + AbstractDataAccess.getNamespaceDelimiter()
+                + testKeyString).getBytes());
+        directToRedis.disconnect();
+        assertTrue(ttl > 0);
+    }
+
+    @Test
+    public void testOldGenerationsAreDeleted() {
+        assumeTrue(redisTestsIncluded);
+
+        CachingAccessObject cachingAccess = new CachingAccessObject(redisAccessObject, 1 << 20);
+        List<Long> generations = new ArrayList<>();
+
+        for (int i = 0; i < 3; i++) {
+            GenerationAccessObject generation = new GenerationAccessObject(cachingAccess);
+            generation.replaceHashTagPostLists(testKeyString, Collections.singletonList(generatePostList(i + 1)));
+            generations.add(generation.publish());
+            generation.collectOldGenerations();
+        }
+
+        // channel and version of the oldest generation are deleted; the replaced generation is kept
+        String delimiter = AbstractDataAccess.getNamespaceDelimiter();
+        String oldestKey = AbstractDataAccess.getHashtagNamespace() + delimiter + "g" + generations.get(0) + delimiter
+                + testKeyString;
+        String replacedKey = AbstractDataAccess.getHashtagNamespace() + delimiter + "g" + generations.get(1) + delimiter
+                + testKeyString;
+
+        directToRedis.connect();
+        assertFalse(directToRedis.exists(oldestKey.getBytes()));
+        assertFalse(directToRedis.exists(("version" + delimiter + oldestKey).getBytes()));
+        assertTrue(directToRedis.exists(replacedKey.getBytes()));
+
+        // the pointer to the generations of the channel expires too, though long after the channel
+        String pointerKey = "pointer" + delimiter + AbstractDataAccess.getHashtagNamespace() + delimiter
+                + testKeyString;
+        assertTrue(directToRedis.ttl(("version" + delimiter + pointerKey).getBytes())
+                > directToRedis.ttl(replacedKey.getBytes()));
+        directToRedis.disconnect();
+
+        assertEquals(Collections.singletonList(testKeyString), cachingAccess.getAllHashTags());
+        assertEquals(3, cachingAccess.getAllHashtagPostLists(testKeyString).get(0).getPostsCount());
+    }
+
+    @Test
+    public void testPushToGenerationCopiesPublishedChannel() {
+        assumeTrue(redisTestsIncluded);
+
+        CachingAccessObject cachingAccess = new CachingAccessObject(redisAccessObject, 1 << 20);
+        List<PostList> postLists = new ArrayList<>();
+        for (int i = 0; i < numTestPosts; i++) {
+            postLists.add(generatePostList(i + 1));
+        }
+        PostList postList = generatePostList(numTestPosts);
+
+        GenerationAccessObject published = new GenerationAccessObject(cachingAccess);
+        published.replaceDisplayPostLists(testKeyString, postLists);
+        published.publish();
+
+        GenerationAccessObject generation = new GenerationAccessObject(cachingAccess);
+        generation.addNewDisplayPostList(testKeyString, postList);
+        generation.publish();
+
+        List<PostList> expected = new ArrayList<>();
+        expected.add(postList);
+        expected.addAll(postLists);
+        assertEquals(expected, cachingAccess.getAllDisplayPostLists(testKeyString));
+
+        // the copy made within Redis expires like any other channel, and is found in its namespace
+        String generationKey = AbstractDataAccess.getDisplayNamespace() + AbstractDataAccess.getNamespaceDelimiter()
+                + "g" + generation.getGeneration() + AbstractDataAccess.getNamespaceDelimiter() + testKeyString;
+        directToRedis.connect();
+        assertTrue(directToRedis.ttl(generationKey.getBytes()) > 0);
+        directToRedis.disconnect();
+        assertTrue(cachingAccess.getKeysInNameSpace(AbstractDataAccess.getDisplayNamespace()).contains(generationKey));
+    }
+
+    @Test
+    public void testUpsertPostsUpdatesWaitingPosts() {
+        assumeTrue(redisTestsIncluded);
+
+        List<Post> posts = generateListOfPosts(numTestPosts);
+        List<Post> refetched = new ArrayList<>();
+        refetched.add(posts.get(2).toBuilder().setNumLikes(posts.get(2).getNumLikes() + 1).build());
+        refetched.add(generateListOfPosts(numTestPosts + 1).get(numTestPosts));
+
+        assertEquals(numTestPosts.longValue(), redisAccessObject.upsertPostsFromSource(testKeyString, posts));
+
+        // a refetched post is updated in place, and only the post with a new ID is appended
+        assertEquals(1, redisAccessObject.upsertPostsFromSource(testKeyString, refetched));
+
+        List<Post> expected = new ArrayList<>(posts);
+        expected.set(2, refetched.get(0));
+        expected.add(refetched.get(1));
+        assertEquals(expected, redisAccessObject.getAllPostsFromSource(testKeyString));
+        assertEquals(numTestPosts + 1, redisAccessObject.getNumPostsInSources());
+
+        // drained posts are returned in their latest version, and are queued again if fetched again
+        assertEquals(expected.subList(0, 3), redisAccessObject.drainSource(testKeyString, 3));
+        assertEquals(1, redisAccessObject.upsertPostsFromSource(testKeyString, posts.subList(2, 4)));
+        assertEquals(Optional.of(expected.get(3)), redisAccessObject.popFirstPostFromSource(testKeyString));
+        assertEquals(numTestPosts - 2, redisAccessObject.getNumPostsInSources());
+    }
+
+    @Test
+    public void testUpsertedVersionsAreTakenWithTheirPosts() {
+        assumeTrue(redisTestsIncluded);
+
+        // IDs longer than 127 bytes are preceded by a multi-byte length in the serialized post
+        List<Post> posts = new ArrayList<>();
+        for (Post post : generateListOfPosts(numTestPosts)) {
+            posts.add(post.toBuilder().setId(String.join("", Collections.nCopies(20, post.getId()))).build());
+        }
+        List<Post> refetched = new ArrayList<>();
+        posts.forEach(post -> refetched.add(post.toBuilder().setNumLikes(post.getNumLikes() + 1).build()));
+
+        redisAccessObject.upsertPostsFromSource(testKeyString, posts);
+        redisAccessObject.upsertPostsFromSource(testKeyString, refetched);
+
+        String upsertKey = "upsert" + AbstractDataAccess.getNamespaceDelimiter() + "{"
+                + AbstractDataAccess.getSourceNamespace() + AbstractDataAccess.getNamespaceDelimiter()
+                + testKeyString + "}";
+
+        // the hash of upserted versions expires if its queue is abandoned
+        directToRedis.connect();
+        assertTrue(directToRedis.ttl(upsertKey.getBytes()) > 0);
+        directToRedis.disconnect();
+
+        // the queue and the hash are taken from in the same step, leaving no version behind
+        assertEquals(refetched.get(0), redisAccessObject.popFirstPostFromSource(testKeyString).get());
+        assertEquals(refetched.subList(1, 3), redisAccessObject.drainSource(testKeyString, 2));
+        redisAccessObject.deleteFirstNPostsFromSourceQueue(testKeyString, numTestPosts);
+
+        directToRedis.connect();
+        assertFalse(directToRedis.exists(upsertKey.getBytes()));
+        directToRedis.disconnect();
+
+        // taken posts are queued again when fetched again
+        assertEquals(numTestPosts.longValue(), redisAccessObject.upsertPostsFromSource(testKeyString, posts));
+    }
+
+    @Test
+    public void testNumPostsInSourcesIsRecounted() {
+        assumeTrue(redisTestsIncluded);
+
+        List<Post> posts = generateListOfPosts(numTestPosts);
+        redisAccessObject.addNewPostsFromSource(testKeyString, posts);
+        redisAccessObject.addNewPostsFromSource(testKeyString + 0, posts);
+        redisAccessObject.drainSource(testKeyString + 0, 1);
+        assertEquals(2 * numTestPosts - 1, redisAccessObject.getNumPostsInSources());
+
+        // a source queue removed behind the counter's back is only reflected once recounted
+        directToRedis.connect();
+        directToRedis.del((AbstractDataAccess.getSourceNamespace() + AbstractDataAccess.getNamespaceDelimiter()
+                + testKeyString).getBytes());
+        directToRedis.disconnect();
+
+        assertEquals(2 * numTestPosts - 1, redisAccessObject.getNumPostsInSources());
+        assertEquals(numTestPosts - 1, redisAccessObject.recountPostsInSources());
+        assertEquals(numTestPosts - 1, redisAccessObject.getNumPostsInSources());
+    }
+
+    @Test
+    public void testNumPostsInSourcesFollowsConcurrentAppendsAndDeletes() throws InterruptedException {
+        assumeTrue(redisTestsIncluded);
+
+        List<Post> posts = generateListOfPosts(numTestPosts);
+
+        // deletes asking for more posts than are queued race with appends, and must only count the posts they remove
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < 50; i++) {
+                redisAccessObject.addNewPostsFromSource(testKeyString, posts);
+            }
+        });
+        writer.start();
+
+        while (writer.isAlive()) {
+            redisAccessObject.deleteFirstNPostsFromSourceQueue(testKeyString, numTestPosts * 2);
+            redisAccessObject.drainSource(testKeyString, 1);
+        }
+        writer.join();
+
+        assertEquals(redisAccessObject.getNumPostsInNameSpace(AbstractDataAccess.getSourceNamespace()),
+                redisAccessObject.getNumPostsInSources());
+    }
+
+    @Test
+    public void testReadsFallBackToPrimaryWhenReplicaIsDown() {
+        assumeTrue(redisTestsIncluded);
+
+        List<PostList> postLists = Arrays.asList(generatePostList(numTestPosts), generatePostList(numTestPosts));
+        List<String> hashtags = Arrays.asList("tag1", "tag2");
+        redisAccessObject.replaceDisplayPostLists(testKeyString, postLists);
+        redisAccessObject.addTopHashtags(hashtags);
+
+        // no Redis instance listens on port 1
+        RedisAccessObject replicatedAccess = new RedisAccessObject(redisUrl, redisPort,
+                Collections.singletonList("localhost:1"));
+
+        assertEquals(Optional.of(postLists.get(1)), replicatedAccess.getDisplayPostList(testKeyString, 1));
+        assertEquals(postLists, replicatedAccess.getDisplayPostLists(testKeyString, 0, 1));
+        assertEquals(hashtags, replicatedAccess.getTopHashTags(hashtags.size()));
+    }
+
+    @Test
+    public void testReadsAreServedByReplica() throws InterruptedException {
+        assumeTrue(redisTestsIncluded && System.getenv(REDIS_REPLICA_URLS) != null);
+
+        // the standalone instance given as replica is made a replica of the primary for the duration of the test
+        String[] replicaHostAndPort = System.getenv(REDIS_REPLICA_URLS).split(",")[0].trim().split(":");
+        BinaryJedis directToReplica = new BinaryJedis(replicaHostAndPort[0], Integer.parseInt(replicaHostAndPort[1]));
+        RedisAccessObject replicatedAccess = new RedisAccessObject(redisUrl, redisPort,
+                Collections.singletonList(System.getenv(REDIS_REPLICA_URLS).split(",")[0]));
+
+        PostList primaryPostList = generatePostList(numTestPosts);
+        PostList replicaPostList = generatePostList(numTestPosts - 1);
+        String replicaOnlyKey = AbstractDataAccess.getDisplayNamespace() + AbstractDataAccess.getNamespaceDelimiter()
+                + testKeyString + "replica";
+
+        redisAccessObject.replaceDisplayPostLists(testKeyString, Collections.singletonList(primaryPostList));
+
+        directToReplica.connect();
+        try {
+            directToReplica.slaveof(redisUrl, redisPort);
+            for (int wait = 0; wait < 100 && !directToReplica.info("replication").contains("master_link_status:up");
+                 wait++) {
+                Thread.sleep(100);
+            }
+
+            // a list written to the replica alone shows that reads are served by it, and reads of lists it does not
+            // hold are answered as empty rather than repeated on the primary
+            directToReplica.configSet("slave-read-only".getBytes(), "no".getBytes());
+            directToReplica.rpush(replicaOnlyKey.getBytes(), replicaPostList.toByteArray());
+
+            assertEquals(Optional.of(replicaPostList),
+                    replicatedAccess.getDisplayPostList(testKeyString + "replica", 0));
+            assertEquals(Optional.empty(), replicatedAccess.getDisplayPostList(testKeyString + "missing", 0));
+
+            // once unlinked from the primary, the replica is no longer read from after its next check
+            directToReplica.slaveofNoOne();
+            redisAccessObject.replaceDisplayPostLists(testKeyString + 1, Collections.singletonList(primaryPostList));
+            Thread.sleep(replicaCheckInterval + 100);
+
+            assertEquals(Optional.of(primaryPostList), replicatedAccess.getDisplayPostList(testKeyString + 1, 0));
+            assertEquals(Optional.empty(), replicatedAccess.getDisplayPostList(testKeyString + "replica", 0));
+        } finally {
+            directToReplica.slaveofNoOne();
+            directToReplica.configSet("slave-read-only".getBytes(), "yes".getBytes());
+            directToReplica.flushAll();
+            directToReplica.disconnect();
+        }
+    }
+
+    @Test
+    public void testPagesWrittenWithEitherCodecAreRead() {
+        assumeTrue(redisTestsIncluded);
+
+        RedisAccessObject codecAccess = new RedisAccessObject(redisUrl, redisPort);
+        PostList rawPostList = generatePostList(numTestPosts);
+        PostList deflatedPostList = generatePostList(numTestPosts);
+        String displayKey = AbstractDataAccess.getDisplayNamespace() + AbstractDataAccess.getNamespaceDelimiter()
+                + testKeyString;
+
+        // a page written before compression is a plain protocol buffer
+        codecAccess.setPageCodec(PageCodec.RAW);
+        codecAccess.addNewDisplayPostList(testKeyString, rawPostList);
+        directToRedis.connect();
+        assertArrayEquals(rawPostList.toByteArray(), directToRedis.lindex(displayKey.getBytes(), 0));
+
+        codecAccess.setPageCodec(PageCodec.DEFLATE);
+        codecAccess.addNewDisplayPostList(testKeyString, deflatedPostList);
+        assertTrue(directToRedis.lindex(displayKey.getBytes(), 0).length < deflatedPostList.getSerializedSize());
+        directToRedis.disconnect();
+
+        List<PostList> postLists = Arrays.asList(deflatedPostList, rawPostList);
+        assertEquals(postLists, codecAccess.getAllDisplayPostLists(testKeyString));
+        assertEquals(postLists, codecAccess.getDisplayPostLists(testKeyString, 0, 1));
+        assertEquals(Optional.of(rawPostList), codecAccess.getDisplayPostList(testKeyString, 1));
+
+        codecAccess.replaceDisplayPostLists(testKeyString, postLists);
+        assertEquals(postLists, Lists.newArrayList(codecAccess.iterateDisplayPostLists(testKeyString, 1)));
+    }
+
+    @Test
+    public void testBatchWritesVersionEveryChannel() {
+        assumeTrue(redisTestsIncluded);
+
+        Map<String, List<PostList>> postListsByHashtag = new LinkedHashMap<>();
+        for (int i = 0; i < numTestPosts; i++) {
+            postListsByHashtag.put(testKeyString + i, Collections.singletonList(generatePostList(i + 1)));
+        }
+        new CachingAccessObject(redisAccessObject, 1 << 20).replaceHashTagPostLists(postListsByHashtag);
+
+        // every channel of the batch is versioned, so another cache over the same instance caches each of them
+        CachingAccessObject reader = new CachingAccessObject(redisAccessObject, 1 << 20);
+        for (int i = 0; i < numTestPosts; i++) {
+            reader.getHashTagPostList(testKeyString + i, 0);
+            assertEquals(Optional.of(postListsByHashtag.get(testKeyString + i).get(0)),
+                    reader.getHashTagPostList(testKeyString + i, 0));
+        }
+        assertEquals(numTestPosts.longValue(), reader.getHitCount());
+    }
+
+    @Test
+    public void testHashtagsAreReadAndReplacedInBatches() {
+        assumeTrue(redisTestsIncluded);
+
+        Map<String, List<PostList>> postListsByHashtag = new LinkedHashMap<>();
+        for (int i = 0; i < numTestPosts; i++) {
+            postListsByHashtag.put(testKeyString + i, Arrays.asList(generatePostList(i + 1), generatePostList(1)));
+        }
+        postListsByHashtag.put(testKeyString, Collections.emptyList());
+
+        assertEquals(2 * numTestPosts, redisAccessObject.replaceHashTagPostLists(postListsByHashtag));
+
+        // every hashtag reads back in the order requested, including the one replaced with no pages
+        List<String> hashtags = new ArrayList<>(postListsByHashtag.keySet());
+        Collections.reverse(hashtags);
+        Map<String, List<PostList>> read = redisAccessObject.getAllHashtagPostLists(hashtags);
+
+        assertEquals(hashtags, new ArrayList<>(read.keySet()));
+        assertEquals(postListsByHashtag, read);
+        assertEquals(postListsByHashtag.get(testKeyString + 0),
+                redisAccessObject.getAllHashtagPostLists(testKeyString + 0));
+        assertFalse(redisAccessObject.getAllHashTags().contains(testKeyString));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testStatisticsReportPoolUsage() {
+        assumeTrue(redisTestsIncluded);
+
+        RedisAccessObject statisticsAccess = new RedisAccessObject(redisUrl, redisPort);
+        statisticsAccess.addNewDisplayPostList(testKeyString, generatePostList(numTestPosts));
+        statisticsAccess.getDisplayPostList(testKeyString, 0);
+
+        Map<String, Object> statistics = statisticsAccess.getStatistics();
+        Map<String, Object> pool = (Map<String, Object>) statistics.get("pool");
+        Map<String, Object> borrowWait = (Map<String, Object>) statistics.get("borrowWait");
+
+        // every connection has been returned to the pool
+        assertEquals(0, pool.get("active"));
+        assertTrue((Integer) pool.get("idle") > 0);
+        assertEquals(0, pool.get("waiting"));
+        assertTrue((Long) borrowWait.get("count") >= 2);
+    }
+
     /*
        addTopHashtags tests
      */
@@ -0,0 +1,259 @@
+package DataAccessTests;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import redis.clients.jedis.BinaryJedis;
+import services.dataAccess.AbstractDataAccess;
+import services.dataAccess.GenerationAccessObject;
+import services.dataAccess.RetentionPolicy;
+import services.dataAccess.ShardedRedisAccessObject;
+import services.dataAccess.proto.PostListProto.PostList;
+import services.dataAccess.proto.PostProto.Post;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+import static services.PublicConstants.DATA_SOURCE;
+import static services.PublicConstants.REDIS_URLS;
+import static services.dataAccess.TestDataGenerator.generateListOfPosts;
+import static services.dataAccess.TestDataGenerator.generatePostList;
+
+/**
+ * <p>
+ * Tests functionality of services.dataAccess.ShardedRedisAccessObject
+ * on several real Redis instances.
+ * <p>
+ * The host:port of each instance must be specified, comma-separated,
+ * as an environment variable:
+ * <p>
+ * redis_urls="localhost:6380,localhost:6381,localhost:6382"
+ * <p>
+ * data_source="redis"
+ * must also be set. Tests of key placement alone run without Redis.
+ */
+public class ShardedRedisAccessTest {
+
+    private static final Integer numTestPosts = 10;
+    private static final int numTestKeys = 1000;
+    private static boolean shardedTestsIncluded = false;
+
+    private static List<String> endpoints;
+    private static ShardedRedisAccessObject shardedAccessObject;
+
+    @BeforeClass
+    public static void shardedTestSetUp() {
+        String dataSource = System.getenv(DATA_SOURCE);
+        String redisUrls = System.getenv(REDIS_URLS);
+        shardedTestsIncluded = dataSource != null && dataSource.equals("redis") && redisUrls != null;
+
+        endpoints = shardedTestsIncluded
+                ? Arrays.asList(redisUrls.split(","))
+                : Arrays.asList("localhost:6380", "localhost:6381", "localhost:6382");
+        shardedAccessObject = new ShardedRedisAccessObject(endpoints);
+    }
+
+    // Delete all data from every instance before and after each test
+    @Before
+    @After
+    public void emptyShards() {
+        if (shardedTestsIncluded) {
+            endpoints.forEach(endpoint -> {
+                BinaryJedis directToRedis = connect(endpoint);
+                directToRedis.flushAll();
+                directToRedis.disconnect();
+            });
+        }
+    }
+
+    @Test
+    public void testKeysAreSpreadEvenly() {
+        Map<String, Integer> keysPerEndpoint = new HashMap<>();
+
+        for (int i = 0; i < numTestKeys; i++) {
+            keysPerEndpoint.merge(shardedAccessObject.getEndpointOf(hashtagKey("tag" + i)), 1, Integer::sum);
+        }
+
+        // every instance holds a fair share of the keys
+        assertEquals(endpoints.size(), keysPerEndpoint.size());
+        keysPerEndpoint.values().forEach(numKeys -> assertTrue(numKeys > numTestKeys / endpoints.size() / 2));
+    }
+
+    @Test
+    public void testAddingShardOnlyMovesKeysToNewShard() {
+        List<String> moreEndpoints = new ArrayList<>(endpoints);
+        moreEndpoints.add("localhost:6399");
+        ShardedRedisAccessObject moreShards = new ShardedRedisAccessObject(moreEndpoints);
+
+        // reordering endpoints moves no keys
+        List<String> reversedEndpoints = new ArrayList<>(endpoints);
+        Collections.reverse(reversedEndpoints);
+        ShardedRedisAccessObject reordered = new ShardedRedisAccessObject(reversedEndpoints);
+
+        int numMoved = 0;
+        for (int i = 0; i < numTestKeys; i++) {
+            String key = hashtagKey("tag" + i);
+            String endpoint = shardedAccessObject.getEndpointOf(key);
+
+            assertEquals(endpoint, reordered.getEndpointOf(key));
+            if (!moreShards.getEndpointOf(key).equals(endpoint)) {
+                assertEquals("localhost:6399", moreShards.getEndpointOf(key));
+                numMoved++;
+            }
+        }
+
+        assertTrue(numMoved > 0);
+        assertTrue(numMoved < numTestKeys / 2);
+    }
+
+    @Test
+    public void testChannelsAreStoredOnTheirShard() {
+        assumeTrue(shardedTestsIncluded);
+
+        PostList postList = generatePostList(numTestPosts);
+        for (int i = 0; i < numTestPosts; i++) {
+            shardedAccessObject.replaceHashTagPostLists("tag" + i, Collections.singletonList(postList));
+        }
+
+        for (int i = 0; i < numTestPosts; i++) {
+            String key = hashtagKey("tag" + i);
+            BinaryJedis directToRedis = connect(shardedAccessObject.getEndpointOf(key));
+            assertTrue(directToRedis.exists(key.getBytes()));
+            directToRedis.disconnect();
+
+            assertEquals(Optional.of(postList), shardedAccessObject.getHashTagPostList("tag" + i, 0));
+        }
+    }
+
+    @Test
+    public void testBatchesAreSplitAcrossShards() {
+        assumeTrue(shardedTestsIncluded);
+
+        Map<String, List<PostList>> postListsByHashtag = new LinkedHashMap<>();
+        for (int i = 0; i < numTestPosts; i++) {
+            postListsByHashtag.put("tag" + i, Collections.singletonList(generatePostList(i + 1)));
+        }
+        assertEquals(numTestPosts.longValue(), shardedAccessObject.replaceHashTagPostLists(postListsByHashtag));
+
+        for (int i = 0; i < numTestPosts; i++) {
+            String key = hashtagKey("tag" + i);
+            BinaryJedis directToRedis = connect(shardedAccessObject.getEndpointOf(key));
+            assertTrue(directToRedis.exists(key.getBytes()));
+            directToRedis.disconnect();
+        }
+
+        // results of every shard are combined in the order requested
+        List<String> hashtags = new ArrayList<>(postListsByHashtag.keySet());
+        Collections.reverse(hashtags);
+        Map<String, List<PostList>> read = shardedAccessObject.getAllHashtagPostLists(hashtags);
+
+        assertEquals(hashtags, new ArrayList<>(read.keySet()));
+        assertEquals(postListsByHashtag, read);
+    }
+
+    @Test
+    public void testNamespaceOperationsCoverEveryShard() {
+        assumeTrue(shardedTestsIncluded);
+
+        List<Post> posts = generateListOfPosts(numTestPosts);
+        for (int i = 0; i < numTestPosts; i++) {
+            shardedAccessObject.addNewPostsFromSource("source" + i, posts);
+            shardedAccessObject.addNewHashTagPostList("tag" + i, generatePostList(1));
+        }
+
+        // keys are spread over more than one instance
+        Set<String> usedEndpoints = shardedAccessObject.getSources().stream()
+                .map(source -> shardedAccessObject.getEndpointOf(AbstractDataAccess.getSourceNamespace()
+                        + AbstractDataAccess.getNamespaceDelimiter() + source))
+                .collect(Collectors.toSet());
+        assertTrue(usedEndpoints.size() > 1);
+
+        assertEquals(numTestPosts * numTestPosts, shardedAccessObject.getNumPostsInSources());
+        assertEquals(numTestPosts.intValue(), shardedAccessObject.getSources().size());
+        assertEquals(numTestPosts.intValue(), shardedAccessObject.getAllHashTags().size());
+    }
+
+    @Test
+    public void testRetentionPolicyAppliesOnEveryShard() {
+        assumeTrue(shardedTestsIncluded);
+
+        List<PostList> postLists = new ArrayList<>();
+        for (int i = 0; i < numTestPosts; i++) {
+            postLists.add(generatePostList(i + 1));
+        }
+
+        ShardedRedisAccessObject policyAccess = new ShardedRedisAccessObject(endpoints);
+        policyAccess.setRetentionPolicy(AbstractDataAccess.getHashtagNamespace(),
+                new RetentionPolicy(AbstractDataAccess.getDefaultRetentionPolicy().getTimeToLive(), 2, true));
+
+        for (int i = 0; i < numTestPosts; i++) {
+            policyAccess.replaceHashTagPostLists("tag" + i, postLists);
+            assertEquals(postLists.subList(0, 2), policyAccess.getAllHashtagPostLists("tag" + i));
+        }
+    }
+
+    @Test
+    public void testGenerationsArePublishedAcrossShards() {
+        assumeTrue(shardedTestsIncluded);
+
+        List<PostList> postLists = Collections.singletonList(generatePostList(numTestPosts));
+
+        // a data store of its own, as the channel keys it looks up in the published generation outlive the flush
+        ShardedRedisAccessObject shardedAccess = new ShardedRedisAccessObject(endpoints);
+
+        GenerationAccessObject generation = new GenerationAccessObject(shardedAccess);
+        for (int i = 0; i < numTestPosts; i++) {
+            generation.replaceHashTagPostLists("tag" + i, postLists);
+        }
+        assertEquals(Collections.emptyList(), shardedAccess.getAllHashTags());
+
+        generation.publish();
+
+        assertEquals(generation.getGeneration(), shardedAccess.getPublishedGeneration());
+        assertEquals(numTestPosts.intValue(), shardedAccess.getAllHashTags().size());
+        assertEquals(postLists, shardedAccess.getAllHashtagPostLists("tag0"));
+    }
+
+    @Test
+    public void testPushToGenerationCopiesPublishedChannelAcrossShards() {
+        assumeTrue(shardedTestsIncluded);
+
+        List<PostList> postLists = Arrays.asList(generatePostList(numTestPosts), generatePostList(numTestPosts));
+        PostList postList = generatePostList(numTestPosts);
+        ShardedRedisAccessObject shardedAccess = new ShardedRedisAccessObject(endpoints);
+
+        GenerationAccessObject published = new GenerationAccessObject(shardedAccess);
+        for (int i = 0; i < numTestPosts; i++) {
+            published.replaceHashTagPostLists("tag" + i, postLists);
+        }
+        published.publish();
+
+        // versions of a channel in two generations are usually on different shards, and are copied between them
+        GenerationAccessObject generation = new GenerationAccessObject(shardedAccess);
+        for (int i = 0; i < numTestPosts; i++) {
+            generation.addNewHashTagPostList("tag" + i, postList);
+        }
+        generation.publish();
+
+        List<PostList> expected = new ArrayList<>();
+        expected.add(postList);
+        expected.addAll(postLists);
+        for (int i = 0; i < numTestPosts; i++) {
+            assertEquals(expected, shardedAccess.getAllHashtagPostLists("tag" + i));
+        }
+    }
+
+    private static String hashtagKey(String hashtag) {
+        return AbstractDataAccess.getHashtagNamespace() + AbstractDataAccess.getNamespaceDelimiter() + hashtag;
+    }
+
+    private static BinaryJedis connect(String endpoint) {
+        String[] hostAndPort = endpoint.trim().split(":");
+        BinaryJedis directToRedis = new BinaryJedis(hostAndPort[0], Integer.parseInt(hostAndPort[1]));
+        directToRedis.connect();
+        return directToRedis;
+    }
+}
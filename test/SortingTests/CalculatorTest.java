@@ -3,6 +3,7 @@ package SortingTests;
 import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import services.dataAccess.proto.PostProto.Post;
 import services.sorting.Calculator;
@@ -18,7 +19,7 @@ public class CalculatorTest {
 
     @Before
     public void calculatorTestClassSetup() {
-        calc = new Calculator();
+        calc = new Calculator(Calculator.ScoreMode.LINEAR);
     }
 
     @Test
@@ -152,4 +153,44 @@ public class CalculatorTest {
         assertEquals(0, calc.calculatePopularityVelocity(newPost, oldPost).getPopularityVelocity());
     }
 
+    @Test
+    public void testHotScoresAreTimeInvariant() {
+        Calculator hot = new Calculator(Calculator.ScoreMode.HOT);
+        Post post = generateListOfPosts(1).get(0);
+
+        // a time-invariant score depends only on the post, not on when it is calculated
+        assertTrue(hot.isTimeInvariant());
+        assertEquals(hot.calculatePopularity(post), hot.calculatePopularity(post));
+        assertEquals(hot.calculatePopularity(post), hot.calculatePopularityAndRebuild(post).getPopularityScore());
+    }
+
+    @Test
+    public void testHotScoresRankNewerAndMoreEngagingPostsHigher() {
+        Calculator hot = new Calculator(Calculator.ScoreMode.HOT);
+        long now = System.currentTimeMillis();
+        long hotDecayTime = 45000000;
+        Post post = generateListOfPosts(1).get(0).toBuilder()
+                .setNumComments(0).setNumShares(0).setNumLikes(1000).setTimestamp(now).build();
+
+        Post older = post.toBuilder().setTimestamp(now - hotDecayTime).build();
+        Post olderAndMoreLiked = older.toBuilder().setNumLikes(10000).build();
+
+        // a post needs ten times the engagement to match a post one decay time newer
+        assertTrue(hot.calculatePopularity(post) > hot.calculatePopularity(older));
+        assertEquals(hot.calculatePopularity(post), hot.calculatePopularity(olderAndMoreLiked), 1);
+    }
+
+    @Test
+    public void testHotPopularityUsesEngagementAndExpiry() {
+        Calculator hot = new Calculator(Calculator.ScoreMode.HOT);
+        Post post = hot.calculatePopularityAndRebuild(generateListOfPosts(1).get(0).toBuilder()
+                .setNumComments(0).setNumShares(0).setNumLikes(1000).setTimestamp(System.currentTimeMillis()).build());
+        Post expired = post.toBuilder()
+                .setTimestamp(System.currentTimeMillis() - Calculator.getPostExpiry() - 1).build();
+
+        assertTrue(hot.isPopular(post, 100));
+        assertFalse(hot.isPopular(post, 1000));
+        assertTrue(hot.isExpired(expired));
+        assertFalse(hot.isPopular(expired, 100));
+    }
 }
@@ -6,8 +6,12 @@ import org.junit.Test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import services.dataAccess.AbstractDataAccess;
+import services.dataAccess.GenerationAccessObject;
 import services.dataAccess.InMemoryAccessObject;
+import services.dataAccess.proto.PostListProto.PostList;
 import services.dataAccess.proto.PostProto.Post;
+import services.sorting.Calculator;
 import services.sorting.PostSorter.AbstractPostSorter;
 import services.sorting.PostSorter.HashtagPostSorter;
 
@@ -16,6 +20,7 @@ import static org.junit.Assume.assumeTrue;
 import static services.dataAccess.TestDataGenerator.generateListOfPosts;
 
 import java.util.*;
+import java.util.stream.Collectors;
 
 public class HashtagPostSorterTest {
 
@@ -78,6 +83,95 @@ public class HashtagPostSorterTest {
         assertEquals(Collections.emptyList(), data.getAllHashTags());
     }
 
+    @Test
+    public void testLoadOnlyRewritesHashtagsWithNewPosts() {
+        List<Post> oldPosts = generateListOfPosts(100);
+        List<Post> newPosts = generateListOfPosts(100);
+
+        Map<String, List<Post>> oldSorted = sorter.sort(oldPosts);
+        sorter.load(oldSorted);
+
+        // a hashtag whose posts are all new, and one whose stored pages should be left alone
+        String newHashtag = "new" + UUID.randomUUID();
+        newPosts.set(0, newPosts.get(0).toBuilder().addHashtag(newHashtag).build());
+        Map<String, List<Post>> newSorted = sorter.sort(newPosts);
+
+        String oldHashtag = oldSorted.keySet().stream()
+                .filter(hashtag -> !newSorted.containsKey(hashtag))
+                .findFirst()
+                .orElse(null);
+        assumeTrue(oldHashtag != null);
+        List<PostList> oldPages = data.getAllHashtagPostLists(oldHashtag);
+
+        long numPages = sorter.load(newSorted);
+
+        assertEquals(oldPages, data.getAllHashtagPostLists(oldHashtag));
+        assertEquals(Collections.singletonList(newPosts.get(0).getId()),
+                sorter.expandPostLists(data.getAllHashtagPostLists(newHashtag)).stream()
+                        .map(Post::getId)
+                        .collect(Collectors.toList()));
+        assertTrue(numPages >= newSorted.size());
+
+        // hashtags shared by both loads hold the posts of both
+        newSorted.keySet().stream().filter(oldSorted::containsKey).forEach(hashtag -> {
+            Set<String> ids = new HashSet<>();
+            sorter.expandPostLists(data.getAllHashtagPostLists(hashtag)).forEach(post -> ids.add(post.getId()));
+            oldSorted.get(hashtag).forEach(post -> assertTrue(ids.contains(post.getId())));
+            newSorted.get(hashtag).forEach(post -> assertTrue(ids.contains(post.getId())));
+        });
+    }
+
+    @Test
+    public void testPublishedLoadLeavesOtherHashtagsInPlace() {
+        Map<String, List<Post>> oldSorted = sorter.sort(generateListOfPosts(100));
+        sorter.load(oldSorted);
+
+        String newHashtag = "new" + UUID.randomUUID();
+        Post newPost = generateListOfPosts(1).get(0).toBuilder()
+                .clearHashtag().addHashtag(newHashtag).setNumLikes(1000).build();
+
+        GenerationAccessObject generation = new GenerationAccessObject(data);
+        new HashtagPostSorter(generation).load(sorter.sort(Collections.singletonList(newPost)));
+        generation.publish();
+
+        // only the loaded hashtag has a channel in the new generation; every other channel is where it was
+        List<String> keys = data.getKeysInNameSpace(AbstractDataAccess.getHashtagNamespace());
+        assertEquals(oldSorted.size() + 1, keys.size());
+        oldSorted.keySet().forEach(hashtag -> assertTrue(keys.contains(AbstractDataAccess.getHashtagNamespace()
+                + AbstractDataAccess.getNamespaceDelimiter() + hashtag)));
+        assertEquals(oldSorted.size() + 1, data.getAllHashTags().size());
+    }
+
+    @Test
+    public void testSweepRemovesExpiredPosts() {
+        List<Post> livePosts = generateListOfPosts(10);
+        List<Post> expiredPosts = generateListOfPosts(10).stream()
+                .map(post -> post.toBuilder().setTimestamp(System.currentTimeMillis() - 2 * Calculator.getPostExpiry())
+                        .build())
+                .collect(Collectors.toList());
+        List<Post> mixedPosts = new ArrayList<>(livePosts);
+        mixedPosts.addAll(expiredPosts);
+
+        HashtagPostSorter hashtagSorter = new HashtagPostSorter(data);
+        data.replaceHashTagPostLists("stale", hashtagSorter.preparePages(expiredPosts));
+        data.replaceHashTagPostLists("mixed", hashtagSorter.preparePages(mixedPosts));
+        data.replaceHashTagPostLists("live", hashtagSorter.preparePages(livePosts));
+        data.replaceHashTagPostLists("loaded", hashtagSorter.preparePages(expiredPosts));
+        List<PostList> loadedPages = data.getAllHashtagPostLists("loaded");
+
+        // only the channel holding nothing but expired posts is deleted
+        assertEquals(1, hashtagSorter.sweep(Collections.singleton("loaded")));
+
+        assertEquals(Collections.emptyList(), data.getAllHashtagPostLists("stale"));
+        assertEquals(new HashSet<>(livePosts),
+                new HashSet<>(hashtagSorter.expandPostLists(data.getAllHashtagPostLists("mixed"))));
+        assertEquals(new HashSet<>(livePosts),
+                new HashSet<>(hashtagSorter.expandPostLists(data.getAllHashtagPostLists("live"))));
+
+        // channels just loaded are not swept
+        assertEquals(loadedPages, data.getAllHashtagPostLists("loaded"));
+    }
+
     /**
      * Returns the first post within the specified list with 2 or more hashtags
      * @param posts list of posts
@@ -0,0 +1,110 @@
+package SortingTests;
+
+import org.junit.Before;
+import org.junit.Test;
+import services.dataAccess.proto.PostProto.Post;
+import services.sorting.PostSorter.RankedPosts;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class RankedPostsTest {
+
+    private static final int THRESHOLD = 100;
+
+    private RankedPosts ranking;
+
+    @Before
+    public void rankedPostsTestSetup() {
+        ranking = new RankedPosts();
+    }
+
+    @Test
+    public void testPostsAreRankedByDecreasingScore() {
+        ranking.put(post("a", 200));
+        ranking.put(post("b", 500));
+        ranking.put(post("c", 300));
+        ranking.put(post("d", 300));
+
+        // equal scores are ranked by ID
+        assertEquals(Arrays.asList("b", "c", "d", "a"), ids(ranking.toList()));
+    }
+
+    @Test
+    public void testPutReplacesPostOfSameId() {
+        ranking.put(post("a", 200));
+        ranking.put(post("b", 300));
+        ranking.put(post("a", 400));
+
+        assertEquals(2, ranking.size());
+        assertEquals(Arrays.asList("a", "b"), ids(ranking.toList()));
+        assertEquals(400, ranking.get("a").get().getPopularityScore());
+
+        assertTrue(ranking.remove("a"));
+        assertFalse(ranking.remove("a"));
+        assertEquals(Collections.singletonList("b"), ids(ranking.toList()));
+    }
+
+    @Test
+    public void testRescoreMovesOnlyChangedPosts() {
+        ranking.put(post("a", 200));
+        ranking.put(post("b", 300));
+        ranking.put(post("c", 400));
+
+        // a rises to the top, c drops below the threshold, and b is unchanged
+        Map<String, Integer> newScores = new HashMap<>();
+        newScores.put("a", 1000);
+        newScores.put("b", 300);
+        newScores.put("c", THRESHOLD - 1);
+
+        assertEquals(2, ranking.rescore(post -> newScores.get(post.getId()),
+                post -> post.getPopularityScore() >= THRESHOLD));
+        assertEquals(Arrays.asList("a", "b"), ids(ranking.toList()));
+        assertEquals(Optional.empty(), ranking.get("c"));
+    }
+
+    @Test
+    public void testRemovePostedBeforeRemovesOnlyOlderPosts() {
+        ranking.put(post("a", 200).toBuilder().setTimestamp(1000).build());
+        ranking.put(post("b", 300).toBuilder().setTimestamp(3000).build());
+        ranking.put(post("c", 400).toBuilder().setTimestamp(2000).build());
+
+        assertEquals(2, ranking.removePostedBefore(3000));
+        assertEquals(Collections.singletonList("b"), ids(ranking.toList()));
+        assertEquals(0, ranking.removePostedBefore(3000));
+    }
+
+    @Test
+    public void testTruncateRemovesLowestRankedPosts() {
+        ranking.put(post("a", 200));
+        ranking.put(post("b", 500));
+        ranking.put(post("c", 300));
+
+        assertEquals(1, ranking.truncate(2));
+        assertEquals(Arrays.asList("b", "c"), ids(ranking.toList()));
+        assertEquals(Optional.empty(), ranking.get("a"));
+        assertEquals(0, ranking.truncate(2));
+    }
+
+    @Test
+    public void testClearForgetsGeneration() {
+        ranking.put(post("a", 200));
+        ranking.setGeneration(7);
+
+        ranking.clear();
+
+        assertTrue(ranking.isEmpty());
+        assertEquals(-1, ranking.getGeneration());
+    }
+
+    private static Post post(String id, int score) {
+        return Post.newBuilder().setId(id).setPopularityScore(score).build();
+    }
+
+    private static List<String> ids(List<Post> posts) {
+        List<String> ids = new ArrayList<>();
+        posts.forEach(post -> ids.add(post.getId()));
+        return ids;
+    }
+}
@@ -10,10 +10,14 @@ import services.dataAccess.proto.PostProto.Post;
 import services.sorting.Calculator;
 import services.sorting.SortingNode;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static services.dataAccess.TestDataGenerator.generateListOfPosts;
 
@@ -45,6 +49,98 @@ public class SortingNodeTest {
         assertTrue(data.getKeysInNameSpace(AbstractDataAccess.getHashtagNamespace()).size() > 0);
     }
 
+    @Test
+    public void testSortingNodePublishesGeneration() {
+        data.addNewPostsFromSource(TEST, generateListOfPosts(10000));
+        node.sort();
+        long firstGeneration = data.getPublishedGeneration();
+
+        data.addNewPostsFromSource(TEST, generateListOfPosts(10000));
+        node.sort();
+
+        // each sort publishes a new generation, and every sorted channel belongs to one of the two generations
+        long secondGeneration = data.getPublishedGeneration();
+        assertTrue(firstGeneration > 0);
+        assertTrue(secondGeneration > firstGeneration);
+        data.getKeysInNameSpace(AbstractDataAccess.getDisplayNamespace()).forEach(key -> assertTrue(
+                key.startsWith(AbstractDataAccess.getDisplayNamespace() + ":g" + firstGeneration + ":")
+                        || key.startsWith(AbstractDataAccess.getDisplayNamespace() + ":g" + secondGeneration + ":")));
+    }
+
+    @Test
+    public void testSortingNodeTimesEveryStage() {
+        data.addNewPostsFromSource(TEST, generateListOfPosts(10000));
+        node.sort();
+
+        Map<String, Long> stageMillis = node.getStageMillis();
+        for (String stage : Arrays.asList("gather", "score", "sort top", "sort trending", "sort hashtags", "load top",
+                "load trending", "load hashtags", "sweep hashtags", "load top hashtags", "publish")) {
+            assertTrue(stageMillis.containsKey(stage));
+        }
+
+        // top hashtags are sorted from the loaded and swept hashtag channels, so complete after them
+        List<String> stages = new ArrayList<>(stageMillis.keySet());
+        assertTrue(stages.indexOf("sweep hashtags") > stages.indexOf("load hashtags"));
+        assertTrue(stages.indexOf("load top hashtags") > stages.indexOf("sweep hashtags"));
+        assertEquals("publish", stages.get(stages.size() - 1));
+    }
+
+    @Test
+    public void testSortingNodeSweepsHashtagsPeriodically() {
+        data.addNewPostsFromSource(TEST, generateListOfPosts(10000));
+        node.sort();
+        assertTrue(node.getStageMillis().containsKey("sweep hashtags"));
+
+        // the next sort follows well within the sweep interval, so only loads the hashtags of its new posts
+        data.addNewPostsFromSource(TEST, generateListOfPosts(10000));
+        node.sort();
+        assertTrue(node.getStageMillis().containsKey("load hashtags"));
+        assertFalse(node.getStageMillis().containsKey("sweep hashtags"));
+    }
+
+    @Test
+    public void testRestartedSortingNodeDoesNotSweepAgain() {
+        data.addNewPostsFromSource(TEST, generateListOfPosts(10000));
+        node.sort();
+        assertTrue(node.getStageMillis().containsKey("sweep hashtags"));
+
+        // the time of the last sweep is kept in the data store, not by the node
+        SortingNode restarted = new SortingNode(data, notification);
+        data.addNewPostsFromSource(TEST, generateListOfPosts(10000));
+        restarted.sort();
+        assertFalse(restarted.getStageMillis().containsKey("sweep hashtags"));
+        assertTrue(data.getLastHashtagSweep() > 0);
+    }
+
+    @Test
+    public void testTopHashtagsAreRankedBetweenSweeps() {
+        data.addNewPostsFromSource(TEST, generateListOfPosts(10000));
+        node.sort();
+
+        // a hashtag with more pages than any other, loaded by a sort which does not sweep
+        String newHashtag = "new" + TEST;
+        List<Post> posts = new ArrayList<>();
+        generateListOfPosts(10000).forEach(post ->
+                posts.add(post.toBuilder().addHashtag(newHashtag).setNumLikes(1000).build()));
+        data.addNewPostsFromSource(TEST, posts);
+        node.sort();
+
+        assertFalse(node.getStageMillis().containsKey("sweep hashtags"));
+        assertEquals(newHashtag, data.getTopHashTags(1).get(0));
+    }
+
+    @Test
+    public void testSortingNodeDrainsBoundedBatch() {
+        int numRemaining = 10;
+        List<Post> posts = generateListOfPosts(SortingNode.getMaxPostsPerSource() + numRemaining);
+        data.addNewPostsFromSource(TEST, posts);
+
+        node.sort();
+
+        // posts beyond the batch size should remain queued for the next sort
+        assertEquals(numRemaining, data.getNumPostsInSources());
+    }
+
     @Test
     public void testSortingNodeUnderThreshold() {
         List<Post> posts = generateListOfPosts((int) (SortingNode.getProcessInputThreshold() / 2));
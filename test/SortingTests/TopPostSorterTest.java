@@ -4,9 +4,13 @@ import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assume.assumeTrue;
 import services.dataAccess.AbstractDataAccess;
+import services.dataAccess.GenerationAccessObject;
 import services.dataAccess.InMemoryAccessObject;
+import services.dataAccess.RetentionPolicy;
 import services.dataAccess.proto.PostProto.Post;
+import services.sorting.Calculator;
 import services.sorting.PostSorter.AbstractPostSorter;
+import services.sorting.PostSorter.RankedPosts;
 import services.sorting.PostSorter.TopPostSorter;
 
 import java.util.*;
@@ -20,6 +24,7 @@ public class TopPostSorterTest {
 
     private AbstractPostSorter sorter;
     private AbstractDataAccess data;
+    private Calculator calc = new Calculator();
 
     @Before
     public void topPostSorterTestSetup() {
@@ -91,8 +96,99 @@ public class TopPostSorterTest {
 
         // All posts should be at or above the popularity threshold
         for (Post post : sorted.get(TOP)) {
-            assertTrue(post.getPopularityScore() >= popularityThreshold);
+            assertTrue(calc.isPopular(post, popularityThreshold));
         }
 
     }
+
+    @Test
+    public void testRankingIsKeptBetweenSorts() {
+        RankedPosts ranking = new RankedPosts();
+        List<Post> firstPosts = calc.calculatePopularityScoreOfAllPosts(generateListOfPosts(10));
+        List<Post> secondPosts = calc.calculatePopularityScoreOfAllPosts(renumber(generateListOfPosts(10), "second"));
+
+        new TopPostSorter(data, ranking).sort(firstPosts);
+
+        // the second sort ranks its posts among those already ranked, without reading the (still empty) top channel
+        List<Post> sorted = new TopPostSorter(data, ranking).sort(secondPosts).get(TOP);
+        Set<String> expectedIds = new HashSet<>();
+        firstPosts.stream().filter(this::isTop).forEach(post -> expectedIds.add(post.getId()));
+        secondPosts.stream().filter(this::isTop).forEach(post -> expectedIds.add(post.getId()));
+
+        assertEquals(expectedIds.size(), sorted.size());
+        sorted.forEach(post -> assertTrue(expectedIds.contains(post.getId())));
+        assertEquals(Collections.emptyList(), data.getAllDisplayPostLists(TOP));
+    }
+
+    @Test
+    public void testUpdatedPostReplacesRankedVersion() {
+        RankedPosts ranking = new RankedPosts();
+        Post post = calc.calculatePopularityAndRebuild(generateListOfPosts(1).get(0));
+        new TopPostSorter(data, ranking).sort(Collections.singletonList(post));
+
+        // the same post, now with fewer likes than needed to stay in the top channel
+        Post updated = calc.calculatePopularityAndRebuild(post.toBuilder().setNumLikes(0).setNumComments(0)
+                .setNumShares(0).build());
+        List<Post> sorted = new TopPostSorter(data, ranking).sort(Collections.singletonList(updated)).get(TOP);
+
+        assertEquals(Collections.emptyList(), sorted);
+        assertEquals(0, ranking.size());
+    }
+
+    @Test
+    public void testRankingIsRebuiltAfterAnotherPublish() {
+        RankedPosts ranking = new RankedPosts();
+        new TopPostSorter(data, ranking).sort(calc.calculatePopularityScoreOfAllPosts(generateListOfPosts(10)));
+
+        // another sorting node publishes a top channel holding other posts
+        List<Post> publishedPosts = calc.calculatePopularityScoreOfAllPosts(renumber(generateListOfPosts(10), "other"));
+        GenerationAccessObject generation = new GenerationAccessObject(data);
+        AbstractPostSorter otherSorter = new TopPostSorter(generation);
+        otherSorter.load(otherSorter.sort(publishedPosts));
+        generation.publish();
+
+        List<Post> sorted = new TopPostSorter(data, ranking).sort(Collections.emptyList()).get(TOP);
+
+        assertEquals(publishedPosts.stream().filter(this::isTop).count(), sorted.size());
+        sorted.forEach(post -> assertTrue(post.getId().startsWith("other")));
+        assertEquals(generation.getGeneration(), ranking.getGeneration());
+    }
+
+    @Test
+    public void testPostsBeyondChannelLimitAreDropped() {
+        int maxPostLists = 2;
+        int maxPosts = maxPostLists * AbstractPostSorter.getPageLimit();
+        int timeToLive = AbstractDataAccess.getDefaultRetentionPolicy().getTimeToLive();
+        data.setRetentionPolicy(AbstractDataAccess.getDisplayNamespace(),
+                new RetentionPolicy(timeToLive, maxPostLists, true));
+
+        RankedPosts ranking = new RankedPosts();
+        List<Post> posts = new ArrayList<>();
+        generateListOfPosts(maxPosts + AbstractPostSorter.getPageLimit()).forEach(post ->
+                posts.add(calc.calculatePopularityAndRebuild(post.toBuilder().setNumLikes(1000).build())));
+
+        // only as many posts as the top channel keeps stay ranked, and those dropped ranked lowest
+        List<Post> sorted = new TopPostSorter(data, ranking).sort(posts).get(TOP);
+        assertEquals(maxPosts, sorted.size());
+        assertEquals(maxPosts, ranking.size());
+
+        int lowestKeptScore = sorted.get(sorted.size() - 1).getPopularityScore();
+        posts.stream()
+                .filter(post -> !ranking.get(post.getId()).isPresent())
+                .forEach(post -> assertTrue(post.getPopularityScore() <= lowestKeptScore));
+
+        // the ranking stays bounded from one sort to the next
+        new TopPostSorter(data, ranking).sort(Collections.emptyList());
+        assertTrue(ranking.size() <= maxPosts);
+    }
+
+    private boolean isTop(Post post) {
+        return calc.isPopular(post, TopPostSorter.getPopularityThreshold());
+    }
+
+    private static List<Post> renumber(List<Post> posts, String prefix) {
+        List<Post> renumbered = new ArrayList<>();
+        posts.forEach(post -> renumbered.add(post.toBuilder().setId(prefix + post.getId()).build()));
+        return renumbered;
+    }
 }
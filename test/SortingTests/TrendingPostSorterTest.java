@@ -7,7 +7,9 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assume.assumeTrue;
 
 import services.dataAccess.AbstractDataAccess;
+import services.dataAccess.GenerationAccessObject;
 import services.dataAccess.InMemoryAccessObject;
+import services.dataAccess.proto.PostListProto.PostList;
 import services.dataAccess.proto.PostProto.Post;
 import services.sorting.Calculator;
 import services.sorting.PostSorter.AbstractPostSorter;
@@ -82,6 +84,28 @@ public class TrendingPostSorterTest {
         assertEquals(posts, stored);
     }
 
+    @Test
+    public void testLoadTransfersOnlyNewPages() {
+        int numPages = 5;
+        PageCountingAccessObject store = new PageCountingAccessObject();
+        Map<String, List<Post>> trendingMap = new HashMap<>();
+        trendingMap.put(TRENDING, generateListOfPosts(numPages * AbstractPostSorter.getPageLimit()));
+
+        for (int sort = 1; sort <= 3; sort++) {
+            GenerationAccessObject generation = new GenerationAccessObject(store);
+            store.numPagesRead = 0;
+            store.numPagesWritten = 0;
+
+            new TrendingPostSorter(generation).load(trendingMap);
+            generation.publish();
+
+            // published pages of trending are copied within the data store, and only the new pages are written
+            assertEquals(0, store.numPagesRead);
+            assertEquals(numPages, store.numPagesWritten);
+            assertEquals(sort * numPages, store.getAllDisplayPostLists(TRENDING).size());
+        }
+    }
+
     /**
      * Ages a list of posts by decreasing each post's timestamp by a set amount, and decreasing its number of likes,
      * shares, and comments by random amounts.
@@ -112,4 +136,38 @@ public class TrendingPostSorterTest {
 
         return oldPosts;
     }
+
+    /**
+     * In-memory data store counting the pages read out of it and written into it
+     */
+    private static class PageCountingAccessObject extends InMemoryAccessObject {
+        int numPagesRead = 0;
+        int numPagesWritten = 0;
+
+        @Override
+        protected List<PostList> getAllPostLists(String keyString) {
+            List<PostList> postLists = super.getAllPostLists(keyString);
+            numPagesRead += postLists.size();
+            return postLists;
+        }
+
+        @Override
+        protected List<PostList> getPostListRange(String keyString, int from, int to) {
+            List<PostList> postLists = super.getPostListRange(keyString, from, to);
+            numPagesRead += postLists.size();
+            return postLists;
+        }
+
+        @Override
+        protected long addNewPostLists(String keyString, List<PostList> postLists) {
+            numPagesWritten += postLists.size();
+            return super.addNewPostLists(keyString, postLists);
+        }
+
+        @Override
+        protected long replacePostLists(String keyString, List<PostList> postLists) {
+            numPagesWritten += postLists.size();
+            return super.replacePostLists(keyString, postLists);
+        }
+    }
 }